@@ -0,0 +1,105 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.Call;
+import gov.nasa.jpl.ae.event.DurativeEvent;
+import gov.nasa.jpl.ae.event.Expression;
+import gov.nasa.jpl.ae.event.Functions;
+import gov.nasa.jpl.ae.event.IntegerParameter;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link gov.nasa.jpl.ae.event.Call#evaluate(boolean)} on {@link Functions}
+ * expressions: a balanced tree of {@link Functions.Plus} and
+ * {@link Functions.Times} over integer parameters. The calls invoke their
+ * members through MethodHandles or through reflection, as
+ * {@link Call#usingMethodHandles} says, so the two can be compared.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class CallBenchmark {
+
+  /**
+   * The number of levels of calls in the tree
+   */
+  @Param( { "1", "4", "8" } )
+  public int depth;
+
+  /**
+   * Whether the calls use MethodHandles instead of reflection
+   */
+  @Param( { "true", "false" } )
+  public boolean usingMethodHandles;
+
+  protected DurativeEvent owner;
+  protected IntegerParameter x;
+  protected IntegerParameter y;
+  protected Functions.Binary< Integer, Integer > call;
+  protected int next = 0;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    // Calls bind their members when first evaluated, so this must be set
+    // before the tree is made.
+    Call.usingMethodHandles = usingMethodHandles;
+    owner = new DurativeEvent( "owner" );
+    x = new IntegerParameter( "x", 3, owner );
+    y = new IntegerParameter( "y", 5, owner );
+    call = tree( depth );
+  }
+
+  protected Functions.Binary< Integer, Integer > tree( int levels ) {
+    Expression< Integer > left;
+    Expression< Integer > right;
+    if ( levels <= 1 ) {
+      left = new Expression< Integer >( x );
+      right = new Expression< Integer >( y );
+    } else {
+      left = new Expression< Integer >( tree( levels - 1 ) );
+      right = new Expression< Integer >( tree( levels - 1 ) );
+    }
+    if ( levels % 2 == 0 ) {
+      return new Functions.Times< Integer, Integer >( left, right );
+    }
+    return new Functions.Plus< Integer, Integer >( left, right );
+  }
+
+  /**
+   * Evaluate the tree with the same arguments.
+   */
+  @Benchmark
+  public Object evaluate() throws Exception {
+    return call.evaluate( false );
+  }
+
+  /**
+   * Change an argument and evaluate the tree again.
+   */
+  @Benchmark
+  public Object evaluateChanged() throws Exception {
+    next = ( next + 1 ) & 0xff;
+    x.setValue( next );
+    return call.evaluate( false );
+  }
+
+}
@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.ConstraintExpression;
+import gov.nasa.jpl.ae.event.DurativeEvent;
+import gov.nasa.jpl.ae.event.Expression;
+import gov.nasa.jpl.ae.event.Functions;
+import gov.nasa.jpl.ae.event.IntegerParameter;
+import gov.nasa.jpl.ae.solver.Constraint;
+import gov.nasa.jpl.ae.solver.ConstraintLoopSolver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ConstraintLoopSolver#solve(java.util.Collection)} on generated
+ * networks of integer variables. Each variable is constrained to be less than
+ * the next one in a chain and to equal the sum of two others, so each
+ * variable is in several constraints. The variables get new random values
+ * before each solve.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 20 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class ConstraintSolverBenchmark {
+
+  @Param( { "10", "100", "1000" } )
+  public int numVariables;
+
+  @Param( { "false", "true" } )
+  public boolean parallel;
+
+  protected DurativeEvent owner;
+  protected List< IntegerParameter > variables;
+  protected List< Constraint > constraints;
+  protected Random random;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    owner = new DurativeEvent( "network" );
+    variables = new ArrayList< IntegerParameter >( numVariables );
+    for ( int i = 0; i < numVariables; ++i ) {
+      variables.add( new IntegerParameter( "x" + i, 0, owner ) );
+    }
+    constraints = new ArrayList< Constraint >();
+    random = new Random( 1 );
+    for ( int i = 0; i + 1 < numVariables; ++i ) {
+      constraints.add( new ConstraintExpression(
+          new Functions.Less< Integer >( new Expression< Integer >( variables.get( i ) ),
+                                         new Expression< Integer >( variables.get( i + 1 ) ) ) ) );
+    }
+    for ( int i = 2; i < numVariables; i += 3 ) {
+      IntegerParameter a = variables.get( random.nextInt( i ) );
+      IntegerParameter b = variables.get( random.nextInt( i ) );
+      constraints.add( new ConstraintExpression(
+          new Functions.Equals< Integer >( new Expression< Integer >( variables.get( i ) ),
+                                           new Expression< Integer >( new Functions.Plus< Integer, Integer >( new Expression< Integer >( a ),
+                                                                                                              new Expression< Integer >( b ) ) ) ) ) );
+    }
+  }
+
+  @Setup( Level.Invocation )
+  public void randomize() {
+    for ( IntegerParameter x : variables ) {
+      x.setValue( random.nextInt( 2 * numVariables ) - numVariables );
+    }
+  }
+
+  @Benchmark
+  public boolean solve() {
+    ConstraintLoopSolver solver = new ConstraintLoopSolver();
+    solver.parallel = parallel;
+    return solver.solve( constraints );
+  }
+
+}
@@ -0,0 +1,61 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.Consumable;
+import gov.nasa.jpl.ae.event.Timepoint;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link Consumable#add(gov.nasa.jpl.ae.event.Parameter, Double)} at random
+ * entries, which changes every value from that time on.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx4g" } )
+@State( Scope.Thread )
+public class ConsumableBenchmark {
+
+  protected static final int step = 10;
+  protected static final int numTimes = 1 << 12;
+
+  @Param( { "1000", "10000", "100000", "1000000" } )
+  public int size;
+
+  protected Consumable consumable;
+  protected int[] times;
+  protected int next = 0;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    consumable = Timelines.fill( new Consumable( "consumable", 0.0, false ),
+                                 size, step, 1 );
+    times = Timelines.randomTimes( numTimes, size, step, true, 2 );
+  }
+
+  @Benchmark
+  public double add() {
+    next = ( next + 1 ) & ( numTimes - 1 );
+    // Alternate signs so that the values stay near where they started.
+    return consumable.add( new Timepoint( times[ next ] ),
+                           ( next & 1 ) == 0 ? 1.0 : -1.0 );
+  }
+
+}
@@ -0,0 +1,53 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.DurativeEvent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simulating an executed scenario without the plotter, as fast as possible.
+ * The scenario is translated, compiled, and executed once, and each
+ * measurement simulates it again with the output thrown away.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 5 )
+@Measurement( iterations = 20 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class EventSimulationBenchmark {
+
+  @Param( { "Scenario_smallest", "Scenario_medium" } )
+  public String scenario;
+
+  protected DurativeEvent event;
+
+  @Setup( Level.Trial )
+  public void setUp() throws Exception {
+    event = Scenarios.mainEvent( scenario );
+    event.execute();
+  }
+
+  @Benchmark
+  public DurativeEvent simulate() {
+    event.simulate( 1.0e12, Scenarios.nowhere, false, true );
+    return event;
+  }
+
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.xml.EventXmlToJava;
+import gov.nasa.jpl.ae.xml.InMemoryCompiler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Translating the bundled scenarios to Java with {@link EventXmlToJava} and
+ * compiling them in memory. The cache of compiled scenarios is cleared before
+ * each translation, so every one is compiled from scratch.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 10 )
+@Fork( 1 )
+@State( Scope.Thread )
+public class EventXmlToJavaBenchmark {
+
+  @Param( { "Scenario_smallest", "Scenario_medium", "Scenario_med_caller" } )
+  public String scenario;
+
+  @Setup( Level.Invocation )
+  public void clearCache() {
+    InMemoryCompiler.clearCache();
+  }
+
+  /**
+   * Only translate the XML to Java source.
+   */
+  @Benchmark
+  public EventXmlToJava translate() throws Exception {
+    return new EventXmlToJava( Scenarios.file( scenario ).getPath(),
+                               Scenarios.packageName( scenario ) );
+  }
+
+  /**
+   * Translate the XML and compile and load the classes.
+   */
+  @Benchmark
+  public EventXmlToJava translateAndCompile() throws Exception {
+    return Scenarios.compile( scenario );
+  }
+
+}
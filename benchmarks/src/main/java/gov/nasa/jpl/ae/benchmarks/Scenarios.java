@@ -0,0 +1,90 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.DurativeEvent;
+import gov.nasa.jpl.ae.xml.EventXmlToJava;
+
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * Scenarios finds the scenario XML files that come with the engine and
+ * translates them for the benchmarks. The files are looked for in the
+ * directory given by the {@code bae.scenarios} system property, which by
+ * default is the engine's source directory relative to this project.
+ */
+public class Scenarios {
+
+  public static final String directoryProperty = "bae.scenarios";
+  public static final String defaultDirectory = "../src/gov/nasa/jpl/ae/xml";
+
+  /**
+   * @param scenario
+   *          the name of the scenario, such as "Scenario_smallest"
+   * @return the XML file of the scenario
+   */
+  public static File file( String scenario ) {
+    File dir = new File( System.getProperty( directoryProperty, defaultDirectory ) );
+    File f = new File( dir, scenario + ".xml" );
+    if ( !f.isFile() ) {
+      throw new IllegalStateException( "Can't find " + f.getAbsolutePath()
+                                       + "; set -D" + directoryProperty
+                                       + " to the directory of the scenarios" );
+    }
+    return f;
+  }
+
+  /**
+   * @param scenario
+   * @return the package into which the scenario is translated
+   */
+  public static String packageName( String scenario ) {
+    return "generated." + scenario.toLowerCase();
+  }
+
+  /**
+   * Translate the scenario and compile it in memory.
+   *
+   * @param scenario
+   * @return the translator, from which the classes can be loaded
+   */
+  public static EventXmlToJava compile( String scenario ) throws Exception {
+    EventXmlToJava translator =
+        new EventXmlToJava( file( scenario ).getPath(), packageName( scenario ) );
+    if ( !translator.compileAndLoadInMemory() ) {
+      throw new IllegalStateException( "Couldn't compile " + scenario );
+    }
+    return translator;
+  }
+
+  /**
+   * Translate and compile the scenario and construct its main event.
+   *
+   * @param scenario
+   * @return the main event of the scenario, not yet executed
+   */
+  public static DurativeEvent mainEvent( String scenario ) throws Exception {
+    DurativeEvent event = compile( scenario ).getMainInstance();
+    if ( event == null ) {
+      throw new IllegalStateException( "Couldn't construct the main event of "
+                                       + scenario );
+    }
+    return event;
+  }
+
+  /**
+   * An output stream that drops everything written to it.
+   */
+  public static final OutputStream nowhere = new OutputStream() {
+    @Override
+    public void write( int b ) {
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) {
+    }
+  };
+
+}
@@ -0,0 +1,63 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.TimeVaryingMap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link TimeVaryingMap#add(TimeVaryingMap)} and
+ * {@link TimeVaryingMap#sum(String, java.util.Collection)} of two maps of 1e3
+ * to 1e7 entries at different times.
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 10 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx8g" } )
+@State( Scope.Thread )
+public class TimeVaryingMapAddBenchmark {
+
+  @Param( { "1000", "10000", "100000", "1000000", "10000000" } )
+  public int size;
+
+  protected TimeVaryingMap< Double > other;
+  protected TimeVaryingMap< Double > map;
+
+  @Setup( Level.Trial )
+  public void setUpOther() {
+    other = Timelines.timeline( "other", size, TimeVaryingMapBenchmark.step + 1, 4 );
+  }
+
+  // add() changes the map, so each call gets a new one.
+  @Setup( Level.Invocation )
+  public void setUpMap() {
+    map = Timelines.timeline( "map", size, TimeVaryingMapBenchmark.step, 1 );
+  }
+
+  @Benchmark
+  public TimeVaryingMap< Double > add() throws Exception {
+    return map.add( other );
+  }
+
+  @Benchmark
+  public TimeVaryingMap< Double > sum() throws Exception {
+    return TimeVaryingMap.sum( "sum", java.util.Arrays.asList( map, other ) );
+  }
+
+}
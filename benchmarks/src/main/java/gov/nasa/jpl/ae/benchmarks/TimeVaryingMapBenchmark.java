@@ -0,0 +1,78 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.TimeVaryingMap;
+import gov.nasa.jpl.ae.event.Timepoint;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookups and updates of {@link TimeVaryingMap}s of 1e3 to 1e7 entries. The
+ * largest maps take a few gigabytes; run with {@code -p size=1000,10000}
+ * for a quick check.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( value = 1, jvmArgsAppend = { "-Xmx8g" } )
+@State( Scope.Thread )
+public class TimeVaryingMapBenchmark {
+
+  protected static final int step = 10;
+  protected static final int numTimes = 1 << 12;
+
+  @Param( { "1000", "10000", "100000", "1000000", "10000000" } )
+  public int size;
+
+  protected TimeVaryingMap< Double > map;
+  protected int[] times;
+  protected int[] entryTimes;
+  protected int next = 0;
+
+  @Setup( Level.Trial )
+  public void setUp() {
+    map = Timelines.timeline( "map", size, step, 1 );
+    times = Timelines.randomTimes( numTimes, size, step, false, 2 );
+    entryTimes = Timelines.randomTimes( numTimes, size, step, true, 3 );
+  }
+
+  protected int nextIndex() {
+    next = ( next + 1 ) & ( numTimes - 1 );
+    return next;
+  }
+
+  /**
+   * Look up the value at a random time, which is usually between entries.
+   */
+  @Benchmark
+  public Double getValue() {
+    return map.getValue( times[ nextIndex() ] );
+  }
+
+  /**
+   * Set the value at the time of a random entry, which replaces the entry, so
+   * the size of the map does not change.
+   */
+  @Benchmark
+  public Double setValue() {
+    int i = nextIndex();
+    return map.setValue( new Timepoint( entryTimes[ i ] ), (double)i );
+  }
+
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.benchmarks;
+
+import gov.nasa.jpl.ae.event.CsvTimelineReader;
+import gov.nasa.jpl.ae.event.TimeVaryingMap;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Random;
+
+/**
+ * Timelines builds the maps that the benchmarks work on.
+ */
+public class Timelines {
+
+  /**
+   * Fill a map with {@code size} entries, one every {@code step}, with
+   * random values. The rows are generated as CSV text a line at a time, so
+   * even the largest maps are built without the text in memory.
+   *
+   * @param map
+   * @param size
+   * @param step
+   * @param seed
+   * @return the map
+   */
+  public static < M extends TimeVaryingMap< Double > > M fill( M map, int size,
+                                                              int step, long seed ) {
+    try {
+      map.fromCsv( new CsvTimelineReader( new RowReader( size, step, seed ) ) );
+    } catch ( IOException e ) {
+      throw new IllegalStateException( e );
+    }
+    return map;
+  }
+
+  /**
+   * @param name
+   * @param size
+   * @param step
+   * @param seed
+   * @return a new map with {@code size} entries
+   */
+  public static TimeVaryingMap< Double > timeline( String name, int size, int step,
+                                                   long seed ) {
+    return fill( new TimeVaryingMap< Double >( name, Double.class ), size, step,
+                 seed );
+  }
+
+  /**
+   * @return random times in [0, size * step), one for each operation of a
+   *         benchmark that cycles through them
+   */
+  public static int[] randomTimes( int count, int size, int step, boolean onEntries,
+                                   long seed ) {
+    Random random = new Random( seed );
+    int[] times = new int[ count ];
+    for ( int i = 0; i < count; ++i ) {
+      times[ i ] = onEntries ? random.nextInt( size ) * step
+                             : random.nextInt( size * step );
+    }
+    return times;
+  }
+
+  /**
+   * Generates "time,value" rows.
+   */
+  protected static class RowReader extends Reader {
+    protected final int size;
+    protected final int step;
+    protected final Random random;
+    protected int row = 0;
+    protected String line = "";
+    protected int pos = 0;
+
+    public RowReader( int size, int step, long seed ) {
+      this.size = size;
+      this.step = step;
+      this.random = new Random( seed );
+    }
+
+    @Override
+    public int read( char[] cbuf, int off, int len ) {
+      int n = 0;
+      while ( n < len ) {
+        if ( pos == line.length() ) {
+          if ( row == size ) break;
+          line = ( row * step ) + "," + ( random.nextInt( 100000 ) / 100.0 ) + "\n";
+          pos = 0;
+          ++row;
+        }
+        int k = Math.min( len - n, line.length() - pos );
+        line.getChars( pos, pos + k, cbuf, off + n );
+        pos += k;
+        n += k;
+      }
+      return n == 0 && len > 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+}
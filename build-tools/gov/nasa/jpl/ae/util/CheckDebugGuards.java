@@ -0,0 +1,233 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * CheckDebugGuards looks through Java sources for calls to
+ * {@code Debug.out()}, {@code Debug.outln()}, {@code Debug.err()}, and
+ * {@code Debug.errln()} that build their message, by concatenation or by
+ * calling a method, outside of an {@code if} on {@code Debug.isOn()}. Such a
+ * call builds the message, often by printing whole maps, even when debugging
+ * is off.
+ * <p>
+ * Messages that are literals or a single variable are fine. The check exits
+ * with status 1 and lists the calls if it finds any:
+ *
+ * <pre>
+ * java gov.nasa.jpl.ae.util.CheckDebugGuards [directory or file ...]
+ * </pre>
+ *
+ * With no arguments, it checks src/gov/nasa/jpl/ae/event and
+ * src/gov/nasa/jpl/ae/solver. The Maven build runs it on those in the verify
+ * phase, so {@code mvn verify} fails on an unguarded call.
+ * <p>
+ * It is a build tool, not part of the engine: it lives under build-tools,
+ * which the build compiles as test sources, so it is not in the jar.
+ */
+public class CheckDebugGuards {
+
+  public static final String[] defaultPaths =
+      new String[] { "src/gov/nasa/jpl/ae/event", "src/gov/nasa/jpl/ae/solver" };
+
+  protected static final Pattern debugCall =
+      Pattern.compile( "\\bDebug\\s*\\.\\s*(outln|out|errln|err)\\s*\\(" );
+  protected static final Pattern ifStatement = Pattern.compile( "\\bif\\s*\\(" );
+  protected static final Pattern isOn = Pattern.compile( "\\bDebug\\s*\\.\\s*isOn\\s*\\(\\s*\\)" );
+  protected static final Pattern variable = Pattern.compile( "\\s*[A-Za-z_$][\\w$.]*\\s*" );
+
+  protected final List< String > problems = new ArrayList< String >();
+
+  public List< String > getProblems() {
+    return problems;
+  }
+
+  public void check( File f ) throws IOException {
+    if ( f.isDirectory() ) {
+      File[] files = f.listFiles();
+      if ( files == null ) return;
+      Arrays.sort( files );
+      for ( File g : files ) {
+        check( g );
+      }
+    } else if ( f.getName().endsWith( ".java" ) ) {
+      byte[] bytes = Files.readAllBytes( f.toPath() );
+      check( f.getPath(), new String( bytes, Charset.forName( "UTF-8" ) ) );
+    }
+  }
+
+  /**
+   * Check the source of one file, adding any unguarded calls to the problems.
+   *
+   * @param name
+   *          the name of the file for messages
+   * @param source
+   */
+  public void check( String name, String source ) {
+    String code = stripCommentsAndLiterals( source );
+
+    // The ranges of code that only run when debugging is on
+    List< int[] > guarded = new ArrayList< int[] >();
+    Matcher m = ifStatement.matcher( code );
+    while ( m.find() ) {
+      int open = m.end() - 1;
+      int close = matchingClose( code, open, '(', ')' );
+      if ( close < 0 ) continue;
+      if ( !isOn.matcher( code.substring( open, close ) ).find() ) continue;
+      int start = skipWhitespace( code, close + 1 );
+      if ( start >= code.length() ) continue;
+      int end = code.charAt( start ) == '{' ? matchingClose( code, start, '{', '}' )
+                                            : endOfStatement( code, start );
+      if ( end < 0 ) end = code.length();
+      guarded.add( new int[] { start, end } );
+    }
+
+    m = debugCall.matcher( code );
+    while ( m.find() ) {
+      if ( isIn( guarded, m.start() ) ) continue;
+      int open = m.end() - 1;
+      int close = matchingClose( code, open, '(', ')' );
+      if ( close < 0 ) continue;
+      if ( !buildsMessage( code.substring( open + 1, close ) ) ) continue;
+      problems.add( name + ":" + lineOf( code, m.start() ) + ": unguarded Debug."
+                    + m.group( 1 ) + "()" );
+    }
+  }
+
+  /**
+   * @param args
+   *          the arguments of the call with literals emptied
+   * @return whether evaluating the arguments does more than load a constant
+   *         or a variable
+   */
+  protected static boolean buildsMessage( String args ) {
+    String rest = args.replace( "\"\"", "" ).replace( "''", "" );
+    if ( rest.trim().isEmpty() ) return false;
+    // Concatenating literals is done by the compiler.
+    if ( rest.replace( "+", "" ).trim().isEmpty() ) return false;
+    return !variable.matcher( rest ).matches();
+  }
+
+  protected static boolean isIn( List< int[] > ranges, int pos ) {
+    for ( int[] r : ranges ) {
+      if ( pos >= r[ 0 ] && pos < r[ 1 ] ) return true;
+    }
+    return false;
+  }
+
+  protected static int skipWhitespace( String code, int i ) {
+    while ( i < code.length() && Character.isWhitespace( code.charAt( i ) ) ) ++i;
+    return i;
+  }
+
+  protected static int matchingClose( String code, int open, char o, char c ) {
+    int depth = 0;
+    for ( int i = open; i < code.length(); ++i ) {
+      char ch = code.charAt( i );
+      if ( ch == o ) {
+        ++depth;
+      } else if ( ch == c ) {
+        if ( --depth == 0 ) return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position of the semicolon ending the statement at
+   *         {@code start}, outside of any parentheses or braces
+   */
+  protected static int endOfStatement( String code, int start ) {
+    int depth = 0;
+    for ( int i = start; i < code.length(); ++i ) {
+      char ch = code.charAt( i );
+      if ( ch == '(' || ch == '{' ) {
+        ++depth;
+      } else if ( ch == ')' || ch == '}' ) {
+        --depth;
+      } else if ( ch == ';' && depth == 0 ) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  protected static int lineOf( String code, int pos ) {
+    int line = 1;
+    for ( int i = 0; i < pos; ++i ) {
+      if ( code.charAt( i ) == '\n' ) ++line;
+    }
+    return line;
+  }
+
+  /**
+   * @return the source with comments replaced by spaces and the contents of
+   *         string and character literals removed, keeping the line breaks
+   */
+  protected static String stripCommentsAndLiterals( String s ) {
+    StringBuilder sb = new StringBuilder( s.length() );
+    int n = s.length();
+    int i = 0;
+    while ( i < n ) {
+      char c = s.charAt( i );
+      char next = i + 1 < n ? s.charAt( i + 1 ) : 0;
+      if ( c == '/' && next == '/' ) {
+        while ( i < n && s.charAt( i ) != '\n' ) ++i;
+      } else if ( c == '/' && next == '*' ) {
+        i += 2;
+        while ( i < n && !( s.charAt( i ) == '*' && i + 1 < n && s.charAt( i + 1 ) == '/' ) ) {
+          if ( s.charAt( i ) == '\n' ) sb.append( '\n' );
+          ++i;
+        }
+        i += 2;
+        sb.append( ' ' );
+      } else if ( c == '"' || c == '\'' ) {
+        sb.append( c );
+        ++i;
+        while ( i < n && s.charAt( i ) != c && s.charAt( i ) != '\n' ) {
+          if ( s.charAt( i ) == '\\' ) ++i;
+          ++i;
+        }
+        sb.append( c );
+        ++i;
+      } else {
+        sb.append( c );
+        ++i;
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param args
+   *          the directories and files to check
+   */
+  public static void main( String[] args ) throws IOException {
+    String[] paths = args.length > 0 ? args : defaultPaths;
+    CheckDebugGuards checker = new CheckDebugGuards();
+    for ( String path : paths ) {
+      checker.check( new File( path ) );
+    }
+    for ( String problem : checker.getProblems() ) {
+      System.err.println( problem );
+    }
+    if ( !checker.getProblems().isEmpty() ) {
+      System.err.println( checker.getProblems().size()
+                          + " calls to Debug build their messages when debugging is off;"
+                          + " wrap them in if ( Debug.isOn() )." );
+      System.exit( 1 );
+    }
+    System.out.println( "No unguarded calls to Debug found." );
+  }
+
+}
@@ -9,16 +9,17 @@ import gov.nasa.jpl.mbee.util.ClassUtils;
 import gov.nasa.jpl.mbee.util.CompareUtils;
 import gov.nasa.jpl.mbee.util.Debug;
 import gov.nasa.jpl.mbee.util.MoreToString;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.mbee.util.Utils;
 import gov.nasa.jpl.mbee.util.Wraps;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -27,6 +28,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.Assert;
 
@@ -54,8 +57,62 @@ public abstract class Call extends HasIdImpl implements HasParameters,
   protected boolean alwaysStale = false;
 
   protected Object returnValue = null;  // a cached value
+
+  /**
+   * A value of the call with the {@link Call#version} of the call for which it
+   * was computed.
+   */
+  protected static class StampedValue {
+    public final Object value;
+    public final long version;
+
+    public StampedValue( Object value, long version ) {
+      this.value = value;
+      this.version = version;
+    }
+  }
+
+  /**
+   * Counts the times this call has been made stale, so that a value computed
+   * before the last time can be recognized as out of date.
+   */
+  protected final AtomicLong version = new AtomicLong();
+
+  /**
+   * The last value computed for the call, published for threads evaluating
+   * it in an {@link EvaluationContext} without locking it.
+   */
+  protected final AtomicReference< StampedValue > publishedValue =
+      new AtomicReference< StampedValue >();
   
   protected boolean proactiveEvaluation = false;
+
+  /**
+   * Whether to invoke the member through a {@link MethodHandle} bound the
+   * first time it is invoked instead of through reflection.
+   */
+  public static boolean usingMethodHandles = true;
+
+  protected static final Object[] noArguments = new Object[ 0 ];
+
+  /**
+   * The type of the handles made by {@link #makeInvoker()}, taking the object
+   * from which the member is invoked and an array of the arguments.
+   */
+  protected static final MethodType invokerType =
+      MethodType.methodType( Object.class, Object.class, Object[].class );
+
+  // Things about the member that are worked out when it is first invoked
+  // instead of on every evaluation.  bind() works them out again if the
+  // member changes.
+  protected volatile Member boundMember = null;
+  protected Class< ? >[] boundParameterTypes = null;
+  // the parameter types as hasTypeErrors(Object[]) checks them, boxed and
+  // with the component type for variable arguments
+  protected Class< ? >[] boundArgumentTypes = null;
+  protected MethodHandle invoker = null;
+  // the types of the arguments in the array passed to the invoker
+  protected Class< ? >[] invokerParameterTypes = null;
   
   abstract public Class<?>[] getParameterTypes();
   abstract public Member getMember();
@@ -71,6 +128,151 @@ public abstract class Call extends HasIdImpl implements HasParameters,
   public ArgHelper argHelper = null;
   
   public Call() {}
+
+  /**
+   * Work out the parameter types and invoker of the member if the member has
+   * changed since the last time.
+   */
+  protected void bind() {
+    Member m = getMember();
+    if ( m == boundMember ) return;
+    synchronized ( this ) {
+      if ( m != boundMember ) bind( m );
+    }
+  }
+
+  // boundMember is set last so that another thread that sees it sees the
+  // other bound fields.
+  private void bind( Member m ) {
+    boundParameterTypes = null;
+    boundArgumentTypes = null;
+    invoker = null;
+    invokerParameterTypes = null;
+    if ( m == null ) {
+      boundMember = m;
+      return;
+    }
+    boundParameterTypes = getParameterTypes();
+    if ( boundParameterTypes != null ) {
+      int len = boundParameterTypes.length;
+      boundArgumentTypes = new Class< ? >[ len ];
+      for ( int i = 0; i < len; ++i ) {
+        Class< ? > c = boundParameterTypes[ i ];
+        if ( c != null ) {
+          Class< ? > np = ClassUtils.classForPrimitive( c );
+          if ( np != null ) c = np;
+        }
+        if ( c != null && i == len - 1 && isVarArgs() ) {
+          if ( !c.isArray() ) {
+            Debug.error( true, true, "class " + c.getSimpleName() + " should be a var arg array!" );
+          } else {
+            c = c.getComponentType();
+          }
+        }
+        boundArgumentTypes[ i ] = c;
+      }
+    }
+    if ( usingMethodHandles ) {
+      try {
+        invoker = makeInvoker();
+      } catch ( Throwable t ) {
+        // Fall back to reflection, which reports any problem when invoked.
+        invoker = null;
+        invokerParameterTypes = null;
+        if ( Debug.isOn() ) Debug.outln( "Call.bind(): cannot make a MethodHandle for "
+                                         + m + ": " + t );
+      }
+    }
+    boundMember = m;
+  }
+
+  /**
+   * @return the parameter types of the member without copying them each time
+   *         as {@link #getParameterTypes()} may
+   */
+  protected Class< ? >[] getBoundParameterTypes() {
+    bind();
+    return boundParameterTypes;
+  }
+
+  /**
+   * Make a handle for invoking the member with type {@link #invokerType},
+   * typically by passing a handle for the member to
+   * {@link #spreadInvoker(MethodHandle, int, boolean)}.
+   *
+   * @return the handle or null if the member should be invoked through
+   *         reflection
+   * @throws IllegalAccessException
+   *           if the member is not accessible
+   */
+  protected MethodHandle makeInvoker() throws IllegalAccessException {
+    return null;
+  }
+
+  /**
+   * Adapt a handle to take its arguments as an array and to have type
+   * {@link #invokerType}.
+   *
+   * @param handle
+   *          a handle for the member
+   * @param numArgs
+   *          the number of arguments passed to the member in the array
+   * @param takesObject
+   *          whether the handle takes the object from which the member is
+   *          invoked as its first argument
+   * @return the adapted handle
+   */
+  protected MethodHandle spreadInvoker( MethodHandle handle, int numArgs,
+                                        boolean takesObject ) {
+    MethodType type = handle.type();
+    invokerParameterTypes =
+        ( takesObject ? type.dropParameterTypes( 0, 1 ) : type ).parameterArray();
+    handle = handle.asFixedArity().asSpreader( Object[].class, numArgs );
+    if ( !takesObject ) {
+      handle = MethodHandles.dropArguments( handle, 0, Object.class );
+    }
+    return handle.asType( invokerType );
+  }
+
+  /**
+   * @param args
+   *          the arguments as they would be passed to the member through
+   *          reflection
+   * @return whether the arguments can be passed to the invoker without any
+   *         conversion that reflection would do differently, so that any
+   *         exception thrown by the invoker comes from the member
+   */
+  protected boolean canUseInvoker( Object[] args ) {
+    bind();
+    if ( invoker == null ) return false;
+    Class< ? >[] argTypes = invokerParameterTypes;
+    int n = args == null ? 0 : args.length;
+    if ( n != argTypes.length ) return false;
+    for ( int i = 0; i < n; ++i ) {
+      Class< ? > c = argTypes[ i ];
+      if ( c.isPrimitive() ) {
+        if ( args[ i ] == null
+             || args[ i ].getClass() != ClassUtils.classForPrimitive( c ) ) {
+          return false;
+        }
+      } else if ( args[ i ] != null && !c.isInstance( args[ i ] ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Invoke the member through the invoker, wrapping anything thrown by the
+   * member in an InvocationTargetException as reflection does.
+   */
+  protected Object invokeWithInvoker( Object obj, Object[] args ) throws InvocationTargetException {
+    try {
+      return (Object)invoker.invokeExact( obj, args == null ? noArguments : args );
+    } catch ( Throwable t ) {
+      throw new InvocationTargetException( t );
+    }
+  }
  
   /**
    * The type of the object returned by this call.<p>
@@ -260,21 +462,12 @@ public abstract class Call extends HasIdImpl implements HasParameters,
       numEvalArgs = evaluatedArgs.length;
     }
     if ( gotErrors || evaluatedArgs == null || numEvalArgs == 0 ) return gotErrors;
+    // boxed, with the component type for var args
+    bind();
+    Class< ? >[] argTypes = boundArgumentTypes;
     for ( int i = 0; !gotErrors && i < evaluatedArgs.length; i++ ) {
-      //Class< ? > c = getParameterTypes()[ i ];
-      Class< ? > c = getParameterTypes()[ Math.min(i,getParameterTypes().length-1) ];
-      if ( c != null ) {
-          Class< ? > np = ClassUtils.classForPrimitive( c );
-          if ( np != null ) c = np;
-      }
+      Class< ? > c = argTypes[ Math.min(i,argTypes.length-1) ];
       if ( c == null || c.equals( Object.class ) ) continue;
-      if ( i >= getParameterTypes().length-1 && isVarArgs() ) {
-        if ( !c.isArray() ) {
-          Debug.error( true, true, "class " + c.getSimpleName() + " should be a var arg array!" );
-        } else {
-          c = c.getComponentType();
-        }
-      }
       if ( evaluatedArgs[ i ] == null ) {
         if ( c.isPrimitive() ) {
           gotErrors = true; 
@@ -291,9 +484,9 @@ public abstract class Call extends HasIdImpl implements HasParameters,
     return gotErrors;
   }
   
-  public synchronized Boolean hasTypeErrors() {
+  public Boolean hasTypeErrors() {
     if ( getMember() == null ) return true;
-    Class< ? >[] paramTypes = getParameterTypes();
+    Class< ? >[] paramTypes = getBoundParameterTypes();
     if ( !isVarArgs() ) {
       //Assert.assertEquals( arguments.size(), paramTypes.length );
       if ( arguments.size() != paramTypes.length ) {
@@ -341,6 +534,10 @@ public abstract class Call extends HasIdImpl implements HasParameters,
   }
   
   public Object evaluate( boolean propagate ) throws IllegalAccessException, InvocationTargetException, InstantiationException { // throws IllegalArgumentException,
+    EvaluationContext context = EvaluationContext.current();
+    if ( context != null && context.evaluatingCalls && canEvaluateInContext() ) {
+      return evaluateInContext( propagate, context );
+    }
     if ( returnValue != null && !isStale() && isGrounded( propagate, null ) ) {
       evaluationSucceeded = true;
       return returnValue;
@@ -350,7 +547,125 @@ public abstract class Call extends HasIdImpl implements HasParameters,
     return evaluate(propagate, true);
   }
   
-  //public boolean 
+  /**
+   * Evaluate the call without locking it or changing its cached value, keeping
+   * the evaluated arguments and results in {@code context} instead, so that
+   * several threads, each with its own context, may evaluate the same
+   * expressions at once. Nested calls are evaluated in the same context. The
+   * call is not grounded first, so {@code propagate} should be false unless
+   * the caller is the only thread using the expressions.
+   *
+   * @param propagate
+   * @param context
+   *          the context for this thread, or null to evaluate as
+   *          {@link #evaluate(boolean)} does
+   * @return the result of the call
+   */
+  public Object evaluate( boolean propagate, EvaluationContext context ) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+    if ( context == null || !canEvaluateInContext() ) {
+      Object result = evaluate( propagate );
+      if ( context != null ) context.succeeded = didEvaluationSucceed();
+      return result;
+    }
+    EvaluationContext previous = EvaluationContext.enter( context );
+    boolean wasEvaluatingCalls = context.evaluatingCalls;
+    context.evaluatingCalls = true;
+    try {
+      return evaluateInContext( propagate, context );
+    } finally {
+      context.evaluatingCalls = wasEvaluatingCalls;
+      EvaluationContext.exit( previous );
+    }
+  }
+
+  /**
+   * @return whether {@link #evaluate(boolean, EvaluationContext)} may evaluate
+   *         this call without going through {@link #evaluate(boolean, boolean)},
+   *         which subclasses that override it should not allow
+   */
+  protected boolean canEvaluateInContext() {
+    return argHelper == null;
+  }
+
+  protected Object evaluateInContext( boolean propagate,
+                                      EvaluationContext context ) throws IllegalAccessException, InvocationTargetException, InstantiationException {
+    Object result = context.results.get( this );
+    if ( result != null || context.results.containsKey( this ) ) {
+      context.succeeded = true;
+      return result;
+    }
+    StampedValue published = publishedValue.get();
+    long stamp = version.get();
+    if ( published != null && published.value != null
+         && published.version == stamp && !isStale() ) {
+      context.succeeded = true;
+      context.results.put( this, published.value );
+      return published.value;
+    }
+    context.succeeded = false;
+    Member m = getMember();
+    if ( m == null ) {
+      Debug.error( true, false, "evaluate() failed!  No member for " + this );
+      return null;
+    }
+    Object[] evaluatedArgs = evaluateArgs( propagate );
+    Object evaluatedObj = object;
+    if ( nestedCall != null ) {
+      Call nested = nestedCall.getValue( false );
+      if ( nested != null ) {
+        evaluatedObj = Expression.evaluate( nested, null, propagate, false );
+      }
+    }
+    evaluatedObj = Expression.evaluate( evaluatedObj, m.getDeclaringClass(),
+                                        propagate, true );
+    evaluatedArgs = fixArgsForVarArgs( evaluatedArgs );
+    result = invokeMember( evaluatedObj, evaluatedArgs, context );
+    if ( context.succeeded ) {
+      context.results.put( this, result );
+      publish( result, stamp, published );
+    }
+    return result;
+  }
+
+  /**
+   * Publish a value of the call unless the call has been made stale since the
+   * value was computed or another thread has published since.
+   *
+   * @param value
+   * @param stamp
+   *          the version of the call when evaluation started
+   * @param expected
+   *          the published value when evaluation started
+   */
+  protected void publish( Object value, long stamp, StampedValue expected ) {
+    if ( value == null || version.get() != stamp ) return;
+    publishedValue.compareAndSet( expected, new StampedValue( value, stamp ) );
+  }
+
+  /**
+   * Invoke the member as {@link #invoke(Object, Object[])} does but without
+   * changing the state of the call, recording in {@code context} whether the
+   * invocation succeeded. Subclasses should override this to avoid the lock
+   * this implementation takes.
+   */
+  protected Object invokeMember( Object evaluatedObj, Object[] evaluatedArgs,
+                                 EvaluationContext context ) throws IllegalArgumentException,
+                                                                    InstantiationException,
+                                                                    IllegalAccessException,
+                                                                    InvocationTargetException {
+    synchronized ( this ) {
+      Object oldValue = returnValue;
+      boolean oldSucceeded = evaluationSucceeded;
+      try {
+        Object result = invoke( evaluatedObj, evaluatedArgs );
+        context.succeeded = evaluationSucceeded;
+        return result;
+      } finally {
+        returnValue = oldValue;
+        evaluationSucceeded = oldSucceeded;
+      }
+    }
+  }
   
   // TODO -- consider an abstract Call class
   public synchronized Object evaluate( boolean propagate, boolean doEvalArgs ) throws IllegalAccessException, InvocationTargetException, InstantiationException { // throws IllegalArgumentException,
@@ -441,6 +756,8 @@ public abstract class Call extends HasIdImpl implements HasParameters,
         //return null;
       }
     } 
+    long stamp = version.get();
+    StampedValue published = publishedValue.get();
     //else {
     //  if ( !isGrounded( false, null ) ) {
       //  return null;
@@ -460,7 +777,9 @@ public abstract class Call extends HasIdImpl implements HasParameters,
       evaluatedArguments = unevaluatedArgs;
     }
     
-    evaluatedArgs = Arrays.copyOf( evaluatedArguments, evaluatedArguments.length );
+    // evaluatedArguments is a new array from evaluateArgs() or toArray() and is
+    // only referenced here, so it need not be copied.
+    evaluatedArgs = evaluatedArguments;
     // evaluate the object, whose method will be invoked from a nested call
     if ( nestedCall != null && nestedCall.getValue( propagate ) != null ) {
       // REVIEW -- if this is buggy, consider wrapping object in a Parameter and
@@ -486,6 +805,7 @@ public abstract class Call extends HasIdImpl implements HasParameters,
 
       // No longer stale after invoked with updated arguments and result is cached.
       setStale( false );
+      if ( evaluationSucceeded ) publish( returnValue, stamp, published );
       
     } catch ( IllegalAccessException e ) {
       evaluationSucceeded = false;
@@ -521,7 +841,8 @@ public abstract class Call extends HasIdImpl implements HasParameters,
    */
   protected Object[] fixArgsForVarArgs( Object[] evaluatedArgs ) {
     if ( !isVarArgs() || evaluatedArgs == null ) return evaluatedArgs;
-    int paramSize = getParameterTypes().length;
+    Class< ? >[] paramTypes = getBoundParameterTypes();
+    int paramSize = paramTypes.length;
     if ( evaluatedArgs.length < paramSize - 1 ) {
       return evaluatedArgs;
     }
@@ -530,10 +851,21 @@ public abstract class Call extends HasIdImpl implements HasParameters,
       for ( int i = 0; i < paramSize - 1; ++i ) {
         newArgs[ i ] = evaluatedArgs[ i ];
       }
-      Class< ? > lastParamType = getParameterTypes()[getParameterTypes().length - 1];
-      Object varArgArray = Array.newInstance(lastParamType.getComponentType(), evaluatedArgs.length - paramSize + 1);
-      for ( int i = paramSize - 1, j = 0; i < evaluatedArgs.length; ++i, ++j ) {
-        Array.set(varArgArray, j, evaluatedArgs[ i ]);
+      Class< ? > componentType = paramTypes[ paramSize - 1 ].getComponentType();
+      int numVarArgs = evaluatedArgs.length - paramSize + 1;
+      Object varArgArray = Array.newInstance( componentType, numVarArgs );
+      if ( componentType.isPrimitive()
+           || !allInstances( componentType, evaluatedArgs, paramSize - 1 ) ) {
+        // Array.set() unboxes for primitives and throws an
+        // IllegalArgumentException for a mismatched type, which callers
+        // expect, where System.arraycopy() would throw an
+        // ArrayStoreException.
+        for ( int i = paramSize - 1, j = 0; i < evaluatedArgs.length; ++i, ++j ) {
+          Array.set(varArgArray, j, evaluatedArgs[ i ]);
+        }
+      } else {
+        System.arraycopy( evaluatedArgs, paramSize - 1, varArgArray, 0,
+                          numVarArgs );
       }
       newArgs[ paramSize - 1 ] = varArgArray;
       return newArgs;
@@ -543,6 +875,18 @@ public abstract class Call extends HasIdImpl implements HasParameters,
     }
   }
 
+  /**
+   * @return whether each of {@code args} from {@code start} on is null or an
+   *         instance of {@code type}
+   */
+  protected static boolean allInstances( Class< ? > type, Object[] args,
+                                         int start ) {
+    for ( int i = start; i < args.length; ++i ) {
+      if ( args[ i ] != null && !type.isInstance( args[ i ] ) ) return false;
+    }
+    return true;
+  }
+
   /**
    * Try to match arguments to parameters by evaluating or creating expressions.
    * 
@@ -1043,6 +1387,7 @@ public abstract class Call extends HasIdImpl implements HasParameters,
   public void setStale( boolean staleness ) {
     if ( staleness ) {
       clearCache();
+      version.incrementAndGet();
     }
     stale = alwaysStale || staleness;
   }
@@ -1285,7 +1630,7 @@ public abstract class Call extends HasIdImpl implements HasParameters,
       }
       else {
         if ( indexOfArg > arguments.size() ) {
-          Debug.err( "bad index " + indexOfArg + "; only " + arguments.size() + " arguments!  Adding null argument placeholders!" );
+          if ( Debug.isOn() ) Debug.err( "bad index " + indexOfArg + "; only " + arguments.size() + " arguments!  Adding null argument placeholders!" );
           if ( indexOfArg > 100 ) {
             Debug.error( "bad index " + indexOfArg + "; greater than 100" );
           } else {
@@ -1473,7 +1818,7 @@ public abstract class Call extends HasIdImpl implements HasParameters,
   }
   public Object getOtherArg( Object theArg ) {
     LinkedHashSet< Object > otherArgs = getOtherArgs( theArg );
-    int n = Random.global.nextInt( otherArgs.size() );
+    int n = EvaluationContext.random().nextInt( otherArgs.size() );
     Iterator<Object> iter = otherArgs.iterator();
     Object otherArg = null;
     for (int i = 0; i != n; ++i) {
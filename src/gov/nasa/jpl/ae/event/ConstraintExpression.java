@@ -1,11 +1,11 @@
 package gov.nasa.jpl.ae.event;
 
 import gov.nasa.jpl.ae.solver.Constraint;
+import gov.nasa.jpl.ae.solver.ConstraintLoopSolver;
 import gov.nasa.jpl.ae.solver.Satisfiable;
 import gov.nasa.jpl.ae.solver.Variable;
 import gov.nasa.jpl.mbee.util.CompareUtils;
 import gov.nasa.jpl.mbee.util.Debug;
-import gov.nasa.jpl.mbee.util.Utils;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.Set;
@@ -111,7 +111,7 @@ public class ConstraintExpression extends Expression< Boolean >
       Variable<?>[] a = new Variable<?>[vars.size()];
       vars.toArray( a );
 System.out.println("////////////////////   Picking values for " + vars + " in " + this);
-      for ( Variable< ? > v : Utils.scramble(a) ) {
+      for ( Variable< ? > v : ConstraintLoopSolver.scramble( a, EvaluationContext.random() ) ) {
         // Make sure the variable is not dependent and not locked.
         if ( ( !( v instanceof Parameter ) || !( (Parameter)v ).isDependent() )
              && ( v.getDomain() == null || v.getDomain().size() != 1 ) ) {
@@ -6,6 +6,8 @@ import gov.nasa.jpl.mbee.util.ClassUtils;
 import gov.nasa.jpl.mbee.util.MoreToString;
 import gov.nasa.jpl.mbee.util.Utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
@@ -291,8 +293,17 @@ public class ConstructorCall extends Call {
   }
   
   @Override
-  public Object invoke( Object evaluatedObject, Object[] evaluatedArgs ) throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
-    evaluationSucceeded = false;
+  protected MethodHandle makeInvoker() throws IllegalAccessException {
+    if ( constructor == null ) return null;
+    MethodHandle handle = MethodHandles.lookup().unreflectConstructor( constructor );
+    return spreadInvoker( handle, constructor.getParameterTypes().length, false );
+  }
+
+  /**
+   * @return the arguments to pass to the constructor, which for an inner class
+   *         include the enclosing instance first
+   */
+  protected Object[] getConstructorArgs( Object evaluatedObject, Object[] evaluatedArgs ) {
     Object[] args = false ? new Object[]{evaluatedArgs} : evaluatedArgs; // handling this in calling method, evaluate()
     if ( isInnerClass() ) {
       Object[] newArgs = new Object[args.length+1];
@@ -304,8 +315,46 @@ public class ConstructorCall extends Call {
         args = newArgs;
       }
     }
+    return args;
+  }
+
+  @Override
+  protected Object invokeMember( Object evaluatedObject, Object[] evaluatedArgs,
+                                 EvaluationContext context ) throws IllegalArgumentException,
+                                                                    InstantiationException,
+                                                                    IllegalAccessException,
+                                                                    InvocationTargetException {
+    context.succeeded = false;
+    Object[] args = getConstructorArgs( evaluatedObject, evaluatedArgs );
+    Object result = null;
     try {
-      returnValue = constructor.newInstance( args );
+      if ( canUseInvoker( args ) ) {
+        result = invokeWithInvoker( null, args );
+      } else {
+        result = constructor.newInstance( args );
+      }
+      context.succeeded = true;
+    } catch ( Exception e ) {
+      // as in invoke()
+      if ( Debug.isOn() ) {
+        throw e;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Object invoke( Object evaluatedObject, Object[] evaluatedArgs ) throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
+    evaluationSucceeded = false;
+    Object[] args = getConstructorArgs( evaluatedObject, evaluatedArgs );
+    try {
+      // The invoker takes the enclosing instance of an inner class as the
+      // first argument, as newInstance() does.
+      if ( canUseInvoker( args ) ) {
+        returnValue = invokeWithInvoker( null, args );
+      } else {
+        returnValue = constructor.newInstance( args );
+      }
       //returnValue = newObject;
       if ( Debug.isOn() ) {
           System.out.println("ConstructorCall constructor = " + constructor.toGenericString());
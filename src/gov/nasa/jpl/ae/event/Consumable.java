@@ -3,14 +3,12 @@
  */
 package gov.nasa.jpl.ae.event;
 
-import gov.nasa.jpl.mbee.util.ClassUtils;
 import gov.nasa.jpl.mbee.util.Debug;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
@@ -59,20 +57,24 @@ public class Consumable extends TimeVaryingPlottableMap< Double > {
     this.maxCap = maxCap;
     samplePeriod =
         TimeVaryingMap.correctSamplePeriod( samplePeriod, horizonDuration );
-    try {
-      int lastT = 0;
-      double lastValue = initialValue; 
-      if ( Debug.isOn() ) Debug.errln("minCap=" + minCap + "; maxCap=" + maxCap );
-      for ( int t = samplePeriod; t < horizonDuration; t += samplePeriod ) {
-      double value =
-          (Double)ClassUtils.runMethod( false, o, deltaValueFunction, lastT,
-                                        lastValue, t ).second;
-        lastValue = add( makeTempTimepoint( t, false ), value );
-        lastT = t;
-      }
-	  } catch ( IllegalArgumentException e ) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+    if ( Debug.isOn() ) Debug.errln("minCap=" + minCap + "; maxCap=" + maxCap );
+    deferSamples( new SampleFunction( deltaValueFunction, o ), samplePeriod,
+                  horizonDuration );
+  }
+
+  /**
+   * Add the change returned by the delta value function {@code f} for each
+   * sample period to the initial value.
+   */
+  @Override
+  protected void generateSamples( SampleFunction f, int samplePeriod,
+                                  int horizonDuration ) {
+    int lastT = 0;
+    Double lastValue = isEmpty() ? null : firstEntry().getValue();
+    for ( int t = samplePeriod; t < horizonDuration; t += samplePeriod ) {
+      Double value = (Double)f.invoke( lastT, lastValue, t ).second;
+      lastValue = add( makeTempTimepoint( t, false ), value );
+      lastT = t;
     }
   }
   /**
@@ -89,16 +91,34 @@ public class Consumable extends TimeVaryingPlottableMap< Double > {
          Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
   }
   
+  /**
+   * Add {@code delta} to the level at {@code t} and at every later time,
+   * clamping each to the min and max.
+   * <p>
+   * This is not O(log n). Finding {@code t} is O(log n), but the k later
+   * entries are each updated, so a call takes O(log n + k) time. If {@code t}
+   * is a new key, the map's time index is also rebuilt, in O(n), on the next
+   * lookup by int time. To load many changes, build a delta map and call
+   * {@link #initializeFromDeltaMap(TimeVaryingMap)}, which takes O(n) time
+   * for all of them.
+   *
+   * @param t
+   *          the time of the change
+   * @param delta
+   *          the change in the level, or null for none
+   * @return the level at {@code t} after the change
+   */
   public double add( Parameter<Integer> t, Double delta ) {
     Double valBefore = getValueBefore( t );
     setValue( t, valBefore );  // we're going to add delta to this below.
+    if ( delta == null ) delta = 0.0;
+    // Update the entries of the tail in place in one pass instead of looking up
+    // each key again with setValue().  Only the values change, so the map
+    // stays sorted.
     SortedMap< Parameter<Integer>, Double > tail = this.tailMap( t );
-    // Had trouble changing the value while iterating through the tail map, so
-    // keys are copied to a list, and setValue() is called while walking the list.
-    // So, this is nlogn when it should be n.
-    List< Parameter<Integer> > laterTimes = new ArrayList< Parameter<Integer> >( tail.keySet() );
-    for ( Parameter<Integer> tt : laterTimes ) {
-      setValue( tt, getValue( tt ) + delta );
+    for ( Entry< Parameter<Integer>, Double > e : tail.entrySet() ) {
+      Double v = e.getValue();
+      e.setValue( clamp( ( v == null ? 0.0 : v ) + delta ) );
     }
     double valueSet = getValue( t );
     return valueSet;
@@ -111,17 +131,31 @@ public class Consumable extends TimeVaryingPlottableMap< Double > {
    * map where sum = Sum_{all t' in keys() where t' <= t}(deltaMap.get(t')). For
    * any Consumable c, c.initializeFromDeltaMap(c.getDeltaMap()) should not
    * change the entries in c.
+   * <p>
+   * This is the same as calling {@link #add(Parameter, Double)} for each entry
+   * of the deltaMap in order, but the map is built in one pass.
    * 
    * @param deltaMap
    */
   public void initializeFromDeltaMap( TimeVaryingMap< Double > deltaMap ) {
     clear();
-//    double summedValue = 0.0;
-    for ( java.util.Map.Entry< Parameter<Integer>, Double > e : deltaMap.entrySet() ) {
-//      if ( e.getValue() != null && e.getValue() != 0 ) {
-//        summedValue += e.getValue();
-//      }
-      add( e.getKey(), e.getValue() ); //summedValue );
+    if ( deltaMap == null ) return;
+    // Copy the delta map (linear time for a sorted map with an equal
+    // comparator) and then replace each delta with the running sum.
+    putAll( deltaMap );
+    double summedValue = clamp( 0.0 );
+    Iterator< Entry< Parameter<Integer>, Double > > i = entrySet().iterator();
+    while ( i.hasNext() ) {
+      Entry< Parameter<Integer>, Double > e = i.next();
+      if ( e.getKey() == null || e.getKey().getValueNoPropagate() == null ) {
+        // setValue() would not have inserted these
+        i.remove();
+        continue;
+      }
+      if ( e.getValue() != null ) {
+        summedValue = clamp( summedValue + e.getValue() );
+      }
+      e.setValue( summedValue );
     }
   }
   
@@ -272,6 +306,17 @@ public class Consumable extends TimeVaryingPlottableMap< Double > {
   @Override
   public Double setValue( Parameter< Integer > t, Double value ) {
     if ( value == null ) return null;
+    value = clamp( value );
+    return super.setValue( t, value );
+//    if ( Debug.isOn() ) Debug.errln( "Error! Ignoring attempt to call setValue() on " + this + "!" );
+//    return super.getValue( t );
+  }
+  
+  /**
+   * @param value
+   * @return the value limited to the range [minCap, maxCap]
+   */
+  protected double clamp( double value ) {
     if ( minCap != null && maxCap != null ) {
       assert minCap <= maxCap;
     }
@@ -286,11 +331,9 @@ public class Consumable extends TimeVaryingPlottableMap< Double > {
     if ( value < 0.0 ) {
       if ( Debug.isOn() ) Debug.errln("why negative?!");
     }
-    return super.setValue( t, value );
-//    if ( Debug.isOn() ) Debug.errln( "Error! Ignoring attempt to call setValue() on " + this + "!" );
-//    return super.getValue( t );
+    return value;
   }
-  
+
   protected static Map< Method, Integer > initEffectMethods() {
     // copy to avoid polluting the superclass's list
     effectMethods = new TreeMap<Method,Integer>(methodComparator);
@@ -0,0 +1,87 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * CsvSimulationSink writes the records of an {@link EventSimulation} as
+ * comma-separated values with a header line:
+ *
+ * <pre>
+ * time,timestamp,name,class,value
+ * </pre>
+ *
+ * Doubles are written at full precision, and other values as their
+ * toString(). Fields are quoted when they contain a comma, quote, or line
+ * break.
+ */
+public class CsvSimulationSink implements SimulationSink {
+
+  protected final PrintWriter w;
+  protected final StringBuilder line = new StringBuilder( 128 );
+
+  public CsvSimulationSink( OutputStream os ) {
+    w = new PrintWriter( new BufferedWriter( new OutputStreamWriter( os ),
+                                             1 << 16 ), false );
+  }
+
+  @Override
+  public void start( double timeScale ) {
+    w.print( "time,timestamp,name,class,value\n" );
+  }
+
+  @Override
+  public void record( int time, Object variable, Object value ) {
+    line.setLength( 0 );
+    line.append( time ).append( ',' );
+    appendField( Timepoint.toTimestamp( time ) );
+    line.append( ',' );
+    appendField( SimulationOutput.getName( variable ) );
+    line.append( ',' );
+    appendField( variable.getClass().getName() );
+    line.append( ',' );
+    if ( value instanceof Double ) {
+      line.append( ( (Double)value ).doubleValue() );
+    } else if ( value != null ) {
+      appendField( value.toString() );
+    }
+    line.append( '\n' );
+    w.append( line );
+  }
+
+  protected void appendField( String s ) {
+    if ( s == null ) return;
+    boolean quote = false;
+    for ( int i = 0; i < s.length() && !quote; ++i ) {
+      char c = s.charAt( i );
+      quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+    }
+    if ( !quote ) {
+      line.append( s );
+      return;
+    }
+    line.append( '"' );
+    for ( int i = 0; i < s.length(); ++i ) {
+      char c = s.charAt( i );
+      if ( c == '"' ) line.append( '"' );
+      line.append( c );
+    }
+    line.append( '"' );
+  }
+
+  @Override
+  public void flush() {
+    w.flush();
+  }
+
+  @Override
+  public void end() {
+    w.flush();
+  }
+
+}
@@ -0,0 +1,344 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * CsvTimelineReader reads the rows of a timeline from CSV text, one row per
+ * line, with the time in the first column and the value in the second. Later
+ * columns are ignored, as are lines whose time is not a number, such as a
+ * header.
+ * <p>
+ * The text is read into a buffer a block at a time, and times and values are
+ * parsed straight from the buffer, so no strings are made for the rows unless
+ * {@link #getText()} is called for a value that is not a number:
+ *
+ * <pre>
+ * CsvTimelineReader reader = new CsvTimelineReader( file );
+ * while ( reader.next() ) {
+ *   int t = reader.getTime();
+ *   double v = reader.isNumber() ? reader.getDouble() : ...;
+ * }
+ * reader.close();
+ * </pre>
+ */
+public class CsvTimelineReader implements Closeable {
+
+  protected static final int bufferSize = 1 << 16;
+
+  protected static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  // Powers of ten that are exact doubles
+  protected static final double[] exactPowersOfTen = new double[ 23 ];
+  static {
+    double p = 1.0;
+    for ( int i = 0; i < exactPowersOfTen.length; ++i ) {
+      exactPowersOfTen[ i ] = p;
+      p *= 10.0;
+    }
+  }
+
+  protected Reader in;
+  protected char[] buffer = new char[ bufferSize ];
+  protected int pos = 0;
+  protected int limit = 0;
+  protected boolean eof = false;
+
+  // The current line
+  protected char[] line = new char[ 256 ];
+  protected int lineLength = 0;
+  protected int lineNumber = 0;
+
+  // The current row
+  protected int time;
+  protected int valueStart;
+  protected int valueEnd;
+  protected boolean isNumber;
+  protected boolean isInteger;
+  protected double doubleValue;
+  protected String text = null;
+
+  // The result of the last parseNumber()
+  protected double parsed;
+  protected boolean parsedInteger;
+
+  public CsvTimelineReader( Reader in ) {
+    this.in = in;
+  }
+
+  /**
+   * @param file
+   *          a CSV file in UTF-8
+   * @throws FileNotFoundException
+   */
+  public CsvTimelineReader( File file ) throws FileNotFoundException {
+    this( new InputStreamReader( new FileInputStream( file ), UTF8 ) );
+  }
+
+  /**
+   * Move to the next row.
+   *
+   * @return whether there is a next row
+   * @throws IOException
+   */
+  public boolean next() throws IOException {
+    while ( readLine() ) {
+      if ( parseRow() ) return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the time of the current row
+   */
+  public int getTime() {
+    return time;
+  }
+
+  /**
+   * @return whether the value of the current row is a number
+   */
+  public boolean isNumber() {
+    return isNumber;
+  }
+
+  /**
+   * @return whether the value of the current row is written as an integer
+   *         that fits in an int
+   */
+  public boolean isInteger() {
+    return isInteger;
+  }
+
+  /**
+   * @return the value of the current row if it is a number, or else NaN
+   */
+  public double getDouble() {
+    return doubleValue;
+  }
+
+  /**
+   * @return the value of the current row as it is written, without
+   *         surrounding whitespace or quotes
+   */
+  public String getText() {
+    if ( text == null ) {
+      text = new String( line, valueStart, valueEnd - valueStart );
+    }
+    return text;
+  }
+
+  /**
+   * @return the number of the line of the current row, starting at 1
+   */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * Copy the next line from the buffer into {@link #line}.
+   *
+   * @return false at the end of the input
+   * @throws IOException
+   */
+  protected boolean readLine() throws IOException {
+    lineLength = 0;
+    boolean any = false;
+    while ( true ) {
+      if ( pos == limit ) {
+        if ( eof || !fill() ) return any;
+      }
+      any = true;
+      int start = pos;
+      while ( pos < limit && buffer[ pos ] != '\n' ) {
+        ++pos;
+      }
+      append( start, pos );
+      if ( pos < limit ) {
+        // Skip the newline.
+        ++pos;
+        break;
+      }
+    }
+    ++lineNumber;
+    if ( lineLength > 0 && line[ lineLength - 1 ] == '\r' ) --lineLength;
+    return true;
+  }
+
+  protected boolean fill() throws IOException {
+    int n = in.read( buffer, 0, buffer.length );
+    if ( n <= 0 ) {
+      eof = true;
+      pos = limit = 0;
+      return false;
+    }
+    pos = 0;
+    limit = n;
+    return true;
+  }
+
+  protected void append( int start, int end ) {
+    int n = end - start;
+    if ( lineLength + n > line.length ) {
+      line = Arrays.copyOf( line, Math.max( lineLength + n, line.length * 2 ) );
+    }
+    System.arraycopy( buffer, start, line, lineLength, n );
+    lineLength += n;
+  }
+
+  /**
+   * Parse the time and value of the current line.
+   *
+   * @return whether the line has a time
+   */
+  protected boolean parseRow() {
+    text = null;
+    int comma = indexOf( ',', 0 );
+    int end = comma < 0 ? lineLength : comma;
+    int start = trimStart( 0, end );
+    end = trimEnd( start, end );
+    if ( start == end || !parseNumber( start, end ) || Double.isNaN( parsed ) ) {
+      return false;
+    }
+    // A time with a fraction is truncated.
+    time = (int)parsed;
+
+    if ( comma < 0 ) {
+      valueStart = valueEnd = lineLength;
+    } else {
+      int next = indexOf( ',', comma + 1 );
+      valueEnd = next < 0 ? lineLength : next;
+      valueStart = trimStart( comma + 1, valueEnd );
+      valueEnd = trimEnd( valueStart, valueEnd );
+    }
+    isNumber = valueStart < valueEnd && parseNumber( valueStart, valueEnd );
+    isInteger = isNumber && parsedInteger;
+    doubleValue = isNumber ? parsed : Double.NaN;
+    return true;
+  }
+
+  protected int indexOf( char c, int from ) {
+    for ( int i = from; i < lineLength; ++i ) {
+      if ( line[ i ] == c ) return i;
+    }
+    return -1;
+  }
+
+  protected int trimStart( int start, int end ) {
+    while ( start < end && ( Character.isWhitespace( line[ start ] ) ) ) ++start;
+    if ( start < end && line[ start ] == '"' ) ++start;
+    return start;
+  }
+
+  protected int trimEnd( int start, int end ) {
+    while ( end > start && Character.isWhitespace( line[ end - 1 ] ) ) --end;
+    if ( end > start && line[ end - 1 ] == '"' ) --end;
+    return end;
+  }
+
+  /**
+   * Parse a decimal number from {@code line[start, end)} into
+   * {@link #parsed}. Numbers with at most 15 significant digits and a power of
+   * ten within the range of exact doubles are computed with one
+   * multiplication or division, which rounds correctly; others are passed to
+   * {@link Double#parseDouble(String)}.
+   *
+   * @return whether the text is a number
+   */
+  protected boolean parseNumber( int start, int end ) {
+    int i = start;
+    boolean negative = false;
+    if ( line[ i ] == '-' || line[ i ] == '+' ) {
+      negative = line[ i ] == '-';
+      ++i;
+    }
+    long mantissa = 0;
+    int numDigits = 0;
+    int numSignificant = 0;
+    int exponent = 0;
+    boolean fraction = false;
+    for ( ; i < end; ++i ) {
+      char c = line[ i ];
+      if ( c >= '0' && c <= '9' ) {
+        ++numDigits;
+        if ( mantissa == 0 && c == '0' ) {
+          // Leading zeros are not significant.
+          if ( fraction ) --exponent;
+          continue;
+        }
+        if ( ++numSignificant <= 18 ) {
+          mantissa = mantissa * 10 + ( c - '0' );
+          if ( fraction ) --exponent;
+        } else if ( !fraction ) {
+          ++exponent;
+        }
+      } else if ( c == '.' && !fraction ) {
+        fraction = true;
+      } else {
+        break;
+      }
+    }
+    boolean integer = !fraction;
+    if ( i < end && numDigits > 0 && ( line[ i ] == 'e' || line[ i ] == 'E' ) ) {
+      integer = false;
+      ++i;
+      boolean negativeExponent = false;
+      if ( i < end && ( line[ i ] == '-' || line[ i ] == '+' ) ) {
+        negativeExponent = line[ i ] == '-';
+        ++i;
+      }
+      int e = 0;
+      int expStart = i;
+      for ( ; i < end && line[ i ] >= '0' && line[ i ] <= '9'; ++i ) {
+        if ( e < 100000 ) e = e * 10 + ( line[ i ] - '0' );
+      }
+      if ( i == expStart ) return parseSlow( start, end );
+      exponent += negativeExponent ? -e : e;
+    }
+    if ( i != end || numDigits == 0 ) return parseSlow( start, end );
+
+    if ( numSignificant <= 15 && exponent >= -22 && exponent <= 22 ) {
+      double d = (double)mantissa;
+      d = exponent < 0 ? d / exactPowersOfTen[ -exponent ]
+                       : d * exactPowersOfTen[ exponent ];
+      parsed = negative ? -d : d;
+      parsedInteger = integer && parsed >= Integer.MIN_VALUE
+                      && parsed <= Integer.MAX_VALUE;
+      return true;
+    }
+    if ( !parseSlow( start, end ) ) return false;
+    parsedInteger = integer && parsed >= Integer.MIN_VALUE
+                    && parsed <= Integer.MAX_VALUE && parsed == Math.rint( parsed );
+    return true;
+  }
+
+  /**
+   * Parse a number that does not fit the fast path, such as NaN, Infinity, or
+   * one with many digits.
+   */
+  protected boolean parseSlow( int start, int end ) {
+    parsedInteger = false;
+    try {
+      parsed = Double.parseDouble( new String( line, start, end - start ) );
+      return true;
+    } catch ( NumberFormatException e ) {
+      return false;
+    }
+  }
+
+}
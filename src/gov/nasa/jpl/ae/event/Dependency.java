@@ -15,7 +15,6 @@ import gov.nasa.jpl.ae.solver.Constraint;
 import gov.nasa.jpl.ae.solver.Domain;
 import gov.nasa.jpl.ae.solver.HasConstraints;
 import gov.nasa.jpl.ae.solver.HasIdImpl;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.ae.solver.Satisfiable;
 import gov.nasa.jpl.ae.solver.Variable;
 import gov.nasa.jpl.mbee.util.Pair;
@@ -394,7 +393,7 @@ public class Dependency< T > extends HasIdImpl
   protected Variable< ? > pickRandomVariable() {
     Set< Variable< ? > > vars = getVariables();
     if ( !Utils.isNullOrEmpty( vars ) ) {
-      int i = Random.global.nextInt( vars.size() );
+      int i = EvaluationContext.random().nextInt( vars.size() );
       Variable<?> v = (Variable<?>)(vars.toArray())[i];
       return v;
     }
@@ -404,7 +403,7 @@ public class Dependency< T > extends HasIdImpl
   protected Variable< ? > pickRandomFreeVariable() {
     Set< Variable< ? > > vars = getFreeVariables();
     if ( !Utils.isNullOrEmpty( vars ) ) {
-      int i = Random.global.nextInt( vars.size() );
+      int i = EvaluationContext.random().nextInt( vars.size() );
       Variable<?> v = (Variable<?>)(vars.toArray())[i];
       return v;
     }
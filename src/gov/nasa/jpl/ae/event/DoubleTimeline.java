@@ -0,0 +1,284 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.util.Arrays;
+
+/**
+ * DoubleTimeline is a {@link PrimitiveTimeline} of doubles backed by parallel
+ * {@code int[]} time and {@code double[]} value arrays, taking about 12 bytes
+ * per sample instead of the key, boxed values, and tree node of a
+ * {@link TimeVaryingMap}.
+ */
+public class DoubleTimeline extends PrimitiveTimeline< Double > {
+
+  protected double[] values;
+
+  public DoubleTimeline( String name ) {
+    this( name, defaultCapacity );
+  }
+
+  public DoubleTimeline( String name, int initialCapacity ) {
+    super( name, initialCapacity );
+    values = new double[ times.length ];
+  }
+
+  public DoubleTimeline( String name, TimeVaryingMap< ? extends Number > tvm ) {
+    this( name, tvm == null ? defaultCapacity : tvm.size() );
+    fromTimeVaryingMap( tvm );
+  }
+
+  /**
+   * @param name
+   * @param times
+   *          sample times in increasing order
+   * @param values
+   *          the values for each of the times
+   * @param length
+   *          the number of samples to copy from the arrays
+   */
+  public DoubleTimeline( String name, int[] times, double[] values, int length ) {
+    super( name, Math.max( 1, length ) );
+    this.values = new double[ this.times.length ];
+    for ( int i = 0; i < length; ++i ) {
+      if ( i > 0 && times[ i ] <= times[ i - 1 ] ) {
+        throw new IllegalArgumentException( "times must be increasing: "
+                                            + times[ i - 1 ] + ", " + times[ i ] );
+      }
+    }
+    System.arraycopy( times, 0, this.times, 0, length );
+    System.arraycopy( values, 0, this.values, 0, length );
+    size = length;
+  }
+
+  public DoubleTimeline( DoubleTimeline timeline ) {
+    this( timeline.name, timeline.times, timeline.values, timeline.size );
+    owner = timeline.owner;
+    interpolation = new TimeVaryingMap.Interpolation( timeline.interpolation.type );
+  }
+
+  @Override
+  public DoubleTimeline clone() {
+    return new DoubleTimeline( this );
+  }
+
+  @Override
+  protected void growValues( int capacity ) {
+    values = Arrays.copyOf( values, capacity );
+  }
+
+  @Override
+  protected void copyValues( int srcPos, int destPos, int length ) {
+    System.arraycopy( values, srcPos, values, destPos, length );
+  }
+
+  @Override
+  protected Double boxedValueAt( int i ) {
+    return values[ i ];
+  }
+
+  @Override
+  protected void setValueAt( int i, Number value ) {
+    values[ i ] = value == null ? 0.0 : value.doubleValue();
+  }
+
+  @Override
+  protected boolean valuesEqualAt( int i, int j ) {
+    return values[ i ] == values[ j ];
+  }
+
+  /**
+   * @param i
+   *          the index of an entry
+   * @return the value of the entry at index {@code i}
+   */
+  public double getValueAt( int i ) {
+    return values[ i ];
+  }
+
+  /**
+   * An unboxed version of {@link #getValue(Integer)}.
+   *
+   * @param t
+   *          a time
+   * @return the value at time {@code t} according to the interpolation or
+   *         {@link Double#NaN} if there is no value at that time
+   */
+  public double valueAt( int t ) {
+    int i = floorIndex( t );
+    if ( interpolation.type == TimeVaryingMap.Interpolation.NONE ) {
+      return i >= 0 && times[ i ] == t ? values[ i ] : Double.NaN;
+    }
+    if ( i < 0 ) return Double.NaN;
+    if ( interpolation.type == TimeVaryingMap.Interpolation.STEP
+         || times[ i ] == t || i == size - 1 ) {
+      return values[ i ];
+    }
+    return linear( i, t );
+  }
+
+  protected double linear( int i, int t ) {
+    // floorVal+(ceilVal-floorVal)*(key-floorKey)/(ceilKey-floorKey)
+    return values[ i ] + ( values[ i + 1 ] - values[ i ] ) * ( t - times[ i ] )
+                         / ( times[ i + 1 ] - times[ i ] );
+  }
+
+  @Override
+  protected Double interpolate( int i, int t ) {
+    return linear( i, t );
+  }
+
+  public Double setValue( int t, double value ) {
+    int i = indexOf( t );
+    Double oldValue = i >= 0 ? values[ i ] : null;
+    i = putTime( t, value );
+    values[ i ] = value;
+    return oldValue;
+  }
+
+  /**
+   * Append a sample after the last one in O(1) amortized time.
+   *
+   * @param t
+   *          a time later than that of the last entry
+   * @param value
+   *          the value at {@code t}
+   */
+  public void append( int t, double value ) {
+    if ( size > 0 && t <= times[ size - 1 ] ) {
+      throw new IllegalArgumentException( "time " + t
+                                          + " is not after last time "
+                                          + times[ size - 1 ] );
+    }
+    setValue( t, value );
+  }
+
+  @Override
+  public DoubleTimeline add( Number n, Integer fromTime, Integer toTime ) {
+    if ( n == null || isEmpty() && fromTime == null ) return this;
+    double d = n.doubleValue();
+    int[] r = rangeForUpdate( fromTime, toTime, 0.0 );
+    for ( int i = r[ 0 ]; i < r[ 1 ]; ++i ) {
+      values[ i ] += d;
+    }
+    return this;
+  }
+
+  @Override
+  public DoubleTimeline multiply( Number n, Integer fromTime, Integer toTime ) {
+    if ( n == null || isEmpty() && fromTime == null ) return this;
+    double d = n.doubleValue();
+    int[] r = rangeForUpdate( fromTime, toTime, 0.0 );
+    for ( int i = r[ 0 ]; i < r[ 1 ]; ++i ) {
+      values[ i ] *= d;
+    }
+    return this;
+  }
+
+  public DoubleTimeline subtract( Number n ) {
+    return n == null ? this : add( -n.doubleValue(), (Integer)null, (Integer)null );
+  }
+
+  public DoubleTimeline divide( Number n ) {
+    if ( n == null ) return this;
+    double d = n.doubleValue();
+    for ( int i = 0; i < size; ++i ) {
+      values[ i ] /= d;
+    }
+    return this;
+  }
+
+  protected static final byte PLUS = 0;
+  protected static final byte MINUS = 1;
+  protected static final byte TIMES = 2;
+  protected static final byte DIVIDE = 3;
+
+  /**
+   * Combine this timeline with another in a single pass over the union of
+   * their times with step interpolation, as TimeVaryingMap does for
+   * {@link TimeVaryingMap#add(TimeVaryingMap)} and the like. Times before the
+   * first entry of a timeline treat its value as zero for addition and
+   * subtraction and leave the other value unchanged otherwise.
+   */
+  protected DoubleTimeline combine( PrimitiveTimeline< ? > other, byte op ) {
+    if ( other == null || other.isEmpty() ) return this;
+    int n = unionSize( other );
+    int[] unionTimes = new int[ Math.max( n, 1 ) ];
+    int[] thisIdx = new int[ n ];
+    int[] otherIdx = new int[ n ];
+    mergeTimes( other, unionTimes, thisIdx, otherIdx );
+    double[] newValues = new double[ unionTimes.length ];
+    DoubleTimeline od = other instanceof DoubleTimeline ? (DoubleTimeline)other : null;
+    for ( int k = 0; k < n; ++k ) {
+      boolean hasThis = thisIdx[ k ] >= 0;
+      boolean hasOther = otherIdx[ k ] >= 0;
+      double a = hasThis ? values[ thisIdx[ k ] ] : 0.0;
+      double b = !hasOther ? 0.0 : od != null ? od.values[ otherIdx[ k ] ]
+                                              : other.boxedValueAt( otherIdx[ k ] ).doubleValue();
+      double v;
+      switch ( op ) {
+        case PLUS:
+          v = a + b;
+          break;
+        case MINUS:
+          v = a - b;
+          break;
+        case TIMES:
+          v = !hasThis ? b : !hasOther ? a : a * b;
+          break;
+        default:
+          v = !hasThis ? 0.0 : !hasOther ? a : a / b;
+          break;
+      }
+      newValues[ k ] = v;
+    }
+    times = unionTimes;
+    values = newValues;
+    size = n;
+    return (DoubleTimeline)removeDuplicates();
+  }
+
+  public DoubleTimeline add( PrimitiveTimeline< ? > other ) {
+    return combine( other, PLUS );
+  }
+
+  public DoubleTimeline subtract( PrimitiveTimeline< ? > other ) {
+    return combine( other, MINUS );
+  }
+
+  public DoubleTimeline multiply( PrimitiveTimeline< ? > other ) {
+    return combine( other, TIMES );
+  }
+
+  public DoubleTimeline divide( PrimitiveTimeline< ? > other ) {
+    return combine( other, DIVIDE );
+  }
+
+  public DoubleTimeline plus( PrimitiveTimeline< ? > other ) {
+    return clone().add( other );
+  }
+
+  public DoubleTimeline minus( PrimitiveTimeline< ? > other ) {
+    return clone().subtract( other );
+  }
+
+  public DoubleTimeline times( PrimitiveTimeline< ? > other ) {
+    return clone().multiply( other );
+  }
+
+  public DoubleTimeline dividedBy( PrimitiveTimeline< ? > other ) {
+    return clone().divide( other );
+  }
+
+  @Override
+  public Class< Double > getType() {
+    return Double.class;
+  }
+
+  @Override
+  public Class< ? > getPrimitiveType() {
+    return double.class;
+  }
+
+}
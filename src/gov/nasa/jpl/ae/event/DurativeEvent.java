@@ -30,11 +30,13 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.Assert;
 
@@ -75,6 +77,15 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
 
   protected Dependency durationDependency = null;
 
+  // Simulations patched when the start or end time of this event changes
+  protected transient List< SimulationChangeListener > changeListeners = null;
+
+  // The simulation kept between incremental snapshots and the constraint
+  // structure it was built for
+  protected transient EventSimulation snapshotSimulation = null;
+  protected transient AtomicLong snapshotStructureCounter = null;
+  protected long snapshotStructureVersion = -1;
+
   // TODO -- consider breaking elaborations up into separate constraints
   protected AbstractParameterConstraint elaborationsConstraint =
       new AbstractParameterConstraint() {
@@ -755,19 +766,33 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
   }
 
   public void simulate( double timeScale, java.io.OutputStream os, boolean runPlotter ) {
-    Debug.outln( "\nsimulate( timeScale=" + timeScale + ", runPlotter="
-                 + runPlotter + " ): starting stop watch\n" );
+    simulate( timeScale, os, runPlotter, false );
+  }
+
+  /**
+   * @param timeScale
+   * @param os
+   * @param runPlotter
+   * @param fastForward
+   *          whether to simulate as fast as possible instead of pacing the
+   *          simulation by the clock; see {@link EventSimulation#fastForward}
+   */
+  public void simulate( double timeScale, java.io.OutputStream os,
+                        boolean runPlotter, boolean fastForward ) {
+    if ( Debug.isOn() ) Debug.outln( "\nsimulate( timeScale=" + timeScale + ", runPlotter="
+                                     + runPlotter + " ): starting stop watch\n" );
     Timer timer = new Timer();
     try {
       EventSimulation sim = createEventSimulation();
       sim.tryToPlot = runPlotter;
+      sim.fastForward = fastForward;
       System.out.println( sim.numEvents() + " event/state transitions.");
       sim.simulate( timeScale, os );
     } catch ( Exception e ) {
       e.printStackTrace();
     }
-    Debug.outln( "\nsimulate( timeScale=" + timeScale + ", runPlotter="
-        + runPlotter + " ): completed\n" + timer + "\n" );
+    if ( Debug.isOn() ) Debug.outln( "\nsimulate( timeScale=" + timeScale + ", runPlotter="
+                            + runPlotter + " ): completed\n" + timer + "\n" );
   }
 
   @Override
@@ -788,6 +813,9 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
         fileName = Utils.addTimestampToFilename( fileName );
       }
       File file = new File( fileName );
+      if ( snapshotAsTrace ) {
+        file = new File( FileUtils.removeFileExtension( fileName ) + ".trace" );
+      }
 
       // write out simulation to file
       System.out.println( "writing simulation snapshot to "
@@ -798,12 +826,21 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
         // ignore
       }
       System.out.println( Calendar.getInstance().getTime().toString() );
-      if ( writeSimulation( file ) ) {
+      if ( snapshotAsTrace ) {
+        didntWriteFile = !writeSimulationTrace( file );
+        if ( improved ) {
+          writeSimulationTrace( new File( FileUtils.removeFileExtension( bestFileName )
+                                          + ".trace" ) );
+        }
+      } else if ( incrementalSnapshots ) {
+        didntWriteFile =
+            !writeIncrementalSnapshot( file, improved ? bestFileName : null );
+      } else if ( writeSimulation( file ) ) {
         String fn = FileUtils.removeFileExtension( fileName );
         writeAspen( fn + ".mdl", fn + ".ini" );
         didntWriteFile = false;
       }
-      if ( improved ) {
+      if ( improved && !snapshotAsTrace && !incrementalSnapshots ) {
         writeSimulation( bestFileName );
       }
     }
@@ -812,16 +849,99 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
     }
   }
 
+  /**
+   * Write a full snapshot the first time and after events are elaborated or
+   * removed; otherwise, patch the simulation kept from the last snapshot with
+   * the events and timelines that changed and append just their entries to a
+   * delta file next to the full snapshot, with a removed record where one of
+   * them no longer has entries.
+   *
+   * @param file
+   *          the file for a full snapshot
+   * @param bestFileName
+   *          the file for a full snapshot of the best solution so far, or null
+   * @return whether a snapshot was written
+   */
+  protected boolean writeIncrementalSnapshot( File file, String bestFileName ) {
+    File deltaFile =
+        new File( FileUtils.removeFileExtension( file.getPath() ) + ".delta.txt" );
+    AtomicLong counter = getConstraintStructureCounter();
+    if ( snapshotSimulation == null || snapshotStructureCounter != counter
+         || snapshotStructureVersion != counter.get() ) {
+      if ( snapshotSimulation != null ) snapshotSimulation.stopListening();
+      snapshotSimulation = createEventSimulation();
+      snapshotSimulation.tryToPlot = false;
+      snapshotSimulation.listenForChanges();
+      snapshotStructureCounter = counter;
+      snapshotStructureVersion = counter.get();
+      if ( !writeSimulation( file, snapshotSimulation ) ) return false;
+      String fn = FileUtils.removeFileExtension( file.getPath() );
+      writeAspen( fn + ".mdl", fn + ".ini" );
+      deltaFile.delete();
+    } else {
+      Map< Object, int[] > removedTimes = new IdentityHashMap< Object, int[] >();
+      Set< Object > changed = snapshotSimulation.update( removedTimes );
+      FileOutputStream os = null;
+      try {
+        os = new FileOutputStream( deltaFile, true );
+        snapshotSimulation.writeEntries( changed, removedTimes, os,
+                                         "--- " + changed.size()
+                                             + " events and timelines changed, "
+                                             + Calendar.getInstance().getTime()
+                                             + " ---" );
+      } catch ( FileNotFoundException e ) {
+        System.err.println( "Writing simulation changes to file "
+                            + deltaFile.getAbsolutePath() + " failed" );
+        e.printStackTrace();
+        return false;
+      } finally {
+        if ( os != null ) {
+          try {
+            os.close();
+          } catch ( IOException e ) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+    if ( bestFileName != null ) {
+      writeSimulation( new File( bestFileName ), snapshotSimulation );
+    }
+    return true;
+  }
+
+  public void addChangeListener( SimulationChangeListener listener ) {
+    if ( changeListeners == null ) {
+      changeListeners = new ArrayList< SimulationChangeListener >( 1 );
+    }
+    if ( !changeListeners.contains( listener ) ) changeListeners.add( listener );
+  }
+
+  public void removeChangeListener( SimulationChangeListener listener ) {
+    if ( changeListeners == null ) return;
+    changeListeners.remove( listener );
+    if ( changeListeners.isEmpty() ) changeListeners = null;
+  }
+
   public boolean writeSimulation( String fileName ) {
     File file = new File(fileName);
     return writeSimulation( file );
   }
   public boolean writeSimulation( File file ) {
+    return writeSimulation( file, null );
+  }
+  /**
+   * @param file
+   * @param sim
+   *          the simulation to write, or null to create one
+   * @return whether the simulation was written
+   */
+  public boolean writeSimulation( File file, EventSimulation sim ) {
     boolean succ = false;
     FileOutputStream os = null;
     try {
       os = new FileOutputStream( file );
-      succ = writeSimulation( os );
+      succ = writeSimulation( os, sim );
     } catch ( FileNotFoundException e ) {
       System.err.println( "Writing simulation output to file "
                           + file.getAbsolutePath() + " failed" );
@@ -836,7 +956,44 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
     }
     return succ;
   }
+  /**
+   * Simulate without a plot or text and write the records to a binary trace
+   * that {@link SimulationTraceReader} can read by time and variable.
+   *
+   * @param file
+   * @return whether the trace was written; false if the simulation or the
+   *         trace writer failed
+   */
+  public boolean writeSimulationTrace( File file ) {
+    try {
+      EventSimulation sim = createEventSimulation();
+      sim.tryToPlot = false;
+      sim.fastForward = true;
+      sim.writingText = false;
+      SimulationTraceWriter writer = new SimulationTraceWriter( file );
+      sim.add( writer );
+      sim.simulate( 1e15, System.out );
+      if ( writer.getFailure() != null ) {
+        System.err.println( "Writing simulation trace to file "
+                            + file.getAbsolutePath() + " failed: "
+                            + writer.getFailure() );
+        return false;
+      }
+      if ( Debug.isOn() ) Debug.outln( "wrote " + writer.getNumRecords()
+                                       + " records to " + file.getAbsolutePath() );
+      return true;
+    } catch ( Exception e ) {
+      System.err.println( "Writing simulation trace to file "
+                          + file.getAbsolutePath() + " failed" );
+      e.printStackTrace();
+    }
+    return false;
+  }
+
   public boolean writeSimulation( OutputStream os ) {
+    return writeSimulation( os, null );
+  }
+  public boolean writeSimulation( OutputStream os, EventSimulation sim ) {
     PrintWriter w = new PrintWriter( os, true );
     w.println( "remaining "
                + solver.getUnsatisfiedConstraints().size()
@@ -844,7 +1001,13 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
                + Utils.join( solver.getUnsatisfiedConstraints(),
                              "\nConstraint: " ) );
     w.println("execution:\n" + executionToString() + "\n");
-    simulate( 1e15, os, false );
+    if ( sim == null ) {
+      simulate( 1e15, os, false, true );
+    } else {
+      sim.tryToPlot = false;
+      sim.fastForward = true;
+      sim.simulate( 1e15, os );
+    }
     return true;
   }
   // Create an ElaborationRule for constructing an eventClass with
@@ -869,6 +1032,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
     Vector<Event> eventVector = new Vector<Event>();
     ElaborationRule elaborationRule = new ElaborationRule(condition, invocation);
     elaborations.put(elaborationRule, eventVector);
+    constraintStructureChanged();
     return elaborationRule;
   }
 
@@ -915,8 +1079,8 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
       effectSet = new HashSet< Effect >();
       effects.add( new Pair< Parameter< ? >, Set< Effect > >( sv, effectSet ) );
     }
-    Debug.outln(getName() + "'s effect (" + e + ") in being added to set (" + effectSet + ") for variable (" + sv + ").");
-    effectSet.add( e );
+    if ( Debug.isOn() ) Debug.outln(getName() + "'s effect (" + e + ") in being added to set (" + effectSet + ") for variable (" + sv + ").");
+    if ( effectSet.add( e ) ) constraintStructureChanged();
   }
 
   public void addEffects( Parameter< ? > sv, Set<Effect> set ) {
@@ -927,7 +1091,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
     Set< Effect > effectSet = null;
     for ( Pair< Parameter< ? >, Set< Effect > > pp : effects ) {
       if ( pp.first.getValue(true) != null && Utils.valuesEqual( pp.first.getValue(true), sv.getValue(true) ) ) {
-        Debug.outln( getName() + "'s addEffect() says " + pp.first.getValue(true) + " == " + sv.getValue(true) );
+        if ( Debug.isOn() ) Debug.outln( getName() + "'s addEffect() says " + pp.first.getValue(true) + " == " + sv.getValue(true) );
         effectSet = pp.second;
         break;
       }
@@ -937,7 +1101,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
       effects.add( new Pair< Parameter< ? >, Set< Effect > >( sv, effectSet ) );
     }
     if ( set != null ) {
-      effectSet.addAll( set );
+      if ( effectSet.addAll( set ) ) constraintStructureChanged();
     }
     if ( Debug.isOn() ) {
       for ( Pair< Parameter< ? >, Set< Effect > > pp : effects ) {
@@ -1089,7 +1253,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
     return set;
   }
 
-  public static boolean newMode = false;
+  // The mode used by tryToSatisfy( deep, seen ) is EvaluationContext.newMode.
   /* (non-Javadoc)
    * @see gov.nasa.jpl.ae.event.ParameterListenerImpl#tryToSatisfy(boolean, java.util.Set)
    */
@@ -1099,7 +1263,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
 //          mode % 2 == 1 ) {
 //      return tryToSatisfy( deep, seen, false );
 //    }
-    return tryToSatisfy( deep, seen, newMode );
+    return tryToSatisfy( deep, seen, EvaluationContext.get().newMode );
   }
   protected boolean tryToSatisfy( boolean deep, Set< Satisfiable > seen,
                                   boolean newTrySat ) {
@@ -1202,22 +1366,10 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
   }
 
   @Override
-  public Collection< Constraint > getConstraints( boolean deep,
-                                                  Set<HasConstraints> seen ) {
-    boolean mayHaveBeenPropagating = Parameter.mayPropagate;
-    Parameter.mayPropagate = false;
-    boolean mayHaveBeenChanging = Parameter.mayChange;
-    Parameter.mayChange = false;
-    Pair< Boolean, Set< HasConstraints > > pair = Utils.seen( this, deep, seen );
-    if ( pair.first ) {
-      Parameter.mayPropagate = mayHaveBeenPropagating;
-      Parameter.mayChange = mayHaveBeenChanging;
-      return Utils.getEmptySet();
-    }
-    seen = pair.second;
-    if ( seen != null ) seen.remove( this );
+  protected Collection< Constraint > collectConstraints( boolean deep,
+                                                         Set< HasConstraints > seen ) {
     Collection< Constraint > set = new HashSet<Constraint>();
-    set = Utils.addAll( set, super.getConstraints( deep, seen ) );
+    set = Utils.addAll( set, super.collectConstraints( deep, seen ) );
     //if ( set.equals( Utils.getEmptySet() ) ) return set;
     set.add( elaborationsConstraint );
     set.add( effectsConstraint );
@@ -1229,11 +1381,15 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
       Set< Event > events = getEvents( false, null );
       set = Utils.addAll( set, HasConstraints.Helper.getConstraints( events, deep, seen ) );
     }
-    Parameter.mayPropagate = mayHaveBeenPropagating;
-    Parameter.mayChange = mayHaveBeenChanging;
     return set;
   }
 
+  @Override
+  protected int getConstraintStructureSize() {
+    return super.getConstraintStructureSize() + effects.size()
+           + ( elaborations == null ? 0 : elaborations.size() );
+  }
+
   @Override
   public CollectionTree getConstraintCollection( boolean deep,
                                                  Set< HasConstraints > seen ) {
@@ -1509,7 +1665,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
         if ( e instanceof EffectFunction ) {
           EffectFunction ef = (EffectFunction)e;
           if ( ef.hasParameter( parameter, false, null ) ) {
-            effects.remove( e );
+            if ( effects.remove( e ) ) constraintStructureChanged();
           }
         }
       }
@@ -1729,6 +1885,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
   @Override
   public void setEffects( List< Pair< Parameter< ? >, Set< Effect > > > effects ) {
     this.effects = effects;
+    constraintStructureChanged();
   }
 
   /* (non-Javadoc)
@@ -1746,6 +1903,7 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
   public void setElaborations( Map< ElaborationRule,
                                Vector< Event > > elaborations ) {
     this.elaborations = elaborations;
+    constraintStructureChanged();
   }
 
   /* (non-Javadoc)
@@ -1806,6 +1964,13 @@ public class DurativeEvent extends ParameterListenerImpl implements Event, Clone
     // The super class updates the dependencies.
     super.handleValueChangeEvent( parameter );
 
+    if ( changeListeners != null
+         && ( parameter == startTime || parameter == endTime ) ) {
+      for ( SimulationChangeListener listener : changeListeners ) {
+        listener.sourceChanged( this );
+      }
+    }
+
     // Update other events
     for ( Event e : getEvents( false, null ) ) {
       if ( e instanceof ParameterListener ) {
@@ -114,13 +114,17 @@ public class ElaborationRule extends HasIdImpl implements Comparable<Elaboration
         event.deconstruct();
         //System.err.println("detatched " + event);
       }
-      elaboratedEvents.clear();
+      if ( !elaboratedEvents.isEmpty() ) {
+        elaboratedEvents.clear();
+        ParameterListenerImpl.constraintStructureChanged();
+      }
     } else if ( !elaborated && conditionSatisfied && elaborateIfCan ) {
       // Need to elaborate!
       for ( EventInvocation ei : eventInvocations ) {
         Event event = ei.invoke();
         if ( event != null ) {
           elaboratedEvents.add( event );
+          ParameterListenerImpl.constraintStructureChanged();
           System.err.println( "elaborated "
                               + MoreToString.Helper.toString( event, true,
                                                               false, null ) );
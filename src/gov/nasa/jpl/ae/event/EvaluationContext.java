@@ -0,0 +1,255 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import gov.nasa.jpl.ae.solver.IntegerDomain;
+import gov.nasa.jpl.mbee.util.TimeUtils;
+
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An EvaluationContext holds the state of solving, simulating, and evaluating
+ * a model that would otherwise be global, so that independent scenarios can
+ * run on different threads of the same JVM. This includes whether parameters
+ * may change or propagate, the solver mode, and the epoch, units, and horizon
+ * of {@link Timepoint}s, and the random numbers used to pick values.
+ * <p>
+ * A thread uses the context made current by
+ * {@link #enter(EvaluationContext)}, or else a default context shared by all
+ * threads that have not entered one. For example:
+ *
+ * <pre>
+ * EvaluationContext context = new EvaluationContext();
+ * EvaluationContext previous = EvaluationContext.enter( context );
+ * try {
+ *   Timepoint.setEpoch( epoch );
+ *   event.satisfy( true, null );
+ * } finally {
+ *   EvaluationContext.exit( previous );
+ * }
+ * </pre>
+ * <p>
+ * A context also holds the scratch state of evaluating {@link Call}s without
+ * locking them through {@link Call#evaluate(boolean, EvaluationContext)}.
+ */
+public class EvaluationContext {
+
+  protected static final ThreadLocal< EvaluationContext > currentContext =
+      new ThreadLocal< EvaluationContext >();
+
+  /**
+   * The context of threads that have not entered one, which holds the
+   * settings made before there were contexts.
+   */
+  protected static final EvaluationContext defaultContext =
+      new EvaluationContext( new Date(), TimeUtils.Units.seconds, 24 * 3600 );
+
+  /**
+   * Whether parameters may propagate changes to their values. This is
+   * turned off while gathering constraints.
+   */
+  public boolean mayPropagate = true;
+
+  /**
+   * Whether parameters may change their values. This is turned off while
+   * gathering constraints.
+   */
+  public boolean mayChange = true;
+
+  /**
+   * The mode passed to
+   * {@link DurativeEvent#tryToSatisfy(boolean, java.util.Set, boolean)}.
+   */
+  public boolean newMode = false;
+
+  // Timepoint settings; see Timepoint.setEpoch(), setUnits(), and
+  // setHorizonDuration().
+  protected Date epoch;
+  protected TimeUtils.Units units;
+  protected int horizonDuration;
+
+  /**
+   * The domain of times from 0 to the horizon duration, which is the initial
+   * domain of a new {@link TimeDomain}
+   */
+  protected IntegerDomain horizonDomain;
+
+  /**
+   * A count of changes to the structure of the model in this context that may
+   * change the constraints it collects; see
+   * {@link ParameterListenerImpl#constraintStructureChanged()}. A context
+   * forked for a worker on the same model shares the count with its parent.
+   */
+  protected AtomicLong structureVersion = new AtomicLong();
+
+  /**
+   * The random numbers for picking values in this context, or null to use
+   * the global Random. A parallel solve gives each worker a Random of its own
+   * so that its picks do not depend on how the threads are scheduled.
+   */
+  protected Random random = null;
+
+  /**
+   * The values of the calls evaluated in this context, so that a call shared
+   * by several expressions is only invoked once.
+   */
+  protected Map< Call, Object > results = new IdentityHashMap< Call, Object >();
+
+  /**
+   * Whether calls are being evaluated through
+   * {@link Call#evaluate(boolean, EvaluationContext)}, in which case nested
+   * calls are evaluated the same way.
+   */
+  protected boolean evaluatingCalls = false;
+
+  /**
+   * Whether the last call evaluated in this context succeeded, as
+   * {@link Call#didEvaluationSucceed()} tells for evaluation without a
+   * context.
+   */
+  protected boolean succeeded = false;
+
+  /**
+   * Create a context with the Timepoint settings of this thread's context.
+   */
+  public EvaluationContext() {
+    this( get() );
+  }
+
+  /**
+   * Create a context with the Timepoint settings of another.
+   *
+   * @param context
+   */
+  public EvaluationContext( EvaluationContext context ) {
+    this( context.epoch, context.units, context.horizonDuration );
+  }
+
+  public EvaluationContext( Date epoch, TimeUtils.Units units,
+                            int horizonDuration ) {
+    this.epoch = epoch;
+    this.units = units;
+    this.horizonDuration = horizonDuration;
+    this.horizonDomain = new IntegerDomain( 0, horizonDuration );
+  }
+
+  /**
+   * @return the context entered by this thread or null if there is none
+   */
+  public static EvaluationContext current() {
+    return currentContext.get();
+  }
+
+  /**
+   * @return the context entered by this thread or else the default context
+   */
+  public static EvaluationContext get() {
+    EvaluationContext context = currentContext.get();
+    return context == null ? defaultContext : context;
+  }
+
+  /**
+   * @return the context of threads that have not entered one
+   */
+  public static EvaluationContext getDefault() {
+    return defaultContext;
+  }
+
+  /**
+   * Make {@code context} the current context of this thread.
+   *
+   * @param context
+   * @return the context that was current, to be passed to
+   *         {@link #exit(EvaluationContext)}
+   */
+  public static EvaluationContext enter( EvaluationContext context ) {
+    EvaluationContext previous = currentContext.get();
+    if ( previous != context ) currentContext.set( context );
+    return previous;
+  }
+
+  /**
+   * Restore the context that was current before {@link #enter(EvaluationContext)}.
+   *
+   * @param previous
+   */
+  public static void exit( EvaluationContext previous ) {
+    if ( previous == null ) {
+      currentContext.remove();
+    } else {
+      currentContext.set( previous );
+    }
+  }
+
+  /**
+   * Create a context for another thread working on the same model, as a
+   * worker of a parallel solve. It has the Timepoint settings and the flags of
+   * this context but its own scratch state, so that threads do not change
+   * each other's flags or call results.
+   *
+   * @return the new context
+   */
+  public EvaluationContext fork() {
+    EvaluationContext context = new EvaluationContext( this );
+    context.mayPropagate = mayPropagate;
+    context.mayChange = mayChange;
+    context.newMode = newMode;
+    context.structureVersion = structureVersion;
+    context.random = random;
+    return context;
+  }
+
+  /**
+   * @return the random numbers of this context or else the global Random
+   */
+  public Random getRandom() {
+    return random == null ? gov.nasa.jpl.mbee.util.Random.global : random;
+  }
+
+  /**
+   * @param random
+   *          the random numbers for this context, or null to use the global
+   *          Random
+   */
+  public void setRandom( Random random ) {
+    this.random = random;
+  }
+
+  /**
+   * @return the random numbers of this thread's context, which domains and
+   *         constraints use to pick values
+   */
+  public static Random random() {
+    return get().getRandom();
+  }
+
+  /**
+   * @return the domain of times from 0 to the horizon duration of this
+   *         context
+   */
+  public IntegerDomain getHorizonDomain() {
+    return horizonDomain;
+  }
+
+  /**
+   * @return whether the last call evaluated in this context succeeded
+   */
+  public boolean didEvaluationSucceed() {
+    return succeeded;
+  }
+
+  /**
+   * Forget the values of calls evaluated in this context so that it may be
+   * reused after values have changed.
+   */
+  public void clear() {
+    results.clear();
+    succeeded = false;
+  }
+
+}
@@ -0,0 +1,314 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.util.Arrays;
+
+/**
+ * EventQueue holds the records of an {@link EventSimulation}, each a time, a
+ * variable, and a value, in order of time and then of insertion. Records are
+ * kept in parallel arrays with no per-record objects besides the variable and
+ * value themselves.
+ * <p>
+ * Records are appended as they are added, whether a whole timeline at a time
+ * or one at a time. Before the records are read, the ones added since the
+ * last read are put in order with a stable radix sort on their times, which
+ * takes linear time, and merged with the records already in order. Records at
+ * the same time stay in the order they were added.
+ * <p>
+ * Reading is by position in time order, from 0 to {@link #numPositions()}:
+ *
+ * <pre>
+ * for ( int pos = 0, n = queue.numPositions(); pos &lt; n; ++pos ) {
+ *   int t = queue.timeAt( pos );
+ *   Object variable = queue.variableAt( pos );
+ *   Object value = queue.valueAt( pos );
+ * }
+ * </pre>
+ *
+ * Positions are invalid after adding or removing records until
+ * {@link #numPositions()} is called again.
+ */
+public class EventQueue {
+
+  protected static final int defaultCapacity = 64;
+
+  /**
+   * Below this many records, an insertion sort is faster than a radix sort.
+   */
+  protected static final int radixSortThreshold = 64;
+
+  // The records in the order they were added. A removed record has a null
+  // variable.
+  protected int[] times;
+  protected Object[] variables;
+  protected Object[] values;
+  protected int size = 0;
+  protected int numRemoved = 0;
+
+  // The indices of the first numSorted records in time order, which may
+  // include removed records until the next sort().
+  protected int[] order;
+  protected int orderSize = 0;
+  protected int numSorted = 0;
+  protected boolean removedSinceSort = false;
+
+  public EventQueue() {
+    this( defaultCapacity );
+  }
+
+  public EventQueue( int initialCapacity ) {
+    int n = Math.max( 1, initialCapacity );
+    times = new int[ n ];
+    variables = new Object[ n ];
+    values = new Object[ n ];
+    order = new int[ 0 ];
+  }
+
+  /**
+   * @return the number of records
+   */
+  public int size() {
+    return size - numRemoved;
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * Make room for {@code n} more records, as before adding a timeline.
+   *
+   * @param n
+   */
+  public void ensureCapacity( int n ) {
+    int needed = size + n;
+    if ( needed <= times.length ) return;
+    int capacity = Math.max( needed, times.length + ( times.length >> 1 ) );
+    times = Arrays.copyOf( times, capacity );
+    variables = Arrays.copyOf( variables, capacity );
+    values = Arrays.copyOf( values, capacity );
+  }
+
+  /**
+   * Add a record.
+   *
+   * @param time
+   * @param variable
+   *          the event or timeline, which may not be null
+   * @param value
+   */
+  public void add( int time, Object variable, Object value ) {
+    if ( variable == null ) {
+      throw new IllegalArgumentException( "EventQueue.add(): null variable" );
+    }
+    if ( size == times.length ) ensureCapacity( 1 );
+    times[ size ] = time;
+    variables[ size ] = variable;
+    values[ size ] = value;
+    ++size;
+  }
+
+  /**
+   * Add the records of a variable at once.
+   *
+   * @param times
+   * @param variable
+   * @param values
+   *          the values at each of the {@code times}
+   * @param length
+   *          the number of records to add from the arrays
+   */
+  public void add( int[] times, Object variable, Object[] values, int length ) {
+    if ( variable == null ) {
+      throw new IllegalArgumentException( "EventQueue.add(): null variable" );
+    }
+    ensureCapacity( length );
+    System.arraycopy( times, 0, this.times, size, length );
+    System.arraycopy( values, 0, this.values, size, length );
+    Arrays.fill( variables, size, size + length, variable );
+    size += length;
+  }
+
+  /**
+   * Remove the records of a variable at a time.
+   *
+   * @param time
+   * @param variable
+   * @return the number of records removed
+   */
+  public int remove( int time, Object variable ) {
+    int count = 0;
+    // Removed records keep their times, so the order stays searchable until
+    // records are added.
+    if ( numSorted != size ) sort();
+    for ( int pos = lowerBound( time ); pos < orderSize && times[ order[ pos ] ] == time; ++pos ) {
+      int i = order[ pos ];
+      if ( variables[ i ] == variable ) {
+        variables[ i ] = null;
+        values[ i ] = null;
+        ++count;
+      }
+    }
+    if ( count > 0 ) {
+      numRemoved += count;
+      removedSinceSort = true;
+    }
+    return count;
+  }
+
+  public void clear() {
+    Arrays.fill( variables, 0, size, null );
+    Arrays.fill( values, 0, size, null );
+    size = 0;
+    numRemoved = 0;
+    orderSize = 0;
+    numSorted = 0;
+    removedSinceSort = false;
+  }
+
+  /**
+   * Put the records in order so that they can be read by position.
+   *
+   * @return the number of positions, which is the number of records
+   */
+  public int numPositions() {
+    sort();
+    return orderSize;
+  }
+
+  public int timeAt( int pos ) {
+    return times[ order[ pos ] ];
+  }
+
+  public Object variableAt( int pos ) {
+    return variables[ order[ pos ] ];
+  }
+
+  public Object valueAt( int pos ) {
+    return values[ order[ pos ] ];
+  }
+
+  /**
+   * @param time
+   * @return the first position with a time at or after {@code time}, which
+   *         is only valid after {@link #numPositions()}
+   */
+  public int lowerBound( int time ) {
+    int lo = 0;
+    int hi = orderSize;
+    while ( lo < hi ) {
+      int mid = ( lo + hi ) >>> 1;
+      if ( times[ order[ mid ] ] < time ) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Sort the records added since the last sort and merge them into the
+   * order, dropping removed records.
+   */
+  protected void sort() {
+    if ( numSorted == size && !removedSinceSort ) return;
+    int n = size - numSorted;
+    int[] added = new int[ n ];
+    for ( int k = 0; k < n; ++k ) {
+      added[ k ] = numSorted + k;
+    }
+    sortByTime( added );
+
+    int[] merged = new int[ orderSize + n ];
+    int m = 0;
+    int a = 0;
+    int b = 0;
+    while ( a < orderSize || b < n ) {
+      int i;
+      // Ties go to the earlier order, which holds the earlier records.
+      if ( b == n || ( a < orderSize && times[ order[ a ] ] <= times[ added[ b ] ] ) ) {
+        i = order[ a++ ];
+      } else {
+        i = added[ b++ ];
+      }
+      if ( variables[ i ] != null ) merged[ m++ ] = i;
+    }
+    order = merged;
+    orderSize = m;
+    numSorted = size;
+    removedSinceSort = false;
+    if ( numRemoved > ( size >> 1 ) ) compact();
+  }
+
+  /**
+   * Drop removed records from the arrays, leaving the rest in time order.
+   */
+  protected void compact() {
+    int[] newTimes = new int[ Math.max( 1, orderSize ) ];
+    Object[] newVariables = new Object[ newTimes.length ];
+    Object[] newValues = new Object[ newTimes.length ];
+    for ( int pos = 0; pos < orderSize; ++pos ) {
+      int i = order[ pos ];
+      newTimes[ pos ] = times[ i ];
+      newVariables[ pos ] = variables[ i ];
+      newValues[ pos ] = values[ i ];
+      order[ pos ] = pos;
+    }
+    times = newTimes;
+    variables = newVariables;
+    values = newValues;
+    size = orderSize;
+    numSorted = size;
+    numRemoved = 0;
+  }
+
+  /**
+   * Stably sort record indices by time.
+   */
+  protected void sortByTime( int[] indices ) {
+    int n = indices.length;
+    if ( n < radixSortThreshold ) {
+      for ( int k = 1; k < n; ++k ) {
+        int i = indices[ k ];
+        int t = times[ i ];
+        int j = k - 1;
+        while ( j >= 0 && times[ indices[ j ] ] > t ) {
+          indices[ j + 1 ] = indices[ j ];
+          --j;
+        }
+        indices[ j + 1 ] = i;
+      }
+      return;
+    }
+    // Two passes over 16 bits of the time with the sign bit flipped so that
+    // negative times come first
+    int[] buffer = new int[ n ];
+    int[] counts = new int[ 1 << 16 ];
+    int[] src = indices;
+    int[] dst = buffer;
+    for ( int shift = 0; shift < 32; shift += 16 ) {
+      Arrays.fill( counts, 0 );
+      for ( int k = 0; k < n; ++k ) {
+        ++counts[ ( ( times[ src[ k ] ] ^ Integer.MIN_VALUE ) >>> shift ) & 0xffff ];
+      }
+      int sum = 0;
+      for ( int d = 0; d < counts.length; ++d ) {
+        int c = counts[ d ];
+        counts[ d ] = sum;
+        sum += c;
+      }
+      for ( int k = 0; k < n; ++k ) {
+        int i = src[ k ];
+        dst[ counts[ ( ( times[ i ] ^ Integer.MIN_VALUE ) >>> shift ) & 0xffff ]++ ] = i;
+      }
+      int[] tmp = src;
+      src = dst;
+      dst = tmp;
+    }
+    // After an even number of passes, the result is back in indices.
+  }
+
+}
@@ -3,11 +3,9 @@
  */
 package gov.nasa.jpl.ae.event;
 
-import gov.nasa.jpl.mbee.util.Pair;
 import gov.nasa.jpl.ae.util.SimulatedTime;
 import gov.nasa.jpl.mbee.util.CompareUtils;
 import gov.nasa.jpl.mbee.util.Debug;
-import gov.nasa.jpl.mbee.util.MoreToString;
 import gov.nasa.jpl.mbee.util.SocketClient;
 import gov.nasa.jpl.mbee.util.TimeUtils;
 import gov.nasa.jpl.mbee.util.TimeUtils.Units;
@@ -19,13 +17,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
@@ -37,13 +37,14 @@ import java.util.Vector;
 import junit.framework.Assert;
 
 /**
- *
+ * An EventSimulation plays back the start and end of events and the changes
+ * of timelines in time order, writing them out and plotting them. The
+ * records to play back are kept in an {@link EventQueue}.
  */
-public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Object, Object > > > {
+public class EventSimulation implements SimulationChangeListener {
 
   // Constants & Types
 
-  private static final long serialVersionUID = 7629618647715394322L;
   //private static final String enthoughtPythonPath = "/Applications/OpsRevMD1702-20120818/plugins/com.nomagic.magicdraw.jpython/scripts/magicdrawPlugin:/Library/Frameworks/Python.framework/Versions/7.3/lib";
   //private static final String enthoughtPython = "/Library/Frameworks/Python.framework/Versions/7.3/bin/Python";
   //private static final String enthoughtPythonPath = "/usr/local/epd_free-7.3-2-rh5-x86_64/";
@@ -96,6 +97,18 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
     end
     }
 
+  /**
+   * The value that
+   * {@link EventSimulation#writeEntries(Collection, Map, java.io.OutputStream, String)}
+   * writes for a source at a time where it no longer has entries.
+   */
+  public static final Object REMOVED = new Object() {
+    @Override
+    public String toString() {
+      return "<removed>";
+    }
+  };
+
   public static class ObjectComparator implements Comparator< Object > {
 
     @Override
@@ -137,12 +150,55 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
   Map< Object, Object > currentPlottableValues =
       new TreeMap< Object, Object >( new CompareUtils.GenericComparator< Object >() );
   Map< Object, String > categories = new HashMap< Object, String >();
+  // Samples are taken at increasing times, so cursors step through each map
+  // instead of searching it for every sample.
+  Map< TimeVaryingMap< ? >, TimeVaryingMap< ? >.TimeCursor > plotCursors =
+      new IdentityHashMap< TimeVaryingMap< ? >, TimeVaryingMap< ? >.TimeCursor >();
   
   SocketClient plotSocket = null;
   Process plotProcess = null;
   List<Executor> executors = new ArrayList<Executor>();
+  protected List< SimulationSink > sinks = new ArrayList< SimulationSink >();
+
+  /**
+   * Whether to write the table of records to the output stream. Turning this
+   * off leaves the executors, plot, and other sinks.
+   */
+  public boolean writingText = true;
+
+  /**
+   * Whether to run as fast as possible, advancing simulated time straight to
+   * each event and plot sample instead of pacing the simulation against the
+   * clock according to the time scale. This is for batch runs; leave it off
+   * to animate the simulation in real time.
+   */
+  public boolean fastForward = false;
+
+  /**
+   * Whether the simulation loop hands records to an output thread instead of
+   * formatting and writing them itself.
+   */
+  public boolean usingOutputThread = true;
+
+  /**
+   * How many records may wait for the output thread before the simulation
+   * waits for it.
+   */
+  public int outputCapacity = SimulationOutput.defaultCapacity;
   //public Collection<Plottable> plottables = new ArrayList<Plottable>();
   protected Set<Plottable> projections = new HashSet< Plottable >();
+
+  // The start and end of events and the changes of timelines in time order
+  protected EventQueue queue = new EventQueue();
+
+  // The events and timelines added to the simulation, the times of the
+  // entries added for each, and those that changed since the last update().
+  // Sources may report changes from other threads, so changedSources is
+  // synchronized.
+  protected Set< Object > sources = newIdentitySet();
+  protected Map< Object, int[] > sourceTimes = new IdentityHashMap< Object, int[] >();
+  protected Set< Object > changedSources =
+      Collections.synchronizedSet( newIdentitySet() );
     
   // New Constructors
   
@@ -155,20 +211,8 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
   }
 
   protected boolean put( Integer time, Object variable, Object value ) {
-    Set< Pair< Object, Object > > m = get( time );
-    if ( m == null ) {
-      //m = new TreeMap< Object, Object >( new ObjectComparator() );
-      m = new TreeSet< Pair< Object, Object > >( new ObjectComparator() );
-      put( time, m );
-    }
-    Pair< Object, Object > p = new Pair< Object, Object >( variable, value );
-    //Object o = m.put( variable, value );
-    boolean existingEntry = m.contains( p );//( o != null );
-    m.add( p );
-    if ( existingEntry ) {
-      if ( Debug.isOn() ) Debug.outln( "replaced existing entry: " + p );
-    }
-    return !existingEntry;
+    queue.add( time, variable, value );
+    return true;
   }
   
   // Methods
@@ -183,6 +227,11 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
       Assert.fail("Tried to add null event to simulation.");
       return false;
     }
+    if ( sourceTimes.containsKey( event ) ) {
+      if ( Debug.isOn() ) Debug.errln( "Entry already exists! " + event );
+      return false;
+    }
+    sources.add( event );
     
     boolean ungroundedTiming =
         ( event.getStartTime() == null
@@ -196,8 +245,8 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
     Integer startTime = event.getStartTime().getValueOrMin();
     Integer endTime = event.getEndTime().getValueOrMax();
     if ( startTime == null || endTime == null ) {
-      Debug.outln( "Warning: can't add event with no time information: "
-                   + event.getName() );
+      if ( Debug.isOn() ) Debug.outln( "Warning: can't add event with no time information: "
+                                       + event.getName() );
       return false;
     } else if ( ungroundedTiming ) {
       if ( Debug.isOn() ) {
@@ -208,17 +257,12 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
       return false;
     }
     
-    // Put entries for the startTime and endTime in the map.
-    boolean existingEntry = !put( startTime, event, EventType.start );
-    if ( !put( endTime, event, EventType.end ) ) {
-      existingEntry = true;
-    }
-    
-    if ( existingEntry ) {
-      if ( Debug.isOn() ) Debug.errln( "Entry already exists! " + event );
-    }
+    // Put entries for the startTime and endTime in the queue.
+    put( startTime, event, EventType.start );
+    put( endTime, event, EventType.end );
+    sourceTimes.put( event, new int[] { startTime, endTime } );
 //    if ( Debug.isOn() ) Debug.outln( "Simulation after addition:\n" + this );
-    return !existingEntry;
+    return true;
   }
   
   public < V > boolean add( TimeVaryingMap< V > tv, String category ) {
@@ -229,30 +273,45 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
     if ( Debug.isOn() ) Debug.outln( "Adding TimeVaryingMap to simulation: " + tv.getName() );
     
     categories.put( tv, category );
+    sources.add( tv );
     
     if ( isProjectedPlottable( tv ) ) {
       boolean alreadyAdded = projections.add((Plottable)tv);
       return alreadyAdded;
     }
     
+    if ( sourceTimes.containsKey( tv ) ) {
+      if ( Debug.isOn() ) Debug.errln( "Entry already exists! " + tv.getName() );
+      return false;
+    }
+
+    // Load the whole timeline into the queue at once.
     boolean existingEntry = false;
-//    Object lastValue = null;
-//    boolean first = true;
+    int[] times = new int[ tv.size() ];
+    Object[] values = new Object[ times.length ];
+    int numTimes = 0;
     for ( Map.Entry< Parameter<Integer>, V > e : tv.entrySet() ) {
-      if ( e.getKey() == null || e.getKey().getValueNoPropagate() == null ) {
+      Integer t = e.getKey() == null ? null : e.getKey().getValueNoPropagate();
+      if ( t == null ) {
         System.err.println( "Warning: adding time varying map entry with null time key "
                             + " to simulation " + e );
         continue;
       }
-//      if ( first ) first = false;
-//      else if ( lastValue == e.getValue() ||
-//                ( e.getValue() != null && e.getValue().equals( lastValue ) ) ) {
-//        continue;
-//      }
-      if ( !put( e.getKey().getValueNoPropagate(), tv, e.getValue() ) ) {
+      if ( numTimes >= times.length ) break;
+      // Keys with the same time and value only need one record.
+      V value = e.getValue();
+      if ( numTimes > 0 && times[ numTimes - 1 ] == t
+           && ( values[ numTimes - 1 ] == value
+                || ( value != null && value.equals( values[ numTimes - 1 ] ) ) ) ) {
         existingEntry = true;
+        continue;
       }
+      times[ numTimes ] = t;
+      values[ numTimes ] = value;
+      ++numTimes;
     }
+    queue.add( times, tv, values, numTimes );
+    sourceTimes.put( tv, numTimes == times.length ? times : Arrays.copyOf( times, numTimes ) );
     if ( currentPlottableValues != null && !tv.isEmpty() && 
          tv instanceof Plottable ) {
 //        ( tv.firstEntry().getValue() instanceof Double ||
@@ -265,6 +324,217 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
   public void add( Executor exec ) {
     executors.add( exec );
   }
+
+  /**
+   * Have the events and timelines added to this simulation tell it when they
+   * change so that {@link #update()} can patch their entries.
+   */
+  public void listenForChanges() {
+    for ( Object source : sources ) {
+      if ( source instanceof DurativeEvent ) {
+        ( (DurativeEvent)source ).addChangeListener( this );
+      } else if ( source instanceof TimeVaryingMap ) {
+        ( (TimeVaryingMap< ? >)source ).addChangeListener( this );
+      }
+    }
+  }
+
+  public void stopListening() {
+    for ( Object source : sources ) {
+      if ( source instanceof DurativeEvent ) {
+        ( (DurativeEvent)source ).removeChangeListener( this );
+      } else if ( source instanceof TimeVaryingMap ) {
+        ( (TimeVaryingMap< ? >)source ).removeChangeListener( this );
+      }
+    }
+  }
+
+  @Override
+  public void sourceChanged( Object source ) {
+    changedSources.add( source );
+  }
+
+  /**
+   * @return whether any event or timeline has changed since the last
+   *         {@link #update()}
+   */
+  public boolean hasChanges() {
+    return !changedSources.isEmpty();
+  }
+
+  /**
+   * Replace the entries of the events and timelines that have changed since
+   * the last update, leaving the rest of the simulation alone. Events and
+   * timelines added to the model since this simulation was built are not
+   * picked up; those need a new simulation.
+   *
+   * @return the events and timelines whose entries were replaced
+   */
+  public Set< Object > update() {
+    return update( null );
+  }
+
+  /**
+   * Replace the entries of the events and timelines that have changed since
+   * the last update, as for {@link #update()}, and note the times at which
+   * each of them lost all of its entries.
+   *
+   * @param removedTimes
+   *          a map to which each changed source is mapped to the sorted
+   *          times where it had entries before the update and has none
+   *          after, or null
+   * @return the events and timelines whose entries were replaced
+   */
+  public Set< Object > update( Map< Object, int[] > removedTimes ) {
+    Set< Object > changed = newIdentitySet();
+    synchronized ( changedSources ) {
+      changed.addAll( changedSources );
+      changedSources.clear();
+    }
+    for ( Object source : changed ) {
+      int[] oldTimes = sourceTimes.get( source );
+      removeEntries( source );
+      if ( source instanceof Event ) {
+        add( (Event)source );
+      } else if ( source instanceof TimeVaryingMap ) {
+        add( (TimeVaryingMap< ? >)source, categories.get( source ) );
+      }
+      if ( removedTimes != null && oldTimes != null ) {
+        int[] removed = timesNotIn( oldTimes, sourceTimes.get( source ) );
+        if ( removed.length > 0 ) removedTimes.put( source, removed );
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * @return the sorted, distinct times of {@code times} that are not in
+   *         {@code others}, which may be null
+   */
+  protected static int[] timesNotIn( int[] times, int[] others ) {
+    TreeSet< Integer > set = new TreeSet< Integer >();
+    for ( int t : times ) {
+      set.add( t );
+    }
+    if ( others != null ) {
+      for ( int t : others ) {
+        set.remove( t );
+      }
+    }
+    int[] result = new int[ set.size() ];
+    int i = 0;
+    for ( int t : set ) {
+      result[ i++ ] = t;
+    }
+    return result;
+  }
+
+  /**
+   * Remove the entries that {@code source} was added with.
+   *
+   * @param source
+   *          an event or timeline
+   */
+  protected void removeEntries( Object source ) {
+    int[] times = sourceTimes.remove( source );
+    if ( times == null ) return;
+    for ( int t : times ) {
+      queue.remove( t, source );
+    }
+  }
+
+  /**
+   * Write the entries of some of the events and timelines in time order in
+   * the same format as {@link #simulate(double, java.io.OutputStream)} but
+   * without waiting between them.
+   *
+   * @param someSources
+   *          the events and timelines whose entries are written
+   * @param os
+   * @param title
+   *          a line to write before the entries
+   */
+  public void writeEntries( Collection< ? > someSources, java.io.OutputStream os,
+                            String title ) {
+    writeEntries( someSources, null, os, title );
+  }
+
+  /**
+   * Write the entries of some of the events and timelines as for
+   * {@link #writeEntries(Collection, java.io.OutputStream, String)}, with a
+   * {@link #REMOVED} record for each time at which a source lost all of its
+   * entries. Applying such a delta replaces, for each source it lists, the
+   * entries at each time it lists, so that applying the deltas in order to a
+   * full snapshot gives the next full snapshot.
+   *
+   * @param someSources
+   *          the events and timelines whose entries are written
+   * @param removedTimes
+   *          the times where sources have no entries any more, as filled in
+   *          by {@link #update(Map)}, or null
+   * @param os
+   * @param title
+   *          a line to write before the entries
+   */
+  public void writeEntries( Collection< ? > someSources,
+                            Map< Object, int[] > removedTimes,
+                            java.io.OutputStream os, String title ) {
+    Set< Object > included = newIdentitySet();
+    included.addAll( someSources );
+    TreeMap< Integer, List< Object > > removedAt = new TreeMap< Integer, List< Object > >();
+    if ( removedTimes != null ) {
+      for ( Map.Entry< Object, int[] > e : removedTimes.entrySet() ) {
+        for ( int t : e.getValue() ) {
+          List< Object > list = removedAt.get( t );
+          if ( list == null ) {
+            list = new ArrayList< Object >( 1 );
+            removedAt.put( t, list );
+          }
+          list.add( e.getKey() );
+        }
+      }
+    }
+    TreeSet< Integer > times = new TreeSet< Integer >( removedAt.keySet() );
+    for ( Object source : included ) {
+      int[] sourceTimesArray = sourceTimes.get( source );
+      if ( sourceTimesArray == null ) continue;
+      for ( int t : sourceTimesArray ) {
+        times.add( t );
+      }
+    }
+    TextSimulationSink sink = new TextSimulationSink( os, title, "--- end ---" );
+    sink.start( timeScale );
+    int n = queue.numPositions();
+    for ( int t : times ) {
+      for ( int pos = queue.lowerBound( t ); pos < n && queue.timeAt( pos ) == t; ++pos ) {
+        Object variable = queue.variableAt( pos );
+        if ( included.contains( variable ) ) {
+          sink.record( t, variable, queue.valueAt( pos ) );
+        }
+      }
+      List< Object > removed = removedAt.get( t );
+      if ( removed != null ) {
+        for ( Object source : removed ) {
+          sink.record( t, source, REMOVED );
+        }
+      }
+    }
+    sink.end();
+  }
+
+  protected static Set< Object > newIdentitySet() {
+    return Collections.newSetFromMap( new IdentityHashMap< Object, Boolean >() );
+  }
+
+  /**
+   * Add a sink to receive the records of the simulation from the output
+   * thread.
+   *
+   * @param sink
+   */
+  public void add( SimulationSink sink ) {
+    sinks.add( sink );
+  }
   
   public void simulate( double timeScale ) {
     try {
@@ -280,7 +550,16 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
   
   public void simulate( double scale, java.io.OutputStream os ) {
     this.timeScale = scale;
-    PrintWriter w = new PrintWriter( os, true );
+    List< SimulationSink > outputSinks = new ArrayList< SimulationSink >();
+    if ( writingText ) outputSinks.add( new TextSimulationSink( os ) );
+    if ( !executors.isEmpty() ) {
+      outputSinks.add( new ExecutorSimulationSink( executors ) );
+    }
+    outputSinks.addAll( sinks );
+    // Plotting reads the model and the plot state, so it stays on this
+    // thread; the sinks only get the resolved values.
+    SimulationOutput output =
+        new SimulationOutput( outputSinks, usingOutputThread, outputCapacity );
     //long startClock = -1;
     int lastT = -1;
     SimulatedTime simTimer = new SimulatedTime( timeScale );
@@ -293,13 +572,25 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
       //Debug.turnOff();
     }
     boolean firstLoop = true;
-    w.println("--- simulation start, timeScale = " + timeScale + " ---");
-    for ( Map.Entry< Integer, Set< Pair< Object, Object > > > e1 : entrySet() ) {
-      for ( Pair< Object, Object > p : e1.getValue() ) {//.entrySet() ) {
-        
+    output.start( timeScale );
+    try {
+      int numRecords = queue.numPositions();
+      for ( int pos = 0; pos < numRecords; ++pos ) {
+      
         // Delay between events
-        int nextEventSimTime = e1.getKey();
-        if (firstLoop) {
+        int nextEventSimTime = queue.timeAt( pos );
+        if ( fastForward ) {
+          // Take the samples due by this event in time order without waiting.
+          while ( tryToPlot && usingSamplePeriod
+                  && nextSampleSimTime <= nextEventSimTime
+                  && ( !simulatingHorizon
+                       || nextSampleSimTime <= Timepoint.getHorizonDuration() ) ) {
+            plotValues( lastSampleSimTime, nextSampleSimTime );
+            lastSampleSimTime = nextSampleSimTime;
+            assert this.plotSamplePeriod > 0.0;
+            nextSampleSimTime += this.plotSamplePeriod;
+          }
+        } else if (firstLoop) {
           firstLoop = false;
           simTimer.reset();
         } else {
@@ -334,83 +625,38 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
             System.err.println("Simulation sleep interrupted unexpectedly.");
           }
         }
-        
+      
         // the event & value(s)
-        int t = e1.getKey().intValue();
-        Object variable = p.first; //e2.getKey();
-        Object value = p.second; //e2.getValue();
-        Object originalValue = value; //e2.getValue();
-        // the names of the event
-        String name;
-        String longClassName = variable.getClass().getName();
-        String shortClassName = variable.getClass().getSimpleName();
-        String classNames = shortClassName + " ==> " + longClassName;
-        if ( variable instanceof ParameterListener ) {
-          name = ((ParameterListener)variable).getName();
-        } else {
-          name = variable.getClass().getSimpleName();
-        }
-        
-        // get String for Double
-        if ( value instanceof Double ) {
-          value = String.format( "%.2f", value );
-        }
-        
-        // unleash the executors!
-        for ( Executor exec : executors ) {
-          exec.execute( nextEventSimTime, name, shortClassName, longClassName,
-                        ( value == null ? "null" : value.toString() ) );
-        }
-        
-        try {
-          value = Expression.evaluate( value, null, false );
-        } catch ( ClassCastException e ) {
-          // TODO Auto-generated catch block
-          //e.printStackTrace();
-        } catch ( IllegalAccessException e ) {
-          // TODO Auto-generated catch block
-          //e.printStackTrace();
-        } catch ( InvocationTargetException e ) {
-          // TODO Auto-generated catch block
-          //e.printStackTrace();
-        } catch ( InstantiationException e ) {
-          // TODO Auto-generated catch block
-          //e.printStackTrace();
-        }
-        if ( value instanceof MoreToString ) {
-          Map<String,Object> options = new TreeMap< String, Object >();
-          options.put( "withOwner", false );
-          value = ( (MoreToString)value ).toString( false, false, null, options );
-        }
-        // TODO -- printing should be an Executor
-        String formatString = null;
-        if ( t == lastT ) {
-          String padding = Utils.spaces( 47 );
-          formatString = "%s%-60s   %s\n";
-          w.printf( formatString, padding, name + " -> " +
-                    ( value == null ? "null" : value.toString() ), classNames );
-        } else {
-          if ( tryToPlot && !usingSamplePeriod ) {
-            if ( currentPlottableValues != null && currentPlottableValues.containsKey( variable ) ) {
-              currentPlottableValues.put( variable, originalValue );
-            }
-            plotValues( t );
+        int t = nextEventSimTime;
+        Object variable = queue.variableAt( pos );
+        Object value = queue.valueAt( pos );
+        if ( tryToPlot && !usingSamplePeriod && t != lastT ) {
+          if ( currentPlottableValues != null && currentPlottableValues.containsKey( variable ) ) {
+            currentPlottableValues.put( variable, value );
           }
-          formatString = "%14s : %28s  %-60s   %s\n";
-          w.printf( formatString,
-                    ( new Duration( t, null ) ).toStringWithUnits( false, false ),
-                    Timepoint.toTimestamp( t ),
-                    name + " -> " + ( value == null ? "null" : value.toString() ),
-                    classNames );
+          plotValues( t );
         }
+        // Formatting, the executors, and other output happen on the output
+        // thread.
+        output.record( t, variable, value );
         lastT = t;
-        if ( simulatingHorizon && simTimer.passedHorizon() ) break;
+        if ( simulatingHorizon && passedHorizon( simTimer, t ) ) break;
       }
-      if ( simulatingHorizon && simTimer.passedHorizon() ) break;
+    } finally {
+      output.close();
+      closePlotSocket();
+      joinIoThreads();
     }
-    w.println("--- simulation end ---");
-    closePlotSocket();
-    joinIoThreads();
+  }
+
+  /**
+   * @return whether the simulation has passed the horizon, which in
+   *         {@link #fastForward} mode is when the time of the last event is
+   *         past the horizon, and otherwise depends on the clock
+   */
+  protected boolean passedHorizon( SimulatedTime simTimer, int time ) {
+    if ( fastForward ) return time > Timepoint.getHorizonDuration();
+    return simTimer.passedHorizon();
   }
 
   protected void getPlotProcessOutput() {
@@ -687,7 +933,7 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
     if ( map == null || plotSocket == null || !plotSocket.isConnected() ) {
       return;
     }
-    Debug.outln( "Attempting to plot projection at time t=" + t + " from " + map );
+    if ( Debug.isOn() ) Debug.outln( "Attempting to plot projection at time t=" + t + " from " + map );
     // The array will contain the map's hash code followed by key-value pairs.
     Vector<Double> doubleVector = new Vector< Double >();
     try {
@@ -709,7 +955,7 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
       if ( map == null || map.isEmpty() ) {
         throw new IllegalArgumentException( "Projection to plot is null or empty " + map );
       }
-      Debug.outln( "plotting projection: " + map );
+      if ( Debug.isOn() ) Debug.outln( "plotting projection: " + map );
       for ( Map.Entry< Parameter< Integer >, ? > e : map.entrySet() ) {
         Integer timeInteger = e.getKey().getValue();
         if ( timeInteger <= lastTime ) continue;
@@ -795,8 +1041,17 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
     plotValues( time, time );
   }
 
+  protected TimeVaryingMap< ? >.TimeCursor getPlotCursor( TimeVaryingMap< ? > map ) {
+    TimeVaryingMap< ? >.TimeCursor cursor = plotCursors.get( map );
+    if ( cursor == null ) {
+      cursor = map.cursor();
+      plotCursors.put( map, cursor );
+    }
+    return cursor;
+  }
+
   protected void plotValues( double lastTime, double time ) {
-    Debug.outln("called plotvalues @ " + time);
+    if ( Debug.isOn() ) Debug.outln("called plotvalues @ " + time);
     plotProjectionsThatChangeAtTime( time );
     if ( currentPlottableValues == null || 
          plotSocket == null || !plotSocket.isConnected() ) {
@@ -813,7 +1068,13 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
       if ( this.usingSamplePeriod && o instanceof TimeVarying && o instanceof Plottable ) {
         if( ((Plottable)o).okToSample() ) {
           try {
-            v = Expression.evaluate( ((TimeVarying<?>)o).getValue( (int)time ), null, false );
+            Object tvValue = null;
+            if ( o instanceof TimeVaryingMap ) {
+              tvValue = getPlotCursor( (TimeVaryingMap<?>)o ).getValue( (int)time );
+            } else {
+              tvValue = ((TimeVarying<?>)o).getValue( (int)time );
+            }
+            v = Expression.evaluate( tvValue, null, false );
           } catch ( ClassCastException e1 ) {
             // TODO Auto-generated catch block
             //e1.printStackTrace();
@@ -827,7 +1088,7 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
             // TODO Auto-generated catch block
             //e1.printStackTrace();
           }
-          Debug.outln("plotting " + o.toString() + " = "+ v);
+          if ( Debug.isOn() ) Debug.outln("plotting " + o.toString() + " = "+ v);
         }
       }
       assert v == null || v instanceof Double || v instanceof Integer|| v instanceof Float
@@ -847,14 +1108,14 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
       if ( v == null ) v = 0.0;
       
       if ( Double.class.isInstance( v ) ) {
-        Debug.outln( "appending " + o.toString() + " at index " + cnt + " = "
-                     + v );
+        if ( Debug.isOn() ) Debug.outln( "appending " + o.toString() + " at index " + cnt + " = "
+                                         + v );
         doubleArray[ cnt++ ] = ( (Double)v ).doubleValue();
       } else {
         Debug.error( "should have a double value for " + o.toString() + ": "
                      + v );
-        Debug.outln( "no value found! appending 0.0 for " + o.toString()
-                     + " at index " + cnt + ", bad value: " + v );
+        if ( Debug.isOn() ) Debug.outln( "no value found! appending 0.0 for " + o.toString()
+                                         + " at index " + cnt + ", bad value: " + v );
         doubleArray[ cnt++ ] = 0.0;
       }
     }
@@ -886,10 +1147,12 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
 
   /**
    * @param comparator
+   *          ignored; records are always played back in increasing time order
+   * @deprecated the simulation is no longer a sorted map
    */
+  @Deprecated
   public EventSimulation( Comparator< ? super Integer > comparator ) {
-    super( comparator );
-    if ( simulatingHorizon ) addHorizonEvent();
+    this();
   }
 
   private void addHorizonEvent() {
@@ -900,11 +1163,7 @@ public class EventSimulation extends java.util.TreeMap< Integer, Set< Pair< Obje
   }
 
   public int numEvents() {
-    int sum = 0;
-    for ( Map.Entry< Integer, Set< Pair< Object, Object > > > e : entrySet() ) {
-      if ( e.getValue() != null ) sum += e.getValue().size();
-    }
-    return sum;
+    return queue.size();
   }
 
 //  /**
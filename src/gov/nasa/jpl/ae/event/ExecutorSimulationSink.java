@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * ExecutorSimulationSink passes each record of an {@link EventSimulation} to
+ * its {@link Executor}s.
+ */
+public class ExecutorSimulationSink implements SimulationSink {
+
+  protected final List< Executor > executors;
+
+  public ExecutorSimulationSink( Collection< Executor > executors ) {
+    this.executors = new ArrayList< Executor >( executors );
+  }
+
+  @Override
+  public void start( double timeScale ) {
+  }
+
+  @Override
+  public void record( int time, Object variable, Object value ) {
+    if ( executors.isEmpty() ) return;
+    String name = SimulationOutput.getName( variable );
+    String shortClassName = variable.getClass().getSimpleName();
+    String longClassName = variable.getClass().getName();
+    String valueString = SimulationOutput.valueString( value );
+    for ( Executor exec : executors ) {
+      exec.execute( time, name, shortClassName, longClassName, valueString );
+    }
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void end() {
+  }
+
+}
@@ -954,7 +954,7 @@ public class Expression< ResultType > extends HasIdImpl
     try {
       r = (TT)object;
     } catch ( ClassCastException cce ) {
-      Debug.errln( "Warning! No evaluation of " + object + " with type " + cls.getName() + "!" );
+      if ( Debug.isOn() ) Debug.errln( "Warning! No evaluation of " + object + " with type " + cls.getName() + "!" );
       throw cce;
     }
     return r;
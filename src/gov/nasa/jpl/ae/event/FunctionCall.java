@@ -9,6 +9,8 @@ import gov.nasa.jpl.mbee.util.Pair;
 import gov.nasa.jpl.mbee.util.Utils;
 import gov.nasa.jpl.mbee.util.CompareUtils.MappedValueComparator;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
@@ -306,22 +308,71 @@ public class FunctionCall extends Call {
     return Modifier.isStatic( method.getModifiers() );
   }
   
+  @Override
+  protected MethodHandle makeInvoker() throws IllegalAccessException {
+    if ( method == null ) return null;
+    MethodHandle handle = MethodHandles.lookup().unreflect( method );
+    return spreadInvoker( handle, method.getParameterTypes().length,
+                          !isStatic() );
+  }
+
+  /**
+   * @return whether the method can be invoked from {@code evaluatedObject}
+   *         with {@code evaluatedArgs} through the invoker
+   */
+  protected boolean canUseInvoker( Object evaluatedObject, Object[] evaluatedArgs ) {
+    return canUseInvoker( evaluatedArgs )
+           && ( isStatic() || method.getDeclaringClass().isInstance( evaluatedObject ) );
+  }
+
+  @Override
+  protected Object invokeMember( Object evaluatedObject, Object[] evaluatedArgs,
+                                 EvaluationContext context ) throws IllegalArgumentException,
+                                                                    InstantiationException,
+                                                                    IllegalAccessException,
+                                                                    InvocationTargetException {
+    context.succeeded = false;
+    if ( method == null ) {
+      if ( Debug.isOn() ) Debug.errln( "Warning! Tried to invoke a null method! " + this );
+      return null;
+    }
+    if ( !isStatic() && evaluatedObject == null ) {
+      if ( Debug.isOn() ) Debug.errln( "Warning! Tried to invoke a non-static method without an instance! " + this );
+      return null;
+    }
+    Object result;
+    if ( canUseInvoker( evaluatedObject, evaluatedArgs ) ) {
+      result = invokeWithInvoker( evaluatedObject, evaluatedArgs );
+    } else if ( hasTypeErrors( evaluatedArgs ) ) {
+      if ( Debug.isOn() ) Debug.errln( "Warning! Tried calling " + this
+                                       + " with bad argument types! "
+                                       + MoreToString.Helper.toString( evaluatedArgs ) );
+      return null;
+    } else {
+      result = method.invoke( evaluatedObject, evaluatedArgs );
+    }
+    context.succeeded = true;
+    return result;
+  }
+
   @Override
   public Object invoke( Object evaluatedObject, Object[] evaluatedArgs ) throws IllegalArgumentException, InstantiationException, IllegalAccessException, InvocationTargetException {
     if ( method == null ) {
       evaluationSucceeded = false;
-      Debug.errln( "Warning! Tried to invoke a null method! " + this );
+      if ( Debug.isOn() ) Debug.errln( "Warning! Tried to invoke a null method! " + this );
       return null;
     }
     if ( !isStatic() && evaluatedObject == null ) {
-      Debug.errln( "Warning! Tried to invoke a non-static method without an instance! " + this );
+      if ( Debug.isOn() ) Debug.errln( "Warning! Tried to invoke a non-static method without an instance! " + this );
       evaluationSucceeded = false;
       return null;
     }
-    if ( hasTypeErrors( evaluatedArgs ) ) {
-      Debug.errln( "Warning! Tried calling " + this
-                   + " with bad argument types! "
-                   + MoreToString.Helper.toString( evaluatedArgs ) );
+    // Arguments that exactly match the parameter types have no type errors.
+    boolean useInvoker = canUseInvoker( evaluatedObject, evaluatedArgs );
+    if ( !useInvoker && hasTypeErrors( evaluatedArgs ) ) {
+      if ( Debug.isOn() ) Debug.errln( "Warning! Tried calling " + this
+                                       + " with bad argument types! "
+                                       + MoreToString.Helper.toString( evaluatedArgs ) );
       evaluationSucceeded = false;
       return null;
     }
@@ -339,7 +390,11 @@ public class FunctionCall extends Call {
     // Utils.newList(new Object[]{(Object)null}).
 //    Debug.turnOn();
     try {
-      returnValue = method.invoke( evaluatedObject, evaluatedArgs );
+      if ( useInvoker ) {
+        returnValue = invokeWithInvoker( evaluatedObject, evaluatedArgs );
+      } else {
+        returnValue = method.invoke( evaluatedObject, evaluatedArgs );
+      }
       if ( Debug.isOn() ) {
           System.out.println("FunctionCall method = " + method.toGenericString());
           System.out.println("FunctionCall args = " + arguments);
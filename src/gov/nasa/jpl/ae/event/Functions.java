@@ -10,7 +10,6 @@ import gov.nasa.jpl.ae.solver.Domain;
 import gov.nasa.jpl.ae.solver.DoubleDomain;
 import gov.nasa.jpl.ae.solver.HasDomain;
 import gov.nasa.jpl.ae.solver.IntegerDomain;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.ae.solver.RangeDomain;
 import gov.nasa.jpl.ae.solver.Variable;
 import gov.nasa.jpl.ae.util.DomainHelper;
@@ -2109,7 +2108,7 @@ public class Functions {
     T t2 = pickTrue( o1, variableForPick );
     if ( t1 == null ) return t2;
     if ( t2 == null ) return t1;
-    return Random.global.nextBoolean() ? t1 : t2;
+    return EvaluationContext.random().nextBoolean() ? t1 : t2;
   }
   
   // Picking Sum (Add/Plus are subtypes of Sum) /////////////////////////////////////////
@@ -2712,7 +2711,7 @@ public class Functions {
       first = false;
     } else {
       // in both arguments; pick randomly
-      first = Random.global.nextBoolean();
+      first = EvaluationContext.random().nextBoolean();
     }
     chosenPickCall = first ? pickFunctionCall : reversePickFunctionCall;
     arg = first ? o1 : o2;
@@ -2782,7 +2781,7 @@ public class Functions {
         }
         if ( result instanceof Collection ) {
           Collection<T1> coll = (Collection<T1>)result;
-          T1 t11 = get( coll, Random.global.nextInt( coll.size() ) );
+          T1 t11 = get( coll, EvaluationContext.random().nextInt( coll.size() ) );
           return t11;
         } else {
           Class<T1> cls = (Class< T1 >)variable.getClass();
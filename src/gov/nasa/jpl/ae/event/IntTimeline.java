@@ -0,0 +1,333 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.util.Arrays;
+
+/**
+ * IntTimeline is a {@link PrimitiveTimeline} of integers backed by parallel
+ * {@code int[]} time and value arrays, taking about 8 bytes per sample.
+ * Arithmetic with non-integer numbers truncates to an int as
+ * {@link TimeVaryingMap#add(Number, Parameter, Parameter)} does. Like
+ * {@link Functions#times(int, int)} and {@link Functions#dividedBy(int, int)},
+ * results that overflow and division by zero saturate at
+ * {@link Integer#MAX_VALUE} or {@link Integer#MIN_VALUE} instead of wrapping
+ * or throwing.
+ */
+public class IntTimeline extends PrimitiveTimeline< Integer > {
+
+  protected int[] values;
+
+  public IntTimeline( String name ) {
+    this( name, defaultCapacity );
+  }
+
+  public IntTimeline( String name, int initialCapacity ) {
+    super( name, initialCapacity );
+    values = new int[ times.length ];
+  }
+
+  public IntTimeline( String name, TimeVaryingMap< ? extends Number > tvm ) {
+    this( name, tvm == null ? defaultCapacity : tvm.size() );
+    fromTimeVaryingMap( tvm );
+  }
+
+  /**
+   * @param name
+   * @param times
+   *          sample times in increasing order
+   * @param values
+   *          the values for each of the times
+   * @param length
+   *          the number of samples to copy from the arrays
+   */
+  public IntTimeline( String name, int[] times, int[] values, int length ) {
+    super( name, Math.max( 1, length ) );
+    this.values = new int[ this.times.length ];
+    for ( int i = 1; i < length; ++i ) {
+      if ( times[ i ] <= times[ i - 1 ] ) {
+        throw new IllegalArgumentException( "times must be increasing: "
+                                            + times[ i - 1 ] + ", " + times[ i ] );
+      }
+    }
+    System.arraycopy( times, 0, this.times, 0, length );
+    System.arraycopy( values, 0, this.values, 0, length );
+    size = length;
+  }
+
+  public IntTimeline( IntTimeline timeline ) {
+    this( timeline.name, timeline.times, timeline.values, timeline.size );
+    owner = timeline.owner;
+    interpolation = new TimeVaryingMap.Interpolation( timeline.interpolation.type );
+  }
+
+  @Override
+  public IntTimeline clone() {
+    return new IntTimeline( this );
+  }
+
+  @Override
+  protected void growValues( int capacity ) {
+    values = Arrays.copyOf( values, capacity );
+  }
+
+  @Override
+  protected void copyValues( int srcPos, int destPos, int length ) {
+    System.arraycopy( values, srcPos, values, destPos, length );
+  }
+
+  @Override
+  protected Integer boxedValueAt( int i ) {
+    return values[ i ];
+  }
+
+  @Override
+  protected void setValueAt( int i, Number value ) {
+    values[ i ] = value == null ? 0 : value.intValue();
+  }
+
+  @Override
+  protected boolean valuesEqualAt( int i, int j ) {
+    return values[ i ] == values[ j ];
+  }
+
+  /**
+   * @param i
+   *          the index of an entry
+   * @return the value of the entry at index {@code i}
+   */
+  public int getValueAt( int i ) {
+    return values[ i ];
+  }
+
+  /**
+   * An unboxed version of {@link #getValue(Integer)}.
+   *
+   * @param t
+   *          a time
+   * @param valueIfNone
+   *          the value to return if there is no value at {@code t}
+   * @return the value at time {@code t} according to the interpolation or
+   *         {@code valueIfNone}
+   */
+  public int valueAt( int t, int valueIfNone ) {
+    int i = floorIndex( t );
+    if ( interpolation.type == TimeVaryingMap.Interpolation.NONE ) {
+      return i >= 0 && times[ i ] == t ? values[ i ] : valueIfNone;
+    }
+    if ( i < 0 ) return valueIfNone;
+    if ( interpolation.type == TimeVaryingMap.Interpolation.STEP
+         || times[ i ] == t || i == size - 1 ) {
+      return values[ i ];
+    }
+    return linear( i, t );
+  }
+
+  protected int linear( int i, int t ) {
+    // integer arithmetic, as Functions does for Integer values
+    long dv = (long)values[ i + 1 ] - values[ i ];
+    return (int)( values[ i ] + dv * ( t - times[ i ] ) / ( times[ i + 1 ] - times[ i ] ) );
+  }
+
+  @Override
+  protected Integer interpolate( int i, int t ) {
+    return linear( i, t );
+  }
+
+  public Integer setValue( int t, int value ) {
+    int i = indexOf( t );
+    Integer oldValue = i >= 0 ? values[ i ] : null;
+    i = putTime( t, value );
+    values[ i ] = value;
+    return oldValue;
+  }
+
+  /**
+   * Append a sample after the last one in O(1) amortized time.
+   *
+   * @param t
+   *          a time later than that of the last entry
+   * @param value
+   *          the value at {@code t}
+   */
+  public void append( int t, int value ) {
+    if ( size > 0 && t <= times[ size - 1 ] ) {
+      throw new IllegalArgumentException( "time " + t
+                                          + " is not after last time "
+                                          + times[ size - 1 ] );
+    }
+    setValue( t, value );
+  }
+
+  /**
+   * @return {@code v} clamped to the range of an int
+   */
+  protected static int saturate( long v ) {
+    if ( v > Integer.MAX_VALUE ) return Integer.MAX_VALUE;
+    if ( v < Integer.MIN_VALUE ) return Integer.MIN_VALUE;
+    return (int)v;
+  }
+
+  /**
+   * @return {@code a / b}, or, if {@code b} is zero, {@link Integer#MAX_VALUE}
+   *         with the sign of {@code a} as {@link Functions#dividedBy(int, int)}
+   *         returns
+   */
+  protected static int divide( int a, int b ) {
+    if ( b == 0 ) return Functions.dividedBy( a, b );
+    // MIN_VALUE / -1 is the one quotient that overflows.
+    return saturate( (long)a / b );
+  }
+
+  protected static boolean isIntegral( Number n ) {
+    return n instanceof Integer || n instanceof Long || n instanceof Short
+           || n instanceof Byte;
+  }
+
+  @Override
+  public IntTimeline add( Number n, Integer fromTime, Integer toTime ) {
+    if ( n == null || isEmpty() && fromTime == null ) return this;
+    int[] r = rangeForUpdate( fromTime, toTime, 0 );
+    if ( isIntegral( n ) ) {
+      long d = n.longValue();
+      for ( int i = r[ 0 ]; i < r[ 1 ]; ++i ) {
+        values[ i ] = saturate( values[ i ] + d );
+      }
+    } else {
+      double d = n.doubleValue();
+      for ( int i = r[ 0 ]; i < r[ 1 ]; ++i ) {
+        values[ i ] = (int)( values[ i ] + d );
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public IntTimeline multiply( Number n, Integer fromTime, Integer toTime ) {
+    if ( n == null || isEmpty() && fromTime == null ) return this;
+    int[] r = rangeForUpdate( fromTime, toTime, 0 );
+    if ( isIntegral( n ) ) {
+      int d = saturate( n.longValue() );
+      for ( int i = r[ 0 ]; i < r[ 1 ]; ++i ) {
+        values[ i ] = saturate( (long)values[ i ] * d );
+      }
+    } else {
+      double d = n.doubleValue();
+      for ( int i = r[ 0 ]; i < r[ 1 ]; ++i ) {
+        values[ i ] = (int)( values[ i ] * d );
+      }
+    }
+    return this;
+  }
+
+  public IntTimeline divide( Number n ) {
+    if ( n == null ) return this;
+    if ( isIntegral( n ) ) {
+      int d = saturate( n.longValue() );
+      for ( int i = 0; i < size; ++i ) {
+        values[ i ] = divide( values[ i ], d );
+      }
+    } else {
+      double d = n.doubleValue();
+      for ( int i = 0; i < size; ++i ) {
+        values[ i ] = d == 0.0 ? Functions.dividedBy( values[ i ], 0 )
+                               : (int)( values[ i ] / d );
+      }
+    }
+    return this;
+  }
+
+  protected static final byte PLUS = 0;
+  protected static final byte MINUS = 1;
+  protected static final byte TIMES = 2;
+  protected static final byte DIVIDE = 3;
+
+  /**
+   * Combine this timeline with another in a single pass over the union of
+   * their times with step interpolation. Values of the other timeline are
+   * truncated to ints.
+   *
+   * @see DoubleTimeline#combine(PrimitiveTimeline, byte)
+   */
+  protected IntTimeline combine( PrimitiveTimeline< ? > other, byte op ) {
+    if ( other == null || other.isEmpty() ) return this;
+    int n = unionSize( other );
+    int[] unionTimes = new int[ Math.max( n, 1 ) ];
+    int[] thisIdx = new int[ n ];
+    int[] otherIdx = new int[ n ];
+    mergeTimes( other, unionTimes, thisIdx, otherIdx );
+    int[] newValues = new int[ unionTimes.length ];
+    IntTimeline oi = other instanceof IntTimeline ? (IntTimeline)other : null;
+    for ( int k = 0; k < n; ++k ) {
+      boolean hasThis = thisIdx[ k ] >= 0;
+      boolean hasOther = otherIdx[ k ] >= 0;
+      int a = hasThis ? values[ thisIdx[ k ] ] : 0;
+      int b = !hasOther ? 0 : oi != null ? oi.values[ otherIdx[ k ] ]
+                                         : other.boxedValueAt( otherIdx[ k ] ).intValue();
+      int v;
+      switch ( op ) {
+        case PLUS:
+          v = saturate( (long)a + b );
+          break;
+        case MINUS:
+          v = saturate( (long)a - b );
+          break;
+        case TIMES:
+          v = !hasThis ? b : !hasOther ? a : saturate( (long)a * b );
+          break;
+        default:
+          v = !hasThis ? 0 : !hasOther ? a : divide( a, b );
+          break;
+      }
+      newValues[ k ] = v;
+    }
+    times = unionTimes;
+    values = newValues;
+    size = n;
+    return (IntTimeline)removeDuplicates();
+  }
+
+  public IntTimeline add( PrimitiveTimeline< ? > other ) {
+    return combine( other, PLUS );
+  }
+
+  public IntTimeline subtract( PrimitiveTimeline< ? > other ) {
+    return combine( other, MINUS );
+  }
+
+  public IntTimeline multiply( PrimitiveTimeline< ? > other ) {
+    return combine( other, TIMES );
+  }
+
+  public IntTimeline divide( PrimitiveTimeline< ? > other ) {
+    return combine( other, DIVIDE );
+  }
+
+  public IntTimeline plus( PrimitiveTimeline< ? > other ) {
+    return clone().add( other );
+  }
+
+  public IntTimeline minus( PrimitiveTimeline< ? > other ) {
+    return clone().subtract( other );
+  }
+
+  public IntTimeline times( PrimitiveTimeline< ? > other ) {
+    return clone().multiply( other );
+  }
+
+  public IntTimeline dividedBy( PrimitiveTimeline< ? > other ) {
+    return clone().divide( other );
+  }
+
+  @Override
+  public Class< Integer > getType() {
+    return Integer.class;
+  }
+
+  @Override
+  public Class< ? > getPrimitiveType() {
+    return int.class;
+  }
+
+}
@@ -17,7 +17,6 @@ import gov.nasa.jpl.ae.solver.Domain;
 import gov.nasa.jpl.ae.solver.HasConstraints;
 import gov.nasa.jpl.ae.solver.HasDomain;
 import gov.nasa.jpl.ae.solver.HasIdImpl;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.ae.solver.RangeDomain;
 import gov.nasa.jpl.ae.solver.Satisfiable;
 import gov.nasa.jpl.ae.solver.Variable;
@@ -45,9 +44,8 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
    */
   public static boolean allowPickValue = true;
   
-  // These are for debug validation.
-  public static boolean mayPropagate = true;
-  public static boolean mayChange = true;
+  // Whether parameters may propagate or change values, for debug validation,
+  // are kept per thread in EvaluationContext.mayPropagate and mayChange.
 
   protected String name = null;
   private Domain< T > domain = null;
@@ -205,6 +203,7 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
   }
   public void setDomain( Domain< T > domain, boolean propagate ) {
     this.domain = domain;
+    ParameterListenerImpl.constraintStructureChanged();
     if ( propagate && owner != null ) {
       //owner.setStaleAnyReferencesTo( this );
       owner.handleDomainChangeEvent( this );
@@ -223,7 +222,7 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
 
   public T getValue() {
     if ( Debug.isOn() ) Debug.outln( "Parameter.getValue() start: " + this );
-    assert mayPropagate;
+    assert EvaluationContext.get().mayPropagate;
     if ( isStale() ) {
       if ( owner != null ) { 
         owner.refresh( this );
@@ -309,8 +308,8 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
       valString = MoreToString.Helper.toLongString( val );
       Debug.outln( "Parameter.setValue(" + valString + ") start: " + this.toString( true, true, null ) );
     }
-    assert !propagateChange || mayPropagate;
-    assert mayChange;
+    assert !propagateChange || EvaluationContext.get().mayPropagate;
+    assert EvaluationContext.get().mayChange;
     T castVal = null;
     try {
       try {
@@ -364,6 +363,12 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
       if ( Debug.isOn() ) {
         Debug.outln(" $$$$$$$$$$$$$$   setValue(" + val + "): " + this + "   $$$$$$$$$$$$$");
       }
+      // A value with constraints of its own changes what constraints are
+      // collected through this parameter, but only if it is a different
+      // object and one of the two actually has constraints.
+      if ( val != value && ( ownsConstraints( val ) || ownsConstraints( value ) ) ) {
+        ParameterListenerImpl.constraintStructureChanged();
+      }
       this.value = val;
       if ( Debug.isOn() ) Debug.outln( "Parameter.setValue(" + valString
                                        + "): value set!" );
@@ -379,6 +384,15 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
     if ( Debug.isOn() ) Debug.outln( "Parameter.setValue(" + valString + ") finish: " + this.toString( true, true, null ) );
   }
 
+  /**
+   * @return whether {@code o} has constraints that are collected through a
+   *         parameter whose value it is
+   */
+  protected static boolean ownsConstraints( Object o ) {
+    return o instanceof HasConstraints
+           && ( (HasConstraints)o ).getNumberOfConstraints( true, null ) > 0;
+  }
+
   /**
    * @return the owner
    */
@@ -422,7 +436,7 @@ public class Parameter< T > extends HasIdImpl implements Cloneable, Groundable,
   
   @Override
   public boolean pickValue() {
-    if ( Random.global.nextBoolean() ) {
+    if ( EvaluationContext.random().nextBoolean() ) {
       return ownerPickValue();
     }
     T value = pickRandomValue();
@@ -4,6 +4,7 @@
 package gov.nasa.jpl.ae.event;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -11,6 +12,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import junit.framework.Assert;
 import gov.nasa.jpl.ae.solver.CollectionTree;
@@ -18,7 +20,6 @@ import gov.nasa.jpl.ae.solver.Constraint;
 import gov.nasa.jpl.ae.solver.ConstraintLoopSolver;
 import gov.nasa.jpl.ae.solver.HasConstraints;
 import gov.nasa.jpl.ae.solver.HasIdImpl;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.ae.solver.Satisfiable;
 import gov.nasa.jpl.ae.solver.Solver;
 import gov.nasa.jpl.ae.solver.Variable;
@@ -50,6 +51,10 @@ public class ParameterListenerImpl extends HasIdImpl
   protected boolean snapshotToSameFile = true;
   protected int loopsPerSnapshot = 20;  // set to 1 to take snapshot every time
   protected String baseSnapshotFileName = "simulationSnapshot.txt";
+  // Write snapshots as binary traces instead of text and Aspen files.
+  protected boolean snapshotAsTrace = false;
+  // Keep the simulation between snapshots and write only what changed.
+  protected boolean incrementalSnapshots = false;
   protected boolean amTopEventToSimulate = false;
   
 
@@ -77,6 +82,21 @@ public class ParameterListenerImpl extends HasIdImpl
       new HashSet< TimeVarying< ? > >();
   protected boolean usingCollectionTree = false;
 
+  /**
+   * Whether {@link #getConstraints(boolean, Set)} may return the constraints it
+   * collected last time when nothing that they were collected from has changed
+   * since.
+   */
+  public static boolean usingConstraintCache = true;
+
+  // The constraints last collected by getConstraints() for deep == false and
+  // deep == true, and the structure version counters, versions, and sizes at
+  // the time.
+  protected Constraint[][] cachedConstraints = new Constraint[ 2 ][];
+  protected AtomicLong[] cachedConstraintsCounter = new AtomicLong[ 2 ];
+  protected long[] cachedConstraintsVersion = new long[] { -1, -1 };
+  protected int[] cachedConstraintsSize = new int[ 2 ];
+
   // TODO -- Need to keep a collection of ParameterListeners (just as
   // DurativeEvent has getEvents())
   
@@ -252,6 +272,7 @@ public class ParameterListenerImpl extends HasIdImpl
 //      }
 //    }
     dependencies.add( d );
+    constraintStructureChanged();
     if (fire) d.apply();
     return d;
   }
@@ -279,6 +300,7 @@ public class ParameterListenerImpl extends HasIdImpl
       }
       --ct;
     }
+    if ( removed ) constraintStructureChanged();
     return removed;
   }
   
@@ -505,7 +527,7 @@ public class ParameterListenerImpl extends HasIdImpl
         Debug.out( "" );
       }
       if ( amTopEventToSimulate ) {
-        DurativeEvent.newMode = false; //numLoops % 2 == 0;
+        EvaluationContext.get().newMode = false; //numLoops % 2 == 0;
       }
       satisfied = tryToSatisfy(deep, null);
 
@@ -675,24 +697,129 @@ public class ParameterListenerImpl extends HasIdImpl
 //    return getConstraints( false, null );
 //  }
 
+  /**
+   * Record a change that may change the constraints collected by
+   * {@link #getConstraints(boolean, Set)} for any ParameterListener so that
+   * they are collected again instead of being reused. Code that changes the
+   * lists returned by {@link #getParameters()},
+   * {@link #getConstraintExpressions()}, or {@link #getDependencies()} after
+   * constraints have been collected should call this.
+   * <p>
+   * The change is counted in the current {@link EvaluationContext}, so that
+   * changes to a model in one context do not clear the caches of models in
+   * others. Constraints cached in one context are not reused in another, but
+   * a model should be changed in the context in which it is solved.
+   */
+  public static void constraintStructureChanged() {
+    getConstraintStructureCounter().incrementAndGet();
+  }
+
+  /**
+   * @return the count of changes to the structure of the models in the
+   *         current context
+   * @see #constraintStructureChanged()
+   */
+  protected static AtomicLong getConstraintStructureCounter() {
+    return EvaluationContext.get().structureVersion;
+  }
+
+  /**
+   * @return a number that changes when parameters, constraints, or
+   *         dependencies are added to or removed from this ParameterListener's
+   *         lists directly, without going through the methods that call
+   *         {@link #constraintStructureChanged()}
+   */
+  protected int getConstraintStructureSize() {
+    return parameters.size() + constraintExpressions.size()
+           + dependencies.size();
+  }
+
+  /**
+   * Get the constraints collected by the last top-level call (with no
+   * {@code seen} set) to {@link #getConstraints(boolean, Set)} if they are
+   * still current.
+   *
+   * @param deep
+   * @return a new collection of the cached constraints, or null if there are
+   *         none or they may be out of date
+   */
+  protected Collection< Constraint > getCachedConstraints( boolean deep ) {
+    int i = deep ? 1 : 0;
+    Constraint[] cached = cachedConstraints[ i ];
+    AtomicLong counter = getConstraintStructureCounter();
+    if ( cached == null || cachedConstraintsCounter[ i ] != counter
+         || cachedConstraintsVersion[ i ] != counter.get()
+         || cachedConstraintsSize[ i ] != getConstraintStructureSize() ) {
+      return null;
+    }
+    // A copy of the array is cheap compared to walking the parameters and
+    // hashing the constraints, and callers are free to change it.
+    return new ArrayList< Constraint >( Arrays.asList( cached ) );
+  }
+
+  protected void cacheConstraints( boolean deep,
+                                   Collection< Constraint > constraints,
+                                   AtomicLong counter, long version ) {
+    int i = deep ? 1 : 0;
+    cachedConstraints[ i ] =
+        constraints.toArray( new Constraint[ constraints.size() ] );
+    cachedConstraintsCounter[ i ] = counter;
+    cachedConstraintsVersion[ i ] = version;
+    cachedConstraintsSize[ i ] = getConstraintStructureSize();
+  }
+
   @Override
   public Collection< Constraint > getConstraints( boolean deep,
                                                   Set<HasConstraints> seen ) {
-    boolean mayHaveBeenPropagating = Parameter.mayPropagate; 
-    Parameter.mayPropagate = false;
-    boolean mayHaveBeenChanging = Parameter.mayChange; 
-    Parameter.mayChange = false;
+    boolean caching = usingConstraintCache && seen == null;
+    if ( caching ) {
+      Collection< Constraint > cached = getCachedConstraints( deep );
+      if ( cached != null ) return cached;
+    }
+    EvaluationContext context = EvaluationContext.get();
+    boolean mayHaveBeenPropagating = context.mayPropagate; 
+    context.mayPropagate = false;
+    boolean mayHaveBeenChanging = context.mayChange; 
+    context.mayChange = false;
     Pair< Boolean, Set< HasConstraints > > pair = Utils.seen( this, deep, seen );
     if ( pair.first ) {
-      Parameter.mayPropagate = mayHaveBeenPropagating;
-      Parameter.mayChange = mayHaveBeenChanging;
+      context.mayPropagate = mayHaveBeenPropagating;
+      context.mayChange = mayHaveBeenChanging;
       return Utils.getEmptySet();
     }
     seen = pair.second;
     if ( usingCollectionTree  ) {
       if ( seen != null ) seen.remove( this ); 
+      context.mayPropagate = mayHaveBeenPropagating;
+      context.mayChange = mayHaveBeenChanging;
       return getConstraintCollection( deep, seen );
     }
+    AtomicLong counter = context.structureVersion;
+    long version = counter.get();
+    Collection< Constraint > set = collectConstraints( deep, seen );
+    context.mayPropagate = mayHaveBeenPropagating;
+    context.mayChange = mayHaveBeenChanging;
+    // Only cache if nothing changed the structure while collecting.
+    if ( caching && version == counter.get() ) {
+      cacheConstraints( deep, set, counter, version );
+    }
+    return set;
+  }
+
+  /**
+   * Gather the constraints of this ParameterListener's parameters, constraint
+   * expressions, and dependencies. This is the work done by
+   * {@link #getConstraints(boolean, Set)} when there are no cached constraints;
+   * subclasses with other sources of constraints should override this instead.
+   *
+   * @param deep
+   * @param seen
+   *          the objects whose constraints have already been collected,
+   *          including this one
+   * @return a new collection of constraints
+   */
+  protected Collection< Constraint > collectConstraints( boolean deep,
+                                                         Set< HasConstraints > seen ) {
     Set< Constraint > set = new HashSet< Constraint >();
     set = Utils.addAll( set, HasConstraints.Helper.getConstraints( getParameters( false, null ), deep, seen ) );
     set = Utils.addAll( set, HasConstraints.Helper.getConstraints( constraintExpressions, false, seen ) );
@@ -702,8 +829,6 @@ public class ParameterListenerImpl extends HasIdImpl
 //    }
 //    set = Utils.addAll( set, constraintExpressions );
 //    set = Utils.addAll( set, dependencies );
-    Parameter.mayPropagate = mayHaveBeenPropagating;
-    Parameter.mayChange = mayHaveBeenChanging;
     return set;
   }
 
@@ -813,6 +938,7 @@ public class ParameterListenerImpl extends HasIdImpl
 
   public void setParameters( List< Parameter< ? > > parameters ) {
     this.parameters = parameters;
+    constraintStructureChanged();
   }
 
   /**
@@ -835,6 +961,7 @@ public class ParameterListenerImpl extends HasIdImpl
 
   public void setConstraintExpressions( List< ConstraintExpression > constraints ) {
     this.constraintExpressions = constraints;
+    constraintStructureChanged();
   }
 
   public Collection< Dependency< ? > > getDependencies() {
@@ -843,6 +970,7 @@ public class ParameterListenerImpl extends HasIdImpl
 
   public void setDependencies( Collection< Dependency< ? > > dependencies ) {
     this.dependencies = new ArrayList< Dependency< ? > >( dependencies );
+    constraintStructureChanged();
   }
   
   @Override
@@ -929,8 +1057,8 @@ public class ParameterListenerImpl extends HasIdImpl
   @Override
   public void deconstruct() {
     if ( isDeconstructed() ) {
-      Debug.outln( "Attempted to deconstruct a deconstructed ParameterListener: "
-                   + this.toString( true, true, null ) );
+      if ( Debug.isOn() ) Debug.outln( "Attempted to deconstruct a deconstructed ParameterListener: "
+                                       + this.toString( true, true, null ) );
       return;
     }
     if ( Debug.isOn() ) {
@@ -972,6 +1100,7 @@ public class ParameterListenerImpl extends HasIdImpl
     constraintExpressions.clear();
     this.timeVaryingObjects.clear();
     parameters.clear();
+    constraintStructureChanged();
     if ( Debug.isOn() ) {
       Debug.outln( "Done deconstructing ParameterListener: "
                    + this.toString( true, true, null ) );
@@ -984,6 +1113,7 @@ public class ParameterListenerImpl extends HasIdImpl
    */
   @Override
   public void detach( Parameter< ? > parameter ) {
+    constraintStructureChanged();
     // Remove local dependencies referencing the parameter.
     ArrayList< Dependency< ? > > dependenciesCopy =
         new ArrayList< Dependency< ? > >( getDependencies() );
@@ -1095,7 +1225,7 @@ public class ParameterListenerImpl extends HasIdImpl
     for ( Dependency<?> d : getDependencies() ) {
       if ( d.pickParameterValue( variable ) ) return true;
     }
-    if ( variable instanceof Parameter && Random.global.nextBoolean() ) {
+    if ( variable instanceof Parameter && EvaluationContext.random().nextBoolean() ) {
       return ((Parameter<?>)variable).ownerPickValue();
     }
     T value = variable.pickRandomValue();
@@ -1254,6 +1384,39 @@ public class ParameterListenerImpl extends HasIdImpl
 		this.baseSnapshotFileName = baseSnapshotFileName;
 	}
 
+	/**
+	 * @return whether snapshots are written as binary traces
+	 */
+	public boolean isSnapshotAsTrace() {
+		return snapshotAsTrace;
+	}
+
+	/**
+	 * @param snapshotAsTrace
+	 *            whether to write snapshots as binary traces readable by
+	 *            {@link SimulationTraceReader}
+	 */
+	public void setSnapshotAsTrace(boolean snapshotAsTrace) {
+		this.snapshotAsTrace = snapshotAsTrace;
+	}
+
+	/**
+	 * @return whether snapshots after the first only write what changed
+	 */
+	public boolean isIncrementalSnapshots() {
+		return incrementalSnapshots;
+	}
+
+	/**
+	 * @param incrementalSnapshots
+	 *            whether to keep the simulation between snapshots, patch it
+	 *            with the events and timelines that changed, and write those
+	 *            changes to a delta file instead of writing a full snapshot
+	 */
+	public void setIncrementalSnapshots(boolean incrementalSnapshots) {
+		this.incrementalSnapshots = incrementalSnapshots;
+	}
+
 	/**
 	 * @return the amTopEventToSimulate
 	 */
@@ -0,0 +1,580 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import gov.nasa.jpl.ae.solver.HasIdImpl;
+import gov.nasa.jpl.mbee.util.CompareUtils;
+import gov.nasa.jpl.mbee.util.Debug;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * PrimitiveTimeline is the base for compact numeric {@link TimeVarying}
+ * timelines that keep their sample times in a sorted {@code int[]} and their
+ * values in a parallel primitive array held by the subclass. Unlike
+ * {@link TimeVaryingMap}, there is no {@link Parameter} key, boxed time,
+ * boxed value, or tree node per sample, and lookups are binary searches over
+ * contiguous memory.
+ * <p>
+ * Times are unique; setting a value at an existing time replaces it. Since
+ * the keys are plain integers, they do not float when a timepoint changes.
+ * Use a {@link TimeVaryingMap} when entries must track {@link Parameter}
+ * timepoints.
+ *
+ * @see DoubleTimeline
+ * @see IntTimeline
+ */
+public abstract class PrimitiveTimeline< V extends Number >
+                implements TimeVarying< V > {
+
+  protected static final int defaultCapacity = 16;
+
+  protected final int id = HasIdImpl.getNext();
+
+  protected String name = null;
+
+  protected Object owner = null;
+
+  public TimeVaryingMap.Interpolation interpolation =
+      new TimeVaryingMap.Interpolation();
+
+  /**
+   * Sample times in increasing order. Only the first {@link #size} entries
+   * are valid.
+   */
+  protected int[] times;
+
+  protected int size = 0;
+
+  public PrimitiveTimeline( String name ) {
+    this( name, defaultCapacity );
+  }
+
+  public PrimitiveTimeline( String name, int initialCapacity ) {
+    this.name = name;
+    times = new int[ Math.max( 1, initialCapacity ) ];
+  }
+
+  // Value storage is left to the subclass so that it can use a primitive array.
+
+  /**
+   * Grow the value array to hold at least {@code capacity} values.
+   */
+  protected abstract void growValues( int capacity );
+
+  /**
+   * Copy {@code length} values from {@code srcPos} to {@code destPos} in the
+   * value array as with {@link System#arraycopy(Object, int, Object, int, int)}.
+   */
+  protected abstract void copyValues( int srcPos, int destPos, int length );
+
+  /**
+   * @return the boxed value at index {@code i}
+   */
+  protected abstract V boxedValueAt( int i );
+
+  /**
+   * Set the value at index {@code i} from a (possibly boxed) number.
+   */
+  protected abstract void setValueAt( int i, Number value );
+
+  /**
+   * @return the interpolated value at time {@code t} between the entries at
+   *         index {@code i} and {@code i+1}
+   */
+  protected abstract V interpolate( int i, int t );
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * @param i
+   *          the index of an entry
+   * @return the time of the entry at index {@code i}
+   */
+  public int getTime( int i ) {
+    return times[ i ];
+  }
+
+  /**
+   * @param t
+   *          a time
+   * @return the index of the last entry whose time is less than or equal to
+   *         {@code t}, or -1 if there is no such entry
+   */
+  public int floorIndex( int t ) {
+    if ( size == 0 || t < times[ 0 ] ) return -1;
+    if ( t >= times[ size - 1 ] ) return size - 1;
+    int i = Arrays.binarySearch( times, 0, size, t );
+    return i >= 0 ? i : -i - 2;
+  }
+
+  /**
+   * @param t
+   *          a time
+   * @return the index of the entry at time {@code t}, or, if there is none,
+   *         {@code (-(insertion point) - 1)} as with
+   *         {@link Arrays#binarySearch(int[], int, int, int)}
+   */
+  public int indexOf( int t ) {
+    if ( size == 0 ) return -1;
+    // appending is the common case
+    if ( t > times[ size - 1 ] ) return -size - 1;
+    return Arrays.binarySearch( times, 0, size, t );
+  }
+
+  /**
+   * Get the index of the entry at time {@code t}, inserting an entry for
+   * {@code t} with the value of the entry before it if it does not already
+   * exist.
+   *
+   * @param t
+   *          a time
+   * @param valueIfFirst
+   *          the value to use if there is no earlier entry
+   * @return the index of the entry at time {@code t}
+   */
+  protected int putTime( int t, Number valueIfFirst ) {
+    int i = indexOf( t );
+    if ( i >= 0 ) return i;
+    i = -i - 1;
+    if ( size == times.length ) {
+      int capacity = Math.max( size + 1, size + ( size >> 1 ) );
+      times = Arrays.copyOf( times, capacity );
+      growValues( capacity );
+    }
+    if ( i < size ) {
+      System.arraycopy( times, i, times, i + 1, size - i );
+      copyValues( i, i + 1, size - i );
+    }
+    times[ i ] = t;
+    ++size;
+    if ( i > 0 ) {
+      copyValues( i - 1, i, 1 );
+    } else {
+      setValueAt( i, valueIfFirst );
+    }
+    return i;
+  }
+
+  protected void removeAt( int i ) {
+    if ( i < 0 || i >= size ) return;
+    if ( i < size - 1 ) {
+      System.arraycopy( times, i + 1, times, i, size - i - 1 );
+      copyValues( i + 1, i, size - i - 1 );
+    }
+    --size;
+  }
+
+  /**
+   * Shrink the backing arrays to the number of entries.
+   */
+  public void trimToSize() {
+    if ( times.length > size ) {
+      times = Arrays.copyOf( times, Math.max( 1, size ) );
+      growValues( Math.max( 1, size ) );
+    }
+  }
+
+  /**
+   * @param fromTime
+   *          the time of the first entry of the range
+   * @param toTime
+   *          the time of the first entry after the range or {@code null} to
+   *          include the last entry
+   * @return the index range [from, to) for the time range, inserting entries
+   *         at the boundaries, as TimeVaryingMap does, so that values before
+   *         and after the range are unchanged
+   */
+  protected int[] rangeForUpdate( Integer fromTime, Integer toTime,
+                                  Number valueIfFirst ) {
+    int from = fromTime == null ? 0 : putTime( fromTime, valueIfFirst );
+    int to = size;
+    if ( toTime != null ) {
+      if ( fromTime != null && toTime.intValue() == fromTime.intValue() ) {
+        to = from + 1;
+      } else if ( fromTime == null || toTime > fromTime ) {
+        to = putTime( toTime, valueIfFirst );
+        if ( fromTime == null ) from = 0;
+      } else {
+        to = from;
+      }
+    }
+    return new int[] { from, to };
+  }
+
+  protected static Integer timeOf( Parameter< Integer > t ) {
+    if ( t == null ) return null;
+    return t.getValueNoPropagate();
+  }
+
+  /**
+   * Remove all but the first of each run of adjacent entries with equal
+   * values.
+   *
+   * @return this timeline
+   */
+  public PrimitiveTimeline< V > removeDuplicates() {
+    if ( size < 2 ) return this;
+    int j = 0;
+    for ( int i = 1; i < size; ++i ) {
+      if ( !valuesEqualAt( i, j ) ) {
+        ++j;
+        if ( j != i ) {
+          times[ j ] = times[ i ];
+          copyValues( i, j, 1 );
+        }
+      }
+    }
+    size = j + 1;
+    return this;
+  }
+
+  protected abstract boolean valuesEqualAt( int i, int j );
+
+  /* (non-Javadoc)
+   * @see gov.nasa.jpl.ae.event.TimeVarying#getValue(gov.nasa.jpl.ae.event.Parameter)
+   */
+  @Override
+  public V getValue( Parameter< Integer > t ) {
+    return getValue( timeOf( t ) );
+  }
+
+  /* (non-Javadoc)
+   * @see gov.nasa.jpl.ae.event.TimeVarying#getValue(java.lang.Integer)
+   */
+  @Override
+  public V getValue( Integer t ) {
+    if ( t == null ) return null;
+    int i = floorIndex( t );
+    if ( interpolation.type == TimeVaryingMap.Interpolation.NONE ) {
+      if ( i < 0 || times[ i ] != t ) return null;
+      return boxedValueAt( i );
+    }
+    if ( i < 0 ) return null;
+    if ( interpolation.type == TimeVaryingMap.Interpolation.STEP
+         || times[ i ] == t || i == size - 1 ) {
+      return boxedValueAt( i );
+    }
+    if ( interpolation.type == TimeVaryingMap.Interpolation.LINEAR
+         || interpolation.type == TimeVaryingMap.Interpolation.RAMP ) {
+      return interpolate( i, t );
+    }
+    Debug.error( true, "PrimitiveTimeline.getValue(): invalid interpolation type! "
+                       + interpolation.type );
+    return null;
+  }
+
+  /* (non-Javadoc)
+   * @see gov.nasa.jpl.ae.event.TimeVarying#setValue(gov.nasa.jpl.ae.event.Parameter, java.lang.Object)
+   */
+  @Override
+  public V setValue( Parameter< Integer > t, V value ) {
+    return setValue( timeOf( t ), value );
+  }
+
+  public V setValue( Integer t, V value ) {
+    if ( t == null ) {
+      if ( Debug.isOn() ) Debug.error( false, "Error! trying to insert a null time into " + getName() );
+      return null;
+    }
+    if ( value == null ) {
+      if ( Debug.isOn() ) Debug.error( false, "Error! trying to insert a null value into " + getName() );
+      return null;
+    }
+    int i = indexOf( t );
+    V oldValue = i >= 0 ? boxedValueAt( i ) : null;
+    i = putTime( t, value );
+    setValueAt( i, value );
+    return oldValue;
+  }
+
+  /* (non-Javadoc)
+   * @see gov.nasa.jpl.ae.event.TimeVarying#unsetValue(gov.nasa.jpl.ae.event.Parameter, java.lang.Object)
+   */
+  @Override
+  public V unsetValue( Parameter< Integer > t, V value ) {
+    Integer time = timeOf( t );
+    if ( time == null ) return null;
+    int i = indexOf( time );
+    if ( i < 0 ) return null;
+    V oldValue = boxedValueAt( i );
+    if ( value != null && !valueEquals( oldValue, value ) ) return null;
+    removeAt( i );
+    return oldValue;
+  }
+
+  protected static boolean valueEquals( Number n1, Number n2 ) {
+    if ( n1 == n2 ) return true;
+    if ( n1 == null || n2 == null ) return false;
+    return n1.doubleValue() == n2.doubleValue();
+  }
+
+  public PrimitiveTimeline< V > add( Number n ) {
+    return add( n, (Integer)null, (Integer)null );
+  }
+
+  public PrimitiveTimeline< V > add( Number n, Parameter< Integer > fromKey,
+                                     Parameter< Integer > toKey ) {
+    return add( n, timeOf( fromKey ), timeOf( toKey ) );
+  }
+
+  /**
+   * @param n
+   *          the number to add
+   * @param fromTime
+   *          the first time to which {@code n} is added or {@code null} for
+   *          the start of the timeline
+   * @param toTime
+   *          the first time after {@code fromTime} to whose value {@code n} is
+   *          not added or {@code null} to include the last entry
+   * @return this timeline after adding {@code n} to each value in the range
+   *         [{@code fromTime}, {@code toTime})
+   */
+  public abstract PrimitiveTimeline< V > add( Number n, Integer fromTime,
+                                              Integer toTime );
+
+  public PrimitiveTimeline< V > multiply( Number n ) {
+    return multiply( n, (Integer)null, (Integer)null );
+  }
+
+  public PrimitiveTimeline< V > multiply( Number n, Parameter< Integer > fromKey,
+                                          Parameter< Integer > toKey ) {
+    return multiply( n, timeOf( fromKey ), timeOf( toKey ) );
+  }
+
+  /**
+   * @return this timeline after multiplying each value in the range
+   *         [{@code fromTime}, {@code toTime}) by {@code n}
+   */
+  public abstract PrimitiveTimeline< V > multiply( Number n, Integer fromTime,
+                                                   Integer toTime );
+
+  /**
+   * @return the number of distinct times in this timeline and {@code other}
+   */
+  protected int unionSize( PrimitiveTimeline< ? > other ) {
+    int i = 0, j = 0, n = 0;
+    while ( i < size || j < other.size ) {
+      if ( j >= other.size || ( i < size && times[ i ] < other.times[ j ] ) ) {
+        ++i;
+      } else if ( i >= size || other.times[ j ] < times[ i ] ) {
+        ++j;
+      } else {
+        ++i;
+        ++j;
+      }
+      ++n;
+    }
+    return n;
+  }
+
+  /**
+   * Fill {@code unionTimes} with the merged times of this timeline and
+   * {@code other}, and fill {@code thisIdx} and {@code otherIdx} with the
+   * floor index of each merged time in each timeline (or -1).
+   */
+  protected void mergeTimes( PrimitiveTimeline< ? > other, int[] unionTimes,
+                             int[] thisIdx, int[] otherIdx ) {
+    int i = 0, j = 0, n = 0;
+    while ( i < size || j < other.size ) {
+      int t;
+      if ( j >= other.size || ( i < size && times[ i ] < other.times[ j ] ) ) {
+        t = times[ i++ ];
+      } else if ( i >= size || other.times[ j ] < times[ i ] ) {
+        t = other.times[ j++ ];
+      } else {
+        t = times[ i++ ];
+        ++j;
+      }
+      unionTimes[ n ] = t;
+      thisIdx[ n ] = i - 1;
+      otherIdx[ n ] = j - 1;
+      ++n;
+    }
+  }
+
+  @Override
+  public boolean isApplied( Effect effect ) {
+    if ( !( effect instanceof EffectFunction ) ) return false;
+    EffectFunction f = (EffectFunction)effect;
+    Method method = f.getMethod();
+    if ( method == null || !method.getName().equals( "setValue" )
+         || f.arguments == null || f.arguments.size() < 2 ) {
+      return false;
+    }
+    Object t = f.arguments.get( 0 );
+    Object v = f.arguments.get( 1 );
+    Integer time = null;
+    if ( t instanceof Parameter ) {
+      Object tv = ( (Parameter< ? >)t ).getValueNoPropagate();
+      if ( tv instanceof Integer ) time = (Integer)tv;
+    } else if ( t instanceof Integer ) {
+      time = (Integer)t;
+    }
+    while ( v instanceof Parameter ) {
+      v = ( (Parameter< ? >)v ).getValueNoPropagate();
+    }
+    if ( time == null || !( v instanceof Number ) ) return false;
+    int i = indexOf( time );
+    return i >= 0 && valueEquals( boxedValueAt( i ), (Number)v );
+  }
+
+  @Override
+  public boolean canBeApplied( Effect effect ) {
+    if ( effect instanceof EffectFunction ) {
+      Method method = ( (EffectFunction)effect ).getMethod();
+      return method != null
+             && method.getDeclaringClass().isAssignableFrom( getClass() );
+    }
+    return false;
+  }
+
+  @Override
+  public Object getOwner() {
+    return owner;
+  }
+
+  @Override
+  public void setOwner( Object owner ) {
+    this.owner = owner;
+  }
+
+  public String getName() {
+    if ( name != null && !name.isEmpty() ) return name;
+    return getClass().getSimpleName();
+  }
+
+  public void setName( String name ) {
+    this.name = name;
+  }
+
+  @Override
+  public Integer getId() {
+    return id;
+  }
+
+  @Override
+  public int hashCode() {
+    return id;
+  }
+
+  @Override
+  public boolean equals( Object o ) {
+    return this == o;
+  }
+
+  @Override
+  public int compareTo( TimeVarying< V > o ) {
+    if ( o == null ) return 1;
+    return CompareUtils.compare( getId(), o.getId() );
+  }
+
+  @Override
+  public String getTypeNameForClassName( String className ) {
+    return getType().getSimpleName();
+  }
+
+  @Override
+  public V getValue( boolean propagate ) {
+    if ( isEmpty() ) return null;
+    if ( size > 1 ) {
+      Debug.error( false, "Warning! Getting first value for multi-valued timeline " + getName() );
+    }
+    return boxedValueAt( 0 );
+  }
+
+  @Override
+  public void setValue( V value ) {
+    if ( value == null ) return;
+    if ( isEmpty() ) {
+      setValue( 0, value );
+      return;
+    }
+    if ( size > 1 ) {
+      Debug.error( false, "Warning! Setting all values to " + value + " in " + getName() );
+    }
+    for ( int i = 0; i < size; ++i ) {
+      setValueAt( i, value );
+    }
+  }
+
+  /**
+   * Copy the entries of a {@link TimeVaryingMap} into this timeline. Entries
+   * with null times or values are skipped, and, of entries with equal times,
+   * the last one wins, as with {@link TimeVaryingMap#getValue(Integer)}.
+   *
+   * @param tvm
+   *          the map to copy
+   * @return this timeline
+   */
+  public PrimitiveTimeline< V > fromTimeVaryingMap( TimeVaryingMap< ? extends Number > tvm ) {
+    clear();
+    if ( tvm == null ) return this;
+    if ( times.length < tvm.size() ) {
+      times = Arrays.copyOf( times, tvm.size() );
+      growValues( tvm.size() );
+    }
+    if ( tvm.interpolation != null ) {
+      interpolation = new TimeVaryingMap.Interpolation( tvm.interpolation.type );
+    }
+    for ( Map.Entry< Parameter< Integer >, ? extends Number > e : tvm.entrySet() ) {
+      Integer t = timeOf( e.getKey() );
+      if ( t == null || e.getValue() == null ) continue;
+      if ( size > 0 && times[ size - 1 ] == t ) {
+        setValueAt( size - 1, e.getValue() );
+      } else {
+        setValueAt( putTime( t, e.getValue() ), e.getValue() );
+      }
+    }
+    return this;
+  }
+
+  /**
+   * @return a new {@link TimeVaryingPlottableMap} with the entries of this
+   *         timeline
+   */
+  public TimeVaryingPlottableMap< V > toTimeVaryingMap() {
+    TimeVaryingPlottableMap< V > tvm =
+        new TimeVaryingPlottableMap< V >( getName() );
+    tvm.setType( getType() );
+    tvm.interpolation = new TimeVaryingMap.Interpolation( interpolation.type );
+    for ( int i = 0; i < size; ++i ) {
+      tvm.put( tvm.makeTempTimepoint( times[ i ], false ), boxedValueAt( i ) );
+    }
+    return tvm;
+  }
+
+  public String toCsvString() {
+    StringBuffer sb = new StringBuffer();
+    for ( int i = 0; i < size; ++i ) {
+      sb.append( times[ i ] + "," + boxedValueAt( i ) + "\n" );
+    }
+    return sb.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuffer sb = new StringBuffer();
+    sb.append( interpolation + " " + getName() + "{" );
+    for ( int i = 0; i < size; ++i ) {
+      if ( i > 0 ) sb.append( ", " );
+      sb.append( times[ i ] + "=" + boxedValueAt( i ) );
+    }
+    sb.append( "}" );
+    return sb.toString();
+  }
+
+}
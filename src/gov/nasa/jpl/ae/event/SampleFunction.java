@@ -0,0 +1,121 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import gov.nasa.jpl.mbee.util.Debug;
+import gov.nasa.jpl.mbee.util.Pair;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * SampleFunction is a method that generates the values of a timeline, such as
+ * the initial value function of
+ * {@link TimeVaryingMap#TimeVaryingMap(String, Method, Object, int, int)}. The
+ * method is bound once to the object on which it is called as a
+ * {@link MethodHandle}, so each sample skips the lookup and access checks of
+ * {@link Method#invoke(Object, Object...)}.
+ */
+public class SampleFunction {
+
+  protected final Method method;
+  protected final Object object;
+
+  // The method bound to the object, taking its arguments in an array
+  protected MethodHandle handle = null;
+  // The method bound to the object, taking a time, if it takes one int
+  protected MethodHandle timeHandle = null;
+
+  /**
+   * @param method
+   * @param object
+   *          the object on which the method is called, or null for a static
+   *          method
+   */
+  public SampleFunction( Method method, Object object ) {
+    this.method = method;
+    this.object = object;
+    bind();
+  }
+
+  protected void bind() {
+    if ( method == null ) return;
+    boolean isStatic = Modifier.isStatic( method.getModifiers() );
+    if ( !isStatic && object == null ) {
+      Debug.error( true, false, "SampleFunction: no object on which to call "
+                                + method );
+      return;
+    }
+    try {
+      MethodHandle h;
+      try {
+        h = MethodHandles.publicLookup().unreflect( method );
+      } catch ( IllegalAccessException e ) {
+        method.setAccessible( true );
+        h = MethodHandles.lookup().unreflect( method );
+      }
+      if ( !isStatic ) h = h.bindTo( object );
+      int n = method.getParameterTypes().length;
+      handle = h.asType( MethodType.genericMethodType( n ) )
+                .asSpreader( Object[].class, n );
+      if ( n == 1 && method.getParameterTypes()[ 0 ] == int.class ) {
+        timeHandle = h.asType( MethodType.methodType( Object.class, int.class ) );
+      }
+    } catch ( IllegalAccessException e ) {
+      e.printStackTrace();
+    } catch ( SecurityException e ) {
+      e.printStackTrace();
+    }
+  }
+
+  public Method getMethod() {
+    return method;
+  }
+
+  public Object getObject() {
+    return object;
+  }
+
+  /**
+   * @param t
+   *          the time of the sample
+   * @return whether the call succeeded and the value it returned
+   */
+  public Pair< Boolean, Object > sample( int t ) {
+    if ( timeHandle == null ) return invoke( t );
+    try {
+      return new Pair< Boolean, Object >( true, (Object)timeHandle.invokeExact( t ) );
+    } catch ( Throwable e ) {
+      return failed( e );
+    }
+  }
+
+  /**
+   * @param args
+   * @return whether the call succeeded and the value it returned
+   */
+  public Pair< Boolean, Object > invoke( Object... args ) {
+    if ( handle == null ) return new Pair< Boolean, Object >( false, null );
+    try {
+      return new Pair< Boolean, Object >( true, (Object)handle.invokeExact( args ) );
+    } catch ( Throwable e ) {
+      return failed( e );
+    }
+  }
+
+  protected Pair< Boolean, Object > failed( Throwable e ) {
+    if ( Debug.isOn() ) Debug.error( false, "SampleFunction: call to " + method
+                                            + " failed: " + e );
+    return new Pair< Boolean, Object >( false, null );
+  }
+
+  @Override
+  public String toString() {
+    return "SampleFunction(" + method + ")";
+  }
+
+}
@@ -0,0 +1,23 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+/**
+ * A SimulationChangeListener is told when something that contributes entries
+ * to an {@link EventSimulation} changes: the start or end time of a
+ * {@link DurativeEvent} or the entries of a {@link TimeVaryingMap}. This lets
+ * a simulation be patched instead of rebuilt.
+ */
+public interface SimulationChangeListener {
+
+  /**
+   * Called by the thread that changed the source, which need not be the one
+   * that reads the changes.
+   *
+   * @param source
+   *          the event or timeline that changed
+   */
+  public void sourceChanged( Object source );
+
+}
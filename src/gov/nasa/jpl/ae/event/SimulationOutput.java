@@ -0,0 +1,416 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import gov.nasa.jpl.mbee.util.Debug;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SimulationOutput carries the records of an {@link EventSimulation} run from
+ * the simulation loop to its {@link SimulationSink}s so that formatting and
+ * I/O do not hold up the loop.
+ * <p>
+ * Records go into a bounded ring buffer kept as parallel arrays of times,
+ * variables, and values, so that emitting a record of a number, string, or
+ * other immutable value allocates nothing. There
+ * is one producer, the simulation loop, and one consumer, an output thread
+ * that drains the buffer in batches, passes each record to every sink, and
+ * then flushes the sinks once per batch. The producer only waits when the
+ * buffer is full. The output thread runs in the {@link EvaluationContext} of
+ * the producer so that sinks see the same {@link Timepoint} epoch and units.
+ * <p>
+ * Sinks on the output thread must not read the model, which the simulation
+ * thread is still using. So a parameter, expression, or call is first
+ * {@link #resolve(Object) resolved} to its value on the simulation thread, and
+ * immutable values, such as numbers, strings, and enums, are passed through as
+ * they are. Only a value that stays opaque is replaced by a {@link Snapshot}
+ * of how it prints. The variable of a record is passed for its identity, name,
+ * and class only.
+ * <p>
+ * If the output thread dies, the simulation thread takes over: it passes the
+ * records left in the buffer and all later ones to the sinks itself, and
+ * {@link #close()} ends the sinks the output thread did not.
+ * <p>
+ * Without an output thread, records are passed to the sinks as they are
+ * emitted, and the sinks are flushed at the end.
+ */
+public class SimulationOutput {
+
+  public static int defaultCapacity = 1 << 14;
+
+  /**
+   * The most records the output thread handles between flushes.
+   */
+  public static int maxBatchSize = 1024;
+
+  /**
+   * How long the output thread waits for records before checking again, in
+   * nanoseconds.
+   */
+  protected static final long maxWaitNanos = 1000000L;
+
+  protected final List< SimulationSink > sinks;
+
+  // The ring buffer; the capacity is a power of two.
+  protected final int mask;
+  protected final int[] times;
+  protected final Object[] variables;
+  protected final Object[] values;
+
+  // head is the next record to consume, and tail is the next slot to fill.
+  protected final AtomicLong head = new AtomicLong();
+  protected final AtomicLong tail = new AtomicLong();
+
+  protected Thread thread = null;
+  protected volatile boolean closed = false;
+  protected volatile boolean consumerWaiting = false;
+  protected double timeScale;
+
+  /**
+   * What killed the output thread, if it died.
+   */
+  protected volatile Throwable failure = null;
+
+  /**
+   * Whether the simulation thread has taken over from an output thread that
+   * died. Only the simulation thread reads and writes it.
+   */
+  protected boolean threadDied = false;
+
+  /**
+   * The number of sinks the output thread has ended.
+   */
+  protected volatile int sinksEnded = 0;
+
+  /**
+   * @param sinks
+   *          the sinks to receive the records in order
+   * @param usingThread
+   *          whether to call the sinks from an output thread instead of the
+   *          thread emitting the records
+   * @param capacity
+   *          the number of records that may be waiting for the output thread,
+   *          rounded up to a power of two
+   */
+  public SimulationOutput( List< SimulationSink > sinks, boolean usingThread,
+                           int capacity ) {
+    this.sinks = new ArrayList< SimulationSink >( sinks );
+    int n = 1;
+    if ( usingThread ) {
+      while ( n < capacity ) n <<= 1;
+    }
+    mask = n - 1;
+    times = new int[ usingThread ? n : 0 ];
+    variables = new Object[ usingThread ? n : 0 ];
+    values = new Object[ usingThread ? n : 0 ];
+    if ( usingThread ) {
+      final EvaluationContext context = EvaluationContext.get();
+      thread = new Thread( "EventSimulation output" ) {
+        @Override
+        public void run() {
+          EvaluationContext previous = EvaluationContext.enter( context );
+          try {
+            consume();
+          } catch ( Throwable e ) {
+            failure = e;
+          } finally {
+            EvaluationContext.exit( previous );
+          }
+        }
+      };
+      thread.setDaemon( true );
+    }
+  }
+
+  /**
+   * How a value that could change printed when its record was emitted, for
+   * passing to the output thread in its place. Its toString() is that of the
+   * value.
+   */
+  public static final class Snapshot {
+    protected final String string;
+    protected final String text;
+
+    public Snapshot( Object value ) {
+      string = String.valueOf( value );
+      text = TextSimulationSink.valueText( value );
+    }
+
+    /**
+     * @return the value as {@link TextSimulationSink} writes it
+     */
+    public String getText() {
+      return text;
+    }
+
+    @Override
+    public String toString() {
+      return string;
+    }
+  }
+
+  /**
+   * Resolve a parameter, expression, or call to its current value so that a
+   * number or other immutable value reaches the sinks as itself and not as
+   * the object that holds it.
+   *
+   * @param value
+   *          the value of a record
+   * @return the evaluation of {@code value} if it is immutable, or else
+   *         {@code value}
+   */
+  public static Object resolve( Object value ) {
+    if ( isImmutable( value ) ) return value;
+    if ( value instanceof Parameter || value instanceof Expression
+         || value instanceof Call ) {
+      Object v = null;
+      try {
+        v = Expression.evaluate( value, null, false );
+      } catch ( ClassCastException e ) {
+        v = value;
+      } catch ( IllegalAccessException e ) {
+        v = value;
+      } catch ( InvocationTargetException e ) {
+        v = value;
+      } catch ( InstantiationException e ) {
+        v = value;
+      }
+      // An unevaluated or mutable value is passed on as it is.
+      if ( v != value && isImmutable( v ) ) return v;
+    }
+    return value;
+  }
+
+  /**
+   * @param value
+   * @return whether {@code value} cannot change, so that the output thread
+   *         may read it while the simulation goes on
+   */
+  public static boolean isImmutable( Object value ) {
+    return value == null || value instanceof Double || value instanceof Integer
+           || value instanceof String || value instanceof Boolean
+           || value instanceof Enum || value instanceof Long
+           || value instanceof Float || value instanceof Short
+           || value instanceof Byte || value instanceof Character
+           || value instanceof Snapshot;
+  }
+
+  public boolean isUsingThread() {
+    return thread != null;
+  }
+
+  /**
+   * Start the sinks.
+   *
+   * @param timeScale
+   */
+  public void start( double timeScale ) {
+    this.timeScale = timeScale;
+    if ( thread != null ) {
+      thread.start();
+    } else {
+      startSinks();
+    }
+  }
+
+  /**
+   * Start each sink. A sink that fails does not keep the others from
+   * starting.
+   */
+  protected void startSinks() {
+    for ( SimulationSink sink : sinks ) {
+      try {
+        sink.start( timeScale );
+      } catch ( RuntimeException e ) {
+        Debug.error( true, false, "SimulationOutput: " + sink.getClass().getSimpleName()
+                                  + " failed to start: " + e );
+        if ( Debug.isOn() ) e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Emit a record, waiting only if the output thread has fallen a full buffer
+   * behind. If the output thread has died, the record is passed to the sinks
+   * on this thread.
+   *
+   * @param time
+   * @param variable
+   * @param value
+   */
+  public void record( int time, Object variable, Object value ) {
+    value = resolve( value );
+    if ( thread == null || threadDied ) {
+      dispatch( time, variable, value );
+      return;
+    }
+    long t = tail.get();
+    while ( t - head.get() > mask || failure != null ) {
+      if ( !thread.isAlive() ) {
+        takeOver();
+        dispatch( time, variable, value );
+        return;
+      }
+      wakeConsumer();
+      LockSupport.parkNanos( this, maxWaitNanos >> 4 );
+    }
+    int i = (int)t & mask;
+    times[ i ] = time;
+    variables[ i ] = variable;
+    values[ i ] = isImmutable( value ) ? value : new Snapshot( value );
+    // The ordered store makes the slot visible before the new tail.
+    tail.lazySet( t + 1 );
+    if ( consumerWaiting ) wakeConsumer();
+  }
+
+  protected void wakeConsumer() {
+    LockSupport.unpark( thread );
+  }
+
+  /**
+   * Pass the records that an output thread that died left in the buffer to
+   * the sinks on this thread, after which records are passed to them as they
+   * are emitted.
+   */
+  protected void takeOver() {
+    if ( threadDied ) return;
+    threadDied = true;
+    Debug.error( true, false, "SimulationOutput: the output thread died"
+                              + ( failure == null ? "" : " on " + failure )
+                              + "; writing the remaining records from the simulation thread" );
+    long end = tail.get();
+    for ( long k = head.get(); k < end; ++k ) {
+      int i = (int)k & mask;
+      dispatch( times[ i ], variables[ i ], values[ i ] );
+      variables[ i ] = null;
+      values[ i ] = null;
+    }
+    head.set( end );
+  }
+
+  /**
+   * Wait for the sinks to handle every record and end them.
+   */
+  public void close() {
+    if ( thread == null ) {
+      endSinks( 0 );
+      return;
+    }
+    closed = true;
+    wakeConsumer();
+    boolean interrupted = false;
+    while ( thread.isAlive() ) {
+      try {
+        thread.join();
+      } catch ( InterruptedException e ) {
+        interrupted = true;
+      }
+    }
+    if ( interrupted ) Thread.currentThread().interrupt();
+    if ( failure != null || threadDied ) {
+      takeOver();
+      endSinks( sinksEnded );
+    }
+  }
+
+  /**
+   * Flush and end the sinks from index {@code from} on. A sink that fails
+   * does not keep the others from ending.
+   *
+   * @param from
+   */
+  protected void endSinks( int from ) {
+    for ( int i = from; i < sinks.size(); ++i ) {
+      SimulationSink sink = sinks.get( i );
+      try {
+        sink.flush();
+        sink.end();
+      } catch ( RuntimeException e ) {
+        Debug.error( true, false, "SimulationOutput: " + sink.getClass().getSimpleName()
+                                  + " failed to end: " + e );
+        if ( Debug.isOn() ) e.printStackTrace();
+      }
+      if ( Thread.currentThread() == thread ) sinksEnded = i + 1;
+    }
+  }
+
+  /**
+   * The loop of the output thread.
+   */
+  protected void consume() {
+    startSinks();
+    while ( true ) {
+      long h = head.get();
+      long t = tail.get();
+      if ( h == t ) {
+        if ( closed && tail.get() == h ) break;
+        consumerWaiting = true;
+        if ( tail.get() == h && !closed ) {
+          LockSupport.parkNanos( this, maxWaitNanos );
+        }
+        consumerWaiting = false;
+        continue;
+      }
+      long end = Math.min( t, h + maxBatchSize );
+      for ( long k = h; k < end; ++k ) {
+        int i = (int)k & mask;
+        dispatch( times[ i ], variables[ i ], values[ i ] );
+        variables[ i ] = null;
+        values[ i ] = null;
+        // Advance past each record so that a takeover resumes at the next.
+        head.lazySet( k + 1 );
+      }
+      for ( SimulationSink sink : sinks ) {
+        sink.flush();
+      }
+    }
+    endSinks( 0 );
+  }
+
+  /**
+   * @param variable
+   *          the variable of a record
+   * @return the name of a {@link ParameterListener} {@code variable} or else
+   *         the simple name of its class
+   */
+  public static String getName( Object variable ) {
+    if ( variable instanceof ParameterListener ) {
+      return ( (ParameterListener)variable ).getName();
+    }
+    return variable.getClass().getSimpleName();
+  }
+
+  /**
+   * @param value
+   *          the value of a record
+   * @return the value as passed to {@link Executor}s, with two decimal places
+   *         for a Double
+   */
+  public static String valueString( Object value ) {
+    if ( value instanceof Double ) return String.format( "%.2f", value );
+    return value == null ? "null" : value.toString();
+  }
+
+  /**
+   * Pass a record to each sink. A sink that fails does not keep the others
+   * from getting the record.
+   */
+  protected void dispatch( int time, Object variable, Object value ) {
+    for ( SimulationSink sink : sinks ) {
+      try {
+        sink.record( time, variable, value );
+      } catch ( RuntimeException e ) {
+        Debug.error( true, false, "SimulationOutput: " + sink.getClass().getSimpleName()
+                                  + " failed on record at " + time + ": " + e );
+        if ( Debug.isOn() ) e.printStackTrace();
+      }
+    }
+  }
+
+}
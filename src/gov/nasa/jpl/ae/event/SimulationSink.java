@@ -0,0 +1,49 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+/**
+ * A SimulationSink consumes the records of an {@link EventSimulation} run. The
+ * simulation loop does not call sinks itself; it hands compact records to a
+ * {@link SimulationOutput}, which calls every sink from a single output
+ * thread, in simulation order. A sink therefore does not need to be thread
+ * safe, but it must not read or change the model being simulated. Parameters
+ * and expressions arrive resolved to their values, and any other value that
+ * is not immutable arrives as a {@link SimulationOutput.Snapshot}.
+ */
+public interface SimulationSink {
+
+  /**
+   * Called once, before any records.
+   *
+   * @param timeScale
+   *          the ratio of simulated time to wall clock time
+   */
+  public void start( double timeScale );
+
+  /**
+   * @param time
+   *          the simulation time of the record
+   * @param variable
+   *          the event or timeline that changed
+   * @param value
+   *          the new value of the {@code variable}, an
+   *          {@link EventSimulation.EventType} for an event, the value of a
+   *          parameter or expression, or a {@link SimulationOutput.Snapshot}
+   *          of a value that could change
+   */
+  public void record( int time, Object variable, Object value );
+
+  /**
+   * Called after each batch of records so that output can be written in
+   * blocks instead of a record at a time.
+   */
+  public void flush();
+
+  /**
+   * Called once, after the last record and the last flush.
+   */
+  public void end();
+
+}
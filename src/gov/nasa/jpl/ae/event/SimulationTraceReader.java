@@ -0,0 +1,414 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SimulationTraceReader reads a trace written by {@link SimulationTraceWriter}.
+ * Only the footer is read when the trace is opened. Each block of records is
+ * memory-mapped the first time a read needs it, and the block index limits a
+ * read to the blocks overlapping its time range, so traces larger than memory
+ * or than a single mapping can be read a piece at a time. A read of one
+ * variable only visits the blocks that the footer lists for it, except in
+ * version 1 traces, which have no such lists.
+ * <p>
+ * For example, to print the values of one variable over a day:
+ *
+ * <pre>
+ * SimulationTraceReader trace = new SimulationTraceReader( file );
+ * try {
+ *   int v = trace.getVariableId( "power" );
+ *   for ( SimulationTraceReader.Record r : trace.read( 0, 24 * 3600, v ) ) {
+ *     System.out.println( r.time + " " + r.value );
+ *   }
+ * } finally {
+ *   trace.close();
+ * }
+ * </pre>
+ */
+public class SimulationTraceReader implements Closeable {
+
+  /**
+   * The bytes per record in a block: a time, a variable, a kind, and a value.
+   */
+  public static final int RECORD_BYTES = 4 + 4 + 1 + 8;
+
+  protected final File file;
+  protected final RandomAccessFile raf;
+  protected final FileChannel channel;
+
+  protected final long[] blockOffsets;
+  protected final int[] blockCounts;
+  protected final int[] blockMinTimes;
+  protected final int[] blockMaxTimes;
+  protected final MappedByteBuffer[] blockBuffers;
+
+  protected final String[] strings;
+  protected final int[] variableNames;
+  protected final int[] variableClassNames;
+  // The blocks with records of each variable, or null for a version 1 trace
+  protected final int[][] variableBlocks;
+  protected final long numRecords;
+
+  /**
+   * A record of the trace.
+   */
+  public static class Record {
+    public final int time;
+    public final int variableId;
+    public final byte kind;
+    /**
+     * The value as written: a Double, Long, Boolean, String,
+     * {@link EventSimulation.EventType}, or null.
+     */
+    public final Object value;
+
+    public Record( int time, int variableId, byte kind, Object value ) {
+      this.time = time;
+      this.variableId = variableId;
+      this.kind = kind;
+      this.value = value;
+    }
+
+    @Override
+    public String toString() {
+      return "(" + time + ", " + variableId + ", " + value + ")";
+    }
+  }
+
+  /**
+   * A Handler is given the records of a scan in order without creating a
+   * {@link Record} for each.
+   */
+  public interface Handler {
+    /**
+     * @return whether to continue the scan
+     */
+    public boolean handle( int time, int variableId, byte kind, long bits );
+  }
+
+  public SimulationTraceReader( File file ) throws IOException {
+    this.file = file;
+    raf = new RandomAccessFile( file, "r" );
+    channel = raf.getChannel();
+    try {
+      long size = channel.size();
+      if ( size < SimulationTraceWriter.MAGIC.length + 4 + 12 ) {
+        throw new IOException( "Not a simulation trace: " + file );
+      }
+      ByteBuffer header = map( 0, SimulationTraceWriter.MAGIC.length + 4 );
+      byte[] magic = new byte[ SimulationTraceWriter.MAGIC.length ];
+      header.get( magic );
+      if ( !Arrays.equals( magic, SimulationTraceWriter.MAGIC ) ) {
+        throw new IOException( "Not a simulation trace: " + file );
+      }
+      int version = header.getInt();
+      if ( version != 1 && version != SimulationTraceWriter.VERSION ) {
+        throw new IOException( "Unsupported simulation trace version " + version
+                               + ": " + file );
+      }
+      ByteBuffer trailer = map( size - 12, 12 );
+      long footerOffset = trailer.getLong();
+      if ( trailer.getInt() != SimulationTraceWriter.TRAILER_MAGIC ) {
+        throw new IOException( "Simulation trace is incomplete: " + file );
+      }
+      ByteBuffer footer = map( footerOffset, size - 12 - footerOffset );
+
+      int numBlocks = footer.getInt();
+      blockOffsets = new long[ numBlocks ];
+      blockCounts = new int[ numBlocks ];
+      blockMinTimes = new int[ numBlocks ];
+      blockMaxTimes = new int[ numBlocks ];
+      blockBuffers = new MappedByteBuffer[ numBlocks ];
+      for ( int b = 0; b < numBlocks; ++b ) {
+        blockOffsets[ b ] = footer.getLong();
+        blockCounts[ b ] = footer.getInt();
+        blockMinTimes[ b ] = footer.getInt();
+        blockMaxTimes[ b ] = footer.getInt();
+      }
+      strings = new String[ footer.getInt() ];
+      for ( int i = 0; i < strings.length; ++i ) {
+        byte[] bytes = new byte[ footer.getInt() ];
+        footer.get( bytes );
+        strings[ i ] = new String( bytes, SimulationTraceWriter.UTF8 );
+      }
+      int numVariables = footer.getInt();
+      variableNames = new int[ numVariables ];
+      variableClassNames = new int[ numVariables ];
+      for ( int i = 0; i < numVariables; ++i ) {
+        variableNames[ i ] = footer.getInt();
+        variableClassNames[ i ] = footer.getInt();
+      }
+      if ( version == 1 ) {
+        variableBlocks = null;
+      } else {
+        variableBlocks = new int[ numVariables ][];
+        for ( int i = 0; i < numVariables; ++i ) {
+          int[] list = new int[ footer.getInt() ];
+          for ( int k = 0; k < list.length; ++k ) {
+            list[ k ] = footer.getInt();
+          }
+          variableBlocks[ i ] = list;
+        }
+      }
+      numRecords = footer.getLong();
+    } catch ( IOException e ) {
+      raf.close();
+      throw e;
+    } catch ( RuntimeException e ) {
+      raf.close();
+      throw new IOException( "Corrupt simulation trace: " + file, e );
+    }
+  }
+
+  protected MappedByteBuffer map( long offset, long length ) throws IOException {
+    return channel.map( FileChannel.MapMode.READ_ONLY, offset, length );
+  }
+
+  protected MappedByteBuffer getBlock( int b ) throws IOException {
+    MappedByteBuffer buf = blockBuffers[ b ];
+    if ( buf == null ) {
+      buf = map( blockOffsets[ b ], 4 + blockCounts[ b ] * (long)RECORD_BYTES );
+      blockBuffers[ b ] = buf;
+    }
+    return buf;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public long getNumRecords() {
+    return numRecords;
+  }
+
+  public int getNumVariables() {
+    return variableNames.length;
+  }
+
+  public String getVariableName( int variableId ) {
+    return strings[ variableNames[ variableId ] ];
+  }
+
+  public String getVariableClassName( int variableId ) {
+    return strings[ variableClassNames[ variableId ] ];
+  }
+
+  /**
+   * @param name
+   * @return the id of the first variable with the {@code name} or -1 if there
+   *         is none
+   */
+  public int getVariableId( String name ) {
+    for ( int i = 0; i < variableNames.length; ++i ) {
+      if ( strings[ variableNames[ i ] ].equals( name ) ) return i;
+    }
+    return -1;
+  }
+
+  /**
+   * @return the time of the first record or Integer.MAX_VALUE if there are
+   *         none
+   */
+  public int getStartTime() {
+    return blockMinTimes.length == 0 ? Integer.MAX_VALUE : blockMinTimes[ 0 ];
+  }
+
+  /**
+   * @return the time of the last record or Integer.MIN_VALUE if there are none
+   */
+  public int getEndTime() {
+    return blockMaxTimes.length == 0 ? Integer.MIN_VALUE
+                                     : blockMaxTimes[ blockMaxTimes.length - 1 ];
+  }
+
+  /**
+   * Decode the value of a record.
+   *
+   * @param kind
+   * @param bits
+   * @return the value as described for {@link Record#value}
+   */
+  public Object decode( byte kind, long bits ) {
+    switch ( kind ) {
+      case SimulationTraceWriter.DOUBLE:
+        return Double.longBitsToDouble( bits );
+      case SimulationTraceWriter.LONG:
+        return bits;
+      case SimulationTraceWriter.BOOLEAN:
+        return bits != 0;
+      case SimulationTraceWriter.STRING:
+        return strings[ (int)bits ];
+      case SimulationTraceWriter.START:
+        return EventSimulation.EventType.start;
+      case SimulationTraceWriter.END:
+        return EventSimulation.EventType.end;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Pass the records with times in [{@code fromTime}, {@code toTime}] to the
+   * {@code handler} in order, only touching the blocks that overlap that
+   * range and, for one variable, only those that have its records.
+   *
+   * @param fromTime
+   * @param toTime
+   * @param variableId
+   *          the variable of the records to pass, or -1 for all
+   * @param handler
+   * @throws IOException
+   */
+  public void scan( int fromTime, int toTime, int variableId, Handler handler )
+                                                                      throws IOException {
+    if ( variableId >= 0 && variableBlocks != null ) {
+      int[] list = variableBlocks[ variableId ];
+      // The first of the variable's blocks that may have a time at or after
+      // fromTime
+      int lo = 0;
+      int hi = list.length;
+      while ( lo < hi ) {
+        int mid = ( lo + hi ) >>> 1;
+        if ( blockMaxTimes[ list[ mid ] ] < fromTime ) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      for ( int k = lo; k < list.length && blockMinTimes[ list[ k ] ] <= toTime; ++k ) {
+        if ( !scanBlock( list[ k ], fromTime, toTime, variableId, handler ) ) return;
+      }
+      return;
+    }
+    // The first block that may have a time at or after fromTime
+    int lo = 0;
+    int hi = blockMaxTimes.length;
+    while ( lo < hi ) {
+      int mid = ( lo + hi ) >>> 1;
+      if ( blockMaxTimes[ mid ] < fromTime ) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    for ( int b = lo; b < blockMinTimes.length && blockMinTimes[ b ] <= toTime; ++b ) {
+      if ( !scanBlock( b, fromTime, toTime, variableId, handler ) ) return;
+    }
+  }
+
+  /**
+   * Pass the records of block {@code b} as for
+   * {@link #scan(int, int, int, Handler)}.
+   *
+   * @return whether to go on to the next block
+   * @throws IOException
+   */
+  protected boolean scanBlock( int b, int fromTime, int toTime, int variableId,
+                               Handler handler ) throws IOException {
+    ByteBuffer buf = getBlock( b ).duplicate();
+    int n = blockCounts[ b ];
+    int timesAt = 4;
+    int variablesAt = timesAt + 4 * n;
+    int kindsAt = variablesAt + 4 * n;
+    int valuesAt = kindsAt + n;
+    int first = 0;
+    if ( blockMinTimes[ b ] < fromTime ) {
+      int l = 0;
+      int h = n;
+      while ( l < h ) {
+        int mid = ( l + h ) >>> 1;
+        if ( buf.getInt( timesAt + 4 * mid ) < fromTime ) {
+          l = mid + 1;
+        } else {
+          h = mid;
+        }
+      }
+      first = l;
+    }
+    for ( int i = first; i < n; ++i ) {
+      int t = buf.getInt( timesAt + 4 * i );
+      if ( t > toTime ) return false;
+      int v = buf.getInt( variablesAt + 4 * i );
+      if ( variableId >= 0 && v != variableId ) continue;
+      if ( !handler.handle( t, v, buf.get( kindsAt + i ),
+                            buf.getLong( valuesAt + 8 * i ) ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param fromTime
+   * @param toTime
+   * @param variableId
+   *          the variable of the records to read, or -1 for all
+   * @return the records with times in [{@code fromTime}, {@code toTime}]
+   * @throws IOException
+   */
+  public List< Record > read( int fromTime, int toTime, int variableId )
+                                                                 throws IOException {
+    final List< Record > records = new ArrayList< Record >();
+    scan( fromTime, toTime, variableId, new Handler() {
+      @Override
+      public boolean handle( int time, int variable, byte kind, long bits ) {
+        records.add( new Record( time, variable, kind, decode( kind, bits ) ) );
+        return true;
+      }
+    } );
+    return records;
+  }
+
+  /**
+   * @param variableId
+   * @return every record of the variable
+   * @throws IOException
+   */
+  public List< Record > read( int variableId ) throws IOException {
+    return read( Integer.MIN_VALUE, Integer.MAX_VALUE, variableId );
+  }
+
+  /**
+   * Turn a variable's numeric records into a timeline, the last record at a
+   * time winning.
+   *
+   * @param variableId
+   * @return a timeline of the variable's Double and Long values
+   * @throws IOException
+   */
+  public DoubleTimeline readTimeline( int variableId ) throws IOException {
+    final DoubleTimeline timeline = new DoubleTimeline( getVariableName( variableId ) );
+    scan( Integer.MIN_VALUE, Integer.MAX_VALUE, variableId, new Handler() {
+      @Override
+      public boolean handle( int time, int variable, byte kind, long bits ) {
+        if ( kind == SimulationTraceWriter.DOUBLE ) {
+          timeline.setValue( time, Double.longBitsToDouble( bits ) );
+        } else if ( kind == SimulationTraceWriter.LONG ) {
+          timeline.setValue( time, (double)bits );
+        }
+        return true;
+      }
+    } );
+    return timeline;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // Mapped blocks are released when they are garbage collected.
+    Arrays.fill( blockBuffers, null );
+    raf.close();
+  }
+
+}
@@ -0,0 +1,356 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import gov.nasa.jpl.mbee.util.MoreToString;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SimulationTraceWriter is a {@link SimulationSink} that writes the records
+ * of an {@link EventSimulation} to a file in a compact, columnar binary
+ * format that {@link SimulationTraceReader} can read back by time range and
+ * by variable without parsing text or loading the whole file. The footer
+ * lists, for each variable, the blocks that have its records, so a read of
+ * one variable only decodes those blocks.
+ * <p>
+ * The file is written big-endian as
+ *
+ * <pre>
+ * header:  "BAETRACE" version:int
+ * blocks:  count:int  times:int[count]  variables:int[count]
+ *          kinds:byte[count]  values:long[count]
+ * footer:  numBlocks:int  { offset:long count:int minTime:int maxTime:int }
+ *          numStrings:int { length:int utf8:byte[length] }
+ *          numVariables:int { name:int className:int }
+ *          { numVariableBlocks:int blocks:int[numVariableBlocks] }
+ *          numRecords:long
+ * trailer: footerOffset:long "BAEX"
+ * </pre>
+ *
+ * Records are in simulation order, so the times within and across blocks do
+ * not decrease. Each variable is numbered the first time it is seen, and its
+ * name and class name are kept once in the string dictionary. The kind of a
+ * record tells how to read its value: the bits of a double, a long, a
+ * boolean, an index into the string dictionary, or an
+ * {@link EventSimulation.EventType} with no value. A
+ * {@link SimulationOutput.Snapshot} is written as the string of its text.
+ * <p>
+ * Since a sink cannot throw checked exceptions, an I/O error stops the
+ * writer, is kept for {@link #getFailure()}, and is thrown as a
+ * {@link TraceException}. Version 1 traces have no per-variable block lists.
+ */
+public class SimulationTraceWriter implements SimulationSink {
+
+  public static final byte[] MAGIC = { 'B', 'A', 'E', 'T', 'R', 'A', 'C', 'E' };
+  public static final int TRAILER_MAGIC = 0x42414558; // "BAEX"
+  public static final int VERSION = 2;
+
+  // Kinds of records
+  public static final byte NULL = 0;
+  public static final byte DOUBLE = 1;
+  public static final byte LONG = 2;
+  public static final byte BOOLEAN = 3;
+  public static final byte STRING = 4;
+  public static final byte START = 5;
+  public static final byte END = 6;
+
+  protected static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  public static int defaultBlockSize = 1 << 14;
+
+  protected final File file;
+  protected DataOutputStream out = null;
+  protected long position = 0;
+  protected long numRecords = 0;
+
+  // The columns of the block being filled
+  protected final int blockSize;
+  protected final int[] times;
+  protected final int[] variables;
+  protected final byte[] kinds;
+  protected final long[] values;
+  protected int count = 0;
+
+  // The block index
+  protected final List< long[] > blocks = new ArrayList< long[] >();
+
+  protected final Map< String, Integer > stringIds = new HashMap< String, Integer >();
+  protected final List< String > strings = new ArrayList< String >();
+  protected final Map< Object, Integer > variableIds =
+      new IdentityHashMap< Object, Integer >();
+  protected final List< int[] > variableStrings = new ArrayList< int[] >();
+  // For each variable, the number of blocks with its records followed by
+  // their indices
+  protected final List< int[] > variableBlocks = new ArrayList< int[] >();
+
+  protected IOException failure = null;
+
+  protected final Map< String, Object > options = new TreeMap< String, Object >();
+
+  public SimulationTraceWriter( File file ) {
+    this( file, defaultBlockSize );
+  }
+
+  /**
+   * @param file
+   *          the file to write
+   * @param blockSize
+   *          the number of records in each block; larger blocks compress
+   *          the index while smaller ones make range reads finer
+   */
+  public SimulationTraceWriter( File file, int blockSize ) {
+    this.file = file;
+    this.blockSize = Math.max( 1, blockSize );
+    times = new int[ this.blockSize ];
+    variables = new int[ this.blockSize ];
+    kinds = new byte[ this.blockSize ];
+    values = new long[ this.blockSize ];
+    options.put( "withOwner", false );
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the number of records written so far
+   */
+  public long getNumRecords() {
+    return numRecords;
+  }
+
+  /**
+   * @return the I/O error that stopped the writer, or null if there was none
+   */
+  public IOException getFailure() {
+    return failure;
+  }
+
+  /**
+   * Stop writing after an I/O error, keeping the error for
+   * {@link #getFailure()}.
+   *
+   * @param message
+   * @param e
+   * @return the exception to throw
+   */
+  protected TraceException fail( String message, IOException e ) {
+    if ( failure == null ) failure = e;
+    if ( out != null ) {
+      try {
+        out.close();
+      } catch ( IOException ce ) {
+        // The first error is the one reported.
+      }
+      out = null;
+    }
+    return new TraceException( message + " " + file, e );
+  }
+
+  @Override
+  public void start( double timeScale ) {
+    try {
+      out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ),
+                                                            1 << 16 ) );
+      out.write( MAGIC );
+      out.writeInt( VERSION );
+      position = MAGIC.length + 4;
+    } catch ( IOException e ) {
+      throw fail( "Could not start simulation trace", e );
+    }
+  }
+
+  @Override
+  public void record( int time, Object variable, Object value ) {
+    if ( out == null ) return;
+    int i = count;
+    times[ i ] = time;
+    variables[ i ] = getVariableId( variable );
+    encode( i, value );
+    ++numRecords;
+    if ( ++count == blockSize ) writeBlock();
+  }
+
+  protected int getVariableId( Object variable ) {
+    Integer id = variableIds.get( variable );
+    if ( id == null ) {
+      id = variableStrings.size();
+      variableIds.put( variable, id );
+      variableStrings.add( new int[] { getStringId( SimulationOutput.getName( variable ) ),
+                                       getStringId( variable.getClass().getName() ) } );
+      variableBlocks.add( new int[ 4 ] );
+    }
+    return id;
+  }
+
+  protected int getStringId( String s ) {
+    Integer id = stringIds.get( s );
+    if ( id == null ) {
+      id = strings.size();
+      stringIds.put( s, id );
+      strings.add( s );
+    }
+    return id;
+  }
+
+  /**
+   * Set the kind and value columns at {@code i} for {@code value}.
+   */
+  protected void encode( int i, Object value ) {
+    // Parameters and expressions have already been resolved by the
+    // SimulationOutput.
+    if ( value == null ) {
+      kinds[ i ] = NULL;
+      values[ i ] = 0;
+    } else if ( value instanceof Double || value instanceof Float ) {
+      kinds[ i ] = DOUBLE;
+      values[ i ] = Double.doubleToRawLongBits( ( (Number)value ).doubleValue() );
+    } else if ( value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte ) {
+      kinds[ i ] = LONG;
+      values[ i ] = ( (Number)value ).longValue();
+    } else if ( value instanceof Boolean ) {
+      kinds[ i ] = BOOLEAN;
+      values[ i ] = ( (Boolean)value ) ? 1 : 0;
+    } else if ( value == EventSimulation.EventType.start ) {
+      kinds[ i ] = START;
+      values[ i ] = 0;
+    } else if ( value == EventSimulation.EventType.end ) {
+      kinds[ i ] = END;
+      values[ i ] = 0;
+    } else if ( value instanceof SimulationOutput.Snapshot ) {
+      kinds[ i ] = STRING;
+      values[ i ] = getStringId( ( (SimulationOutput.Snapshot)value ).getText() );
+    } else {
+      String s = value instanceof MoreToString
+                 ? ( (MoreToString)value ).toString( false, false, null, options )
+                 : value.toString();
+      kinds[ i ] = STRING;
+      values[ i ] = getStringId( s );
+    }
+  }
+
+  /**
+   * Add block {@code b} to the list of blocks of variable {@code v} unless it
+   * is already the last one.
+   */
+  protected void addVariableBlock( int v, int b ) {
+    int[] list = variableBlocks.get( v );
+    int n = list[ 0 ];
+    if ( n > 0 && list[ n ] == b ) return;
+    if ( n + 1 == list.length ) {
+      list = Arrays.copyOf( list, list.length * 2 );
+      variableBlocks.set( v, list );
+    }
+    list[ n + 1 ] = b;
+    list[ 0 ] = n + 1;
+  }
+
+  protected void writeBlock() {
+    if ( count == 0 ) return;
+    try {
+      long offset = position;
+      out.writeInt( count );
+      for ( int i = 0; i < count; ++i ) {
+        out.writeInt( times[ i ] );
+      }
+      for ( int i = 0; i < count; ++i ) {
+        out.writeInt( variables[ i ] );
+      }
+      out.write( kinds, 0, count );
+      for ( int i = 0; i < count; ++i ) {
+        out.writeLong( values[ i ] );
+      }
+      position += 4 + count * (long)SimulationTraceReader.RECORD_BYTES;
+      int b = blocks.size();
+      for ( int i = 0; i < count; ++i ) {
+        addVariableBlock( variables[ i ], b );
+      }
+      blocks.add( new long[] { offset, count, times[ 0 ], times[ count - 1 ] } );
+      count = 0;
+    } catch ( IOException e ) {
+      throw fail( "Could not write simulation trace", e );
+    }
+  }
+
+  /**
+   * Blocks are only written when full so that they stay large; this just
+   * pushes written blocks to the file.
+   */
+  @Override
+  public void flush() {
+    if ( out == null ) return;
+    try {
+      out.flush();
+    } catch ( IOException e ) {
+      throw fail( "Could not write simulation trace", e );
+    }
+  }
+
+  @Override
+  public void end() {
+    if ( out == null ) return;
+    try {
+      writeBlock();
+      long footerOffset = position;
+      out.writeInt( blocks.size() );
+      for ( long[] b : blocks ) {
+        out.writeLong( b[ 0 ] );
+        out.writeInt( (int)b[ 1 ] );
+        out.writeInt( (int)b[ 2 ] );
+        out.writeInt( (int)b[ 3 ] );
+      }
+      out.writeInt( strings.size() );
+      for ( String s : strings ) {
+        byte[] bytes = s.getBytes( UTF8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+      }
+      out.writeInt( variableStrings.size() );
+      for ( int[] v : variableStrings ) {
+        out.writeInt( v[ 0 ] );
+        out.writeInt( v[ 1 ] );
+      }
+      for ( int[] list : variableBlocks ) {
+        out.writeInt( list[ 0 ] );
+        for ( int k = 1; k <= list[ 0 ]; ++k ) {
+          out.writeInt( list[ k ] );
+        }
+      }
+      out.writeLong( numRecords );
+      out.writeLong( footerOffset );
+      out.writeInt( TRAILER_MAGIC );
+      out.close();
+      out = null;
+    } catch ( IOException e ) {
+      throw fail( "Could not finish simulation trace", e );
+    }
+  }
+
+  /**
+   * An unchecked wrapper for I/O errors while tracing, since sinks cannot
+   * throw checked exceptions.
+   */
+  public static class TraceException extends RuntimeException {
+    private static final long serialVersionUID = -3360291934468339254L;
+
+    public TraceException( String message, Throwable cause ) {
+      super( message, cause );
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.event;
+
+import gov.nasa.jpl.mbee.util.MoreToString;
+import gov.nasa.jpl.mbee.util.Utils;
+
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * TextSimulationSink writes the table that {@link EventSimulation} has always
+ * printed, one line per record, with the time and timestamp only on the first
+ * line for each time. Lines are built without a Formatter and are written
+ * through a buffer that is flushed once per batch instead of once per line.
+ */
+public class TextSimulationSink implements SimulationSink {
+
+  protected static final String padding = Utils.spaces( 47 );
+
+  protected final PrintWriter w;
+  protected final StringBuilder line = new StringBuilder( 160 );
+  protected static final Map< String, Object > options = new TreeMap< String, Object >();
+  static {
+    options.put( "withOwner", false );
+  }
+  protected int lastT = -1;
+  protected String startLine = null;
+  protected String endLine = "--- simulation end ---";
+
+  public TextSimulationSink( OutputStream os ) {
+    w = new PrintWriter( new BufferedWriter( new OutputStreamWriter( os ),
+                                             1 << 16 ), false );
+  }
+
+  /**
+   * @param os
+   * @param startLine
+   *          the line to write before the records instead of the time scale
+   * @param endLine
+   *          the line to write after the records
+   */
+  public TextSimulationSink( OutputStream os, String startLine, String endLine ) {
+    this( os );
+    this.startLine = startLine;
+    this.endLine = endLine;
+  }
+
+  @Override
+  public void start( double timeScale ) {
+    if ( startLine != null ) {
+      w.println( startLine );
+    } else {
+      w.println( "--- simulation start, timeScale = " + timeScale + " ---" );
+    }
+  }
+
+  /**
+   * @param value
+   *          the value of a record
+   * @return the value as written in the table, evaluated if it is an
+   *         expression, and with two decimal places for a Double
+   */
+  public static String valueText( Object value ) {
+    if ( value instanceof SimulationOutput.Snapshot ) {
+      return ( (SimulationOutput.Snapshot)value ).getText();
+    }
+    if ( value instanceof Double ) {
+      value = String.format( "%.2f", value );
+    }
+    try {
+      value = Expression.evaluate( value, null, false );
+    } catch ( ClassCastException e ) {
+    } catch ( IllegalAccessException e ) {
+    } catch ( InvocationTargetException e ) {
+    } catch ( InstantiationException e ) {
+    }
+    if ( value instanceof MoreToString ) {
+      value = ( (MoreToString)value ).toString( false, false, null, options );
+    }
+    return value == null ? "null" : value.toString();
+  }
+
+  @Override
+  public void record( int t, Object variable, Object value ) {
+    String name = SimulationOutput.getName( variable );
+    Class< ? > cls = variable.getClass();
+    String assignment = name + " -> " + valueText( value );
+
+    // The same columns as "%14s : %28s  %-60s   %s\n", or with the first two
+    // left blank for another record at the same time.
+    line.setLength( 0 );
+    if ( t == lastT ) {
+      line.append( padding );
+    } else {
+      padLeft( ( new Duration( t, null ) ).toStringWithUnits( false, false ), 14 );
+      line.append( " : " );
+      padLeft( Timepoint.toTimestamp( t ), 28 );
+      line.append( "  " );
+    }
+    padRight( assignment, 60 );
+    line.append( "   " ).append( cls.getSimpleName() ).append( " ==> " )
+        .append( cls.getName() ).append( '\n' );
+    w.append( line );
+    lastT = t;
+  }
+
+  protected void padLeft( String s, int width ) {
+    for ( int i = s.length(); i < width; ++i ) {
+      line.append( ' ' );
+    }
+    line.append( s );
+  }
+
+  protected void padRight( String s, int width ) {
+    line.append( s );
+    for ( int i = s.length(); i < width; ++i ) {
+      line.append( ' ' );
+    }
+  }
+
+  @Override
+  public void flush() {
+    w.flush();
+  }
+
+  @Override
+  public void end() {
+    if ( endLine != null ) w.println( endLine );
+    w.flush();
+  }
+
+}
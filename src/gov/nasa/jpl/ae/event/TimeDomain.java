@@ -4,7 +4,6 @@
 package gov.nasa.jpl.ae.event;
 
 import gov.nasa.jpl.ae.solver.IntegerDomain;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.ae.solver.RangeDomain;
 
 /**
@@ -13,13 +12,28 @@ import gov.nasa.jpl.ae.solver.RangeDomain;
  */
 public class TimeDomain extends IntegerDomain {
 
+  /**
+   * The horizon domain of the default EvaluationContext. Each context has its
+   * own; use {@link #getHorizonDomain()} for that of the current one.
+   */
+  @Deprecated
   public static IntegerDomain horizonDomain =
-      new IntegerDomain( 0, Timepoint.getHorizonDuration() );
+      EvaluationContext.getDefault().getHorizonDomain();
+
+  /**
+   * @return the domain of times from 0 to the horizon duration of the current
+   *         {@link EvaluationContext}
+   */
+  public static IntegerDomain getHorizonDomain() {
+    return EvaluationContext.get().getHorizonDomain();
+  }
+
   /**
-   * 
+   * Create a domain from 0 to the horizon duration of the current
+   * {@link EvaluationContext}.
    */
   public TimeDomain() {
-    super(horizonDomain);
+    super( getHorizonDomain() );
   }
 
   /**
@@ -44,7 +58,7 @@ public class TimeDomain extends IntegerDomain {
   public Integer pickRandomValue() {
     if ( getLowerBound() < Timepoint.getHorizonDuration() &&
          getUpperBound() > Timepoint.getHorizonDuration() ) {
-      double r1 = Random.global.nextDouble();
+      double r1 = EvaluationContext.random().nextDouble();
       if ( r1 < 0.5 ) {
         return pickRandomValueLessThan( Timepoint.getHorizonDuration() );
       }
@@ -18,21 +18,29 @@ import gov.nasa.jpl.mbee.util.Wraps;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.TypeVariable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.regex.Matcher;
@@ -113,6 +121,25 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
 
   protected Object owner = null;
 
+  /**
+   * The function from which the entries are sampled when they are first
+   * needed, or null if there is nothing left to sample (see
+   * {@link #materialize()}).
+   */
+  protected volatile SampleFunction deferredSamples = null;
+  // Whether the deferred function is being sampled; guarded by this
+  protected boolean materializing = false;
+  /**
+   * Whether maps sampled from functions wait to sample them until their
+   * entries are needed. The functions then see the state of their objects at
+   * that time instead of at construction, and draw from shared random
+   * generators in a different order, so results can differ from sampling at
+   * construction. This is off by default for that reason.
+   */
+  public static boolean deferringSamples = false;
+  protected int deferredSamplePeriod = 0;
+  protected int deferredHorizon = 0;
+
 
   /**
    * For the convenience of referring to the effect method.
@@ -146,6 +173,74 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
    */
   protected List< TimeValue > floatingEffects = new ArrayList< TimeValue >();
 
+  /**
+   * The Integer times of the keys in order and the corresponding entries of
+   * the map, used to look up values by time without creating a timepoint and
+   * walking the tree. The index is rebuilt lazily after the map changes.
+   * <p>
+   * A built index is never changed; a rebuild publishes a new one. Each
+   * lookup reads this field once, so lookups may run on several threads at
+   * once, as for read-only evaluation and output sinks. Lookups are still not
+   * safe while another thread changes the map, as for any TreeMap. Races on
+   * timeIndexUnusable and lookupsSinceChange only cost an extra rebuild or a
+   * lookup in the tree.
+   */
+  protected transient volatile TimeIndex< V > timeIndex = null;
+  protected transient volatile boolean timeIndexUnusable = false;
+  protected transient int lookupsSinceChange = 0;
+  protected static final int NOT_INDEXED = Integer.MIN_VALUE;
+
+  /**
+   * The sorted times of the keys of the map and the entries for them when
+   * the index was built.
+   */
+  protected static class TimeIndex< V > {
+    protected final int[] times;
+    protected final Entry< Parameter< Integer >, V >[] entries;
+    protected final int size;
+
+    protected TimeIndex( int[] times, Entry< Parameter< Integer >, V >[] entries ) {
+      this.times = times;
+      this.entries = entries;
+      this.size = times.length;
+    }
+
+    /**
+     * @return the position of the last time at or before {@code t}, or -1
+     */
+    protected int floor( int t ) {
+      int lo = 0;
+      int hi = size;
+      while ( lo < hi ) {
+        int mid = ( lo + hi ) >>> 1;
+        if ( times[ mid ] <= t ) {
+          lo = mid + 1;
+        } else {
+          hi = mid;
+        }
+      }
+      return lo - 1;
+    }
+
+    /**
+     * @param i
+     *          a position in the index
+     * @return whether the key at {@code i} still has the time it was indexed
+     *         with; positions outside the index are trivially valid
+     */
+    protected boolean validAt( int i ) {
+      if ( i < 0 || i >= size ) return true;
+      Integer t = timeIndexTimeOf( entries[ i ].getKey() );
+      return t != null && t.intValue() == times[ i ];
+    }
+  }
+
+  /**
+   * Simulations patched when the entries of this map change; see
+   * {@link EventSimulation#listenForChanges()}.
+   */
+  protected transient List< SimulationChangeListener > changeListeners = null;
+
   protected String name;
 
   protected Class<V> type = null;
@@ -328,6 +423,21 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
       if ( compare != 0 ) return compare;
       return o1.compareTo( o2, checkId );
     }
+
+    // TimeComparators with the same settings order keys the same way, so
+    // TreeMap can copy between maps in linear time (see putAll()).
+    @Override
+    public boolean equals( Object o ) {
+      if ( this == o ) return true;
+      if ( o == null || o.getClass() != getClass() ) return false;
+      TimeComparator c = (TimeComparator)o;
+      return propagate == c.propagate && checkId == c.checkId;
+    }
+
+    @Override
+    public int hashCode() {
+      return ( propagate ? 2 : 0 ) + ( checkId ? 1 : 0 );
+    }
   }
 
   public TimeVaryingMap() {
@@ -511,24 +621,88 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
     super(new TimeComparator());
     this.name = name;
     samplePeriod = correctSamplePeriod( samplePeriod, horizonDuration );
-      for ( int t = 0; t < horizonDuration; t += samplePeriod ) {
-        // WARNING: creating Parameter<Integer> with no owner in order to avoid
-        // unnecessary overhead with constraint processing. If modified while in
-        // the map, it can corrupt the map.
-        Pair< Boolean, Object > p = ClassUtils.runMethod( false, o, initialValueFunction, t );
-        if ( p.first ) {
-          Parameter< Integer > tp = makeTempTimepoint( t, false );
-          if ( tp == null || tp.getValue( false ) == null ) {
-            System.err.println( "Error - inserting null timepoint!" );
-          } else {
-            put( tp,// new Parameter<Integer>( "", t, this ),
-                 tryCastValue( p.second ) );
-          }
-        }
-      }
+    deferSamples( new SampleFunction( initialValueFunction, o ), samplePeriod,
+                  horizonDuration );
     if ( Debug.isOn() || checkConsistency ) isConsistent();
   }
 
+  /**
+   * Sample the map from a function the first time its entries are needed
+   * instead of now. Maps of many objects, such as the loads of customers,
+   * are often never read, and sampling them all up front takes a call per
+   * sample.
+   *
+   * @param f
+   *          the function to sample
+   * @param samplePeriod
+   * @param horizonDuration
+   *          the time up to which the function is sampled
+   */
+  protected void deferSamples( SampleFunction f, int samplePeriod,
+                               int horizonDuration ) {
+    deferredSamples = f;
+    deferredSamplePeriod = samplePeriod;
+    deferredHorizon = horizonDuration;
+    if ( !deferringSamples ) materialize();
+  }
+
+  /**
+   * @return whether the entries of this map have been sampled or were never
+   *         deferred
+   */
+  public boolean isMaterialized() {
+    return deferredSamples == null;
+  }
+
+  /**
+   * Sample the deferred function, if any, into this map. This is called
+   * before the entries are read or changed. Threads that need the entries
+   * while another samples them wait for it to finish, so the function is
+   * sampled once.
+   */
+  protected void materialize() {
+    if ( deferredSamples == null ) return;
+    synchronized ( this ) {
+      SampleFunction f = deferredSamples;
+      // The accessors that generateSamples() calls come back here.
+      if ( f == null || materializing ) return;
+      materializing = true;
+      try {
+        generateSamples( f, deferredSamplePeriod, deferredHorizon );
+      } finally {
+        materializing = false;
+        deferredSamples = null;
+      }
+    }
+  }
+
+  /**
+   * Put the value of {@code f} at each sample time in [0,
+   * {@code horizonDuration}) into this map.
+   *
+   * @param f
+   * @param samplePeriod
+   * @param horizonDuration
+   */
+  @SuppressWarnings( "unchecked" )
+  protected void generateSamples( SampleFunction f, int samplePeriod,
+                                  int horizonDuration ) {
+    int n = horizonDuration <= 0 ? 0
+                                 : (int)( ( (long)horizonDuration + samplePeriod - 1 ) / samplePeriod );
+    Parameter< Integer >[] keys = (Parameter< Integer >[])new Parameter[ n ];
+    Object[] values = new Object[ n ];
+    int m = 0;
+    for ( int t = 0; t < horizonDuration; t += samplePeriod ) {
+      Pair< Boolean, Object > p = f.sample( t );
+      if ( p.first ) {
+        keys[ m ] = makeTempTimepoint( t, false );
+        values[ m++ ] = tryCastValue( p.second );
+      }
+    }
+    // The times increase, so the samples can be loaded at once.
+    putAll( new SortedEntries< V >( comparator(), keys, values, m ) );
+  }
+
   public TimeVaryingMap( String name, TimeVaryingMap<V> tvm ) {
     this( name, null, null, tvm.type );
     owner = tvm.owner;
@@ -735,6 +909,9 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
     if ( parameter == null ) return;
     if ( parameter.getValueNoPropagate() instanceof Integer ) {
       unfloatEffects( parameter );
+      // The time of a key may have changed, and a changed key may not be
+      // found in the map to check.
+      fireChanged();
     }
   }
 
@@ -932,13 +1109,13 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
   }
   public V getValue( Parameter< Integer > t, boolean valuesEqualForKeysOk ) {
     if ( t == null ) return null;
-    NavigableMap< Parameter< Integer >, V > m = headMap( t, true );
-    if ( !m.isEmpty() ) {
-      Entry< Parameter< Integer >, V > e = m.lastEntry();
-      if ( e.getKey().equals( t )
-           || ( valuesEqualForKeysOk && Expression.valuesEqual( e.getKey(), t,
+    // same as headMap( t, true ).lastEntry() without creating the view
+    Entry< Parameter< Integer >, V > floor = floorEntry( t );
+    if ( floor != null ) {
+      if ( floor.getKey().equals( t )
+           || ( valuesEqualForKeysOk && Expression.valuesEqual( floor.getKey(), t,
                                                                 Integer.class ) ) ) {
-        return m.lastEntry().getValue();
+        return floor.getValue();
       }
     }
     if ( Debug.isOn() || checkConsistency ) isConsistent();
@@ -950,8 +1127,8 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
     }
     V v1 = null, v2 = null;
     if ( interpolation.type == Interpolation.STEP ) {
-      if ( !m.isEmpty() ) {
-        v1 = m.lastEntry().getValue();
+      if ( floor != null ) {
+        v1 = floor.getValue();
       }
       if ( Debug.isOn() ) {
         v2 = getValueBefore( t );
@@ -963,9 +1140,9 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
       return null;
     } else if ( interpolation.type == Interpolation.LINEAR ) {
       Parameter<Integer> t1 = null;
-      if ( !m.isEmpty() ) {
-        t1 = m.lastEntry().getKey();
-        v1 = m.lastEntry().getValue();
+      if ( floor != null ) {
+        t1 = floor.getKey();
+        v1 = floor.getValue();
       }
       if ( Debug.isOn() ) {
         Assert.assertEquals( t1, getTimepointBefore( t ) );
@@ -1005,12 +1182,424 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
     return null;
   }
 
+  /**
+   * @param t
+   *          a key of this map
+   * @return the time of {@code t} if it is an Integer without evaluating or
+   *         propagating; otherwise null
+   */
+  protected static Integer timeIndexTimeOf( Parameter< Integer > t ) {
+    if ( t == null ) return null;
+    Object v = ( (Parameter< ? >)t ).getValueNoPropagate();
+    return v instanceof Integer ? (Integer)v : null;
+  }
+
+  /**
+   * Mark the time index out of date. This is called for every change to the
+   * keys of the map that goes through the map; removals through views and
+   * iterators are caught by the size check in {@link #getTimeIndex(boolean)}.
+   * Lookups call this, too, so it does not tell the change listeners; the
+   * mutators do that with {@link #fireChanged()}.
+   */
+  protected void invalidateTimeIndex() {
+    timeIndex = null;
+    timeIndexUnusable = false;
+    lookupsSinceChange = 0;
+  }
+
+  public void addChangeListener( SimulationChangeListener listener ) {
+    if ( changeListeners == null ) {
+      changeListeners = new ArrayList< SimulationChangeListener >( 1 );
+    }
+    if ( !changeListeners.contains( listener ) ) changeListeners.add( listener );
+  }
+
+  public void removeChangeListener( SimulationChangeListener listener ) {
+    if ( changeListeners == null ) return;
+    changeListeners.remove( listener );
+    if ( changeListeners.isEmpty() ) changeListeners = null;
+  }
+
+  /**
+   * Tell the change listeners that the entries of the map changed. Only the
+   * methods that change the map call this, not lookups.
+   */
+  protected void fireChanged() {
+    if ( changeListeners == null ) return;
+    for ( SimulationChangeListener listener : changeListeners ) {
+      listener.sourceChanged( this );
+    }
+  }
+
+  /**
+   * Build a new time index from the entries of the map and publish it.
+   *
+   * @return the new index, or null if it could not be built, which requires
+   *         every key to have an Integer time
+   */
+  @SuppressWarnings( "unchecked" )
+  protected TimeIndex< V > buildTimeIndex() {
+    int n = size();
+    int[] times = new int[ n ];
+    Entry< Parameter< Integer >, V >[] entries =
+        (Entry< Parameter< Integer >, V >[])new Entry[ n ];
+    int i = 0;
+    // The entries of a TreeMap's entrySet() are the nodes of the tree, so
+    // values set later through the map or an entry are seen by the index.
+    for ( Entry< Parameter< Integer >, V > e : entrySet() ) {
+      Integer t = timeIndexTimeOf( e.getKey() );
+      if ( i >= n || t == null || ( i > 0 && t < times[ i - 1 ] ) ) {
+        timeIndexUnusable = true;
+        return null;
+      }
+      times[ i ] = t;
+      entries[ i ] = e;
+      ++i;
+    }
+    if ( i != n ) return null;
+    TimeIndex< V > index = new TimeIndex< V >( times, entries );
+    timeIndex = index;
+    return index;
+  }
+
+  /**
+   * Get the time index, building it if it is out of date. The index is only
+   * rebuilt after a change once there have been enough lookups to pay for
+   * it, so that alternating updates and lookups do not rebuild it each time.
+   *
+   * @param buildNow
+   *          whether to rebuild an out-of-date index regardless of how many
+   *          lookups there have been since the last change
+   * @return an index that is up to date with the size of the map, or null if
+   *         the index cannot be used
+   */
+  protected TimeIndex< V > getTimeIndex( boolean buildNow ) {
+    TimeIndex< V > index = timeIndex;
+    int n = size();
+    if ( index != null && index.size == n ) return index;
+    if ( index != null ) invalidateTimeIndex();
+    if ( timeIndexUnusable ) return null;
+    if ( !buildNow && ++lookupsSinceChange <= ( n >> 5 ) ) {
+      return null;
+    }
+    return buildTimeIndex();
+  }
+
+  /**
+   * Find the last entry whose time is at or before {@code t} without creating
+   * a timepoint.
+   *
+   * @param index
+   *          the time index read once by the caller
+   * @param t
+   *          the time
+   * @return the position of the entry in {@code index}, -1 if there is no
+   *         entry at or before {@code t}, or {@link #NOT_INDEXED} if the index
+   *         cannot be used
+   */
+  protected int timeIndexFloor( TimeIndex< V > index, int t ) {
+    int i = index.floor( t );
+    // A key's time may change without the map being told, so check the
+    // entries the answer depends on.
+    if ( !index.validAt( i ) || !index.validAt( i + 1 ) ) {
+      if ( timeIndex == index ) invalidateTimeIndex();
+      return NOT_INDEXED;
+    }
+    return i;
+  }
+
+  /**
+   * A TimeCursor gets values of the map for non-decreasing times, as when
+   * sampling for plots, by stepping forward from where the last lookup ended
+   * instead of searching again, so that each step is O(1) amortized. Lookups
+   * for an earlier time or after the map changes fall back to a search. A
+   * cursor is for use by one thread.
+   */
+  public class TimeCursor {
+    protected TimeIndex< V > index = null;
+    protected int position = -1;
+    protected int lastTime = Integer.MIN_VALUE;
+
+    /**
+     * @param t
+     *          the time, usually no earlier than that of the last call
+     * @return the same value as {@link TimeVaryingMap#getValue(Integer)}
+     */
+    public V getValue( int t ) {
+      if ( t < lastTime || index == null || index != timeIndex
+           || index.size != size() ) {
+        index = getTimeIndex( true );
+        position = index == null ? NOT_INDEXED : timeIndexFloor( index, t );
+        if ( position == NOT_INDEXED ) {
+          index = null;
+          position = -1;
+          return TimeVaryingMap.this.getValue( (Integer)t );
+        }
+      } else {
+        while ( position + 1 < index.size && index.times[ position + 1 ] <= t ) {
+          ++position;
+        }
+        if ( !index.validAt( position ) || !index.validAt( position + 1 ) ) {
+          if ( timeIndex == index ) invalidateTimeIndex();
+          index = null;
+          position = -1;
+          return TimeVaryingMap.this.getValue( (Integer)t );
+        }
+      }
+      lastTime = t;
+      return position < 0 ? null : index.entries[ position ].getValue();
+    }
+  }
+
+  /**
+   * @return a new cursor for looking up values at non-decreasing times
+   */
+  public TimeCursor cursor() {
+    return new TimeCursor();
+  }
+
+  @Override
+  public V put( Parameter< Integer > key, V value ) {
+    materialize();
+    invalidateTimeIndex();
+    V old = super.put( key, value );
+    fireChanged();
+    return old;
+  }
+
+  @Override
+  public void putAll( Map< ? extends Parameter< Integer >, ? extends V > map ) {
+    materialize();
+    invalidateTimeIndex();
+    super.putAll( map );
+    fireChanged();
+  }
+
+  @Override
+  public V remove( Object key ) {
+    materialize();
+    invalidateTimeIndex();
+    V old = super.remove( key );
+    fireChanged();
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    // Samples that have not been taken are cleared, too.
+    deferredSamples = null;
+    invalidateTimeIndex();
+    super.clear();
+    fireChanged();
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > pollFirstEntry() {
+    materialize();
+    invalidateTimeIndex();
+    Entry< Parameter< Integer >, V > entry = super.pollFirstEntry();
+    fireChanged();
+    return entry;
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > pollLastEntry() {
+    materialize();
+    invalidateTimeIndex();
+    Entry< Parameter< Integer >, V > entry = super.pollLastEntry();
+    fireChanged();
+    return entry;
+  }
+
+  // The rest of the methods of TreeMap that read entries only need to
+  // materialize any deferred samples first.
+
+  @Override
+  public int size() {
+    materialize();
+    return super.size();
+  }
+
+  @Override
+  public boolean containsKey( Object key ) {
+    materialize();
+    return super.containsKey( key );
+  }
+
+  @Override
+  public boolean containsValue( Object value ) {
+    materialize();
+    return super.containsValue( value );
+  }
+
+  @Override
+  public V get( Object key ) {
+    materialize();
+    return super.get( key );
+  }
+
+  @Override
+  public Parameter< Integer > firstKey() {
+    materialize();
+    return super.firstKey();
+  }
+
+  @Override
+  public Parameter< Integer > lastKey() {
+    materialize();
+    return super.lastKey();
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > firstEntry() {
+    materialize();
+    return super.firstEntry();
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > lastEntry() {
+    materialize();
+    return super.lastEntry();
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > lowerEntry( Parameter< Integer > key ) {
+    materialize();
+    return super.lowerEntry( key );
+  }
+
+  @Override
+  public Parameter< Integer > lowerKey( Parameter< Integer > key ) {
+    materialize();
+    return super.lowerKey( key );
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > floorEntry( Parameter< Integer > key ) {
+    materialize();
+    return super.floorEntry( key );
+  }
+
+  @Override
+  public Parameter< Integer > floorKey( Parameter< Integer > key ) {
+    materialize();
+    return super.floorKey( key );
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > ceilingEntry( Parameter< Integer > key ) {
+    materialize();
+    return super.ceilingEntry( key );
+  }
+
+  @Override
+  public Parameter< Integer > ceilingKey( Parameter< Integer > key ) {
+    materialize();
+    return super.ceilingKey( key );
+  }
+
+  @Override
+  public Entry< Parameter< Integer >, V > higherEntry( Parameter< Integer > key ) {
+    materialize();
+    return super.higherEntry( key );
+  }
+
+  @Override
+  public Parameter< Integer > higherKey( Parameter< Integer > key ) {
+    materialize();
+    return super.higherKey( key );
+  }
+
+  @Override
+  public Set< Parameter< Integer > > keySet() {
+    materialize();
+    return super.keySet();
+  }
+
+  @Override
+  public NavigableSet< Parameter< Integer > > navigableKeySet() {
+    materialize();
+    return super.navigableKeySet();
+  }
+
+  @Override
+  public NavigableSet< Parameter< Integer > > descendingKeySet() {
+    materialize();
+    return super.descendingKeySet();
+  }
+
+  @Override
+  public Collection< V > values() {
+    materialize();
+    return super.values();
+  }
+
+  @Override
+  public Set< Entry< Parameter< Integer >, V > > entrySet() {
+    materialize();
+    return super.entrySet();
+  }
+
+  @Override
+  public NavigableMap< Parameter< Integer >, V > descendingMap() {
+    materialize();
+    return super.descendingMap();
+  }
+
+  @Override
+  public NavigableMap< Parameter< Integer >, V > subMap( Parameter< Integer > fromKey,
+                                                         boolean fromInclusive,
+                                                         Parameter< Integer > toKey,
+                                                         boolean toInclusive ) {
+    materialize();
+    return super.subMap( fromKey, fromInclusive, toKey, toInclusive );
+  }
+
+  @Override
+  public NavigableMap< Parameter< Integer >, V > headMap( Parameter< Integer > toKey,
+                                                          boolean inclusive ) {
+    materialize();
+    return super.headMap( toKey, inclusive );
+  }
+
+  @Override
+  public NavigableMap< Parameter< Integer >, V > tailMap( Parameter< Integer > fromKey,
+                                                          boolean inclusive ) {
+    materialize();
+    return super.tailMap( fromKey, inclusive );
+  }
+
+  @Override
+  public SortedMap< Parameter< Integer >, V > subMap( Parameter< Integer > fromKey,
+                                                      Parameter< Integer > toKey ) {
+    materialize();
+    return super.subMap( fromKey, toKey );
+  }
+
+  @Override
+  public SortedMap< Parameter< Integer >, V > headMap( Parameter< Integer > toKey ) {
+    materialize();
+    return super.headMap( toKey );
+  }
+
+  @Override
+  public SortedMap< Parameter< Integer >, V > tailMap( Parameter< Integer > fromKey ) {
+    materialize();
+    return super.tailMap( fromKey );
+  }
+
   /* (non-Javadoc)
    * @see gov.nasa.jpl.ae.event.TimeVarying#getValue(java.lang.Integer)
    */
   @Override
   public V getValue( Integer t ) {
     if ( t == null ) return null;
+    TimeIndex< V > index = getTimeIndex( false );
+    int i = index == null ? NOT_INDEXED : timeIndexFloor( index, t );
+    if ( i != NOT_INDEXED ) {
+      if ( Debug.isOn() || checkConsistency ) isConsistent();
+      return i < 0 ? null : index.entries[ i ].getValue();
+    }
     Parameter<Integer> tp = makeTempTimepoint( t, true );
     Entry< Parameter<Integer>, V > e = this.floorEntry( tp );
     if ( Debug.isOn() || checkConsistency ) isConsistent();
@@ -1390,7 +1979,7 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
 
   /**
    * Multiply this map with another. This achieves for all {@code t} in
-   * {@code thisBefore.keySet()} and {@code tvm.keySet()},
+   * {@code thisBefore.keySet()},
    * {@code thisAfter.get(t) == thisBefore.get(t) * tvm.get(t)}.
    *
    * @param tvm
@@ -1403,18 +1992,7 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
    */
   public <VV> TimeVaryingMap< V > multiply( TimeVaryingMap< VV > tvm ) throws ClassCastException, IllegalAccessException, InvocationTargetException, InstantiationException {
     if ( tvm == null ) return null;
-    Set< Parameter< Integer > > keys =
-        new TreeSet< Parameter< Integer > >( Collections.reverseOrder() );
-    keys.addAll( this.keySet() );
-    keys.addAll( tvm.keySet() );
-    for ( Parameter< Integer > k : keys ) {
-      VV v = tvm.getValue( k, false );
-      Number n = Expression.evaluate( v, Number.class, false );
-      //if ( n != null ) {// n.doubleValue() != 0 ) {
-      multiply( n, k, k );
-      //}
-    }
-    return removeDuplicates();
+    return combine( tvm, TIMES );
   }
   /**
    * @param n the number by which the map is multiplied
@@ -1562,13 +2140,13 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
   }
 
   /**
-   * Multiply this map with another. This achieves for all {@code t} in
-   * {@code thisBefore.keySet()} and {@code tvm.keySet()},
-   * {@code thisAfter.get(t) == thisBefore.get(t) * tvm.get(t)}.
+   * Divide this map by another. This achieves for all {@code t} in
+   * {@code thisBefore.keySet()},
+   * {@code thisAfter.get(t) == thisBefore.get(t) / tvm.get(t)}.
    *
    * @param tvm
-   *          the {@code TimeVaryingMap} with which this map is multiplied
-   * @return this {@code TimeVaryingMap} after multiplying by {@code tvm}
+   *          the {@code TimeVaryingMap} by which this map is divided
+   * @return this {@code TimeVaryingMap} after dividing by {@code tvm}
    * @throws InstantiationException 
    * @throws InvocationTargetException 
    * @throws IllegalAccessException 
@@ -1576,18 +2154,7 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
    */
   public <VV> TimeVaryingMap< V > divide( TimeVaryingMap< VV > tvm ) throws ClassCastException, IllegalAccessException, InvocationTargetException, InstantiationException {
     if ( tvm == null ) return null;
-    Set< Parameter< Integer > > keys =
-        new TreeSet< Parameter< Integer > >( Collections.reverseOrder() );
-    keys.addAll( this.keySet() );
-    keys.addAll( tvm.keySet() );
-    for ( Parameter< Integer > k : keys ) {
-      VV v = tvm.getValue( k, false );
-      Number n = Expression.evaluate( v, Number.class, false );
-      //if ( n != null ) {// n.doubleValue() != 0 ) {
-      divide( n, k, k );
-      //}
-    }
-    return removeDuplicates();
+    return combine( tvm, DIVIDE );
   }
 
   /**
@@ -2039,16 +2606,7 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
    * @throws ClassCastException 
    */
   public <VV> TimeVaryingMap< V > add( TimeVaryingMap< VV > tvm ) throws ClassCastException, IllegalAccessException, InvocationTargetException, InstantiationException {
-    Set< Parameter< Integer > > keys =
-        new TreeSet< Parameter< Integer > >( Collections.reverseOrder() );
-    keys.addAll( this.keySet() );
-    keys.addAll( tvm.keySet() );
-    for ( Parameter< Integer > k : keys ) {
-      VV v = tvm.getValue( k, false );
-      Number n = Expression.evaluate( v, Number.class, false );
-      add( n, k, k );
-    }
-    return removeDuplicates();
+    return combine( tvm, PLUS );
   }
 
   /**
@@ -2106,22 +2664,447 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
    */
   public <VV> TimeVaryingMap< V > subtract( TimeVaryingMap< VV > tvm ) throws ClassCastException, IllegalAccessException, InvocationTargetException, InstantiationException {
     if ( tvm == null ) return null;
+    return combine( tvm, MINUS );
+  }
+
+  protected static final byte PLUS = 0;
+  protected static final byte MINUS = 1;
+  protected static final byte TIMES = 2;
+  protected static final byte DIVIDE = 3;
+
+  /**
+   * Combine this map with another in a single merge-sweep over the keys of
+   * both maps. For each key {@code k} in either map, this achieves
+   * {@code thisAfter.getValue(k) == thisBefore.getValue(k) op tvm.getValue(k)}
+   * as if {@code op} were applied to each key one at a time. Values before a
+   * map's first key are null, as for {@link #getValue(Parameter, boolean)}.
+   * <p>
+   * As for {@link #add(Number, Parameter, Parameter)}, {@link #PLUS} and
+   * {@link #MINUS} insert the keys of {@code tvm} that are not in this map.
+   * {@link #TIMES} and {@link #DIVIDE} only change the keys already in this
+   * map, as {@link #multiply(Number, Parameter, Parameter)} and
+   * {@link #divide(Number, Parameter, Parameter)} do. A null result is never
+   * inserted.
+   * <p>
+   * The sweep carries the last value of each map forward, which is only right
+   * for {@link Interpolation#STEP}. If either map interpolates otherwise, the
+   * maps are combined one key at a time by
+   * {@link #combineByKey(TimeVaryingMap, byte)}.
+   *
+   * @param tvm
+   *          the map whose values are combined with this map's
+   * @param op
+   *          one of {@link #PLUS}, {@link #MINUS}, {@link #TIMES}, or
+   *          {@link #DIVIDE}
+   * @return this map after combining with {@code tvm}
+   */
+  protected < VV > TimeVaryingMap< V > combine( TimeVaryingMap< VV > tvm,
+                                                byte op ) throws ClassCastException,
+                                                         IllegalAccessException,
+                                                         InvocationTargetException,
+                                                         InstantiationException {
+    if ( interpolation.type != Interpolation.STEP
+         || tvm.interpolation.type != Interpolation.STEP ) {
+      return combineByKey( tvm, op );
+    }
+    Comparator< ? super Parameter< Integer > > cmp = comparator();
+    boolean insertingKeys = op == PLUS || op == MINUS;
+
+    // Compute all results before changing anything.
+    List< V > thisResults = new ArrayList< V >( size() );
+    List< Parameter< Integer > > newKeys = new ArrayList< Parameter< Integer > >();
+    List< V > newValues = new ArrayList< V >();
+    Iterator< Entry< Parameter< Integer >, V > > i1 = entrySet().iterator();
+    Iterator< Entry< Parameter< Integer >, VV > > i2 = tvm.entrySet().iterator();
+    Entry< Parameter< Integer >, V > e1 = i1.hasNext() ? i1.next() : null;
+    Entry< Parameter< Integer >, VV > e2 = i2.hasNext() ? i2.next() : null;
+    V lastThis = null;
+    VV lastTvm = null;
+    while ( e1 != null || e2 != null ) {
+      int c = e1 == null ? 1 : ( e2 == null ? -1 : cmp.compare( e1.getKey(), e2.getKey() ) );
+      Parameter< Integer > k;
+      V v;
+      VV vv;
+      if ( c <= 0 ) {
+        k = e1.getKey();
+        v = lastThis = e1.getValue();
+        e1 = i1.hasNext() ? i1.next() : null;
+      } else {
+        k = e2.getKey();
+        if ( !insertingKeys ) {
+          lastTvm = e2.getValue();
+          e2 = i2.hasNext() ? i2.next() : null;
+          continue;
+        }
+        v = lastThis;
+      }
+      if ( c >= 0 ) {
+        vv = lastTvm = e2.getValue();
+        e2 = i2.hasNext() ? i2.next() : null;
+      } else {
+        vv = lastTvm;
+      }
+      Number n = ( vv == null || vv instanceof Number ) ? (Number)vv
+                 : Expression.evaluate( vv, Number.class, false );
+      V result = applyOperation( op, v, n );
+      if ( c <= 0 ) {
+        thisResults.add( result );
+      } else if ( result != null ) {
+        newKeys.add( k );
+        newValues.add( result );
+      }
+    }
+
+    int i = 0;
+    for ( Entry< Parameter< Integer >, V > e : entrySet() ) {
+      e.setValue( thisResults.get( i++ ) );
+    }
+    for ( int j = 0; j < newKeys.size(); ++j ) {
+      put( newKeys.get( j ), newValues.get( j ) );
+    }
+    return removeDuplicates();
+  }
+
+  /**
+   * Combine this map with another by applying {@code op} at each key of
+   * either map in reverse order, looking up each value with the maps'
+   * interpolation. This is how maps were combined before
+   * {@link #combine(TimeVaryingMap, byte)}, and it is still used when either
+   * map is not {@link Interpolation#STEP}.
+   *
+   * @param tvm
+   *          the map whose values are combined with this map's
+   * @param op
+   *          one of {@link #PLUS}, {@link #MINUS}, {@link #TIMES}, or
+   *          {@link #DIVIDE}
+   * @return this map after combining with {@code tvm}
+   */
+  protected < VV > TimeVaryingMap< V > combineByKey( TimeVaryingMap< VV > tvm,
+                                                     byte op ) throws ClassCastException,
+                                                              IllegalAccessException,
+                                                              InvocationTargetException,
+                                                              InstantiationException {
     Set< Parameter< Integer > > keys =
         new TreeSet< Parameter< Integer > >( Collections.reverseOrder() );
     keys.addAll( this.keySet() );
     keys.addAll( tvm.keySet() );
-    //System.out.println( "this - tvm -> this\n" + this.toString( true, false, null ) + "\n + " + tvm.toString( true, false, null ) );
     for ( Parameter< Integer > k : keys ) {
       VV v = tvm.getValue( k, false );
       Number n = Expression.evaluate( v, Number.class, false );
-      //if ( n != null ) {// n.doubleValue() != 0 ) {
-      subtract( n, k, k );
-      //}
+      switch ( op ) {
+        case PLUS:
+          add( n, k, k );
+          break;
+        case MINUS:
+          subtract( n, k, k );
+          break;
+        case TIMES:
+          multiply( n, k, k );
+          break;
+        case DIVIDE:
+          divide( n, k, k );
+          break;
+        default:
+          Debug.error( true, "TimeVaryingMap.combineByKey(): invalid operation! " + op );
+      }
     }
-    //System.out.println( " = " + this.toString( true, false, null ) );
-    removeDuplicates();
-    //System.out.println( " = " + this.toString( true, false, null ) );
-    return this;
+    return removeDuplicates();
+  }
+
+  /**
+   * Compute {@code v op n} for a single value the same way as
+   * {@link #add(Number, Parameter, Parameter)},
+   * {@link #multiply(Number, Parameter, Parameter)}, and
+   * {@link #divide(Number, Parameter, Parameter)}, but without going through
+   * the reflective {@link Functions} calls for Double and Integer values.
+   */
+  @SuppressWarnings( "unchecked" )
+  protected V applyOperation( byte op, V v, Number n ) throws ClassCastException,
+                                                      IllegalAccessException,
+                                                      InvocationTargetException,
+                                                      InstantiationException {
+    switch ( op ) {
+      case MINUS:
+        if ( n instanceof Double ) n = -n.doubleValue();
+        else if ( n instanceof Integer ) n = -n.intValue();
+        else n = Functions.times( n, -1 );
+        //$FALL-THROUGH$
+      case PLUS:
+        if ( v == null ) return tryCastValue( n );
+        if ( n == null ) n = 0.0;
+        if ( v instanceof Double ) {
+          return tryCastValue( (Double)v + n.doubleValue() );
+        } else if ( v instanceof Float ) {
+          return tryCastValue( (Float)v + n.floatValue() );
+        } else if ( v instanceof Integer ) {
+          return tryCastValue( (int)( (Integer)v + n.doubleValue() ) );
+        } else if ( v instanceof Long ) {
+          return tryCastValue( (long)( (Long)v + n.doubleValue() ) );
+        }
+        return v;
+      case TIMES:
+        if ( v instanceof Double && ( n instanceof Double || n instanceof Integer ) ) {
+          return (V)(Double)Functions.times( ( (Double)v ).doubleValue(), n.doubleValue() );
+        } else if ( v instanceof Integer && n instanceof Integer ) {
+          return (V)(Integer)Functions.times( ( (Integer)v ).intValue(), n.intValue() );
+        }
+        return Functions.times( v, n );
+      case DIVIDE:
+        if ( v instanceof Double && ( n instanceof Double || n instanceof Integer ) ) {
+          return (V)(Double)Functions.dividedBy( ( (Double)v ).doubleValue(), n.doubleValue() );
+        } else if ( v instanceof Integer && n instanceof Integer ) {
+          return (V)(Integer)Functions.dividedBy( ( (Integer)v ).intValue(), n.intValue() );
+        }
+        return Functions.divide( v, n );
+      default:
+        Debug.error( true, "TimeVaryingMap.applyOperation(): invalid operation! " + op );
+    }
+    return v;
+  }
+
+  /**
+   * A position in the entries of one of the maps being merged by
+   * {@link TimeVaryingMap#putMerged(Collection, double)}, ordered by the time
+   * of the next entry. Values are multiplied by the weight of the cursor as
+   * they are read.
+   */
+  protected static class MergeCursor implements Comparable< MergeCursor > {
+    protected Iterator< ? extends Entry< Parameter< Integer >, ? > > iter;
+    protected Parameter< Integer > nextKey = null;
+    protected int nextTime;
+    protected double nextValue;
+    protected double value = 0.0;
+    protected double weight = 1.0;
+
+    protected MergeCursor() {
+    }
+
+    public MergeCursor( TimeVaryingMap< ? > map ) {
+      iter = map.entrySet().iterator();
+    }
+
+    public MergeCursor( TimeVaryingMap< ? > map, double weight ) {
+      this( map );
+      this.weight = weight;
+    }
+
+    /**
+     * Move to the next entry with a time.
+     *
+     * @return whether there is a next entry
+     */
+    public boolean advance() throws ClassCastException, IllegalAccessException,
+                            InvocationTargetException, InstantiationException {
+      while ( iter.hasNext() ) {
+        Entry< Parameter< Integer >, ? > e = iter.next();
+        Integer t = e.getKey() == null ? null : e.getKey().getValue( false );
+        if ( t == null ) continue;
+        Object v = e.getValue();
+        Number n = ( v == null || v instanceof Number ) ? (Number)v
+                   : Expression.evaluate( v, Number.class, false );
+        nextKey = e.getKey();
+        nextTime = t;
+        nextValue = n == null ? 0.0 : weight * n.doubleValue();
+        return true;
+      }
+      nextKey = null;
+      return false;
+    }
+
+    @Override
+    public int compareTo( MergeCursor o ) {
+      return nextTime < o.nextTime ? -1 : ( nextTime == o.nextTime ? 0 : 1 );
+    }
+  }
+
+  /**
+   * A MergeCursor over times and values held in arrays instead of a map, as
+   * for a profile that is only read to be summed. The values are already
+   * weighted, and the entries have no keys.
+   */
+  protected static class ArrayMergeCursor extends MergeCursor {
+    protected final int[] times;
+    protected final double[] values;
+    protected final int size;
+    protected int index = 0;
+
+    /**
+     * @param times
+     *          the times in increasing order
+     * @param values
+     *          the weighted values at each of the {@code times}
+     * @param size
+     *          the number of entries in the arrays
+     */
+    public ArrayMergeCursor( int[] times, double[] values, int size ) {
+      this.times = times;
+      this.values = values;
+      this.size = size;
+    }
+
+    @Override
+    public boolean advance() {
+      nextKey = null;
+      if ( index == size ) return false;
+      nextTime = times[ index ];
+      nextValue = values[ index ];
+      ++index;
+      return true;
+    }
+  }
+
+  /**
+   * Sum any number of maps with a k-way merge of their entries, treating each
+   * map as a step function that is zero before its first entry. The result is
+   * the same as adding each map in turn to an empty map, but each entry is
+   * visited once, so summing k maps with n entries in all takes O(n log k)
+   * time.
+   *
+   * @param name
+   *          the name of the returned map
+   * @param maps
+   *          the maps to sum
+   * @return a new map whose value at each time is the sum of the values of the
+   *         {@code maps} at that time
+   */
+  public static TimeVaryingMap< Double > sum( String name,
+                                              Collection< ? extends TimeVaryingMap< ? > > maps ) throws ClassCastException,
+                                                                                              IllegalAccessException,
+                                                                                              InvocationTargetException,
+                                                                                              InstantiationException {
+    return weightedSum( name, maps, null, 1.0 );
+  }
+
+  /**
+   * Sum any number of maps, each multiplied by a weight, in a single k-way
+   * merge as in {@link #sum(String, Collection)}, and divide the sum by
+   * {@code divisor}. With the number of instances of each map as the weights
+   * and their total as the divisor, the result is the average.
+   *
+   * @param name
+   *          the name of the returned map
+   * @param maps
+   *          the maps to sum
+   * @param weights
+   *          the weight of each map in the order of {@code maps}, or null to
+   *          weigh each map by 1
+   * @param divisor
+   * @return a new map whose value at each time is the weighted sum of the
+   *         values of the {@code maps} at that time divided by
+   *         {@code divisor}
+   */
+  public static TimeVaryingMap< Double > weightedSum( String name,
+                                                      Collection< ? extends TimeVaryingMap< ? > > maps,
+                                                      List< ? extends Number > weights,
+                                                      double divisor ) throws ClassCastException,
+                                                                       IllegalAccessException,
+                                                                       InvocationTargetException,
+                                                                       InstantiationException {
+    TimeVaryingMap< Double > result = new TimeVaryingMap< Double >( name, Double.class );
+    if ( Utils.isNullOrEmpty( maps ) ) return result;
+    List< MergeCursor > cursors = new ArrayList< MergeCursor >( maps.size() );
+    int i = 0;
+    for ( TimeVaryingMap< ? > map : maps ) {
+      Number weight = weights == null ? null : weights.get( i );
+      ++i;
+      if ( map == null ) continue;
+      cursors.add( new MergeCursor( map, weight == null ? 1.0 : weight.doubleValue() ) );
+    }
+    result.putMerged( cursors, divisor );
+    return result;
+  }
+
+  /**
+   * Replace the entries of this map with the sum of the cursors' maps, each a
+   * step function that is zero before its first entry, divided by
+   * {@code divisor}. The cursors are merged with a priority queue, so merging
+   * k maps with n entries in all takes O(n log k) time. An entry is only made
+   * where the value changes, and the entries are loaded at once. The sums are
+   * converted to the {@link #type} of this map (see
+   * {@link #valueFromDouble(double)}). The map is only cleared after the
+   * cursors are read, so one of them may be over this map to merge its
+   * current entries.
+   *
+   * @param cursors
+   *          cursors at the start of the maps to merge
+   * @param divisor
+   * @throws ClassCastException
+   *           if the type of this map is not a kind of number
+   */
+  protected void putMerged( Collection< ? extends MergeCursor > cursors,
+                            double divisor ) throws ClassCastException,
+                                             IllegalAccessException,
+                                             InvocationTargetException,
+                                             InstantiationException {
+    PriorityQueue< MergeCursor > queue =
+        new PriorityQueue< MergeCursor >( Math.max( 1, cursors.size() ) );
+    for ( MergeCursor cursor : cursors ) {
+      if ( cursor.advance() ) queue.add( cursor );
+    }
+    @SuppressWarnings( "unchecked" )
+    Parameter< Integer >[] keys = (Parameter< Integer >[])new Parameter[ 1024 ];
+    Object[] values = new Object[ keys.length ];
+    int m = 0;
+    double total = 0.0;
+    long lastBits = 0;
+    while ( !queue.isEmpty() ) {
+      MergeCursor cursor = queue.peek();
+      Parameter< Integer > key = cursor.nextKey;
+      int time = cursor.nextTime;
+      while ( cursor != null && cursor.nextTime == time ) {
+        queue.poll();
+        total += cursor.nextValue - cursor.value;
+        cursor.value = cursor.nextValue;
+        if ( key == null ) key = cursor.nextKey;
+        if ( cursor.advance() ) queue.add( cursor );
+        cursor = queue.peek();
+      }
+      double value = total / divisor;
+      long bits = Double.doubleToLongBits( value );
+      if ( m > 0 && bits == lastBits ) continue;
+      lastBits = bits;
+      if ( m == keys.length ) {
+        keys = Arrays.copyOf( keys, m * 2 );
+        values = Arrays.copyOf( values, m * 2 );
+      }
+      keys[ m ] = key != null ? key : new Timepoint( null, time, this );
+      values[ m++ ] = valueFromDouble( value );
+    }
+    clear();
+    putAll( new SortedEntries< V >( comparator(), keys, values, m ) );
+  }
+
+  /**
+   * @param value
+   * @return {@code value} as a V: a Double if this map holds Doubles or any
+   *         Number, and otherwise rounded or narrowed to the type of number
+   *         this map holds
+   * @throws ClassCastException
+   *           if the type of this map is not a kind of number
+   */
+  @SuppressWarnings( "unchecked" )
+  protected V valueFromDouble( double value ) throws ClassCastException {
+    if ( type == null || type == Double.class || type == double.class
+         || type == Number.class || type == Object.class ) {
+      return (V)Double.valueOf( value );
+    }
+    if ( type == Integer.class || type == int.class ) {
+      return (V)Integer.valueOf( (int)Math.round( value ) );
+    }
+    if ( type == Long.class || type == long.class ) {
+      return (V)Long.valueOf( Math.round( value ) );
+    }
+    if ( type == Float.class || type == float.class ) {
+      return (V)Float.valueOf( (float)value );
+    }
+    if ( type == Short.class || type == short.class ) {
+      return (V)Short.valueOf( (short)Math.round( value ) );
+    }
+    if ( type == Byte.class || type == byte.class ) {
+      return (V)Byte.valueOf( (byte)Math.round( value ) );
+    }
+    throw new ClassCastException( "Cannot put the number " + value
+                                  + " in a map of " + type.getName() );
   }
 
   /**
@@ -2129,7 +3112,7 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
    *         entries with the same values.
    */
   public <VV> TimeVaryingMap< V > removeDuplicates() {
-    Debug.outln( "before removing duplicates " + this );
+    if ( Debug.isOn() ) Debug.outln( "before removing duplicates " + this );
     List<Parameter< Integer > > dups = new ArrayList< Parameter< Integer > >();
     Parameter<Integer> lastKey = null;
     V lastValue = null;
@@ -2148,7 +3131,7 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
     for ( Parameter<Integer> k : dups ) {
       remove( k );
     }
-    Debug.outln( " after removing duplicates " + this );
+    if ( Debug.isOn() ) Debug.outln( " after removing duplicates " + this );
     return this;
   }
 
@@ -2360,13 +3343,13 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
         ok = false;
       }
       if ( !firstEntry && duplicateValueAtTime ) {
-        Debug.err( "Warning! duplicate entry of value "
-                   + MoreToString.Helper.toLongString( value ) + " at time "
-                   + MoreToString.Helper.toLongString( tp ) + " with time set "
-                   + MoreToString.Helper.toLongString( timesAtSameTime )
-                   + " and value set "
-                   + MoreToString.Helper.toLongString( valuesAtSameTime )
-                   + " for TimeVaryingMap " + getName() );
+        if ( Debug.isOn() ) Debug.err( "Warning! duplicate entry of value "
+                                       + MoreToString.Helper.toLongString( value ) + " at time "
+                                       + MoreToString.Helper.toLongString( tp ) + " with time set "
+                                       + MoreToString.Helper.toLongString( timesAtSameTime )
+                                       + " and value set "
+                                       + MoreToString.Helper.toLongString( valuesAtSameTime )
+                                       + " for TimeVaryingMap " + getName() );
         ok = false;
       }
       lastTp = tp;
@@ -2883,10 +3866,10 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
         Parameter< Integer > otp = tryEvaluateTimepoint( valueArg, true, true );
         if ( otp != null ) {
           TT ov = (TT)tryEvaluateValue( tpArg, true );
-          Debug.err( "Looks like timepoint and value are reversed in call to getTimeAndValueOfEffect( Effect "
-                     + MoreToString.Helper.toLongString( effect ) + ", "
-                     + "Boolean " + MoreToString.Helper.toLongString( timeFirst )
-                     + ") = " + MoreToString.Helper.toLongString( pair ) );
+          if ( Debug.isOn() ) Debug.err( "Looks like timepoint and value are reversed in call to getTimeAndValueOfEffect( Effect "
+                                         + MoreToString.Helper.toLongString( effect ) + ", "
+                                         + "Boolean " + MoreToString.Helper.toLongString( timeFirst )
+                                         + ") = " + MoreToString.Helper.toLongString( pair ) );
         }
       }
     }
@@ -2973,9 +3956,9 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
     Method.setAccessible( TimeVaryingMap.class.getDeclaredMethods(), true );
     for ( Method method : TimeVaryingMap.class.getDeclaredMethods() ) {
       f = new EffectFunction( tvm, method );
-      Debug.outln( "method " + method
-                   + " has first timepoint parameter at position "
-                   + tvm.getIndexOfFirstTimepointParameter( f ) );
+      if ( Debug.isOn() ) Debug.outln( "method " + method
+                                       + " has first timepoint parameter at position "
+                                       + tvm.getIndexOfFirstTimepointParameter( f ) );
       Class<?> clss = ParameterListenerImpl.class;
       Class< ? >[] pTypes = method.getParameterTypes();
       if ( pTypes == null || pTypes.length <= 0 ) {
@@ -2989,12 +3972,12 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
         if ( gTypes == null ) continue;
         for ( TypeVariable< ? > typeVar : gTypes ) {
           if ( typeVar == null ) continue;
-          Debug.outln( "method=" + method.getName() + ", parameter type="
-                       + pType + ", type variable=" + typeVar
-                       + ", typeVar.getName()=" + typeVar.getName()
-          + ", typeVar.getBounds()=" + typeVar.getBounds()
-          + ", typeVar.getGenericDeclaration()=" + typeVar.getGenericDeclaration()
-          );
+          if ( Debug.isOn() ) Debug.outln( "method=" + method.getName() + ", parameter type="
+                                           + pType + ", type variable=" + typeVar
+                                           + ", typeVar.getName()=" + typeVar.getName()
+                              + ", typeVar.getBounds()=" + typeVar.getBounds()
+                              + ", typeVar.getGenericDeclaration()=" + typeVar.getGenericDeclaration()
+                              );
         }
       }
     }
@@ -3480,6 +4463,9 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
 
   public void fromStringMap( Map<String,String> map, Class<V> cls ) {
     clear();
+    int[] times = new int[ map.size() ];
+    Object[] values = new Object[ map.size() ];
+    int n = 0;
     for ( Entry<String, String> ss : map.entrySet() ) {
       Integer key = null;
       try {
@@ -3487,10 +4473,155 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
       } catch (Exception e) {
         key = (int)Double.parseDouble( ss.getKey() );
       }
-      Timepoint tp = new Timepoint( null, key, this );
-      V value = valueFromString( ss.getValue() );
-      setValue( tp, value );
+      times[ n ] = key;
+      values[ n++ ] = valueFromString( ss.getValue() );
     }
+    putSorted( times, values, n );
+  }
+
+  /**
+   * A read-only view of keys and values that are already in order, which
+   * {@link TreeMap#putAll(Map)} copies into an empty map in linear time when
+   * it has the same comparator.
+   */
+  protected static class SortedEntries< V >
+                                        extends AbstractMap< Parameter< Integer >, V >
+                                        implements SortedMap< Parameter< Integer >, V > {
+    protected final Comparator< ? super Parameter< Integer > > comparator;
+    protected final Parameter< Integer >[] keys;
+    protected final Object[] values;
+    protected final int size;
+
+    public SortedEntries( Comparator< ? super Parameter< Integer > > comparator,
+                          Parameter< Integer >[] keys, Object[] values, int size ) {
+      this.comparator = comparator;
+      this.keys = keys;
+      this.values = values;
+      this.size = size;
+    }
+
+    @Override
+    public Set< Entry< Parameter< Integer >, V > > entrySet() {
+      return new AbstractSet< Entry< Parameter< Integer >, V > >() {
+        @Override
+        public Iterator< Entry< Parameter< Integer >, V > > iterator() {
+          return new Iterator< Entry< Parameter< Integer >, V > >() {
+            int i = 0;
+
+            @Override
+            public boolean hasNext() {
+              return i < size;
+            }
+
+            @SuppressWarnings( "unchecked" )
+            @Override
+            public Entry< Parameter< Integer >, V > next() {
+              Entry< Parameter< Integer >, V > e =
+                  new SimpleImmutableEntry< Parameter< Integer >, V >( keys[ i ],
+                                                                       (V)values[ i ] );
+              ++i;
+              return e;
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+
+    @Override
+    public Comparator< ? super Parameter< Integer > > comparator() {
+      return comparator;
+    }
+
+    @Override
+    public Parameter< Integer > firstKey() {
+      return keys[ 0 ];
+    }
+
+    @Override
+    public Parameter< Integer > lastKey() {
+      return keys[ size - 1 ];
+    }
+
+    @Override
+    public SortedMap< Parameter< Integer >, V > subMap( Parameter< Integer > fromKey,
+                                                        Parameter< Integer > toKey ) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap< Parameter< Integer >, V > headMap( Parameter< Integer > toKey ) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public SortedMap< Parameter< Integer >, V > tailMap( Parameter< Integer > fromKey ) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Add entries with a new {@link Timepoint} for each time. If a time
+   * repeats, the last value for it is kept. The entries are only sorted if
+   * they are out of order, and when this map is empty, they are copied into
+   * it in linear time instead of being put one at a time.
+   *
+   * @param times
+   * @param values
+   *          the values at each of the {@code times}
+   * @param n
+   *          the number of entries in the arrays
+   */
+  @SuppressWarnings( "unchecked" )
+  protected void putSorted( int[] times, Object[] values, int n ) {
+    if ( n == 0 ) return;
+    long[] order = sortedOrder( times, n );
+    Parameter< Integer >[] keys = (Parameter< Integer >[])new Parameter[ n ];
+    Object[] sortedValues = new Object[ n ];
+    int m = 0;
+    int lastTime = 0;
+    for ( int k = 0; k < n; ++k ) {
+      int i = order == null ? k : (int)order[ k ];
+      if ( m > 0 && times[ i ] == lastTime ) {
+        sortedValues[ m - 1 ] = values[ i ];
+        continue;
+      }
+      lastTime = times[ i ];
+      keys[ m ] = new Timepoint( null, lastTime, this );
+      sortedValues[ m++ ] = values[ i ];
+    }
+    putAll( new SortedEntries< V >( comparator(), keys, sortedValues, m ) );
+  }
+
+  /**
+   * @param times
+   * @param n
+   *          the number of times in the array
+   * @return null if the times are in order, or else the positions of the
+   *         times in order in the low 32 bits of each element, with the
+   *         positions of equal times in increasing order
+   */
+  protected static long[] sortedOrder( int[] times, int n ) {
+    for ( int i = 1; i < n; ++i ) {
+      if ( times[ i ] < times[ i - 1 ] ) {
+        long[] order = new long[ n ];
+        for ( int k = 0; k < n; ++k ) {
+          order[ k ] = ( (long)times[ k ] << 32 ) | k;
+        }
+        Arrays.sort( order );
+        return order;
+      }
+    }
+    return null;
   }
 
   public void fromString( String s, Class<V> cls ) {
@@ -3525,20 +4656,70 @@ public class TimeVaryingMap< V > extends TreeMap< Parameter<Integer>, V >
   }
   public void fromCsvFile( String fileName, Class<V> cls ) {
     if ( fileName == null ) return;
+    CsvTimelineReader reader = null;
     try {
-    File f = FileUtils.findFile( fileName );
-    String s = FileUtils.fileToString( f );
-    Map<String,String> map = new HashMap<String,String>();
-    MoreToString.Helper.fromString( map, s, "", "\\s+", "", "", "[ ]*,[ ]*", "" );
-    fromStringMap( map, cls );
-    Debug.outln( "read map from file, " + fileName + ":\n" + this.toString() );
-    } catch ( FileNotFoundException e ) {
+      File f = FileUtils.findFile( fileName );
+      if ( f == null ) throw new FileNotFoundException( fileName );
+      reader = new CsvTimelineReader( f );
+      fromCsv( reader );
+      if ( Debug.isOn() ) Debug.outln( "read map from file, " + fileName + ":\n" + this.toString() );
+    } catch ( IOException e ) {
       e.printStackTrace();
+    } finally {
+      if ( reader != null ) {
+        try {
+          reader.close();
+        } catch ( IOException e ) {
+        }
+      }
+    }
+  }
+
+  /**
+   * Replace the entries of this map with the rows read from CSV text, which
+   * are loaded all at once (see {@link #putSorted(int[], Object[], int)}).
+   *
+   * @param reader
+   * @throws IOException
+   */
+  public void fromCsv( CsvTimelineReader reader ) throws IOException {
+    clear();
+    int[] times = new int[ 1024 ];
+    Object[] values = new Object[ times.length ];
+    int n = 0;
+    while ( reader.next() ) {
+      if ( n == times.length ) {
+        times = Arrays.copyOf( times, n * 2 );
+        values = Arrays.copyOf( values, n * 2 );
+      }
+      times[ n ] = reader.getTime();
+      values[ n++ ] = valueFromCsv( reader );
+    }
+    putSorted( times, values, n );
+  }
+
+  /**
+   * @param reader
+   * @return the value of the current row of {@code reader} as a V, using
+   *         the number already parsed by the reader where possible
+   */
+  @SuppressWarnings( "unchecked" )
+  protected V valueFromCsv( CsvTimelineReader reader ) {
+    if ( reader.isNumber() ) {
+      if ( type == Double.class || type == double.class ) {
+        return (V)Double.valueOf( reader.getDouble() );
+      }
+      if ( ( type == Integer.class || type == int.class ) && reader.isInteger() ) {
+        return (V)Integer.valueOf( (int)reader.getDouble() );
+      }
+    } else if ( reader.getText().isEmpty() ) {
+      return null;
     }
+    return valueFromString( reader.getText() );
   }
   public void toCsvFile( String fileName ) {
     String s = toCsvString();
-    Debug.outln( "wrote map to file, " + fileName + ":\n" + s );
+    if ( Debug.isOn() ) Debug.outln( "wrote map to file, " + fileName + ":\n" + s );
     FileUtils.stringToFile( s, fileName );
   }
 
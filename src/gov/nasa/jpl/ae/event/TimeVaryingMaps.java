@@ -11,6 +11,8 @@ import gov.nasa.jpl.mbee.util.MoreToString;
 import gov.nasa.jpl.mbee.util.Utils;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -21,6 +23,12 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.regex.Pattern;
 
 /**
@@ -31,6 +39,12 @@ public class TimeVaryingMaps< V > extends TimeVaryingMap< V > {
   private static final long serialVersionUID = 2827237765938827119L;
 
   public final static File dataDirectory = FileUtils.findFile( "data" );
+
+  /**
+   * The number of files read at once by
+   * {@link #fromCsvFiles(Map, String, Class)}.
+   */
+  public static int numThreads = Runtime.getRuntime().availableProcessors();
   
 
   protected List< Pair< Number, TimeVaryingMap< V > > > maps =
@@ -41,6 +55,16 @@ public class TimeVaryingMaps< V > extends TimeVaryingMap< V > {
 
   protected boolean computeAvg = false;
 
+  /**
+   * Whether {@link #fromCsvFiles(Map, String, Class)} keeps the map read from
+   * each file in {@link #getMaps()}. If not, only the file names are kept in
+   * {@link #getMapFiles()}, and the maps are never built.
+   */
+  protected boolean keepingMaps = true;
+
+  protected List< Pair< Number, String > > mapFiles =
+      new ArrayList< Pair< Number, String > >();
+
   public List< Pair< Number, TimeVaryingMap< V >>> getMaps() {
     return maps;
   }
@@ -49,6 +73,23 @@ public class TimeVaryingMaps< V > extends TimeVaryingMap< V > {
     this.maps = maps;
   }
 
+  public boolean isKeepingMaps() {
+    return keepingMaps;
+  }
+
+  public void setKeepingMaps( boolean keepingMaps ) {
+    this.keepingMaps = keepingMaps;
+  }
+
+  /**
+   * @return the number of instances and the name of each file read by
+   *         {@link #fromCsvFiles(Map, String, Class)}, from which a map may be
+   *         read again when the maps are not kept
+   */
+  public List< Pair< Number, String > > getMapFiles() {
+    return mapFiles;
+  }
+
   public String getProfileName() {
     return profileName;
   }
@@ -66,7 +107,7 @@ public class TimeVaryingMaps< V > extends TimeVaryingMap< V > {
   }
 
   public TimeVaryingMaps( String name, Class<V> cls ) {
-    super( name );
+    super( name, cls );
   }
 
   /**
@@ -81,34 +122,38 @@ public class TimeVaryingMaps< V > extends TimeVaryingMap< V > {
     String prefix = name;
     fromCsvFiles( fileNames, prefix, cls );
   }
+  /**
+   * Add to this map the sum of the maps read from the files, each multiplied
+   * by its number of instances, and divide the result by the total number of
+   * instances if {@link #isComputeAvg()}. Entries already in this map are
+   * merged with those read, as when the maps were added one at a time.
+   * The files are read in parallel on up to {@link #numThreads} threads and
+   * then summed in a single merge (see
+   * {@link TimeVaryingMap#putMerged(java.util.Collection, double)}).
+   *
+   * @param fileNames
+   *          the number of instances for each file name
+   * @param prefix
+   *          the start of the names of the maps
+   * @param cls
+   *          the type of the values
+   */
   public <VV extends V> void fromCsvFiles( Map< String, Number > fileNames,
                                            String prefix, Class<VV> cls ) {
     int count = 0;
     maps.clear();
+    mapFiles.clear();
     numberOfSubmaps = 0;
+    List< String > files = new ArrayList< String >();
+    List< String > instanceNames = new ArrayList< String >();
+    List< Number > instances = new ArrayList< Number >();
     for ( java.util.Map.Entry< String, Number > e : fileNames.entrySet() ) {
       Number numInstances = e.getValue();
       if ( numInstances.doubleValue() != 0 ) {
-        String instanceName = prefix + Utils.numberWithLeadingZeroes( count++, 6 );
-        TimeVaryingMap< VV > tvm =
-            new TimeVaryingMap< VV >( instanceName, e.getKey(), null, cls );
-        maps.add( new Pair< Number, TimeVaryingMap<V> >( numInstances,
-                                                         (TimeVaryingMap< V >)tvm ) );
-        try {
-          if ( numInstances.doubleValue() != 1.0 ) {
-              tvm = tvm.times( numInstances );
-          }
-          this.add( tvm );
-        } catch ( IllegalAccessException e1 ) {
-          // TODO Auto-generated catch block
-          e1.printStackTrace();
-        } catch ( InvocationTargetException e1 ) {
-          // TODO Auto-generated catch block
-          e1.printStackTrace();
-        } catch ( InstantiationException e1 ) {
-          // TODO Auto-generated catch block
-          e1.printStackTrace();
-        }
+        files.add( e.getKey() );
+        instanceNames.add( prefix + Utils.numberWithLeadingZeroes( count++, 6 ) );
+        instances.add( numInstances );
+        mapFiles.add( new Pair< Number, String >( numInstances, e.getKey() ) );
       }
       try {
         numberOfSubmaps = Functions.plus(numberOfSubmaps, numInstances);
@@ -126,23 +171,149 @@ public class TimeVaryingMaps< V > extends TimeVaryingMap< V > {
         e1.printStackTrace();
       }
     }
-    if ( computeAvg ) {
-      for ( Map.Entry< Parameter< Integer >, V > e : entrySet() ) {
-//        Number v = Expression.evaluate( e.getValue(), Number.class, false );
+    List< MergeCursor > cursors = readCursors( files, instanceNames, instances, cls );
+    // putMerged() reads this cursor before it clears the map.
+    if ( !isEmpty() ) cursors.add( 0, new MergeCursor( this ) );
+    double divisor = 1.0;
+    if ( computeAvg && numberOfSubmaps != null && numberOfSubmaps.doubleValue() != 0 ) {
+      divisor = numberOfSubmaps.doubleValue();
+    }
+    try {
+      putMerged( cursors, divisor );
+    } catch ( ClassCastException e1 ) {
+      // TODO Auto-generated catch block
+      e1.printStackTrace();
+    } catch ( IllegalAccessException e1 ) {
+      // TODO Auto-generated catch block
+      e1.printStackTrace();
+    } catch ( InvocationTargetException e1 ) {
+      // TODO Auto-generated catch block
+      e1.printStackTrace();
+    } catch ( InstantiationException e1 ) {
+      // TODO Auto-generated catch block
+      e1.printStackTrace();
+    }
+  }
+
+  /**
+   * Read the files in parallel, each into a cursor weighted by its number of
+   * instances. If {@link #isKeepingMaps()}, each file is read into a map,
+   * which is added to {@link #getMaps()}; otherwise, it is read into arrays
+   * that can be freed once they are merged. The readers run in the
+   * {@link EvaluationContext} of the caller, so that times are converted
+   * with its epoch and units.
+   *
+   * @return the cursors in the order of {@code files}, without those whose
+   *         files could not be read
+   */
+  @SuppressWarnings( "unchecked" )
+  protected <VV extends V> List< MergeCursor > readCursors( final List< String > files,
+                                                           final List< String > instanceNames,
+                                                           final List< Number > instances,
+                                                           final Class<VV> cls ) {
+    final int n = files.size();
+    final TimeVaryingMap< VV >[] read = new TimeVaryingMap[ n ];
+    final boolean keeping = keepingMaps;
+    final EvaluationContext context = EvaluationContext.get();
+    List< Callable< MergeCursor > > tasks = new ArrayList< Callable< MergeCursor > >( n );
+    for ( int i = 0; i < n; ++i ) {
+      final int index = i;
+      tasks.add( new Callable< MergeCursor >() {
+        @Override
+        public MergeCursor call() throws IOException {
+          EvaluationContext previous = EvaluationContext.enter( context );
+          try {
+            double weight = instances.get( index ).doubleValue();
+            if ( !keeping ) return readProfile( files.get( index ), weight );
+            read[ index ] = new TimeVaryingMap< VV >( instanceNames.get( index ),
+                                                      files.get( index ), null, cls );
+            return new MergeCursor( read[ index ], weight );
+          } finally {
+            EvaluationContext.exit( previous );
+          }
+        }
+      } );
+    }
+    List< MergeCursor > cursors = new ArrayList< MergeCursor >( n );
+    if ( n == 0 ) return cursors;
+    ExecutorService pool =
+        Executors.newFixedThreadPool( Math.max( 1, Math.min( numThreads, n ) ),
+                                      new ThreadFactory() {
+                                        @Override
+                                        public Thread newThread( Runnable r ) {
+                                          Thread t = new Thread( r, "TimeVaryingMaps reader" );
+                                          t.setDaemon( true );
+                                          return t;
+                                        }
+                                      } );
+    try {
+      List< Future< MergeCursor > > futures = pool.invokeAll( tasks );
+      for ( int i = 0; i < n; ++i ) {
         try {
-          e.setValue( Functions.divide( e.getValue(), numberOfSubmaps ) );
-        } catch ( IllegalAccessException e1 ) {
-          // TODO Auto-generated catch block
-          //e1.printStackTrace();
-        } catch ( InvocationTargetException e1 ) {
-          // TODO Auto-generated catch block
-          //e1.printStackTrace();
-        } catch ( InstantiationException e1 ) {
-          // TODO Auto-generated catch block
-          //e1.printStackTrace();
+          cursors.add( futures.get( i ).get() );
+        } catch ( ExecutionException e ) {
+          e.getCause().printStackTrace();
+          continue;
         }
+        if ( read[ i ] != null ) {
+          maps.add( new Pair< Number, TimeVaryingMap<V> >( instances.get( i ),
+                                                           (TimeVaryingMap< V >)read[ i ] ) );
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } finally {
+      pool.shutdownNow();
+    }
+    return cursors;
+  }
+
+  /**
+   * Read a profile from a CSV file into arrays, skipping rows whose values
+   * are not numbers.
+   *
+   * @param fileName
+   * @param weight
+   *          the number by which the values are multiplied
+   * @return a cursor at the start of the profile
+   * @throws IOException
+   */
+  protected static ArrayMergeCursor readProfile( String fileName,
+                                                 double weight ) throws IOException {
+    File f = FileUtils.findFile( fileName );
+    if ( f == null ) throw new FileNotFoundException( fileName );
+    int[] times = new int[ 1024 ];
+    double[] values = new double[ times.length ];
+    int n = 0;
+    CsvTimelineReader reader = new CsvTimelineReader( f );
+    try {
+      while ( reader.next() ) {
+        if ( !reader.isNumber() ) continue;
+        if ( n == times.length ) {
+          times = Arrays.copyOf( times, n * 2 );
+          values = Arrays.copyOf( values, n * 2 );
+        }
+        times[ n ] = reader.getTime();
+        values[ n++ ] = weight * reader.getDouble();
+      }
+    } finally {
+      reader.close();
+    }
+    // Put the rows in order, keeping the last value of a repeated time.
+    long[] order = sortedOrder( times, n );
+    int[] sortedTimes = order == null ? times : new int[ n ];
+    double[] sortedValues = order == null ? values : new double[ n ];
+    int m = 0;
+    for ( int k = 0; k < n; ++k ) {
+      int i = order == null ? k : (int)order[ k ];
+      if ( m > 0 && times[ i ] == sortedTimes[ m - 1 ] ) {
+        sortedValues[ m - 1 ] = values[ i ];
+        continue;
       }
+      sortedTimes[ m ] = times[ i ];
+      sortedValues[ m++ ] = values[ i ];
     }
+    return new ArrayMergeCursor( sortedTimes, sortedValues, m );
   }
 
   /*
@@ -30,13 +30,13 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
   //    $ date; date '+%s'
   //    Fri, Jul 06, 2012  3:48:55 PM
   //    1341614935
-  // The units of time and the epoch are specified by Units units below.  
-  protected static Date epoch = new Date();
-  // The unit of time for the epoch and all other integer values of time.  
-  protected static TimeUtils.Units units = TimeUtils.Units.seconds;
+  // The units of time and the epoch are specified by units.
+  // The epoch, the unit of time for the epoch and all other integer values of
+  // time, and the horizon duration are kept per thread in the
+  // EvaluationContext so that scenarios with different settings can run at
+  // the same time.
 
   protected static int counter = 0;
-  protected static int horizonDuration = 24 * 3600;
   
   private final static Timepoint epochTimepoint = new Timepoint( "", 0, null );
 
@@ -151,7 +151,7 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
 	}
 
   public static double conversionFactor( Units toUnits) {
-    return Units.conversionFactor( Timepoint.units, toUnits );
+    return Units.conversionFactor( getUnits(), toUnits );
   }
 
   public long convertTo( TimeUtils.Units toUnit ) {
@@ -161,8 +161,9 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
 	}
 	
   public static Integer fromMillisToInteger( long millis ) {
-    int t = (int)( Units.conversionFactor( Units.milliseconds, Timepoint.units )
-                   * ( millis - Timepoint.epoch.getTime() ) );
+    EvaluationContext context = EvaluationContext.get();
+    int t = (int)( Units.conversionFactor( Units.milliseconds, context.units )
+                   * ( millis - context.epoch.getTime() ) );
     return t;
   }
 
@@ -236,8 +237,8 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
   /**
    * @return the epoch
    */
-  public synchronized static Date getEpoch() {
-    return epoch;
+  public static Date getEpoch() {
+    return EvaluationContext.get().epoch;
   }
   public synchronized static Timepoint getEpochTimepoint() {
     return epochTimepoint;
@@ -247,8 +248,8 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
   /**
    * @param epoch the epoch to set
    */
-  public synchronized static void setEpoch( Date epoch ) {
-    Timepoint.epoch = epoch;
+  public static void setEpoch( Date epoch ) {
+    EvaluationContext.get().epoch = epoch;
     System.out.println("Epoch set to " + epoch );
   }
 
@@ -260,7 +261,7 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
    * @return the units
    */
   public static TimeUtils.Units getUnits() {
-    return units;
+    return EvaluationContext.get().units;
   }
 
   /**
@@ -268,7 +269,7 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
    */
   public static void setUnits( TimeUtils.Units units ) {
     System.out.println("Units set to " + units );
-    Timepoint.units = units;
+    EvaluationContext.get().units = units;
   }
 
   /**
@@ -283,16 +284,17 @@ public class Timepoint extends IntegerParameter implements TimeVariable {
    * @param durationString the horizon duration to set 
    */
   public static void setHorizonDuration( int duration ) {
-    horizonDuration = duration;
-    System.out.println("Horizon duration set to " + horizonDuration + " " + units );
-    TimeDomain.horizonDomain.setUpperBound( horizonDuration );
+    EvaluationContext context = EvaluationContext.get();
+    context.horizonDuration = duration;
+    System.out.println("Horizon duration set to " + duration + " " + getUnits() );
+    context.horizonDomain.setUpperBound( duration );
   }
 
   /**
    * @return the horizon duration
    */
   public static Integer getHorizonDuration() {
-    return horizonDuration;
+    return EvaluationContext.get().horizonDuration;
   }
 
 
@@ -3,7 +3,7 @@
  */
 package gov.nasa.jpl.ae.solver;
 
-import gov.nasa.jpl.mbee.util.Random;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 
 /**
  * @author bclement
@@ -101,7 +101,7 @@ public abstract class AbstractFiniteRangeDomain< T extends Comparable< T > >
 	 */
 	@Override
 	public T pickRandomValue() {
-		double r = Random.global.nextDouble();
+		double r = EvaluationContext.random().nextDouble();
 		int n = (int)(((double)size()) * r);
 		return getNthValue( n ); // counts from 0!!
 	}
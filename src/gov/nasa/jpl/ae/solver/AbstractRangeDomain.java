@@ -11,13 +11,13 @@ import java.util.List;
 import java.util.Set;
 
 import gov.nasa.jpl.ae.event.ConstraintExpression;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 import gov.nasa.jpl.ae.event.Expression;
 import gov.nasa.jpl.ae.event.FunctionCall;
 import gov.nasa.jpl.ae.event.Functions;
 import gov.nasa.jpl.ae.event.Groundable;
 import gov.nasa.jpl.mbee.util.ClassUtils;
 import gov.nasa.jpl.mbee.util.Debug;
-import gov.nasa.jpl.mbee.util.Random;
 import gov.nasa.jpl.mbee.util.Wraps;
 
 /**
@@ -224,7 +224,7 @@ public abstract class AbstractRangeDomain< T > extends HasIdImpl
     try {
       totalWidth = Functions.plus( wl, wu );
       totalSizeDouble = totalWidth.doubleValue();
-      double r = Random.global.nextDouble() * totalSizeDouble;
+      double r = EvaluationContext.random().nextDouble() * totalSizeDouble;
       if ( r < wl.byteValue() ) {
         if ( wl instanceof Long || wl instanceof Integer ) {
           return d1.getNthValue( (long)r );
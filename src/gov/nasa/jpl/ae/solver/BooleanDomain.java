@@ -3,7 +3,7 @@
  */
 package gov.nasa.jpl.ae.solver;
 
-import gov.nasa.jpl.mbee.util.Random;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 
 /**
  * @author bclement
@@ -57,7 +57,7 @@ public class BooleanDomain extends AbstractFiniteRangeDomain<Boolean> {
 	 */
 	@Override
 	public Boolean pickRandomValue() {
-		return Random.global.nextBoolean();
+		return EvaluationContext.random().nextBoolean();
 	}
 
 //	@Override
@@ -3,12 +3,23 @@
  */
 package gov.nasa.jpl.ae.solver;
 
+import gov.nasa.jpl.ae.event.EvaluationContext;
 import gov.nasa.jpl.mbee.util.Debug;
 import gov.nasa.jpl.mbee.util.Utils;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * @author bclement
@@ -22,41 +33,152 @@ public class ConstraintLoopSolver implements Solver {
       new ArrayList< Constraint >();
 
   protected Collection< Constraint > constraints = null;
+
+  protected Map< Variable< ? >, List< Constraint > > constraintsOfVariable = null;
+  protected Map< Constraint, Variable< ? >[] > variablesOfConstraint = null;
+  protected static final Variable< ? >[] noVariables = new Variable< ? >[ 0 ];
+
+  /**
+   * Whether to solve groups of constraints that share no variables at the
+   * same time. Only use this when satisfying a constraint does not change
+   * anything shared with other groups, such as a timeline that several
+   * groups' effects are applied to. Each group picks values with its own
+   * Random, seeded from {@link #seed} and the smallest id of its constraints,
+   * so a parallel run is repeatable.
+   */
+  public boolean parallel = false;
+
+  /**
+   * The seed of a parallel solve, or null to draw one from the caller's
+   * Random on each solve, which is repeatable if that Random is
+   */
+  public Long seed = null;
+
+  protected ForkJoinPool pool = null;
+  protected static ForkJoinPool sharedPool = null;
   
   public ConstraintLoopSolver() {
   }
 
+  /**
+   * Build an index from each variable to the constraints that reference it so
+   * that only the constraints of a changed variable need to be checked again.
+   * Constraints and variables are compared by identity since their hash codes
+   * may depend on their values.
+   */
+  protected void indexVariables() {
+    constraintsOfVariable =
+        new IdentityHashMap< Variable< ? >, List< Constraint > >();
+    variablesOfConstraint =
+        new IdentityHashMap< Constraint, Variable< ? >[] >();
+    for ( Constraint c : constraints ) {
+      if ( variablesOfConstraint.containsKey( c ) ) continue;
+      Set< Variable< ? > > vars = c.getVariables();
+      Variable< ? >[] a =
+          Utils.isNullOrEmpty( vars ) ? noVariables
+                                      : vars.toArray( new Variable< ? >[ vars.size() ] );
+      variablesOfConstraint.put( c, a );
+      for ( Variable< ? > v : a ) {
+        List< Constraint > cs = constraintsOfVariable.get( v );
+        if ( cs == null ) {
+          cs = new ArrayList< Constraint >( 2 );
+          constraintsOfVariable.put( v, cs );
+        }
+        cs.add( c );
+      }
+    }
+  }
+
   @Override
   public boolean solve( Collection< Constraint > newConstraints ) {
     setConstraints( newConstraints );
     if ( Debug.isOn() ) Debug.outln( "ConstraintLoopSolver.solve(" + constraints + ")" );
-    boolean deep = true;
     //double startTime = System.currentTimeMillis();
     unsatisfiedConstraints.clear();
-    
-    unsatisfiedConstraints.addAll( constraints );
-    if ( Debug.isOn() ) Debug.outln( "ConstraintLoopSolver.solve(" + constraints
-                 + ") unsatisfiedConstraints=" + unsatisfiedConstraints );
+    indexVariables();
+
     int numAllConstrs = constraints.size();
-    int numConstrs = unsatisfiedConstraints.size();
     System.out.println(numAllConstrs + " constraints; " + numAllConstrs + " to satisfy");
+    Set< Constraint > unsatisfied =
+        Collections.newSetFromMap( new IdentityHashMap< Constraint, Boolean >() );
+    List< Constraint > distinct =
+        new ArrayList< Constraint >( variablesOfConstraint.size() );
+    for ( Constraint c : constraints ) {
+      if ( unsatisfied.add( c ) ) distinct.add( c );
+    }
+    unsatisfied.clear();
+    if ( !parallel ) {
+      unsatisfied.addAll( solveComponent( distinct ) );
+    } else {
+      List< List< Constraint > > components = getComponents( distinct );
+      if ( Debug.isOn() ) Debug.outln( "ConstraintLoopSolver.solve(): solving "
+                                       + components.size() + " components in parallel" );
+      // The workers solve in the caller's context, each with its own flags
+      // and random numbers.
+      EvaluationContext context = EvaluationContext.get();
+      long runSeed = seed != null ? seed : context.getRandom().nextLong();
+      final List< ComponentTask > tasks =
+          new ArrayList< ComponentTask >( components.size() );
+      for ( List< Constraint > component : components ) {
+        EvaluationContext workerContext = context.fork();
+        workerContext.setRandom( new Random( componentSeed( runSeed, component ) ) );
+        tasks.add( new ComponentTask( component, workerContext ) );
+      }
+      getPool().invoke( new RecursiveAction() {
+        private static final long serialVersionUID = 1L;
+        @Override
+        protected void compute() {
+          invokeAll( tasks );
+        }
+      } );
+      for ( ComponentTask task : tasks ) {
+        unsatisfied.addAll( task.join() );
+      }
+    }
+    // report in the order the constraints were given
+    for ( Constraint c : distinct ) {
+      if ( unsatisfied.contains( c ) ) unsatisfiedConstraints.add( c );
+    }
+    if ( Debug.isOn() ) Debug.outln( "ConstraintLoopSolver.solve() returning with " + unsatisfiedConstraints.size() + " unsatisfied constraints: " + unsatisfiedConstraints );
+    return unsatisfiedConstraints.isEmpty();
+  }
+
+  /**
+   * Try to satisfy a set of constraints, re-checking only those whose
+   * variables change.  This only reads the variable index, so components that
+   * share no variables can be solved at the same time.
+   *
+   * @param component
+   *          distinct constraints that have been indexed by
+   *          {@link #indexVariables()}
+   * @return the constraints that are not known to be satisfied
+   */
+  protected List< Constraint > solveComponent( List< Constraint > component ) {
+    boolean deep = true;
+    // Constraints not in a queue are known to be satisfied.  A constraint is
+    // queued again only when one of its variables changes.
+    Set< Constraint > queued =
+        Collections.newSetFromMap( new IdentityHashMap< Constraint, Boolean >() );
+    ArrayDeque< Constraint > queue = new ArrayDeque< Constraint >( component );
+    queued.addAll( component );
     int lastSize = -1;
+    int numConstrs = queue.size();
     int numTimesWithNoProgress = 0;
     while ( //System.currentTimeMillis() - startTime > timeOutMilliseconds
             numTimesWithNoProgress < maxTriesWithNoProgress
-            && !unsatisfiedConstraints.isEmpty() ) {
+            && !queue.isEmpty() ) {
       lastSize = numConstrs;
-      if ( Debug.isOn() ) Debug.outln( numConstrs + " remaining constraints to satisfy: " + unsatisfiedConstraints );
-      if ( Debug.isOn() ) Debug.outln(""); 
-      //Debug.turnOff();
-      for ( int i = 0; i < unsatisfiedConstraints.size(); ++i ) {
-        Constraint c = unsatisfiedConstraints.get( i );
-        if ( Debug.isOn() ) Debug.outln( "checking constraint " + i + ": " + c );
-//        String cstr = c.toString();
-//        if ( cstr.endsWith( "onstraint" ) ) {
-//          Debug.breakpoint();
-//        }
-        //Debug.turnOn();
+      if ( Debug.isOn() ) Debug.outln( numConstrs + " remaining constraints to satisfy: " + queue );
+      ArrayDeque< Constraint > nextQueue = new ArrayDeque< Constraint >();
+      Object[] before = new Object[ 0 ];
+      while ( !queue.isEmpty() ) {
+        Constraint c = queue.poll();
+        if ( Debug.isOn() ) Debug.outln( "checking constraint " + c );
+        Variable< ? >[] vars = variablesOfConstraint.get( c );
+        if ( before.length < vars.length ) before = new Object[ vars.length ];
+        for ( int i = 0; i < vars.length; ++i ) {
+          before[ i ] = vars[ i ].getValue( false );
+        }
         boolean thisSatisfied = c.isSatisfied( deep, null );
         if ( !thisSatisfied ) {
           thisSatisfied = c.satisfy( deep, null );
@@ -64,16 +186,26 @@ public class ConstraintLoopSolver implements Solver {
             thisSatisfied = c.isSatisfied( deep, null );
           }
         }
-        //Debug.turnOff();
-//        if ( !thisSatisfied ) {
-//          thisSatisfied = satisfy( c, deep, null );
-//        }
+        // Recheck the other constraints of any variables that changed.
+        for ( int i = 0; i < vars.length; ++i ) {
+          Object after = vars[ i ].getValue( false );
+          if ( after == before[ i ] || Utils.valuesEqual( after, before[ i ] ) ) {
+            continue;
+          }
+          for ( Constraint other : constraintsOfVariable.get( vars[ i ] ) ) {
+            if ( other != c && queued.add( other ) ) {
+              nextQueue.add( other );
+            }
+          }
+        }
         if ( thisSatisfied ) {
-          unsatisfiedConstraints.remove( i );
-          --i;
+          queued.remove( c );
+        } else {
+          nextQueue.add( c );
         }
       }
-      numConstrs = unsatisfiedConstraints.size();
+      queue = nextQueue;
+      numConstrs = queue.size();
       boolean progress = numConstrs < lastSize;
       if ( progress ) {
         numTimesWithNoProgress = 0;
@@ -81,8 +213,126 @@ public class ConstraintLoopSolver implements Solver {
         ++numTimesWithNoProgress;
       }
     }
-    if ( Debug.isOn() ) Debug.outln( "ConstraintLoopSolver.solve() returning with " + unsatisfiedConstraints.size() + " unsatisfied constraints: " + unsatisfiedConstraints );
-    return unsatisfiedConstraints.isEmpty();
+    // Queued constraints were not satisfied or have not been rechecked since
+    // one of their variables changed.
+    List< Constraint > unsatisfied = new ArrayList< Constraint >( queued.size() );
+    for ( Constraint c : component ) {
+      if ( queued.contains( c ) ) unsatisfied.add( c );
+    }
+    return unsatisfied;
+  }
+
+  /**
+   * Partition constraints into groups that share no variables, keeping the
+   * given order within and across groups so that the partition is the same
+   * from run to run.
+   *
+   * @param distinct
+   *          distinct constraints that have been indexed by
+   *          {@link #indexVariables()}
+   * @return the connected components of the constraints over shared variables
+   */
+  protected List< List< Constraint > > getComponents( List< Constraint > distinct ) {
+    Map< Constraint, Integer > position =
+        new IdentityHashMap< Constraint, Integer >( distinct.size() );
+    for ( int i = 0; i < distinct.size(); ++i ) {
+      position.put( distinct.get( i ), i );
+    }
+    // union-find over positions
+    int[] parent = new int[ distinct.size() ];
+    for ( int i = 0; i < parent.length; ++i ) {
+      parent[ i ] = i;
+    }
+    for ( List< Constraint > cs : constraintsOfVariable.values() ) {
+      int root = find( parent, position.get( cs.get( 0 ) ) );
+      for ( int j = 1; j < cs.size(); ++j ) {
+        int r = find( parent, position.get( cs.get( j ) ) );
+        if ( r == root ) continue;
+        // the root is the earliest constraint of the component
+        if ( r < root ) {
+          parent[ root ] = r;
+          root = r;
+        } else {
+          parent[ r ] = root;
+        }
+      }
+    }
+    List< List< Constraint > > components = new ArrayList< List< Constraint > >();
+    Map< Integer, List< Constraint > > componentOfRoot =
+        new HashMap< Integer, List< Constraint > >();
+    for ( int i = 0; i < parent.length; ++i ) {
+      int root = find( parent, i );
+      List< Constraint > component = componentOfRoot.get( root );
+      if ( component == null ) {
+        component = new ArrayList< Constraint >();
+        componentOfRoot.put( root, component );
+        components.add( component );
+      }
+      component.add( distinct.get( i ) );
+    }
+    return components;
+  }
+
+  /**
+   * @return a seed for solving {@code component} that depends only on
+   *         {@code runSeed} and the smallest id of its constraints, and not on
+   *         the order in which components are solved
+   */
+  protected static long componentSeed( long runSeed, List< Constraint > component ) {
+    int smallestId = Integer.MAX_VALUE;
+    for ( Constraint c : component ) {
+      Integer id = c.getId();
+      if ( id != null && id < smallestId ) smallestId = id;
+    }
+    // spread the ids over the bits of the seed
+    return runSeed ^ ( smallestId * 0x9E3779B97F4A7C15L );
+  }
+
+  protected static int find( int[] parent, int i ) {
+    while ( parent[ i ] != i ) {
+      parent[ i ] = parent[ parent[ i ] ];
+      i = parent[ i ];
+    }
+    return i;
+  }
+
+  protected class ComponentTask extends RecursiveTask< List< Constraint > > {
+    private static final long serialVersionUID = 1L;
+    protected List< Constraint > component;
+    protected EvaluationContext context;
+
+    public ComponentTask( List< Constraint > component,
+                          EvaluationContext context ) {
+      this.component = component;
+      this.context = context;
+    }
+
+    @Override
+    protected List< Constraint > compute() {
+      EvaluationContext previous = EvaluationContext.enter( context );
+      try {
+        return solveComponent( component );
+      } finally {
+        EvaluationContext.exit( previous );
+      }
+    }
+  }
+
+  /**
+   * @return the pool for solving components in parallel
+   */
+  public ForkJoinPool getPool() {
+    if ( pool == null ) {
+      synchronized ( ConstraintLoopSolver.class ) {
+        if ( sharedPool == null ) sharedPool = new ForkJoinPool();
+      }
+      return sharedPool;
+    }
+    return pool;
+  }
+
+  public void setPool( ForkJoinPool pool ) {
+    this.pool = pool;
   }
 
   public static boolean satisfy( Constraint constraint,
@@ -109,7 +359,7 @@ public class ConstraintLoopSolver implements Solver {
 //      b[k] = true;
     Variable<?>[] a = new Variable<?>[vars.size()];
     vars.toArray( a );
-    for ( Variable< ? > v : Utils.scramble(a) ) {
+    for ( Variable< ? > v : scramble( a, EvaluationContext.random() ) ) {
 //    for ( Variable<?> v : Utils.scramble( vars ) ) {
       if ( Debug.isOn() ) Debug.outln( "try to change variable " + v );
       if ( change( v ) ) {
@@ -122,6 +372,25 @@ public class ConstraintLoopSolver implements Solver {
     return satisfied;
   }
 
+  /**
+   * Shuffle an array in place.
+   *
+   * @param a
+   * @param random
+   *          the random numbers to shuffle with, such as
+   *          {@link EvaluationContext#random()}
+   * @return {@code a}
+   */
+  public static < T > T[] scramble( T[] a, Random random ) {
+    for ( int i = a.length - 1; i > 0; --i ) {
+      int j = random.nextInt( i + 1 );
+      T t = a[ i ];
+      a[ i ] = a[ j ];
+      a[ j ] = t;
+    }
+    return a;
+  }
+
   public static <T> boolean change( Variable< T > v ) {
     if ( Debug.isOn() ) Debug.outln( "begin change(" + v + ")" );
     T value = v.getValue(true);
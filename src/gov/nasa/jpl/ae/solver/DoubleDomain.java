@@ -3,7 +3,7 @@
  */
 package gov.nasa.jpl.ae.solver;
 
-import gov.nasa.jpl.mbee.util.Random;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 import gov.nasa.jpl.mbee.util.Debug;
 
 import org.junit.Assert;
@@ -101,8 +101,8 @@ public class DoubleDomain extends AbstractRangeDomain< Double > {
     if ( this.isEmpty() ) {
       return null;
     }
-    double r1 = Random.global.nextDouble();
-    double r2 = Random.global.nextDouble();
+    double r1 = EvaluationContext.random().nextDouble();
+    double r2 = EvaluationContext.random().nextDouble();
     double middle = getMiddleValue();
     double half = getUpperBound() - middle;
     if ( r1 < 0.5 ) {
@@ -5,17 +5,22 @@ package gov.nasa.jpl.ae.solver;
 
 import gov.nasa.jpl.mbee.util.HasId;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  *
  */
 public class HasIdImpl implements HasId<Integer> {
 
-  protected static int counter = 0;
+  // Models may be built on several threads at once, as by
+  // ScenarioBatchRunner, and ids break ties between equal times in
+  // TimeVaryingMaps, so no two objects may get the same id.
+  protected static final AtomicInteger counter = new AtomicInteger();
 
   protected final int id = getNext();
 
   public static int getNext() {
-    return counter++;
+    return counter.getAndIncrement();
   }
 
   /* (non-Javadoc)
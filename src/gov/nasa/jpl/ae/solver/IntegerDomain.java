@@ -3,7 +3,7 @@
  */
 package gov.nasa.jpl.ae.solver;
 
-import gov.nasa.jpl.mbee.util.Random;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 
 /**
  * @author bclement
@@ -77,8 +77,8 @@ public class IntegerDomain extends AbstractFiniteRangeDomain< Integer > {
     }
 		//return (int) Math.abs( getLowerBound() + Math.random() * size() );
     // a bunch of tricks to avoid overflow
-    double r1 = Random.global.nextDouble();
-    double r2 = Random.global.nextDouble();
+    double r1 = EvaluationContext.random().nextDouble();
+    double r2 = EvaluationContext.random().nextDouble();
     double middle = getMiddleValue();
     double half = getUpperBound() - middle;
     if ( r1 < 0.5 ) {
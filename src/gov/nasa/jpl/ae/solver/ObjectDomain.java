@@ -3,9 +3,9 @@
  */
 package gov.nasa.jpl.ae.solver;
 
+import gov.nasa.jpl.ae.event.EvaluationContext;
 import gov.nasa.jpl.ae.event.Functions;
 import gov.nasa.jpl.mbee.util.ClassUtils;
-import gov.nasa.jpl.mbee.util.Random;
 
 import java.util.LinkedHashSet;
 
@@ -137,7 +137,7 @@ public class ObjectDomain< T > extends LinkedHashSet<T> implements Domain< T > {
    */
   @Override
   public T pickRandomValue() {
-    T t = Functions.get( this, Random.global.nextInt( size() ) );
+    T t = Functions.get( this, EvaluationContext.random().nextInt( size() ) );
     return t;
   }
 
@@ -146,7 +146,7 @@ public class ObjectDomain< T > extends LinkedHashSet<T> implements Domain< T > {
    */
   @Override
   public T pickRandomValueNotEqual( T t ) {
-    int indexPicked = Random.global.nextInt( size() );
+    int indexPicked = EvaluationContext.random().nextInt( size() );
     T tt = Functions.get( this, indexPicked );
     
     int nextIndex = indexPicked;
@@ -3,7 +3,7 @@
  */
 package gov.nasa.jpl.ae.solver;
 
-import gov.nasa.jpl.mbee.util.Random;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 
 /**
  * @author bclement
@@ -55,10 +55,10 @@ public class StringDomain extends AbstractRangeDomain<String> {
 	@Override
 	public String pickRandomValue() {
 	  // REVIEW -- Not a uniform distribution.
-		int length = Random.global.nextInt( maxStringSize );
+		int length = EvaluationContext.random().nextInt( maxStringSize );
 		StringBuffer s = new StringBuffer();
 		while (length > 0) {
-      s.append( (char)( '\0' + Random.global.nextInt( 256 ) ) );
+      s.append( (char)( '\0' + EvaluationContext.random().nextInt( 256 ) ) );
 			--length;
 		}
 		return s.toString();
@@ -34,7 +34,7 @@ import java.util.Set;
 
 //import sysml.SystemModel;
 import gov.nasa.jpl.ae.event.Duration;
-import gov.nasa.jpl.ae.event.DurativeEvent;
+import gov.nasa.jpl.ae.event.EvaluationContext;
 import gov.nasa.jpl.ae.solver.Constraint;
 import gov.nasa.jpl.ae.solver.HasIdImpl;
 import gov.nasa.jpl.ae.solver.Satisfiable;
@@ -121,7 +121,7 @@ public class SystemModelSolver extends HasIdImpl implements Solver, Satisfiable,
         Debug.out( "" );
       }
       if ( amTopEventToSimulate ) {
-        DurativeEvent.newMode = false; //numLoops % 2 == 0;
+        EvaluationContext.get().newMode = false; //numLoops % 2 == 0;
       }
       satisfied = tryToSatisfy(deep, null);
 
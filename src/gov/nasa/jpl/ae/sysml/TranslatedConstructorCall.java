@@ -502,6 +502,13 @@ public class TranslatedConstructorCall<P> extends ConstructorCall implements Tra
     return translatedCallHelper;
   }
 
+  // Translation happens in evaluate( boolean, boolean ), so do not evaluate
+  // around it.
+  @Override
+  protected boolean canEvaluateInContext() {
+    return false;
+  }
+
   /**
    * @return the on
    */
@@ -442,6 +442,13 @@ public class TranslatedFunctionCall<P> extends FunctionCall implements Translate
     return translatedCallHelper;
   }
 
+  // Translation happens in evaluate( boolean, boolean ), so do not evaluate
+  // around it.
+  @Override
+  protected boolean canEvaluateInContext() {
+    return false;
+  }
+
   /**
    * @return the on
    */
@@ -0,0 +1,72 @@
+package gov.nasa.jpl.ae.tests;
+
+import gov.nasa.jpl.ae.event.EventSimulation;
+import gov.nasa.jpl.ae.event.TimeVaryingMap;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks that lookups do not mark a timeline as changed for an incremental
+ * snapshot, and that removing an entry between snapshots is written to the
+ * delta as a removed record at its time. Prints each check and exits with
+ * status 1 if any fail.
+ */
+public class TestIncrementalSnapshot {
+
+  protected static int failures = 0;
+
+  protected static void check( String what, Object expected, Object actual ) {
+    if ( expected == null ? actual == null : expected.equals( actual ) ) {
+      System.out.println( "worked! " + what + " = " + actual );
+    } else {
+      System.err.println( "FAILED: " + what + " = " + actual + ", expected "
+                          + expected );
+      ++failures;
+    }
+  }
+
+  public static void main( String[] args ) throws Exception {
+    TimeVaryingMap< Double > tvm = new TimeVaryingMap< Double >( "load", Double.class );
+    for ( int t = 0; t < 100; t += 10 ) {
+      tvm.setValue( tvm.makeTempTimepoint( t, false ), (double)t );
+    }
+    EventSimulation sim = new EventSimulation();
+    sim.tryToPlot = false;
+    sim.add( tvm, "test" );
+    sim.listenForChanges();
+
+    // Lookups, including ones that rebuild the time index, are not changes.
+    for ( int t = 0; t < 100; ++t ) {
+      tvm.getValue( t );
+    }
+    check( "changes after lookups", false, sim.hasChanges() );
+
+    tvm.remove( tvm.getKey( 30 ) );
+    tvm.setValue( tvm.makeTempTimepoint( 50, false ), 55.0 );
+    check( "changes after remove", true, sim.hasChanges() );
+
+    Map< Object, int[] > removedTimes = new IdentityHashMap< Object, int[] >();
+    Set< Object > changed = sim.update( removedTimes );
+    check( "changed sources", 1, changed.size() );
+    check( "removed times", "[30]", Arrays.toString( removedTimes.get( tvm ) ) );
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    sim.writeEntries( changed, removedTimes, os, "--- delta ---" );
+    String delta = os.toString();
+    System.out.println( delta );
+    check( "delta has removed record", true,
+           delta.contains( "load -> " + EventSimulation.REMOVED ) );
+    check( "delta has new value", true, delta.contains( "load -> 55.00" ) );
+
+    sim.stopListening();
+    if ( failures > 0 ) {
+      System.err.println( failures + " checks failed" );
+      System.exit( 1 );
+    }
+  }
+
+}
@@ -0,0 +1,86 @@
+package gov.nasa.jpl.ae.tests;
+
+import gov.nasa.jpl.ae.event.IntTimeline;
+
+/**
+ * Checks that arithmetic on an {@link IntTimeline} saturates, like
+ * {@link gov.nasa.jpl.ae.event.Functions#times(int, int)} and
+ * {@link gov.nasa.jpl.ae.event.Functions#dividedBy(int, int)}, instead of
+ * wrapping around or throwing an {@link ArithmeticException}. Prints each
+ * check and exits with status 1 if any fail.
+ */
+public class TestIntTimeline {
+
+  protected static int failures = 0;
+
+  protected static void check( String what, int expected, int actual ) {
+    if ( expected == actual ) {
+      System.out.println( "worked! " + what + " = " + actual );
+    } else {
+      System.err.println( "FAILED: " + what + " = " + actual + ", expected "
+                          + expected );
+      ++failures;
+    }
+  }
+
+  protected static IntTimeline timeline( int... values ) {
+    IntTimeline tl = new IntTimeline( "tl" );
+    for ( int i = 0; i < values.length; ++i ) {
+      tl.append( 10 * i, values[ i ] );
+    }
+    return tl;
+  }
+
+  public static void main( String[] args ) {
+    // division by a zero number
+    IntTimeline tl = timeline( 7, -7, 0 );
+    tl.divide( 0 );
+    check( "7 / 0", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+    check( "-7 / 0", -Integer.MAX_VALUE, tl.valueAt( 10, 0 ) );
+    check( "0 / 0", Integer.MAX_VALUE, tl.valueAt( 20, 0 ) );
+
+    tl = timeline( 7 );
+    tl.divide( 0.0 );
+    check( "7 / 0.0", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+
+    // division by a timeline with a zero value
+    tl = timeline( 7, 8 );
+    tl.divide( timeline( 0, 2 ) );
+    check( "7 / zero timeline", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+    check( "8 / 2 timeline", 4, tl.valueAt( 10, 0 ) );
+
+    tl = timeline( Integer.MIN_VALUE );
+    tl.divide( -1 );
+    check( "MIN_VALUE / -1", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+
+    // overflow
+    tl = timeline( Integer.MAX_VALUE / 2 + 1, Integer.MIN_VALUE / 2 - 1, 3 );
+    tl.multiply( 2 );
+    check( "big * 2", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+    check( "-big * 2", Integer.MIN_VALUE, tl.valueAt( 10, 0 ) );
+    check( "3 * 2", 6, tl.valueAt( 20, 0 ) );
+
+    tl = timeline( Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1 );
+    tl.add( 5 );
+    check( "MAX_VALUE - 1 + 5", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+    check( "MIN_VALUE + 1 + 5", Integer.MIN_VALUE + 6, tl.valueAt( 10, 0 ) );
+
+    tl = timeline( Integer.MAX_VALUE );
+    tl.add( timeline( 1 ) );
+    check( "MAX_VALUE + timeline of 1", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+
+    tl = timeline( Integer.MIN_VALUE );
+    tl.subtract( timeline( 1 ) );
+    check( "MIN_VALUE - timeline of 1", Integer.MIN_VALUE, tl.valueAt( 0, 0 ) );
+
+    tl = timeline( 1 << 20 );
+    tl.multiply( timeline( 1 << 20 ) );
+    check( "2^20 * timeline of 2^20", Integer.MAX_VALUE, tl.valueAt( 0, 0 ) );
+
+    if ( failures > 0 ) {
+      System.err.println( failures + " checks failed" );
+      System.exit( 1 );
+    }
+  }
+
+}
@@ -0,0 +1,89 @@
+package gov.nasa.jpl.ae.tests;
+
+import gov.nasa.jpl.ae.event.DoubleTimeline;
+import gov.nasa.jpl.ae.event.EventSimulation;
+import gov.nasa.jpl.ae.event.Parameter;
+import gov.nasa.jpl.ae.event.SimulationTraceReader;
+import gov.nasa.jpl.ae.event.SimulationTraceWriter;
+import gov.nasa.jpl.ae.event.TimeVaryingMap;
+
+import java.io.File;
+
+/**
+ * Checks that a simulation trace written through the output thread keeps the
+ * numeric timelines of variables whose values are {@link Parameter}s, that a
+ * read of one variable finds its records among small blocks shared with
+ * another variable, and that a trace that cannot be written reports its
+ * failure. Prints each check and exits with status 1 if any fail.
+ */
+public class TestSimulationTrace {
+
+  protected static int failures = 0;
+
+  protected static void check( String what, Object expected, Object actual ) {
+    if ( expected == null ? actual == null : expected.equals( actual ) ) {
+      System.out.println( "worked! " + what + " = " + actual );
+    } else {
+      System.err.println( "FAILED: " + what + " = " + actual + ", expected "
+                          + expected );
+      ++failures;
+    }
+  }
+
+  protected static EventSimulation simulation( SimulationTraceWriter writer ) {
+    TimeVaryingMap< Object > held =
+        new TimeVaryingMap< Object >( "held", Object.class );
+    TimeVaryingMap< Double > plain =
+        new TimeVaryingMap< Double >( "plain", Double.class );
+    for ( int t = 0; t < 10; ++t ) {
+      held.setValue( held.makeTempTimepoint( 10 * t, false ),
+                     new Parameter< Double >( "p" + t, null, 1.5 * t, null ) );
+      plain.setValue( plain.makeTempTimepoint( 10 * t + 5, false ), -1.0 * t );
+    }
+    EventSimulation sim = new EventSimulation();
+    sim.tryToPlot = false;
+    sim.fastForward = true;
+    sim.writingText = false;
+    sim.usingOutputThread = true;
+    sim.add( held, "test" );
+    sim.add( plain, "test" );
+    sim.add( writer );
+    return sim;
+  }
+
+  public static void main( String[] args ) throws Exception {
+    File file = File.createTempFile( "TestSimulationTrace", ".trace" );
+    file.deleteOnExit();
+    // Blocks of two records interleave the two variables.
+    SimulationTraceWriter writer = new SimulationTraceWriter( file, 2 );
+    simulation( writer ).simulate( 1e15, System.out );
+    check( "write failure", null, writer.getFailure() );
+
+    SimulationTraceReader trace = new SimulationTraceReader( file );
+    try {
+      int held = trace.getVariableId( "held" );
+      DoubleTimeline timeline = trace.readTimeline( held );
+      check( "held timeline size", 10, timeline.size() );
+      check( "held at 30", 4.5, timeline.getValue( 30 ) );
+      check( "held at 90", 13.5, timeline.getValue( 90 ) );
+      check( "held records in [20, 40]", 3, trace.read( 20, 40, held ).size() );
+      int plain = trace.getVariableId( "plain" );
+      check( "plain at 75", -7.0, trace.readTimeline( plain ).getValue( 75 ) );
+    } finally {
+      trace.close();
+    }
+
+    // A trace in a directory that does not exist fails without stopping the
+    // simulation, and the writer says so.
+    File missing = new File( new File( file.getPath() + ".missing" ), "x.trace" );
+    writer = new SimulationTraceWriter( missing );
+    simulation( writer ).simulate( 1e15, System.out );
+    check( "write failure reported", true, writer.getFailure() != null );
+
+    if ( failures > 0 ) {
+      System.err.println( failures + " checks failed" );
+      System.exit( 1 );
+    }
+  }
+
+}
@@ -0,0 +1,68 @@
+package gov.nasa.jpl.ae.tests;
+
+import gov.nasa.jpl.ae.event.TimeVaryingMap;
+
+/**
+ * Checks that adding and subtracting {@link TimeVaryingMap}s looks up values
+ * with each map's interpolation, so a LINEAR map contributes its interpolated
+ * value at the keys of the other map. Prints each check and exits with status
+ * 1 if any fail.
+ */
+public class TestTimeVaryingMapCombine {
+
+  protected static int failures = 0;
+
+  protected static void check( String what, Double expected, Object actual ) {
+    if ( actual instanceof Number
+         && Math.abs( expected - ( (Number)actual ).doubleValue() ) < 1e-9 ) {
+      System.out.println( "worked! " + what + " = " + actual );
+    } else {
+      System.err.println( "FAILED: " + what + " = " + actual + ", expected "
+                          + expected );
+      ++failures;
+    }
+  }
+
+  protected static TimeVaryingMap< Double > map( String name,
+                                                 String interpolation,
+                                                 int[] times, double[] values ) {
+    TimeVaryingMap< Double > tvm = new TimeVaryingMap< Double >( name, Double.class );
+    tvm.interpolation.fromString( interpolation );
+    for ( int i = 0; i < times.length; ++i ) {
+      tvm.setValue( tvm.makeTempTimepoint( times[ i ], false ), values[ i ] );
+    }
+    return tvm;
+  }
+
+  public static void main( String[] args ) throws Exception {
+    // A STEP map plus a LINEAR map: at 20, the LINEAR map is 20.0 halfway
+    // between its keys, not its last value, 0.0.
+    TimeVaryingMap< Double > step =
+        map( "step", "step", new int[] { 0, 20 }, new double[] { 100.0, 200.0 } );
+    TimeVaryingMap< Double > linear =
+        map( "linear", "linear", new int[] { 0, 40 }, new double[] { 0.0, 40.0 } );
+    step.add( linear );
+    check( "step + linear at 0", 100.0, step.getValue( 0 ) );
+    check( "step + linear at 20", 220.0, step.getValue( 20 ) );
+    check( "step + linear at 40", 240.0, step.getValue( 40 ) );
+
+    step = map( "step", "step", new int[] { 0, 20 }, new double[] { 100.0, 200.0 } );
+    linear = map( "linear", "linear", new int[] { 0, 40 }, new double[] { 0.0, 40.0 } );
+    step.subtract( linear );
+    check( "step - linear at 20", 180.0, step.getValue( 20 ) );
+
+    // Two STEP maps still carry the last value forward.
+    step = map( "step", "step", new int[] { 0, 20 }, new double[] { 100.0, 200.0 } );
+    TimeVaryingMap< Double > step2 =
+        map( "step2", "step", new int[] { 0, 40 }, new double[] { 1.0, 40.0 } );
+    step.add( step2 );
+    check( "step + step at 20", 201.0, step.getValue( 20 ) );
+    check( "step + step at 40", 240.0, step.getValue( 40 ) );
+
+    if ( failures > 0 ) {
+      System.err.println( failures + " checks failed" );
+      System.exit( 1 );
+    }
+  }
+
+}
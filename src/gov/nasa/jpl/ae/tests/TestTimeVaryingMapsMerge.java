@@ -0,0 +1,60 @@
+package gov.nasa.jpl.ae.tests;
+
+import gov.nasa.jpl.ae.event.TimeVaryingMaps;
+import gov.nasa.jpl.mbee.util.FileUtils;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Checks that reading CSV files into a {@link TimeVaryingMaps} of Integers
+ * puts Integers in the map and keeps the entries it already had, adding the
+ * files' values to them. Prints each check and exits with status 1 if any
+ * fail.
+ */
+public class TestTimeVaryingMapsMerge {
+
+  protected static int failures = 0;
+
+  protected static void check( String what, Object expected, Object actual ) {
+    if ( expected == null ? actual == null : expected.equals( actual ) ) {
+      System.out.println( "worked! " + what + " = " + actual );
+    } else {
+      System.err.println( "FAILED: " + what + " = " + actual
+                          + ( actual == null ? "" : " (" + actual.getClass().getSimpleName() + ")" )
+                          + ", expected " + expected );
+      ++failures;
+    }
+  }
+
+  protected static String csvFile( String contents ) throws Exception {
+    File f = File.createTempFile( "TestTimeVaryingMapsMerge", ".csv" );
+    f.deleteOnExit();
+    FileUtils.stringToFile( contents, f.getPath() );
+    return f.getPath();
+  }
+
+  public static void main( String[] args ) throws Exception {
+    Map< String, Number > files = new LinkedHashMap< String, Number >();
+    files.put( csvFile( "0,1\n10,3\n" ), 1 );
+    files.put( csvFile( "0,2\n20,5\n" ), 2 );
+
+    TimeVaryingMaps< Integer > maps =
+        new TimeVaryingMaps< Integer >( "load", Integer.class );
+    maps.setValue( maps.makeTempTimepoint( 5, false ), 100 );
+    maps.fromCsvFiles( files, Integer.class );
+
+    // 1*file1 + 2*file2 + the entry that was already there
+    check( "at 0", 5, maps.getValue( 0 ) );
+    check( "at 5", 105, maps.getValue( 5 ) );
+    check( "at 10", 107, maps.getValue( 10 ) );
+    check( "at 20", 113, maps.getValue( 20 ) );
+
+    if ( failures > 0 ) {
+      System.err.println( failures + " checks failed" );
+      System.exit( 1 );
+    }
+  }
+
+}
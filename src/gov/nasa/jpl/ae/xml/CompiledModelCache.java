@@ -0,0 +1,490 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.xml;
+
+import gov.nasa.jpl.ae.event.DurativeEvent;
+import gov.nasa.jpl.ae.event.Timepoint;
+import gov.nasa.jpl.mbee.util.Debug;
+import gov.nasa.jpl.mbee.util.TimeUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * CompiledModelCache keeps the bytecode of models compiled by
+ * {@link EventXmlToJava} on disk so that a later run of an unchanged model
+ * skips parsing, translation, and compilation and goes straight to loading
+ * classes.
+ * <p>
+ * A model is keyed by a SHA-256 hash of the scenario XML, the XSD it
+ * references, the package of the generated classes, and the version of the
+ * engine, so editing any of them, or upgrading bae, compiles the model again.
+ * When bae is not run from a jar with an Implementation-Version, as during
+ * development, the engine's class files are hashed for its version instead,
+ * so that changing the engine does not load models compiled against the old
+ * one. If neither can be found, the cache on disk is not used.
+ * Each model is a jar named for its key in the cache directory holding the
+ * class files and a properties entry with what the translation leaves behind
+ * besides classes: the package, the generated class names and which is
+ * {@code Main}, and the {@link Timepoint} units, epoch, and horizon that the
+ * XML sets.
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * CompiledModelCache cache = new CompiledModelCache();
+ * CompiledModelCache.CompiledModel model =
+ *     cache.getOrCompile( "exampleDRScenario.xml", "generated" );
+ * DurativeEvent scenario = model.getMainClass().newInstance();
+ * </pre>
+ */
+public class CompiledModelCache {
+
+  /**
+   * The version of the layout of cached models, which is part of the key
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  // The version of the engine, found once; see getEngineVersion()
+  protected static String engineVersion = null;
+  protected static boolean foundEngineVersion = false;
+
+  protected static final String metadataEntry = "META-INF/bae-model.properties";
+
+  // The attribute of the scenario element naming the schema
+  protected static final Pattern scenarioElementPattern =
+      Pattern.compile( "<(?:[\\w.-]+:)?scenario\\b[^>]*>" );
+  protected static final Pattern xsdAttributePattern =
+      Pattern.compile( "=\\s*[\"']([^\"']*\\.xsd)[\"']" );
+
+  protected final File directory;
+
+  /**
+   * A compiled model, either just compiled or loaded from the cache
+   */
+  public static class CompiledModel {
+    public final String key;
+    public String packageName;
+    public List< String > classNames = new ArrayList< String >();
+    public String mainClassName;
+    public String units;
+    public long epochMillis;
+    public int horizonDuration;
+    /**
+     * Whether the model was loaded from the cache instead of compiled
+     */
+    public boolean wasCached = false;
+    protected Map< String, byte[] > classBytes;
+    protected ClassLoader loader = null;
+
+    public CompiledModel( String key, Map< String, byte[] > classBytes ) {
+      this.key = key;
+      this.classBytes = classBytes;
+    }
+
+    public Map< String, byte[] > getClassBytes() {
+      return classBytes;
+    }
+
+    public ClassLoader getLoader() {
+      if ( loader == null ) {
+        loader = new InMemoryCompiler.MemoryClassLoader( classBytes,
+                                                         CompiledModelCache.class.getClassLoader() );
+      }
+      return loader;
+    }
+
+    public Class< ? extends DurativeEvent > getMainClass()
+                                               throws ClassNotFoundException {
+      return getLoader().loadClass( mainClassName ).asSubclass( DurativeEvent.class );
+    }
+
+    /**
+     * Set the units, epoch, and horizon of {@link Timepoint}s in the current
+     * EvaluationContext as translating the XML would.
+     */
+    public void setTimepoints() {
+      Timepoint.setUnits( TimeUtils.Units.valueOf( units ) );
+      Timepoint.setEpoch( new Date( epochMillis ) );
+      Timepoint.setHorizonDuration( horizonDuration );
+    }
+  }
+
+  public CompiledModelCache() {
+    this( getDefaultDirectory() );
+  }
+
+  public CompiledModelCache( File directory ) {
+    this.directory = directory;
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * @return the directory named by the bae.modelCache system property, or
+   *         else .bae/modelCache in the user's home directory
+   */
+  public static File getDefaultDirectory() {
+    String dir = System.getProperty( "bae.modelCache" );
+    if ( dir != null && !dir.isEmpty() ) return new File( dir );
+    return new File( System.getProperty( "user.home" ), ".bae" + File.separator
+                                                        + "modelCache" );
+  }
+
+  /**
+   * @return the Implementation-Version of the bae jar, or else a hash of the
+   *         engine's class files, or null if neither can be found
+   */
+  public static synchronized String getEngineVersion() {
+    if ( !foundEngineVersion ) {
+      Package p = EventXmlToJava.class.getPackage();
+      String v = p == null ? null : p.getImplementationVersion();
+      engineVersion = v != null ? v : hashEngineClasses();
+      foundEngineVersion = true;
+    }
+    return engineVersion;
+  }
+
+  /**
+   * @return a hash of the jar or of the class files under gov/nasa/jpl/ae in
+   *         the directory from which the engine was loaded, or null if they
+   *         cannot be read
+   */
+  protected static String hashEngineClasses() {
+    try {
+      CodeSource source = EventXmlToJava.class.getProtectionDomain().getCodeSource();
+      if ( source == null || source.getLocation() == null ) return null;
+      File root = new File( source.getLocation().toURI() );
+      MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+      if ( root.isFile() ) {
+        md.update( Files.readAllBytes( root.toPath() ) );
+      } else {
+        File engineDir = new File( root, "gov" + File.separator + "nasa"
+                                         + File.separator + "jpl"
+                                         + File.separator + "ae" );
+        if ( !engineDir.isDirectory() ) return null;
+        hashClassFiles( md, engineDir, "gov/nasa/jpl/ae" );
+      }
+      return "classes-" + InMemoryCompiler.toHex( md.digest() );
+    } catch ( URISyntaxException e ) {
+      Debug.error( true, false, "CompiledModelCache: can't find the engine: " + e );
+    } catch ( IllegalArgumentException e ) {
+      Debug.error( true, false, "CompiledModelCache: can't find the engine: " + e );
+    } catch ( SecurityException e ) {
+      Debug.error( true, false, "CompiledModelCache: can't find the engine: " + e );
+    } catch ( NoSuchAlgorithmException e ) {
+      Debug.error( true, false, "CompiledModelCache: can't hash the engine: " + e );
+    } catch ( IOException e ) {
+      Debug.error( true, false, "CompiledModelCache: can't hash the engine: " + e );
+    }
+    return null;
+  }
+
+  /**
+   * Hash the names and contents of the class files under a directory in a
+   * fixed order.
+   */
+  protected static void hashClassFiles( MessageDigest md, File dir, String path )
+      throws IOException {
+    File[] files = dir.listFiles();
+    if ( files == null ) return;
+    Arrays.sort( files );
+    for ( File f : files ) {
+      String name = path + "/" + f.getName();
+      if ( f.isDirectory() ) {
+        hashClassFiles( md, f, name );
+      } else if ( f.getName().endsWith( ".class" ) ) {
+        update( md, name );
+        md.update( Files.readAllBytes( f.toPath() ) );
+      }
+    }
+  }
+
+  /**
+   * @return whether models may be loaded from and stored in the cache on
+   *         disk, which requires knowing the version of the engine
+   */
+  public static boolean isUsable() {
+    return getEngineVersion() != null;
+  }
+
+  /**
+   * Find the schema named in the scenario element of an XML file without
+   * parsing the whole file.
+   *
+   * @param xmlFile
+   * @return the file name of the schema, or null if none is named in the
+   *         first 64K characters
+   * @throws IOException
+   */
+  public static String findSchemaReference( File xmlFile ) throws IOException {
+    char[] buf = new char[ 1 << 16 ];
+    int n = 0;
+    Reader r = new InputStreamReader( new FileInputStream( xmlFile ), "UTF-8" );
+    try {
+      int k;
+      while ( n < buf.length && ( k = r.read( buf, n, buf.length - n ) ) > 0 ) {
+        n += k;
+      }
+    } finally {
+      r.close();
+    }
+    Matcher m = scenarioElementPattern.matcher( new String( buf, 0, n ) );
+    if ( !m.find() ) return null;
+    Matcher a = xsdAttributePattern.matcher( m.group() );
+    if ( !a.find() ) return null;
+    // A schemaLocation is pairs of namespace and location.
+    String[] tokens = a.group( 1 ).trim().split( "\\s+" );
+    return tokens[ tokens.length - 1 ];
+  }
+
+  /**
+   * @param xmlFileName
+   *          the scenario XML
+   * @param packageName
+   *          the package of the generated classes
+   * @return the key of the model in the cache
+   * @throws IOException
+   *           if the XML cannot be read
+   */
+  public String getKey( String xmlFileName, String packageName ) throws IOException {
+    File xmlFile = new File( xmlFileName );
+    MessageDigest md;
+    try {
+      md = MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IOException( e );
+    }
+    update( md, "bae-model " + FORMAT_VERSION + " " + getEngineVersion() );
+    update( md, String.valueOf( packageName ) );
+    md.update( Files.readAllBytes( xmlFile.toPath() ) );
+    String xsd = XmlUtils.findXsdFilePath( xmlFile.getPath(),
+                                           findSchemaReference( xmlFile ) );
+    if ( xsd != null && new File( xsd ).isFile() ) {
+      md.update( Files.readAllBytes( new File( xsd ).toPath() ) );
+    }
+    return InMemoryCompiler.toHex( md.digest() );
+  }
+
+  protected static void update( MessageDigest md, String s ) throws IOException {
+    md.update( s.getBytes( "UTF-8" ) );
+    md.update( (byte)0 );
+  }
+
+  protected File getFile( String key ) {
+    return new File( directory, key + ".jar" );
+  }
+
+  /**
+   * @param key
+   * @return the cached model, or null if it is not cached or its file cannot
+   *         be read
+   */
+  public CompiledModel load( String key ) {
+    if ( !isUsable() ) return null;
+    File file = getFile( key );
+    if ( !file.isFile() ) return null;
+    Map< String, byte[] > classBytes = new LinkedHashMap< String, byte[] >();
+    Properties props = null;
+    try {
+      JarInputStream in = new JarInputStream( new FileInputStream( file ) );
+      try {
+        JarEntry entry;
+        while ( ( entry = in.getNextJarEntry() ) != null ) {
+          String name = entry.getName();
+          if ( name.equals( metadataEntry ) ) {
+            props = new Properties();
+            props.load( new ByteArrayInputStream( readAll( in ) ) );
+          } else if ( name.endsWith( ".class" ) ) {
+            String className =
+                name.substring( 0, name.length() - ".class".length() ).replace( '/', '.' );
+            classBytes.put( className, readAll( in ) );
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch ( IOException e ) {
+      Debug.error( true, false, "CompiledModelCache: could not read " + file
+                                + ": " + e );
+      return null;
+    }
+    if ( props == null || !key.equals( props.getProperty( "key" ) ) ) {
+      Debug.error( true, false, "CompiledModelCache: ignoring " + file
+                                + " without matching metadata" );
+      return null;
+    }
+    CompiledModel model = new CompiledModel( key, classBytes );
+    try {
+      model.packageName = props.getProperty( "packageName" );
+      model.mainClassName = props.getProperty( "mainClass" );
+      model.classNames.addAll( Arrays.asList( props.getProperty( "classes", "" ).split( "," ) ) );
+      model.units = props.getProperty( "units" );
+      model.epochMillis = Long.parseLong( props.getProperty( "epoch" ) );
+      model.horizonDuration = Integer.parseInt( props.getProperty( "horizonDuration" ) );
+      TimeUtils.Units.valueOf( model.units );
+    } catch ( RuntimeException e ) {
+      Debug.error( true, false, "CompiledModelCache: ignoring " + file
+                                + " with bad metadata: " + e );
+      return null;
+    }
+    model.wasCached = true;
+    return model;
+  }
+
+  protected static byte[] readAll( InputStream in ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buf = new byte[ 8192 ];
+    int n;
+    while ( ( n = in.read( buf ) ) > 0 ) {
+      out.write( buf, 0, n );
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Write a model to the cache. The jar is written to a temporary file and
+   * then moved into place so that concurrent runs never see part of one.
+   *
+   * Nothing is written if the version of the engine is unknown.
+   *
+   * @param model
+   * @throws IOException
+   */
+  public void store( CompiledModel model ) throws IOException {
+    if ( !isUsable() ) return;
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Could not make model cache directory " + directory );
+    }
+    Properties props = new Properties();
+    props.setProperty( "key", model.key );
+    props.setProperty( "packageName", String.valueOf( model.packageName ) );
+    props.setProperty( "mainClass", model.mainClassName );
+    StringBuilder classes = new StringBuilder();
+    for ( String c : model.classNames ) {
+      if ( classes.length() > 0 ) classes.append( ',' );
+      classes.append( c );
+    }
+    props.setProperty( "classes", classes.toString() );
+    props.setProperty( "units", model.units );
+    props.setProperty( "epoch", Long.toString( model.epochMillis ) );
+    props.setProperty( "horizonDuration", Integer.toString( model.horizonDuration ) );
+    props.setProperty( "engineVersion", getEngineVersion() );
+
+    File tmp = File.createTempFile( model.key, ".tmp", directory );
+    try {
+      JarOutputStream out = new JarOutputStream( new FileOutputStream( tmp ) );
+      try {
+        out.putNextEntry( new JarEntry( metadataEntry ) );
+        props.store( out, "bae compiled model" );
+        out.closeEntry();
+        for ( Map.Entry< String, byte[] > e : model.classBytes.entrySet() ) {
+          out.putNextEntry( new JarEntry( e.getKey().replace( '.', '/' ) + ".class" ) );
+          out.write( e.getValue() );
+          out.closeEntry();
+        }
+      } finally {
+        out.close();
+      }
+      Files.move( tmp.toPath(), getFile( model.key ).toPath(),
+                  StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE );
+    } finally {
+      if ( tmp.exists() ) tmp.delete();
+    }
+  }
+
+  /**
+   * Load a model from the cache, or else translate and compile it and add it
+   * to the cache. Either way, the {@link Timepoint} settings of the model are
+   * made in the current EvaluationContext.
+   *
+   * @param xmlFileName
+   * @param packageName
+   * @return the model
+   * @throws IOException
+   *           if the XML cannot be read or the model does not compile
+   * @throws ParserConfigurationException
+   * @throws SAXException
+   */
+  public CompiledModel getOrCompile( String xmlFileName, String packageName )
+      throws IOException, ParserConfigurationException, SAXException {
+    String key = getKey( xmlFileName, packageName );
+    CompiledModel model = load( key );
+    if ( model != null ) {
+      if ( Debug.isOn() ) Debug.outln( "CompiledModelCache: loaded " + xmlFileName
+                                       + " from " + getFile( key ) );
+      model.setTimepoints();
+      return model;
+    }
+    EventXmlToJava translator = new EventXmlToJava( xmlFileName, packageName, true );
+    if ( !translator.compileAndLoadInMemory() ) {
+      throw new IOException( "Could not compile " + xmlFileName );
+    }
+    model = fromTranslator( key, translator );
+    try {
+      store( model );
+    } catch ( IOException e ) {
+      // The model is still usable without the cache.
+      Debug.error( true, false, "CompiledModelCache: could not store " + xmlFileName
+                                + ": " + e );
+    }
+    return model;
+  }
+
+  /**
+   * @param key
+   * @param translator
+   *          a translator that has compiled its model in memory
+   * @return the model compiled by the translator
+   */
+  public static CompiledModel fromTranslator( String key,
+                                              EventXmlToJava translator ) {
+    InMemoryCompiler.MemoryClassLoader loader =
+        (InMemoryCompiler.MemoryClassLoader)translator.getLoader();
+    CompiledModel model = new CompiledModel( key, loader.getClassBytes() );
+    model.loader = loader;
+    model.packageName = translator.getPackageName();
+    for ( String c : translator.getClassData().getClasses().keySet() ) {
+      model.classNames.add( translator.getQualifiedClassName( c ) );
+    }
+    model.mainClassName = translator.getMainClass().getName();
+    model.units = Timepoint.getUnits().name();
+    model.epochMillis = Timepoint.getEpoch().getTime();
+    model.horizonDuration = Timepoint.getHorizonDuration();
+    return model;
+  }
+
+}
@@ -37,6 +37,8 @@ import java.lang.Math;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -44,6 +46,10 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 
@@ -140,7 +146,23 @@ public class EventXmlToJava {
     return fileManager;
   }
 
+  /**
+   * XML files at least this many bytes are read into a smaller tree with a
+   * {@link StaxScenarioLoader} instead of a DocumentBuilder; 0 reads all
+   * files that way, and Long.MAX_VALUE none.
+   */
+  public static long streamingThreshold = 16L << 20;
+
+  /**
+   * The most threads to print generated classes and to compile them with,
+   * in memory or on disk; see {@link #getJavaSources()},
+   * {@link InMemoryCompiler#compile(Map)}, and
+   * {@link #compileJavaFiles(String)}.
+   */
+  public static int numThreads = Runtime.getRuntime().availableProcessors();
+
   protected ClassLoader loader = null;
+  protected InMemoryCompiler inMemoryCompiler = null;
   protected Class<?> mainClass = null;
 
   protected DurativeEvent mainInstance = null;
@@ -192,13 +214,19 @@ public class EventXmlToJava {
     expressionTranslator = new JavaToConstraintExpression( //this.expressionTranslator, 
                                                            packageName );
     
-    // Translate XML to a DOM Document.
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware( true );
-    DocumentBuilder builder;
-    // XPathExpression expr = null;
-    builder = factory.newDocumentBuilder();
-    xmlDocDOM = builder.parse( xmlFileName );
+    // Translate XML to a DOM Document, streaming large files into a compact
+    // one.
+    if ( isStreaming() ) {
+      if ( Debug.isOn() ) Debug.outln( "loading " + xmlFileName + " with StAX" );
+      xmlDocDOM = new StaxScenarioLoader().load( xmlFileName );
+    } else {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware( true );
+      DocumentBuilder builder;
+      // XPathExpression expr = null;
+      builder = factory.newDocumentBuilder();
+      xmlDocDOM = builder.parse( xmlFileName );
+    }
 
     if ( !XmlUtils.validateXML( xmlFileName, xmlDocDOM ) ) {
       if ( Debug.isOn() ) Debug.outln( "Warning! XML file "
@@ -245,6 +273,11 @@ public class EventXmlToJava {
     buildMethodTable( xmlDocDOM, getClassData().getMethodTable() );  
   }
   
+  protected boolean isStreaming() {
+    File f = new File( xmlFileName );
+    return f.isFile() && f.length() >= streamingThreshold;
+  }
+
   public void translate()
       throws ParserConfigurationException, SAXException, IOException {
 
@@ -2188,12 +2221,18 @@ public class EventXmlToJava {
   }
 
   public void writeJavaFiles( String javaPath ) throws IOException {
+    Map< String, String > sources = getJavaSources();
     for ( Entry< String, CompilationUnit > e : getClassData().getClasses().entrySet() ) {
       getClassData().setCurrentClass( e.getKey() );
       getClassData().setCurrentCompilationUnit( e.getValue() );
       String fileName =
           ( javaPath.trim() + File.separator + e.getKey() + ".java" );
-      writeJavaFile( fileName );
+      FileWriter w = new FileWriter( new File( fileName ) );
+      try {
+        w.write( sources.get( getQualifiedClassName( e.getKey() ) ) );
+      } finally {
+        w.close();
+      }
       if ( Debug.isOn() ) Debug.outln( "wrote compilation unit to file " + fileName );
     }
   }
@@ -2353,6 +2392,15 @@ public class EventXmlToJava {
       System.err.println( "No StandardJavaFileManager to compile Java classes." );
       return false;
     }
+    String sourceRoot = getSourceRoot( javaPath );
+    int n = Math.min( numThreads,
+                      fileArr.length / Math.max( 1, InMemoryCompiler.minSourcesPerTask ) );
+    if ( n > 1 && sourceRoot != null ) {
+      boolean succ = compileJavaFiles( fileArr, sourceRoot, n );
+      System.out.println( "compileJavaFiles(" + javaPath + "): compiled in " + n
+                          + " tasks, success=" + succ );
+      return succ;
+    }
     Iterable<? extends JavaFileObject> compilationUnits =
         fileManager.getJavaFileObjectsFromFiles(Arrays.asList(fileArr));
     System.out.println( "compileJavaFiles(" + javaPath
@@ -2368,6 +2416,93 @@ public class EventXmlToJava {
     return succ;
   }
   
+  /**
+   * @param javaPath
+   *          the directory of the generated package's sources
+   * @return the directory containing the package's directories, or null if
+   *         {@code javaPath} does not end with them
+   */
+  protected String getSourceRoot( String javaPath ) {
+    String packagePath = getPackageName() == null ? ""
+                         : getPackageName().replace( '.', File.separatorChar );
+    File dir = new File( javaPath.trim() ).getAbsoluteFile();
+    if ( packagePath.isEmpty() ) return dir.getPath();
+    if ( !dir.getPath().endsWith( File.separator + packagePath ) ) return null;
+    return dir.getPath().substring( 0, dir.getPath().length() - packagePath.length() - 1 );
+  }
+
+  /**
+   * Compile source files in {@code n} compiler tasks at once, as
+   * {@link InMemoryCompiler#compile(Map)} does for sources in memory. The
+   * files are dealt out largest first to the task with the least source so
+   * far. Each task writes class files for only its share and finds the rest
+   * on the source path.
+   *
+   * @param files
+   *          the source files
+   * @param sourceRoot
+   *          the directory containing the package directories of the files
+   * @param n
+   *          the number of tasks
+   * @return whether every task succeeded
+   */
+  protected boolean compileJavaFiles( File[] files, final String sourceRoot, int n ) {
+    List< File > bySize = new ArrayList< File >( Arrays.asList( files ) );
+    Collections.sort( bySize, new Comparator< File >() {
+      @Override
+      public int compare( File a, File b ) {
+        return b.length() < a.length() ? -1 : ( b.length() == a.length() ? 0 : 1 );
+      }
+    } );
+    List< List< File > > partitions = new ArrayList< List< File > >();
+    long[] sizes = new long[ n ];
+    for ( int i = 0; i < n; ++i ) {
+      partitions.add( new ArrayList< File >() );
+    }
+    for ( File f : bySize ) {
+      int least = 0;
+      for ( int i = 1; i < n; ++i ) {
+        if ( sizes[ i ] < sizes[ least ] ) least = i;
+      }
+      partitions.get( least ).add( f );
+      sizes[ least ] += f.length();
+    }
+    final JavaCompiler compiler = getCompiler();
+    List< Callable< Boolean > > tasks = new ArrayList< Callable< Boolean > >();
+    for ( final List< File > partition : partitions ) {
+      tasks.add( new Callable< Boolean >() {
+        @Override
+        public Boolean call() throws IOException {
+          // File managers are not thread safe, so each task has its own.
+          StandardJavaFileManager fm = compiler.getStandardFileManager( null, null, null );
+          try {
+            List< String > options =
+                Arrays.asList( "-sourcepath", sourceRoot, "-implicit:none" );
+            return compiler.getTask( null, fm, null, options, null,
+                                     fm.getJavaFileObjectsFromFiles( partition ) ).call();
+          } finally {
+            fm.close();
+          }
+        }
+      } );
+    }
+    ForkJoinPool pool = new ForkJoinPool( n );
+    try {
+      boolean succ = true;
+      for ( Future< Boolean > f : pool.invokeAll( tasks ) ) {
+        if ( !f.get() ) succ = false;
+      }
+      return succ;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch ( ExecutionException e ) {
+      throw new RuntimeException( e.getCause() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   public boolean loadClasses( String javaPath, String packageName ) {
     boolean succ = true;
     File path = new File(javaPath);
@@ -2450,6 +2585,103 @@ public class EventXmlToJava {
     return runMain(); 
   }
 
+  /**
+   * Get the source of each generated class by fully qualified name. The
+   * compilation units are printed in parallel on up to {@link #numThreads}
+   * threads, since each prints independently of the others once translation
+   * is done.
+   * 
+   * @return the source of each generated class by fully qualified name
+   */
+  public Map< String, String > getJavaSources() {
+    Map< String, String > sources = new TreeMap< String, String >();
+    Set< Entry< String, CompilationUnit > > units =
+        getClassData().getClasses().entrySet();
+    if ( numThreads <= 1 || units.size() <= 1 ) {
+      for ( Entry< String, CompilationUnit > e : units ) {
+        sources.put( getQualifiedClassName( e.getKey() ), e.getValue().toString() );
+      }
+      return sources;
+    }
+    List< Callable< String > > printers = new ArrayList< Callable< String > >();
+    List< String > names = new ArrayList< String >();
+    for ( Entry< String, CompilationUnit > e : units ) {
+      final CompilationUnit unit = e.getValue();
+      names.add( getQualifiedClassName( e.getKey() ) );
+      printers.add( new Callable< String >() {
+        @Override
+        public String call() {
+          return unit.toString();
+        }
+      } );
+    }
+    ForkJoinPool pool = new ForkJoinPool( Math.min( numThreads, units.size() ) );
+    try {
+      List< Future< String > > printed = pool.invokeAll( printers );
+      for ( int i = 0; i < names.size(); ++i ) {
+        sources.put( names.get( i ), printed.get( i ).get() );
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException( e );
+    } catch ( ExecutionException e ) {
+      throw new RuntimeException( e.getCause() );
+    } finally {
+      pool.shutdown();
+    }
+    return sources;
+  }
+
+  protected String getQualifiedClassName( String className ) {
+    if ( Utils.isNullOrEmpty( getPackageName() ) ) return className;
+    return getPackageName() + "." + className;
+  }
+
+  /**
+   * Compile the generated classes and load them without writing source or
+   * class files. The classes are loaded by their own class loader, which
+   * becomes this translator's loader. If the same XML was compiled to the
+   * same package before in this JVM, its bytecode is reused instead of
+   * compiling again.
+   * 
+   * @return whether the classes were compiled and loaded
+   */
+  public boolean compileAndLoadInMemory() {
+    if ( inMemoryCompiler == null ) {
+      inMemoryCompiler = new InMemoryCompiler( getClass().getClassLoader() );
+    }
+    inMemoryCompiler.setNumTasks( numThreads );
+    String key = InMemoryCompiler.hash( new File( xmlFileName ), getPackageName() );
+    boolean cached = InMemoryCompiler.isCached( key );
+    if ( Debug.isOn() ) Debug.outln( "compileAndLoadInMemory(): " + xmlFileName
+                                     + ( cached ? " is" : " is not" ) + " cached" );
+    ClassLoader memoryLoader =
+        inMemoryCompiler.compileAndLoad( cached ? null : getJavaSources(), key );
+    if ( memoryLoader == null ) return false;
+    setLoader( memoryLoader );
+    mainClass = null;
+    mainInstance = null;
+    boolean succ = true;
+    for ( String clsName : getClassData().getClasses().keySet() ) {
+      String className = getQualifiedClassName( clsName );
+      try {
+        Class< ? > cls = getLoader().loadClass( className );
+        if ( clsName.equals( "Main" ) ) mainClass = cls;
+      } catch ( ClassNotFoundException e ) {
+        System.err.println( "Couldn't load class: " + className );
+        e.printStackTrace();
+        succ = false;
+      }
+    }
+    return succ;
+  }
+
+  public boolean compileLoadAndRunInMemory() {
+    boolean succ = compileAndLoadInMemory();
+    if ( !succ ) return false;
+    return runMain();
+  }
+
   public Class<?> getMainClass() {
     if ( mainClass == null ) {
       try {
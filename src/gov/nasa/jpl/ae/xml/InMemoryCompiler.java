@@ -0,0 +1,515 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.xml;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+/**
+ * InMemoryCompiler compiles generated Java source held in strings and loads
+ * the resulting classes without writing either to disk. Sources are handed to
+ * the system Java compiler as {@link SimpleJavaFileObject}s, a
+ * {@link ForwardingJavaFileManager} captures the bytecode the compiler
+ * writes, and a {@link MemoryClassLoader} defines the classes from that
+ * bytecode on demand. Classes that the generated code refers to outside of
+ * the compiled sources come from the compiler's usual class path and from the
+ * parent class loader.
+ * <p>
+ * Compiled bytecode is cached for the life of the JVM by a content hash of
+ * the model it was generated from, so that compiling the same model again
+ * only loads it; see {@link #hash(File, String)}.
+ */
+public class InMemoryCompiler {
+
+  /**
+   * Compiled bytecode by binary class name, by content hash of the model
+   */
+  protected static final Map< String, Map< String, byte[] > > cache =
+      new ConcurrentHashMap< String, Map< String, byte[] > >();
+
+  protected final JavaCompiler compiler;
+  protected final ClassLoader parent;
+  protected List< String > options = new ArrayList< String >();
+  protected int numTasks = 1;
+
+  /**
+   * The fewest sources worth giving a compiler task of their own, since each
+   * task pays to start up and to read the sources the others compile.
+   */
+  public static int minSourcesPerTask = 32;
+  protected List< Diagnostic< ? extends JavaFileObject > > diagnostics =
+      Collections.emptyList();
+
+  public InMemoryCompiler() {
+    this( InMemoryCompiler.class.getClassLoader() );
+  }
+
+  /**
+   * @param parent
+   *          the loader of the classes the generated code uses
+   */
+  public InMemoryCompiler( ClassLoader parent ) {
+    this.compiler = ToolProvider.getSystemJavaCompiler();
+    this.parent = parent;
+  }
+
+  /**
+   * @return whether there is a compiler, which requires running on a JDK
+   */
+  public boolean isAvailable() {
+    return compiler != null;
+  }
+
+  /**
+   * @return the options passed to the compiler, such as "-classpath"
+   */
+  public List< String > getOptions() {
+    return options;
+  }
+
+  /**
+   * @return the errors and warnings of the last compilation
+   */
+  public List< Diagnostic< ? extends JavaFileObject > > getDiagnostics() {
+    return diagnostics;
+  }
+
+  /**
+   * Source code held in a string
+   */
+  public static class MemorySource extends SimpleJavaFileObject {
+    protected final String className;
+    protected final String code;
+
+    public MemorySource( String className, String code ) {
+      super( URI.create( "string:///" + className.replace( '.', '/' )
+                         + Kind.SOURCE.extension ), Kind.SOURCE );
+      this.className = className;
+      this.code = code;
+    }
+
+    public String getClassName() {
+      return className;
+    }
+
+    public String getPackageName() {
+      int pos = className.lastIndexOf( '.' );
+      return pos < 0 ? "" : className.substring( 0, pos );
+    }
+
+    @Override
+    public CharSequence getCharContent( boolean ignoreEncodingErrors ) {
+      return code;
+    }
+  }
+
+  /**
+   * Bytecode written by the compiler into memory
+   */
+  public static class MemoryClassFile extends SimpleJavaFileObject {
+    protected final String className;
+    protected final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    public MemoryClassFile( String className ) {
+      super( URI.create( "bytes:///" + className.replace( '.', '/' )
+                         + Kind.CLASS.extension ), Kind.CLASS );
+      this.className = className;
+    }
+
+    @Override
+    public OutputStream openOutputStream() {
+      bytes.reset();
+      return bytes;
+    }
+
+    public byte[] getBytes() {
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * A file manager that keeps the class files the compiler writes instead of
+   * writing them to the output directory. It may also offer sources held in
+   * memory on the source path so that a compilation of some of them can
+   * refer to the rest.
+   */
+  public static class MemoryFileManager
+      extends ForwardingJavaFileManager< StandardJavaFileManager > {
+    protected final Map< String, MemoryClassFile > classFiles =
+        new LinkedHashMap< String, MemoryClassFile >();
+    protected final List< MemorySource > sourcePath;
+
+    public MemoryFileManager( StandardJavaFileManager fileManager ) {
+      this( fileManager, null );
+    }
+
+    /**
+     * @param fileManager
+     * @param sourcePath
+     *          the sources to find on the source path, or null for none
+     */
+    public MemoryFileManager( StandardJavaFileManager fileManager,
+                              List< MemorySource > sourcePath ) {
+      super( fileManager );
+      this.sourcePath = sourcePath;
+    }
+
+    @Override
+    public boolean hasLocation( Location location ) {
+      if ( sourcePath != null && location == StandardLocation.SOURCE_PATH ) {
+        return true;
+      }
+      return super.hasLocation( location );
+    }
+
+    @Override
+    public Iterable< JavaFileObject > list( Location location,
+                                            String packageName,
+                                            Set< JavaFileObject.Kind > kinds,
+                                            boolean recurse ) throws IOException {
+      if ( sourcePath == null || location != StandardLocation.SOURCE_PATH ) {
+        return super.list( location, packageName, kinds, recurse );
+      }
+      List< JavaFileObject > files = new ArrayList< JavaFileObject >();
+      if ( kinds.contains( JavaFileObject.Kind.SOURCE ) ) {
+        for ( MemorySource s : sourcePath ) {
+          String p = s.getPackageName();
+          if ( p.equals( packageName )
+               || ( recurse && p.startsWith( packageName + "." ) ) ) {
+            files.add( s );
+          }
+        }
+      }
+      return files;
+    }
+
+    @Override
+    public String inferBinaryName( Location location, JavaFileObject file ) {
+      if ( file instanceof MemorySource ) {
+        return ( (MemorySource)file ).getClassName();
+      }
+      return super.inferBinaryName( location, file );
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput( Location location,
+                                                String className,
+                                                JavaFileObject.Kind kind,
+                                                FileObject sibling )
+                                                    throws IOException {
+      if ( kind != JavaFileObject.Kind.CLASS ) {
+        return super.getJavaFileForOutput( location, className, kind, sibling );
+      }
+      MemoryClassFile f = new MemoryClassFile( className );
+      classFiles.put( className, f );
+      return f;
+    }
+
+    /**
+     * @return the bytecode of the compiled classes by binary name
+     */
+    public Map< String, byte[] > getClassBytes() {
+      Map< String, byte[] > map = new LinkedHashMap< String, byte[] >();
+      for ( Map.Entry< String, MemoryClassFile > e : classFiles.entrySet() ) {
+        map.put( e.getKey(), e.getValue().getBytes() );
+      }
+      return map;
+    }
+  }
+
+  /**
+   * A class loader that defines classes from bytecode in memory before
+   * looking to its parent.
+   */
+  public static class MemoryClassLoader extends ClassLoader {
+    protected final Map< String, byte[] > classBytes;
+
+    public MemoryClassLoader( Map< String, byte[] > classBytes,
+                              ClassLoader parent ) {
+      super( parent );
+      this.classBytes = classBytes;
+    }
+
+    public Map< String, byte[] > getClassBytes() {
+      return classBytes;
+    }
+
+    @Override
+    protected Class< ? > loadClass( String name, boolean resolve )
+                                                 throws ClassNotFoundException {
+      // Generated classes may have the same names as stale ones on the class
+      // path, so look here first.
+      synchronized ( getClassLoadingLock( name ) ) {
+        Class< ? > c = findLoadedClass( name );
+        if ( c == null ) {
+          byte[] b = classBytes.get( name );
+          if ( b != null ) {
+            c = defineClass( name, b, 0, b.length );
+          } else {
+            return super.loadClass( name, resolve );
+          }
+        }
+        if ( resolve ) resolveClass( c );
+        return c;
+      }
+    }
+
+    @Override
+    protected Class< ? > findClass( String name ) throws ClassNotFoundException {
+      byte[] b = classBytes.get( name );
+      if ( b == null ) throw new ClassNotFoundException( name );
+      return defineClass( name, b, 0, b.length );
+    }
+  }
+
+  /**
+   * @return the most compiler tasks to split a compilation among
+   */
+  public int getNumTasks() {
+    return numTasks;
+  }
+
+  public void setNumTasks( int numTasks ) {
+    this.numTasks = Math.max( 1, numTasks );
+  }
+
+  /**
+   * Compile sources, splitting them among up to {@link #getNumTasks()}
+   * compiler tasks run at once with no fewer than
+   * {@link #minSourcesPerTask} sources each.
+   * <p>
+   * Each task generates class files for only its share of the sources and
+   * finds the rest on the source path, where the compiler reads just the
+   * ones that its share refers to. A task only checks what it must to
+   * compile its share, so the parsing and checking of widely used classes is
+   * repeated across tasks while class generation is split among them.
+   *
+   * @param sources
+   *          source code by fully qualified class name
+   * @return the bytecode of every class compiled, including nested and
+   *         anonymous classes, by binary name, or null if compilation failed;
+   *         see {@link #getDiagnostics()}
+   */
+  public Map< String, byte[] > compile( Map< String, String > sources ) {
+    if ( compiler == null ) {
+      System.err.println( "No Java compiler to compile Java classes; a JDK is required." );
+      return null;
+    }
+    final List< MemorySource > units = new ArrayList< MemorySource >();
+    for ( Map.Entry< String, String > e : sources.entrySet() ) {
+      units.add( new MemorySource( e.getKey(), e.getValue() ) );
+    }
+    int n = Math.min( numTasks, units.size() / Math.max( 1, minSourcesPerTask ) );
+    if ( n <= 1 ) {
+      List< Diagnostic< ? extends JavaFileObject > > d =
+          new ArrayList< Diagnostic< ? extends JavaFileObject > >();
+      Map< String, byte[] > classBytes = compile( units, null, options, d );
+      diagnostics = d;
+      return classBytes;
+    }
+
+    // Deal the sources out largest first to the task with the least source
+    // so far.
+    List< MemorySource > bySize = new ArrayList< MemorySource >( units );
+    Collections.sort( bySize, new Comparator< MemorySource >() {
+      @Override
+      public int compare( MemorySource a, MemorySource b ) {
+        return b.code.length() < a.code.length() ? -1
+               : ( b.code.length() == a.code.length() ? 0 : 1 );
+      }
+    } );
+    final List< List< MemorySource > > partitions = new ArrayList< List< MemorySource > >();
+    long[] sizes = new long[ n ];
+    for ( int i = 0; i < n; ++i ) {
+      partitions.add( new ArrayList< MemorySource >() );
+    }
+    for ( MemorySource s : bySize ) {
+      int least = 0;
+      for ( int i = 1; i < n; ++i ) {
+        if ( sizes[ i ] < sizes[ least ] ) least = i;
+      }
+      partitions.get( least ).add( s );
+      sizes[ least ] += s.code.length();
+    }
+
+    final List< String > taskOptions = new ArrayList< String >( options );
+    taskOptions.add( "-implicit:none" );
+    ExecutorService pool = Executors.newFixedThreadPool( n );
+    try {
+      List< Future< Map< String, byte[] > > > futures =
+          new ArrayList< Future< Map< String, byte[] > > >();
+      final List< Diagnostic< ? extends JavaFileObject > > allDiagnostics =
+          Collections.synchronizedList( new ArrayList< Diagnostic< ? extends JavaFileObject > >() );
+      for ( final List< MemorySource > partition : partitions ) {
+        futures.add( pool.submit( new Callable< Map< String, byte[] > >() {
+          @Override
+          public Map< String, byte[] > call() {
+            return compile( partition, units, taskOptions, allDiagnostics );
+          }
+        } ) );
+      }
+      Map< String, byte[] > classBytes = new LinkedHashMap< String, byte[] >();
+      boolean succ = true;
+      for ( Future< Map< String, byte[] > > f : futures ) {
+        Map< String, byte[] > b;
+        try {
+          b = f.get();
+        } catch ( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          return null;
+        } catch ( ExecutionException e ) {
+          throw new RuntimeException( e.getCause() );
+        }
+        if ( b == null ) {
+          succ = false;
+        } else {
+          classBytes.putAll( b );
+        }
+      }
+      diagnostics = new ArrayList< Diagnostic< ? extends JavaFileObject > >( allDiagnostics );
+      return succ ? classBytes : null;
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Compile some sources in one compiler task.
+   *
+   * @param units
+   *          the sources to compile
+   * @param sourcePath
+   *          the sources that {@code units} may refer to, or null
+   * @param taskOptions
+   * @param taskDiagnostics
+   *          where to add the task's errors and warnings
+   * @return the bytecode of the classes of {@code units}, or null if
+   *         compilation failed
+   */
+  protected Map< String, byte[] >
+      compile( List< MemorySource > units, List< MemorySource > sourcePath,
+               List< String > taskOptions,
+               List< Diagnostic< ? extends JavaFileObject > > taskDiagnostics ) {
+    DiagnosticCollector< JavaFileObject > collector =
+        new DiagnosticCollector< JavaFileObject >();
+    MemoryFileManager fileManager =
+        new MemoryFileManager( compiler.getStandardFileManager( collector, null, null ),
+                               sourcePath );
+    try {
+      boolean succ = compiler.getTask( null, fileManager, collector, taskOptions,
+                                       null, units ).call();
+      taskDiagnostics.addAll( collector.getDiagnostics() );
+      if ( !succ ) {
+        for ( Diagnostic< ? extends JavaFileObject > d : collector.getDiagnostics() ) {
+          if ( d.getKind() == Diagnostic.Kind.ERROR ) {
+            System.err.println( d.toString() );
+          }
+        }
+        return null;
+      }
+      return fileManager.getClassBytes();
+    } finally {
+      try {
+        fileManager.close();
+      } catch ( IOException e ) {
+      }
+    }
+  }
+
+  /**
+   * Compile sources, or get their bytecode from the cache if {@code key} is
+   * there, and make a loader for the classes.
+   *
+   * @param sources
+   *          source code by fully qualified class name
+   * @param key
+   *          the content hash of what the sources were generated from, or
+   *          null to always compile
+   * @return a loader for the compiled classes, or null if compilation failed
+   */
+  public MemoryClassLoader compileAndLoad( Map< String, String > sources,
+                                           String key ) {
+    Map< String, byte[] > classBytes = key == null ? null : cache.get( key );
+    if ( classBytes == null ) {
+      classBytes = compile( sources );
+      if ( classBytes == null ) return null;
+      if ( key != null ) cache.put( key, classBytes );
+    }
+    return new MemoryClassLoader( classBytes, parent );
+  }
+
+  /**
+   * @param key
+   * @return whether the bytecode for the content hash is cached
+   */
+  public static boolean isCached( String key ) {
+    return key != null && cache.containsKey( key );
+  }
+
+  public static void clearCache() {
+    cache.clear();
+  }
+
+  /**
+   * @param xmlFile
+   *          the model
+   * @param packageName
+   *          the package of the generated classes
+   * @return a SHA-256 hash of the model's contents and the package, or null
+   *         if the file cannot be read
+   */
+  public static String hash( File xmlFile, String packageName ) {
+    try {
+      MessageDigest md = MessageDigest.getInstance( "SHA-256" );
+      md.update( Files.readAllBytes( xmlFile.toPath() ) );
+      md.update( (byte)0 );
+      md.update( String.valueOf( packageName ).getBytes( "UTF-8" ) );
+      return toHex( md.digest() );
+    } catch ( IOException e ) {
+      return null;
+    } catch ( NoSuchAlgorithmException e ) {
+      return null;
+    }
+  }
+
+  protected static String toHex( byte[] bytes ) {
+    StringBuilder sb = new StringBuilder( bytes.length * 2 );
+    for ( byte b : bytes ) {
+      sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+      sb.append( Character.forDigit( b & 0xf, 16 ) );
+    }
+    return sb.toString();
+  }
+
+}
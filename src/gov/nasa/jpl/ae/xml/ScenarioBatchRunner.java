@@ -0,0 +1,508 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.xml;
+
+import gov.nasa.jpl.ae.event.DurativeEvent;
+import gov.nasa.jpl.ae.event.EvaluationContext;
+import gov.nasa.jpl.ae.event.Parameter;
+import gov.nasa.jpl.ae.solver.Constraint;
+import gov.nasa.jpl.ae.solver.ConstraintLoopSolver;
+import gov.nasa.jpl.mbee.util.Debug;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ScenarioBatchRunner runs many variants of one model in a single JVM. The
+ * model is translated, compiled, and loaded once by {@link EventXmlToJava},
+ * and then its generated {@code Main} class is instantiated for each
+ * {@link Scenario}, the scenario's parameter overrides are applied, and the
+ * constraints are solved. Scenarios run concurrently on a fixed pool of
+ * threads, each in its own {@link EvaluationContext}, so that later scenarios
+ * run on warmed-up, already loaded code.
+ * <p>
+ * Scenarios are usually read from a CSV file with a header row. The column
+ * named "name", if any, names each scenario, and every other column names a
+ * parameter of the {@code Main} event whose value is overridden by the
+ * column's text, for example:
+ *
+ * <pre>
+ * name,customers,maxLoad
+ * small,10,2.5
+ * large,1000,250.0
+ * </pre>
+ *
+ * An empty cell leaves the parameter as the model sets it.
+ */
+public class ScenarioBatchRunner {
+
+  /**
+   * A variant of the model: a name and the text of the values of parameters
+   * to override by name.
+   */
+  public static class Scenario {
+    public final String name;
+    public final Map< String, String > overrides;
+
+    public Scenario( String name, Map< String, String > overrides ) {
+      this.name = name;
+      this.overrides = overrides;
+    }
+
+    @Override
+    public String toString() {
+      return name + overrides;
+    }
+  }
+
+  /**
+   * The outcome of running a {@link Scenario}.
+   */
+  public static class Result {
+    public final Scenario scenario;
+    /**
+     * Whether all of the constraints were satisfied
+     */
+    public boolean satisfied = false;
+    public int numConstraints = 0;
+    public int numUnsatisfied = 0;
+    /**
+     * The wall-clock time to create the event, apply the overrides, and solve
+     */
+    public long millis = 0;
+    /**
+     * The overrides that did not name a parameter of the event
+     */
+    public List< String > unknownParameters = new ArrayList< String >();
+    /**
+     * What kept the scenario from running, or null
+     */
+    public Throwable error = null;
+    /**
+     * The solved event, if the runner keeps them
+     */
+    public DurativeEvent event = null;
+
+    public Result( Scenario scenario ) {
+      this.scenario = scenario;
+    }
+
+    public boolean succeeded() {
+      return error == null && satisfied;
+    }
+
+    @Override
+    public String toString() {
+      return scenario.name + ": "
+             + ( error != null ? "error " + error
+                               : ( satisfied ? "satisfied" : numUnsatisfied + " of "
+                                              + numConstraints + " unsatisfied" ) )
+             + " in " + millis + "ms";
+    }
+  }
+
+  /**
+   * Statistics over the results of a batch.
+   */
+  public static class Summary {
+    public int numScenarios = 0;
+    public int numSatisfied = 0;
+    public int numUnsatisfied = 0;
+    public int numErrors = 0;
+    public long minMillis = 0;
+    public long maxMillis = 0;
+    public double meanMillis = 0.0;
+    public long totalMillis = 0;
+    /**
+     * The wall-clock time of the whole batch
+     */
+    public long elapsedMillis = 0;
+
+    public Summary( Collection< Result > results, long elapsedMillis ) {
+      this.elapsedMillis = elapsedMillis;
+      minMillis = Long.MAX_VALUE;
+      for ( Result r : results ) {
+        ++numScenarios;
+        if ( r.error != null ) {
+          ++numErrors;
+        } else if ( r.satisfied ) {
+          ++numSatisfied;
+        } else {
+          ++numUnsatisfied;
+        }
+        totalMillis += r.millis;
+        minMillis = Math.min( minMillis, r.millis );
+        maxMillis = Math.max( maxMillis, r.millis );
+      }
+      if ( numScenarios == 0 ) {
+        minMillis = 0;
+      } else {
+        meanMillis = ( (double)totalMillis ) / numScenarios;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return numScenarios + " scenarios in " + elapsedMillis + "ms: "
+             + numSatisfied + " satisfied, " + numUnsatisfied
+             + " unsatisfied, " + numErrors + " errors; time per scenario min "
+             + minMillis + "ms, mean " + String.format( "%.1f", meanMillis )
+             + "ms, max " + maxMillis + "ms";
+    }
+  }
+
+  protected final Class< ? extends DurativeEvent > mainClass;
+
+  // The Timepoint settings of the model, copied into each scenario's context
+  protected final EvaluationContext modelContext;
+
+  protected int numThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Whether to keep each solved event in its {@link Result}, which holds on
+   * to every scenario's model in memory.
+   */
+  public boolean keepingEvents = false;
+
+  /**
+   * If not null, the directory in which to write a simulation trace of each
+   * scenario, named for the scenario; see
+   * {@link DurativeEvent#writeSimulationTrace(File)}.
+   */
+  public File traceDirectory = null;
+
+  /**
+   * @param translator
+   *          a translator that has compiled and loaded the model; see
+   *          {@link EventXmlToJava#compileAndLoadInMemory()}
+   */
+  public ScenarioBatchRunner( EventXmlToJava translator ) {
+    this( translator.getMainClass().asSubclass( DurativeEvent.class ) );
+  }
+
+  /**
+   * @param mainClass
+   *          the event to instantiate for each scenario, which must have a
+   *          public constructor without arguments. The model's epoch, units,
+   *          and horizon are taken from the current EvaluationContext.
+   */
+  public ScenarioBatchRunner( Class< ? extends DurativeEvent > mainClass ) {
+    this.mainClass = mainClass;
+    this.modelContext = new EvaluationContext();
+  }
+
+  public int getNumThreads() {
+    return numThreads;
+  }
+
+  public void setNumThreads( int numThreads ) {
+    this.numThreads = Math.max( 1, numThreads );
+  }
+
+  /**
+   * Read scenarios from a CSV file as described for {@link ScenarioBatchRunner}.
+   * Scenarios without a name column are named by their row number.
+   *
+   * @param file
+   * @return the scenarios in the order of the file
+   * @throws IOException
+   */
+  public static List< Scenario > readScenarios( File file ) throws IOException {
+    List< Scenario > scenarios = new ArrayList< Scenario >();
+    BufferedReader reader = new BufferedReader( new FileReader( file ) );
+    try {
+      String line = reader.readLine();
+      if ( line == null ) return scenarios;
+      String[] header = splitCsvLine( line );
+      int nameColumn = -1;
+      for ( int i = 0; i < header.length; ++i ) {
+        if ( header[ i ].equalsIgnoreCase( "name" ) ) {
+          nameColumn = i;
+          break;
+        }
+      }
+      int row = 0;
+      while ( ( line = reader.readLine() ) != null ) {
+        if ( line.trim().isEmpty() || line.startsWith( "#" ) ) continue;
+        ++row;
+        String[] cells = splitCsvLine( line );
+        Map< String, String > overrides = new LinkedHashMap< String, String >();
+        for ( int i = 0; i < header.length && i < cells.length; ++i ) {
+          if ( i == nameColumn || cells[ i ].isEmpty() ) continue;
+          overrides.put( header[ i ], cells[ i ] );
+        }
+        String name = nameColumn >= 0 && nameColumn < cells.length
+                      && !cells[ nameColumn ].isEmpty() ? cells[ nameColumn ]
+                                                        : "scenario" + row;
+        scenarios.add( new Scenario( name, overrides ) );
+      }
+    } finally {
+      reader.close();
+    }
+    return scenarios;
+  }
+
+  /**
+   * Split a line of a CSV file into trimmed cells, allowing commas inside
+   * double quotes and "" for a quote.
+   */
+  protected static String[] splitCsvLine( String line ) {
+    List< String > cells = new ArrayList< String >();
+    StringBuilder cell = new StringBuilder();
+    boolean quoted = false;
+    for ( int i = 0; i < line.length(); ++i ) {
+      char c = line.charAt( i );
+      if ( quoted ) {
+        if ( c == '"' ) {
+          if ( i + 1 < line.length() && line.charAt( i + 1 ) == '"' ) {
+            cell.append( '"' );
+            ++i;
+          } else {
+            quoted = false;
+          }
+        } else {
+          cell.append( c );
+        }
+      } else if ( c == '"' ) {
+        quoted = true;
+      } else if ( c == ',' ) {
+        cells.add( cell.toString().trim() );
+        cell.setLength( 0 );
+      } else {
+        cell.append( c );
+      }
+    }
+    cells.add( cell.toString().trim() );
+    return cells.toArray( new String[ cells.size() ] );
+  }
+
+  /**
+   * Run the scenarios on a pool of {@link #getNumThreads()} threads.
+   *
+   * @param scenarios
+   * @return the results in the order of the scenarios
+   */
+  public List< Result > run( List< Scenario > scenarios ) {
+    final AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService pool =
+        Executors.newFixedThreadPool( Math.min( numThreads,
+                                                Math.max( 1, scenarios.size() ) ),
+                                      new ThreadFactory() {
+          @Override
+          public Thread newThread( Runnable r ) {
+            Thread t = new Thread( r, "ScenarioBatchRunner-"
+                                      + threadCount.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+          }
+        } );
+    List< Future< Result > > futures = new ArrayList< Future< Result > >();
+    try {
+      for ( final Scenario scenario : scenarios ) {
+        futures.add( pool.submit( new Callable< Result >() {
+          @Override
+          public Result call() {
+            return run( scenario );
+          }
+        } ) );
+      }
+      List< Result > results = new ArrayList< Result >( scenarios.size() );
+      boolean interrupted = false;
+      for ( int i = 0; i < futures.size(); ++i ) {
+        Result result = null;
+        while ( result == null ) {
+          try {
+            result = futures.get( i ).get();
+          } catch ( InterruptedException e ) {
+            interrupted = true;
+          } catch ( ExecutionException e ) {
+            // run( Scenario ) catches what a scenario throws, so this is an
+            // Error.
+            result = new Result( scenarios.get( i ) );
+            result.error = e.getCause();
+          }
+        }
+        results.add( result );
+      }
+      if ( interrupted ) Thread.currentThread().interrupt();
+      return results;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Run one scenario on this thread in a fresh EvaluationContext.
+   *
+   * @param scenario
+   * @return the result, which holds any exception that kept the scenario from
+   *         running
+   */
+  public Result run( Scenario scenario ) {
+    Result result = new Result( scenario );
+    EvaluationContext previous =
+        EvaluationContext.enter( new EvaluationContext( modelContext ) );
+    long start = System.nanoTime();
+    try {
+      DurativeEvent event = mainClass.newInstance();
+      applyOverrides( event, scenario, result );
+      result.satisfied = event.satisfy( true, null );
+      Collection< Constraint > constraints = event.getConstraints( true, null );
+      result.numConstraints = constraints.size();
+      if ( !result.satisfied ) {
+        result.numUnsatisfied =
+            ConstraintLoopSolver.getUnsatisfiedConstraints( constraints ).size();
+      }
+      result.millis = ( System.nanoTime() - start ) / 1000000L;
+      if ( traceDirectory != null ) {
+        File traceFile = new File( traceDirectory,
+                                   scenario.name.replaceAll( "[^\\w.-]", "_" )
+                                   + ".trace" );
+        if ( !event.writeSimulationTrace( traceFile ) ) {
+          throw new IOException( "Could not write simulation trace " + traceFile );
+        }
+      }
+      if ( keepingEvents ) result.event = event;
+    } catch ( Exception e ) {
+      result.millis = ( System.nanoTime() - start ) / 1000000L;
+      result.error = e;
+      if ( Debug.isOn() ) e.printStackTrace();
+    } finally {
+      EvaluationContext.exit( previous );
+    }
+    return result;
+  }
+
+  /**
+   * Set the parameters of the event named by the scenario's overrides. A name
+   * is first looked for among the event's own parameters and then among
+   * those of its nested events and objects.
+   */
+  protected void applyOverrides( DurativeEvent event, Scenario scenario,
+                                 Result result ) {
+    if ( scenario.overrides.isEmpty() ) return;
+    Map< String, Parameter< ? > > params = parametersByName( event, false );
+    Map< String, Parameter< ? > > deepParams = null;
+    for ( Map.Entry< String, String > e : scenario.overrides.entrySet() ) {
+      Parameter< ? > p = params.get( e.getKey() );
+      if ( p == null ) {
+        if ( deepParams == null ) deepParams = parametersByName( event, true );
+        p = deepParams.get( e.getKey() );
+      }
+      if ( p == null ) {
+        result.unknownParameters.add( e.getKey() );
+        continue;
+      }
+      setValue( p, e.getValue() );
+    }
+    if ( !result.unknownParameters.isEmpty() ) {
+      Debug.error( true, false, "ScenarioBatchRunner: scenario " + scenario.name
+                                + " has no parameters named "
+                                + result.unknownParameters );
+    }
+  }
+
+  protected static Map< String, Parameter< ? > >
+      parametersByName( DurativeEvent event, boolean deep ) {
+    Map< String, Parameter< ? > > map = new LinkedHashMap< String, Parameter< ? > >();
+    for ( Parameter< ? > p : event.getParameters( deep, null ) ) {
+      if ( p.getName() != null && !map.containsKey( p.getName() ) ) {
+        map.put( p.getName(), p );
+      }
+    }
+    return map;
+  }
+
+  @SuppressWarnings( "unchecked" )
+  protected static < T > void setValue( Parameter< T > p, String text ) {
+    p.setValue( (T)parseValue( text, p.getType() ) );
+  }
+
+  /**
+   * @param text
+   * @param type
+   *          the type of the parameter, or null if unknown
+   * @return the text as a number or boolean if the type calls for one, or else
+   *         the text
+   */
+  protected static Object parseValue( String text, Class< ? > type ) {
+    if ( type == null || type == String.class ) return text;
+    if ( type == Integer.class || type == int.class ) {
+      return Integer.valueOf( text );
+    }
+    if ( type == Long.class || type == long.class ) {
+      return Long.valueOf( text );
+    }
+    if ( type == Double.class || type == double.class ) {
+      return Double.valueOf( text );
+    }
+    if ( type == Float.class || type == float.class ) {
+      return Float.valueOf( text );
+    }
+    if ( type == Boolean.class || type == boolean.class ) {
+      return Boolean.valueOf( text );
+    }
+    return text;
+  }
+
+  public static Summary summarize( Collection< Result > results,
+                                   long elapsedMillis ) {
+    return new Summary( results, elapsedMillis );
+  }
+
+  /**
+   * Translate, compile, and load a model once, or load it from the
+   * {@link CompiledModelCache}, and run a CSV file of its scenarios.
+   *
+   * @param args
+   *          the XML file of the model, the package for the generated Java,
+   *          the CSV file of scenarios, and optionally the number of threads
+   *          and a directory for simulation traces
+   */
+  public static void main( String[] args ) {
+    if ( args.length < 3 ) {
+      System.err.println( "usage: ScenarioBatchRunner <model.xml> <package> "
+                          + "<scenarios.csv> [numThreads [traceDirectory]]" );
+      System.exit( 1 );
+    }
+    try {
+      CompiledModelCache.CompiledModel model =
+          new CompiledModelCache().getOrCompile( args[ 0 ], args[ 1 ] );
+      System.out.println( ( model.wasCached ? "Loaded cached model " : "Compiled model " )
+                          + args[ 0 ] );
+      ScenarioBatchRunner runner = new ScenarioBatchRunner( model.getMainClass() );
+      if ( args.length > 3 ) runner.setNumThreads( Integer.parseInt( args[ 3 ] ) );
+      if ( args.length > 4 ) {
+        runner.traceDirectory = new File( args[ 4 ] );
+        runner.traceDirectory.mkdirs();
+      }
+      List< Scenario > scenarios = readScenarios( new File( args[ 2 ] ) );
+      long start = System.nanoTime();
+      List< Result > results = runner.run( scenarios );
+      long elapsed = ( System.nanoTime() - start ) / 1000000L;
+      for ( Result r : results ) {
+        System.out.println( r );
+      }
+      System.out.println( summarize( results, elapsed ) );
+    } catch ( Exception e ) {
+      e.printStackTrace();
+      System.exit( 1 );
+    }
+  }
+
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ */
+package gov.nasa.jpl.ae.xml;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * StaxScenarioLoader reads a scenario XML file with a StAX stream reader and
+ * builds a compact DOM {@link Document} that {@link EventXmlToJava} and
+ * {@link XmlUtils} can translate just as they do one from a
+ * {@link javax.xml.parsers.DocumentBuilder}.
+ * <p>
+ * This does not bound memory: the translator looks up classes, parameters,
+ * and constructors anywhere in the scenario, so the whole tree is built, and
+ * its size grows with the scenario. The tree is just smaller than the one
+ * the DOM parser builds:
+ * <ul>
+ * <li>Comments and the whitespace between elements are dropped. Neither is
+ * part of the text content of an element, and the translator only reads
+ * elements and text content.
+ * <li>CDATA sections are merged into the text around them, which gives the
+ * same text content.
+ * <li>Element names and short text values, which repeat heavily in scenarios
+ * generated from meter data, are shared.
+ * </ul>
+ * The file is read a piece at a time instead of all at once.
+ * <p>
+ * As with the DocumentBuilder, a DOCTYPE and the entities declared in its
+ * internal subset are allowed. Unlike it, external entities and the external
+ * DTD subset are never fetched; references to external entities are
+ * dropped.
+ */
+public class StaxScenarioLoader {
+
+  /**
+   * Text values up to this long are shared among elements.
+   */
+  public static int maxSharedTextLength = 64;
+
+  protected final Map< String, String > pool = new HashMap< String, String >();
+
+  protected Document doc = null;
+
+  // The elements being read and whether each has child elements
+  protected final List< Element > stack = new ArrayList< Element >();
+  protected final List< Boolean > hasChildElements = new ArrayList< Boolean >();
+  protected final StringBuilder text = new StringBuilder();
+
+  public StaxScenarioLoader() {
+  }
+
+  /**
+   * @param xmlFileName
+   * @return the document read from the file
+   * @throws IOException
+   */
+  public Document load( String xmlFileName ) throws IOException {
+    InputStream in = new BufferedInputStream( new FileInputStream( xmlFileName ),
+                                              1 << 16 );
+    try {
+      return load( in, xmlFileName );
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param in
+   * @param systemId
+   *          the name of the input for resolving relative references and for
+   *          error messages
+   * @return the document read from the stream
+   * @throws IOException
+   */
+  public Document load( InputStream in, String systemId ) throws IOException {
+    try {
+      DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+      factory.setNamespaceAware( true );
+      doc = factory.newDocumentBuilder().newDocument();
+    } catch ( ParserConfigurationException e ) {
+      throw new IOException( e );
+    }
+    doc.setStrictErrorChecking( false );
+    doc.setDocumentURI( systemId );
+    stack.clear();
+    hasChildElements.clear();
+    text.setLength( 0 );
+
+    XMLInputFactory xif = XMLInputFactory.newInstance();
+    xif.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+    xif.setProperty( XMLInputFactory.IS_COALESCING, Boolean.TRUE );
+    xif.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.TRUE );
+    xif.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+    xif.setXMLResolver( noExternalResources );
+    XMLStreamReader r = null;
+    try {
+      r = xif.createXMLStreamReader( systemId, in );
+      while ( r.hasNext() ) {
+        switch ( r.next() ) {
+          case XMLStreamConstants.START_ELEMENT:
+            startElement( r );
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            endElement();
+            break;
+          case XMLStreamConstants.CHARACTERS:
+          case XMLStreamConstants.CDATA:
+          case XMLStreamConstants.SPACE:
+            if ( !stack.isEmpty() ) {
+              text.append( r.getTextCharacters(), r.getTextStart(),
+                           r.getTextLength() );
+            }
+            break;
+          default:
+            // Comments, processing instructions, the DTD, and references to
+            // external entities are not translated.
+            break;
+        }
+      }
+    } catch ( XMLStreamException e ) {
+      throw new IOException( "Could not read " + systemId + ": " + e.getMessage(), e );
+    } finally {
+      if ( r != null ) {
+        try {
+          r.close();
+        } catch ( XMLStreamException e ) {
+        }
+      }
+    }
+    Document result = doc;
+    doc = null;
+    pool.clear();
+    return result;
+  }
+
+  /**
+   * Resolves every external DTD subset and entity to nothing so that none is
+   * fetched.
+   */
+  protected static final XMLResolver noExternalResources = new XMLResolver() {
+    @Override
+    public Object resolveEntity( String publicID, String systemID, String baseURI,
+                                 String namespace ) {
+      return new ByteArrayInputStream( new byte[ 0 ] );
+    }
+  };
+
+  protected void startElement( XMLStreamReader r ) {
+    Node parent = doc;
+    if ( !stack.isEmpty() ) {
+      int top = stack.size() - 1;
+      parent = stack.get( top );
+      // Text before a child element is only kept if it is more than the
+      // indentation.
+      flushText( parent, false );
+      hasChildElements.set( top, Boolean.TRUE );
+    }
+    String prefix = r.getPrefix();
+    String localName = share( r.getLocalName() );
+    String qName = prefix == null || prefix.isEmpty() ? localName
+                                                      : share( prefix + ":" + localName );
+    String ns = r.getNamespaceURI();
+    Element e = doc.createElementNS( ns == null || ns.isEmpty() ? null : ns, qName );
+    for ( int i = 0; i < r.getNamespaceCount(); ++i ) {
+      String p = r.getNamespacePrefix( i );
+      e.setAttributeNS( "http://www.w3.org/2000/xmlns/",
+                        p == null || p.isEmpty() ? "xmlns" : "xmlns:" + p,
+                        r.getNamespaceURI( i ) );
+    }
+    for ( int i = 0; i < r.getAttributeCount(); ++i ) {
+      String p = r.getAttributePrefix( i );
+      String name = r.getAttributeLocalName( i );
+      String ans = r.getAttributeNamespace( i );
+      e.setAttributeNS( ans == null || ans.isEmpty() ? null : ans,
+                        p == null || p.isEmpty() ? name : p + ":" + name,
+                        r.getAttributeValue( i ) );
+    }
+    parent.appendChild( e );
+    stack.add( e );
+    hasChildElements.add( Boolean.FALSE );
+  }
+
+  protected void endElement() {
+    int top = stack.size() - 1;
+    Element e = stack.remove( top );
+    boolean leaf = !hasChildElements.remove( top );
+    // A leaf keeps all of its text, even if it is only whitespace.
+    flushText( e, leaf );
+  }
+
+  protected void flushText( Node parent, boolean keepWhitespace ) {
+    if ( text.length() == 0 ) return;
+    if ( keepWhitespace || !isWhitespace( text ) ) {
+      parent.appendChild( doc.createTextNode( share( text.toString() ) ) );
+    }
+    text.setLength( 0 );
+  }
+
+  protected static boolean isWhitespace( CharSequence s ) {
+    for ( int i = 0; i < s.length(); ++i ) {
+      if ( !Character.isWhitespace( s.charAt( i ) ) ) return false;
+    }
+    return true;
+  }
+
+  protected String share( String s ) {
+    if ( s.length() > maxSharedTextLength ) return s;
+    String shared = pool.get( s );
+    if ( shared == null ) {
+      pool.put( s, s );
+      shared = s;
+    }
+    return shared;
+  }
+
+}
@@ -203,8 +203,33 @@ public class XmlUtils {
       }
     }
     
+    xsdFilePathName = findXsdFilePath( aeXmlFilePathName, xsdFileName );
+    // Complain if not found
+    if ( xsdFilePathName == null ) {
+      System.err.println( EventXmlToJava.class.getSimpleName()
+                          + ".validateXML() could not find xsd file \""
+                          + xsdFileName  + "\"" );
+      return false;
+    }
+    return validateXML( aeXmlFilePathName, xsdFilePathName );
+  }
+
+  /**
+   * Find a schema file referenced by an AE XML file, looking where the XML
+   * file is and then in the usual places for XML files.
+   * 
+   * @param aeXmlFilePathName
+   *          the path of the XML file
+   * @param xsdFileName
+   *          the schema file named in the XML file
+   * @return the path to the schema file or to the default schema file, or null
+   *         if neither can be found
+   */
+  public static String findXsdFilePath( String aeXmlFilePathName,
+                                        String xsdFileName ) {
+    if ( xsdFileName == null ) xsdFileName = defaultXsdFilePath;
     // Find the path to the XSD file.
-    xsdFilePathName = FileUtils.existingPath( xsdFileName );
+    String xsdFilePathName = FileUtils.existingPath( xsdFileName );
     // Check in the same directory as the XML file if not easily found.
     if ( xsdFilePathName == null ) {
       // Change path for the XSD file to the same as that for the XML file if no
@@ -225,14 +250,10 @@ public class XmlUtils {
     if ( xsdFilePathName == null || !FileUtils.exists( xsdFilePathName ) ) {
       xsdFilePathName = FileUtils.existingPath( defaultXsdFilePath );
     }
-    // Complain if still not found
     if ( xsdFilePathName == null || !FileUtils.exists( xsdFilePathName ) ) {
-      System.err.println( EventXmlToJava.class.getSimpleName()
-                          + ".validateXML() could not find xsd file \""
-                          + xsdFileName  + "\"" );
-      return false;
+      return null;
     }
-    return validateXML( aeXmlFilePathName, xsdFilePathName );
+    return xsdFilePathName;
   }
 
   public static boolean validateXML( String xmlFileName, String xsdFileName )